@@ -0,0 +1,138 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package test.pkcs11.wrapper.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.xipki.pkcs11.wrapper.AttributeVector;
+import org.xipki.pkcs11.wrapper.Mechanism;
+import org.xipki.pkcs11.wrapper.PKCS11Module;
+import org.xipki.pkcs11.wrapper.Session;
+import org.xipki.pkcs11.wrapper.SessionInfo;
+import org.xipki.pkcs11.wrapper.Slot;
+import org.xipki.pkcs11.wrapper.TokenException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.xipki.pkcs11.wrapper.PKCS11Constants.*;
+
+/**
+ * Compares the call overhead of the JNI based {@code PKCS11Implementation} ("native") with the
+ * java.lang.foreign based {@code ForeignPKCS11} ("foreign"), using the module configured in
+ * /pkcs11.properties. The operations are cheap for the device, so that the marshalling and the
+ * transition to native code dominate. The "foreign" backend requires Java 22 and the multi-release
+ * jar, see README.md.
+ *
+ * @author Lijun Liao (xipki)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-native-access=ALL-UNNAMED")
+public class BackendBenchmark {
+
+  private static final String FOREIGN_CLASS = "iaik.pkcs.pkcs11.wrapper.ForeignPKCS11";
+
+  @Param({"native", "foreign"})
+  private String backend;
+
+  private PKCS11Module module;
+
+  private Session session;
+
+  private long hmacKey;
+
+  private final Mechanism sha256 = new Mechanism(CKM_SHA256);
+
+  private final Mechanism hmacSha256 = new Mechanism(CKM_SHA256_HMAC);
+
+  private final byte[] data = new byte[1024];
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException, TokenException {
+    Properties props = new Properties();
+    try (InputStream in = BackendBenchmark.class.getResourceAsStream("/pkcs11.properties")) {
+      props.load(in);
+    }
+
+    String modulePath = props.getProperty("module.path");
+    if ("foreign".equals(backend)) {
+      modulePath = "java:" + FOREIGN_CLASS + ":" + modulePath;
+    }
+
+    module = PKCS11Module.getInstance(modulePath);
+    module.initialize();
+
+    String str = props.getProperty("module.slotIndex");
+    Slot slot = module.getSlotList(true)[str == null ? 0 : Integer.parseInt(str)];
+    session = slot.getToken().openSession(true);
+
+    String pin = props.getProperty("module.pin");
+    if (pin != null) {
+      session.login(CKU_USER, pin.toCharArray());
+    }
+
+    hmacKey = session.generateKey(new Mechanism(CKM_GENERIC_SECRET_KEY_GEN),
+        AttributeVector.newSecretKey(CKK_GENERIC_SECRET).token(false).sign(true).valueLen(32));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws TokenException {
+    try {
+      session.destroyObject(hmacKey);
+      session.closeSession();
+    } finally {
+      module.finalize(null);
+    }
+  }
+
+  @Benchmark
+  public SessionInfo getSessionInfo() throws TokenException {
+    return session.getSessionInfo();
+  }
+
+  @Benchmark
+  public byte[] generateRandom() throws TokenException {
+    return session.generateRandom(32);
+  }
+
+  @Benchmark
+  public byte[] digest() throws TokenException {
+    return session.digestSingle(sha256, data);
+  }
+
+  @Benchmark
+  public byte[] hmac() throws TokenException {
+    return session.signSingle(hmacSha256, hmacKey, data);
+  }
+
+  @Benchmark
+  public byte[] hmacWithOutputSizeHint() throws TokenException {
+    return session.signSingle(hmacSha256, hmacKey, data, 32);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(BackendBenchmark.class.getSimpleName()).build()).run();
+  }
+
+}
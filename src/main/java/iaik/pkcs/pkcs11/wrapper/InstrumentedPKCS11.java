@@ -0,0 +1,1687 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package iaik.pkcs.pkcs11.wrapper;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link PKCS11} decorator which records for each C_* function the number of calls, the error
+ * codes, the bytes passed in and out, and the latency histogram, see {@link PKCS11FunctionStats}.
+ * It wraps any implementation, e.g. {@link PKCS11Implementation} or one loaded via the
+ * <code>java:</code> prefix, and is enabled by
+ * {@code org.xipki.pkcs11.wrapper.PKCS11Module#getInstance(String, boolean)}.
+ * <p>
+ * The latency is measured around the call of the wrapped implementation, i.e. it includes the JNI
+ * conversion and the time spent in the vendor library, but not the time spent in the wrapper
+ * classes above. The counters are updated without locking.
+ *
+ * @author Lijun Liao (xipki)
+ */
+public class InstrumentedPKCS11 implements PKCS11 {
+
+  private final PKCS11 pkcs11;
+
+  private final Map<String, PKCS11FunctionStats> stats = new LinkedHashMap<>();
+  private final PKCS11FunctionStats initializeStats = newStats("C_Initialize");
+  private final PKCS11FunctionStats finalizeStats = newStats("C_Finalize");
+  private final PKCS11FunctionStats getInfoStats = newStats("C_GetInfo");
+  private final PKCS11FunctionStats getSlotListStats = newStats("C_GetSlotList");
+  private final PKCS11FunctionStats getSlotInfoStats = newStats("C_GetSlotInfo");
+  private final PKCS11FunctionStats getTokenInfoStats = newStats("C_GetTokenInfo");
+  private final PKCS11FunctionStats getMechanismListStats = newStats("C_GetMechanismList");
+  private final PKCS11FunctionStats getMechanismInfoStats = newStats("C_GetMechanismInfo");
+  private final PKCS11FunctionStats initTokenStats = newStats("C_InitToken");
+  private final PKCS11FunctionStats initPINStats = newStats("C_InitPIN");
+  private final PKCS11FunctionStats setPINStats = newStats("C_SetPIN");
+  private final PKCS11FunctionStats openSessionStats = newStats("C_OpenSession");
+  private final PKCS11FunctionStats closeSessionStats = newStats("C_CloseSession");
+  private final PKCS11FunctionStats closeAllSessionsStats = newStats("C_CloseAllSessions");
+  private final PKCS11FunctionStats getSessionInfoStats = newStats("C_GetSessionInfo");
+  private final PKCS11FunctionStats sessionCancelStats = newStats("C_SessionCancel");
+  private final PKCS11FunctionStats getOperationStateStats = newStats("C_GetOperationState");
+  private final PKCS11FunctionStats setOperationStateStats = newStats("C_SetOperationState");
+  private final PKCS11FunctionStats loginStats = newStats("C_Login");
+  private final PKCS11FunctionStats loginUserStats = newStats("C_LoginUser");
+  private final PKCS11FunctionStats logoutStats = newStats("C_Logout");
+  private final PKCS11FunctionStats createObjectStats = newStats("C_CreateObject");
+  private final PKCS11FunctionStats copyObjectStats = newStats("C_CopyObject");
+  private final PKCS11FunctionStats destroyObjectStats = newStats("C_DestroyObject");
+  private final PKCS11FunctionStats getObjectSizeStats = newStats("C_GetObjectSize");
+  private final PKCS11FunctionStats getAttributeValueStats = newStats("C_GetAttributeValue");
+  private final PKCS11FunctionStats setAttributeValueStats = newStats("C_SetAttributeValue");
+  private final PKCS11FunctionStats findObjectsInitStats = newStats("C_FindObjectsInit");
+  private final PKCS11FunctionStats findObjectsStats = newStats("C_FindObjects");
+  private final PKCS11FunctionStats findObjectsFinalStats = newStats("C_FindObjectsFinal");
+  private final PKCS11FunctionStats encryptInitStats = newStats("C_EncryptInit");
+  private final PKCS11FunctionStats encryptStats = newStats("C_Encrypt");
+  private final PKCS11FunctionStats encryptSingleStats = newStats("C_EncryptSingle");
+  private final PKCS11FunctionStats encryptUpdateStats = newStats("C_EncryptUpdate");
+  private final PKCS11FunctionStats encryptFinalStats = newStats("C_EncryptFinal");
+  private final PKCS11FunctionStats messageEncryptInitStats = newStats("C_MessageEncryptInit");
+  private final PKCS11FunctionStats encryptMessageStats = newStats("C_EncryptMessage");
+  private final PKCS11FunctionStats encryptMessageBeginStats = newStats("C_EncryptMessageBegin");
+  private final PKCS11FunctionStats encryptMessageNextStats = newStats("C_EncryptMessageNext");
+  private final PKCS11FunctionStats messageEncryptFinalStats = newStats("C_MessageEncryptFinal");
+  private final PKCS11FunctionStats decryptInitStats = newStats("C_DecryptInit");
+  private final PKCS11FunctionStats decryptStats = newStats("C_Decrypt");
+  private final PKCS11FunctionStats decryptSingleStats = newStats("C_DecryptSingle");
+  private final PKCS11FunctionStats decryptUpdateStats = newStats("C_DecryptUpdate");
+  private final PKCS11FunctionStats decryptFinalStats = newStats("C_DecryptFinal");
+  private final PKCS11FunctionStats messageDecryptInitStats = newStats("C_MessageDecryptInit");
+  private final PKCS11FunctionStats decryptMessageStats = newStats("C_DecryptMessage");
+  private final PKCS11FunctionStats decryptMessageBeginStats = newStats("C_DecryptMessageBegin");
+  private final PKCS11FunctionStats decryptMessageNextStats = newStats("C_DecryptMessageNext");
+  private final PKCS11FunctionStats messageDecryptFinalStats = newStats("C_MessageDecryptFinal");
+  private final PKCS11FunctionStats digestInitStats = newStats("C_DigestInit");
+  private final PKCS11FunctionStats digestStats = newStats("C_Digest");
+  private final PKCS11FunctionStats digestSingleStats = newStats("C_DigestSingle");
+  private final PKCS11FunctionStats digestUpdateStats = newStats("C_DigestUpdate");
+  private final PKCS11FunctionStats digestKeyStats = newStats("C_DigestKey");
+  private final PKCS11FunctionStats digestFinalStats = newStats("C_DigestFinal");
+  private final PKCS11FunctionStats signInitStats = newStats("C_SignInit");
+  private final PKCS11FunctionStats signStats = newStats("C_Sign");
+  private final PKCS11FunctionStats signSingleStats = newStats("C_SignSingle");
+  private final PKCS11FunctionStats signUpdateStats = newStats("C_SignUpdate");
+  private final PKCS11FunctionStats signFinalStats = newStats("C_SignFinal");
+  private final PKCS11FunctionStats signRecoverInitStats = newStats("C_SignRecoverInit");
+  private final PKCS11FunctionStats signRecoverStats = newStats("C_SignRecover");
+  private final PKCS11FunctionStats messageSignInitStats = newStats("C_MessageSignInit");
+  private final PKCS11FunctionStats signMessageStats = newStats("C_SignMessage");
+  private final PKCS11FunctionStats signMessageBeginStats = newStats("C_SignMessageBegin");
+  private final PKCS11FunctionStats signMessageNextStats = newStats("C_SignMessageNext");
+  private final PKCS11FunctionStats messageSignFinalStats = newStats("C_MessageSignFinal");
+  private final PKCS11FunctionStats verifyInitStats = newStats("C_VerifyInit");
+  private final PKCS11FunctionStats verifyStats = newStats("C_Verify");
+  private final PKCS11FunctionStats verifySingleStats = newStats("C_VerifySingle");
+  private final PKCS11FunctionStats verifyUpdateStats = newStats("C_VerifyUpdate");
+  private final PKCS11FunctionStats verifyFinalStats = newStats("C_VerifyFinal");
+  private final PKCS11FunctionStats verifyRecoverInitStats = newStats("C_VerifyRecoverInit");
+  private final PKCS11FunctionStats verifyRecoverStats = newStats("C_VerifyRecover");
+  private final PKCS11FunctionStats messageVerifyInitStats = newStats("C_MessageVerifyInit");
+  private final PKCS11FunctionStats verifyMessageStats = newStats("C_VerifyMessage");
+  private final PKCS11FunctionStats verifyMessageBeginStats = newStats("C_VerifyMessageBegin");
+  private final PKCS11FunctionStats verifyMessageNextStats = newStats("C_VerifyMessageNext");
+  private final PKCS11FunctionStats messageVerifyFinalStats = newStats("C_MessageVerifyFinal");
+  private final PKCS11FunctionStats digestEncryptUpdateStats = newStats("C_DigestEncryptUpdate");
+  private final PKCS11FunctionStats decryptDigestUpdateStats = newStats("C_DecryptDigestUpdate");
+  private final PKCS11FunctionStats signEncryptUpdateStats = newStats("C_SignEncryptUpdate");
+  private final PKCS11FunctionStats decryptVerifyUpdateStats = newStats("C_DecryptVerifyUpdate");
+  private final PKCS11FunctionStats generateKeyStats = newStats("C_GenerateKey");
+  private final PKCS11FunctionStats generateKeyPairStats = newStats("C_GenerateKeyPair");
+  private final PKCS11FunctionStats wrapKeyStats = newStats("C_WrapKey");
+  private final PKCS11FunctionStats unwrapKeyStats = newStats("C_UnwrapKey");
+  private final PKCS11FunctionStats deriveKeyStats = newStats("C_DeriveKey");
+  private final PKCS11FunctionStats seedRandomStats = newStats("C_SeedRandom");
+  private final PKCS11FunctionStats generateRandomStats = newStats("C_GenerateRandom");
+  private final PKCS11FunctionStats getFunctionStatusStats = newStats("C_GetFunctionStatus");
+  private final PKCS11FunctionStats cancelFunctionStats = newStats("C_CancelFunction");
+  private final PKCS11FunctionStats waitForSlotEventStats = newStats("C_WaitForSlotEvent");
+
+  public InstrumentedPKCS11(PKCS11 pkcs11) {
+    if (pkcs11 == null) {
+      throw new NullPointerException("pkcs11 must not be null");
+    }
+    this.pkcs11 = pkcs11;
+  }
+
+  private PKCS11FunctionStats newStats(String name) {
+    PKCS11FunctionStats s = new PKCS11FunctionStats(name);
+    stats.put(name, s);
+    return s;
+  }
+
+  /**
+   * Returns the wrapped implementation.
+   * @return the wrapped implementation.
+   */
+  public PKCS11 getDelegate() {
+    return pkcs11;
+  }
+
+  /**
+   * Returns the statistics of all functions, keyed by the function name, e.g. C_Sign.
+   * @return the statistics of all functions.
+   */
+  public Map<String, PKCS11FunctionStats> getStats() {
+    return Collections.unmodifiableMap(stats);
+  }
+
+  /**
+   * Returns the statistics of the given function.
+   * @param functionName the function name, e.g. C_Sign.
+   * @return the statistics, or null if there is no such function.
+   */
+  public PKCS11FunctionStats getStats(String functionName) {
+    return stats.get(functionName);
+  }
+
+  /**
+   * Resets the statistics of all functions.
+   */
+  public void resetStats() {
+    for (PKCS11FunctionStats s : stats.values()) {
+      s.reset();
+    }
+  }
+
+  private static int len(byte[] bytes) {
+    return bytes == null ? 0 : bytes.length;
+  }
+
+  @Override
+  public void C_Initialize(Object pInitArgs, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_Initialize(pInitArgs, useUtf8);
+      initializeStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      initializeStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_Finalize(Object pReserved) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_Finalize(pReserved);
+      finalizeStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      finalizeStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public CK_INFO C_GetInfo() throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      CK_INFO rv = pkcs11.C_GetInfo();
+      getInfoStats.record(start, 0, 0);
+      return rv;
+    } catch (PKCS11Exception e) {
+      getInfoStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public long[] C_GetSlotList(boolean tokenPresent) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      long[] rv = pkcs11.C_GetSlotList(tokenPresent);
+      getSlotListStats.record(start, 0, 0);
+      return rv;
+    } catch (PKCS11Exception e) {
+      getSlotListStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public CK_SLOT_INFO C_GetSlotInfo(long slotID) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      CK_SLOT_INFO rv = pkcs11.C_GetSlotInfo(slotID);
+      getSlotInfoStats.record(start, 0, 0);
+      return rv;
+    } catch (PKCS11Exception e) {
+      getSlotInfoStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public CK_TOKEN_INFO C_GetTokenInfo(long slotID) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      CK_TOKEN_INFO rv = pkcs11.C_GetTokenInfo(slotID);
+      getTokenInfoStats.record(start, 0, 0);
+      return rv;
+    } catch (PKCS11Exception e) {
+      getTokenInfoStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public long[] C_GetMechanismList(long slotID) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      long[] rv = pkcs11.C_GetMechanismList(slotID);
+      getMechanismListStats.record(start, 0, 0);
+      return rv;
+    } catch (PKCS11Exception e) {
+      getMechanismListStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public CK_MECHANISM_INFO C_GetMechanismInfo(long slotID, long type) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      CK_MECHANISM_INFO rv = pkcs11.C_GetMechanismInfo(slotID, type);
+      getMechanismInfoStats.record(start, 0, 0);
+      return rv;
+    } catch (PKCS11Exception e) {
+      getMechanismInfoStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_InitToken(long slotID, char[] pPin, char[] pLabel, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_InitToken(slotID, pPin, pLabel, useUtf8);
+      initTokenStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      initTokenStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_InitPIN(long hSession, char[] pPin, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_InitPIN(hSession, pPin, useUtf8);
+      initPINStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      initPINStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_SetPIN(long hSession, char[] pOldPin, char[] pNewPin, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_SetPIN(hSession, pOldPin, pNewPin, useUtf8);
+      setPINStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      setPINStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public long C_OpenSession(long slotID, long flags, Object pApplication, CK_NOTIFY Notify) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      long rv = pkcs11.C_OpenSession(slotID, flags, pApplication, Notify);
+      openSessionStats.record(start, 0, 0);
+      return rv;
+    } catch (PKCS11Exception e) {
+      openSessionStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_CloseSession(long hSession) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_CloseSession(hSession);
+      closeSessionStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      closeSessionStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_CloseAllSessions(long slotID) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_CloseAllSessions(slotID);
+      closeAllSessionsStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      closeAllSessionsStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public CK_SESSION_INFO C_GetSessionInfo(long hSession) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      CK_SESSION_INFO rv = pkcs11.C_GetSessionInfo(hSession);
+      getSessionInfoStats.record(start, 0, 0);
+      return rv;
+    } catch (PKCS11Exception e) {
+      getSessionInfoStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_SessionCancel(long hSession, long flags) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_SessionCancel(hSession, flags);
+      sessionCancelStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      sessionCancelStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_GetOperationState(long hSession) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_GetOperationState(hSession);
+      getOperationStateStats.record(start, 0, len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      getOperationStateStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_SetOperationState(long hSession, byte[] pOperationState, long hEncryptionKey,
+      long hAuthenticationKey) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_SetOperationState(hSession, pOperationState, hEncryptionKey, hAuthenticationKey);
+      setOperationStateStats.record(start, len(pOperationState), 0);
+    } catch (PKCS11Exception e) {
+      setOperationStateStats.recordError(start, len(pOperationState), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_Login(long hSession, long userType, char[] pPin, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_Login(hSession, userType, pPin, useUtf8);
+      loginStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      loginStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_LoginUser(long hSession, long userType, char[] pPin, char[] pUsername,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_LoginUser(hSession, userType, pPin, pUsername, useUtf8);
+      loginUserStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      loginUserStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_Logout(long hSession) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_Logout(hSession);
+      logoutStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      logoutStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public long C_CreateObject(long hSession, CK_ATTRIBUTE[] pTemplate, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      long rv = pkcs11.C_CreateObject(hSession, pTemplate, useUtf8);
+      createObjectStats.record(start, 0, 0);
+      return rv;
+    } catch (PKCS11Exception e) {
+      createObjectStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public long C_CopyObject(long hSession, long hObject, CK_ATTRIBUTE[] pTemplate,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      long rv = pkcs11.C_CopyObject(hSession, hObject, pTemplate, useUtf8);
+      copyObjectStats.record(start, 0, 0);
+      return rv;
+    } catch (PKCS11Exception e) {
+      copyObjectStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_DestroyObject(long hSession, long hObject) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_DestroyObject(hSession, hObject);
+      destroyObjectStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      destroyObjectStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public long C_GetObjectSize(long hSession, long hObject) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      long rv = pkcs11.C_GetObjectSize(hSession, hObject);
+      getObjectSizeStats.record(start, 0, 0);
+      return rv;
+    } catch (PKCS11Exception e) {
+      getObjectSizeStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_GetAttributeValue(long hSession, long hObject, CK_ATTRIBUTE[] pTemplate,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_GetAttributeValue(hSession, hObject, pTemplate, useUtf8);
+      getAttributeValueStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      getAttributeValueStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_SetAttributeValue(long hSession, long hObject, CK_ATTRIBUTE[] pTemplate,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_SetAttributeValue(hSession, hObject, pTemplate, useUtf8);
+      setAttributeValueStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      setAttributeValueStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_FindObjectsInit(long hSession, CK_ATTRIBUTE[] pTemplate, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_FindObjectsInit(hSession, pTemplate, useUtf8);
+      findObjectsInitStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      findObjectsInitStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public long[] C_FindObjects(long hSession, long ulMaxObjectCount) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      long[] rv = pkcs11.C_FindObjects(hSession, ulMaxObjectCount);
+      findObjectsStats.record(start, 0, 0);
+      return rv;
+    } catch (PKCS11Exception e) {
+      findObjectsStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_FindObjectsFinal(long hSession) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_FindObjectsFinal(hSession);
+      findObjectsFinalStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      findObjectsFinalStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_EncryptInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_EncryptInit(hSession, pMechanism, hKey, useUtf8);
+      encryptInitStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      encryptInitStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_Encrypt(long hSession, byte[] pData) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_Encrypt(hSession, pData);
+      encryptStats.record(start, len(pData), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      encryptStats.recordError(start, len(pData), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_EncryptSingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pData,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_EncryptSingle(hSession, pMechanism, hKey, pData, useUtf8);
+      encryptSingleStats.record(start, len(pData), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      encryptSingleStats.recordError(start, len(pData), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_EncryptSingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pData, int outLenHint,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_EncryptSingle(hSession, pMechanism, hKey, pData, outLenHint, useUtf8);
+      encryptSingleStats.record(start, len(pData), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      encryptSingleStats.recordError(start, len(pData), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_EncryptUpdate(long hSession, byte[] pPart) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_EncryptUpdate(hSession, pPart);
+      encryptUpdateStats.record(start, len(pPart), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      encryptUpdateStats.recordError(start, len(pPart), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_EncryptUpdate(long hSession, byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_EncryptUpdate(hSession, in, inOfs, inLen);
+      encryptUpdateStats.record(start, inLen, len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      encryptUpdateStats.recordError(start, inLen, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_EncryptUpdate(long hSession, ByteBuffer in) throws PKCS11Exception {
+    int inLen = in.remaining();
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_EncryptUpdate(hSession, in);
+      encryptUpdateStats.record(start, inLen, len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      encryptUpdateStats.recordError(start, inLen, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_EncryptFinal(long hSession) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_EncryptFinal(hSession);
+      encryptFinalStats.record(start, 0, len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      encryptFinalStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_MessageEncryptInit(long hSession, CK_MECHANISM pMechanism, long hKey,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_MessageEncryptInit(hSession, pMechanism, hKey, useUtf8);
+      messageEncryptInitStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      messageEncryptInitStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_EncryptMessage(long hSession, Object pParameter, byte[] pAssociatedData, byte[] pPlainText,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_EncryptMessage(hSession, pParameter, pAssociatedData, pPlainText, useUtf8);
+      encryptMessageStats.record(start, len(pAssociatedData) + len(pPlainText), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      encryptMessageStats.recordError(start, len(pAssociatedData) + len(pPlainText), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_EncryptMessageBegin(long hSession, Object pParameter, byte[] pAssociatedData,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_EncryptMessageBegin(hSession, pParameter, pAssociatedData, useUtf8);
+      encryptMessageBeginStats.record(start, len(pAssociatedData), 0);
+    } catch (PKCS11Exception e) {
+      encryptMessageBeginStats.recordError(start, len(pAssociatedData), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_EncryptMessageNext(long hSession, Object pParameter, byte[] pPlainTextPart, long flags,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_EncryptMessageNext(hSession, pParameter, pPlainTextPart, flags, useUtf8);
+      encryptMessageNextStats.record(start, len(pPlainTextPart), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      encryptMessageNextStats.recordError(start, len(pPlainTextPart), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_EncryptMessageNext(long hSession, Object pParameter, byte[] in, int inOfs, int inLen, long flags,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_EncryptMessageNext(hSession, pParameter, in, inOfs, inLen, flags, useUtf8);
+      encryptMessageNextStats.record(start, inLen, len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      encryptMessageNextStats.recordError(start, inLen, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_EncryptMessageNext(long hSession, Object pParameter, ByteBuffer in, long flags,
+      boolean useUtf8) throws PKCS11Exception {
+    int inLen = in.remaining();
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_EncryptMessageNext(hSession, pParameter, in, flags, useUtf8);
+      encryptMessageNextStats.record(start, inLen, len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      encryptMessageNextStats.recordError(start, inLen, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_MessageEncryptFinal(long hSession) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_MessageEncryptFinal(hSession);
+      messageEncryptFinalStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      messageEncryptFinalStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_DecryptInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_DecryptInit(hSession, pMechanism, hKey, useUtf8);
+      decryptInitStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      decryptInitStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_Decrypt(long hSession, byte[] pEncryptedData) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_Decrypt(hSession, pEncryptedData);
+      decryptStats.record(start, len(pEncryptedData), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      decryptStats.recordError(start, len(pEncryptedData), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_DecryptSingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pEncryptedData,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_DecryptSingle(hSession, pMechanism, hKey, pEncryptedData, useUtf8);
+      decryptSingleStats.record(start, len(pEncryptedData), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      decryptSingleStats.recordError(start, len(pEncryptedData), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_DecryptSingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pEncryptedData,
+      int outLenHint, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_DecryptSingle(hSession, pMechanism, hKey, pEncryptedData, outLenHint, useUtf8);
+      decryptSingleStats.record(start, len(pEncryptedData), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      decryptSingleStats.recordError(start, len(pEncryptedData), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_DecryptUpdate(long hSession, byte[] pEncryptedPart) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_DecryptUpdate(hSession, pEncryptedPart);
+      decryptUpdateStats.record(start, len(pEncryptedPart), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      decryptUpdateStats.recordError(start, len(pEncryptedPart), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_DecryptUpdate(long hSession, byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_DecryptUpdate(hSession, in, inOfs, inLen);
+      decryptUpdateStats.record(start, inLen, len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      decryptUpdateStats.recordError(start, inLen, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_DecryptUpdate(long hSession, ByteBuffer in) throws PKCS11Exception {
+    int inLen = in.remaining();
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_DecryptUpdate(hSession, in);
+      decryptUpdateStats.record(start, inLen, len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      decryptUpdateStats.recordError(start, inLen, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_DecryptFinal(long hSession) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_DecryptFinal(hSession);
+      decryptFinalStats.record(start, 0, len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      decryptFinalStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_MessageDecryptInit(long hSession, CK_MECHANISM pMechanism, long hKey,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_MessageDecryptInit(hSession, pMechanism, hKey, useUtf8);
+      messageDecryptInitStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      messageDecryptInitStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_DecryptMessage(long hSession, Object pParameter, byte[] pAssociatedData, byte[] pCipherText,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_DecryptMessage(hSession, pParameter, pAssociatedData, pCipherText, useUtf8);
+      decryptMessageStats.record(start, len(pAssociatedData) + len(pCipherText), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      decryptMessageStats.recordError(start, len(pAssociatedData) + len(pCipherText), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_DecryptMessageBegin(long hSession, Object pParameter, byte[] pAssociatedData,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_DecryptMessageBegin(hSession, pParameter, pAssociatedData, useUtf8);
+      decryptMessageBeginStats.record(start, len(pAssociatedData), 0);
+    } catch (PKCS11Exception e) {
+      decryptMessageBeginStats.recordError(start, len(pAssociatedData), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_DecryptMessageNext(long hSession, Object pParameter, byte[] pCipherTextPart, long flags,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_DecryptMessageNext(hSession, pParameter, pCipherTextPart, flags, useUtf8);
+      decryptMessageNextStats.record(start, len(pCipherTextPart), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      decryptMessageNextStats.recordError(start, len(pCipherTextPart), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_DecryptMessageNext(long hSession, Object pParameter, byte[] in, int inOfs, int inLen, long flags,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_DecryptMessageNext(hSession, pParameter, in, inOfs, inLen, flags, useUtf8);
+      decryptMessageNextStats.record(start, inLen, len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      decryptMessageNextStats.recordError(start, inLen, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_DecryptMessageNext(long hSession, Object pParameter, ByteBuffer in, long flags,
+      boolean useUtf8) throws PKCS11Exception {
+    int inLen = in.remaining();
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_DecryptMessageNext(hSession, pParameter, in, flags, useUtf8);
+      decryptMessageNextStats.record(start, inLen, len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      decryptMessageNextStats.recordError(start, inLen, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_MessageDecryptFinal(long hSession) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_MessageDecryptFinal(hSession);
+      messageDecryptFinalStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      messageDecryptFinalStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_DigestInit(long hSession, CK_MECHANISM pMechanism, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_DigestInit(hSession, pMechanism, useUtf8);
+      digestInitStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      digestInitStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_Digest(long hSession, byte[] data) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_Digest(hSession, data);
+      digestStats.record(start, len(data), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      digestStats.recordError(start, len(data), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_DigestSingle(long hSession, CK_MECHANISM pMechanism, byte[] data,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_DigestSingle(hSession, pMechanism, data, useUtf8);
+      digestSingleStats.record(start, len(data), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      digestSingleStats.recordError(start, len(data), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_DigestUpdate(long hSession, byte[] pPart) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_DigestUpdate(hSession, pPart);
+      digestUpdateStats.record(start, len(pPart), 0);
+    } catch (PKCS11Exception e) {
+      digestUpdateStats.recordError(start, len(pPart), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_DigestUpdate(long hSession, byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_DigestUpdate(hSession, in, inOfs, inLen);
+      digestUpdateStats.record(start, inLen, 0);
+    } catch (PKCS11Exception e) {
+      digestUpdateStats.recordError(start, inLen, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_DigestUpdate(long hSession, ByteBuffer in) throws PKCS11Exception {
+    int inLen = in.remaining();
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_DigestUpdate(hSession, in);
+      digestUpdateStats.record(start, inLen, 0);
+    } catch (PKCS11Exception e) {
+      digestUpdateStats.recordError(start, inLen, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_DigestKey(long hSession, long hKey) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_DigestKey(hSession, hKey);
+      digestKeyStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      digestKeyStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_DigestFinal(long hSession) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_DigestFinal(hSession);
+      digestFinalStats.record(start, 0, len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      digestFinalStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_SignInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_SignInit(hSession, pMechanism, hKey, useUtf8);
+      signInitStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      signInitStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_Sign(long hSession, byte[] pData) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_Sign(hSession, pData);
+      signStats.record(start, len(pData), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      signStats.recordError(start, len(pData), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_SignSingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pData,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_SignSingle(hSession, pMechanism, hKey, pData, useUtf8);
+      signSingleStats.record(start, len(pData), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      signSingleStats.recordError(start, len(pData), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_SignSingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pData, int outLenHint,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_SignSingle(hSession, pMechanism, hKey, pData, outLenHint, useUtf8);
+      signSingleStats.record(start, len(pData), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      signSingleStats.recordError(start, len(pData), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_SignUpdate(long hSession, byte[] pPart) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_SignUpdate(hSession, pPart);
+      signUpdateStats.record(start, len(pPart), 0);
+    } catch (PKCS11Exception e) {
+      signUpdateStats.recordError(start, len(pPart), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_SignUpdate(long hSession, byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_SignUpdate(hSession, in, inOfs, inLen);
+      signUpdateStats.record(start, inLen, 0);
+    } catch (PKCS11Exception e) {
+      signUpdateStats.recordError(start, inLen, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_SignUpdate(long hSession, ByteBuffer in) throws PKCS11Exception {
+    int inLen = in.remaining();
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_SignUpdate(hSession, in);
+      signUpdateStats.record(start, inLen, 0);
+    } catch (PKCS11Exception e) {
+      signUpdateStats.recordError(start, inLen, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_SignFinal(long hSession) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_SignFinal(hSession);
+      signFinalStats.record(start, 0, len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      signFinalStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_SignRecoverInit(long hSession, CK_MECHANISM pMechanism, long hKey,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_SignRecoverInit(hSession, pMechanism, hKey, useUtf8);
+      signRecoverInitStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      signRecoverInitStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_SignRecover(long hSession, byte[] pData) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_SignRecover(hSession, pData);
+      signRecoverStats.record(start, len(pData), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      signRecoverStats.recordError(start, len(pData), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_MessageSignInit(long hSession, CK_MECHANISM pMechanism, long hKey,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_MessageSignInit(hSession, pMechanism, hKey, useUtf8);
+      messageSignInitStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      messageSignInitStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_SignMessage(long hSession, Object pParameter, byte[] pData, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_SignMessage(hSession, pParameter, pData, useUtf8);
+      signMessageStats.record(start, len(pData), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      signMessageStats.recordError(start, len(pData), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_SignMessageBegin(long hSession, Object pParameter, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_SignMessageBegin(hSession, pParameter, useUtf8);
+      signMessageBeginStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      signMessageBeginStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_SignMessageNext(long hSession, Object pParameter, byte[] pData, boolean isLastOperation,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_SignMessageNext(hSession, pParameter, pData, isLastOperation, useUtf8);
+      signMessageNextStats.record(start, len(pData), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      signMessageNextStats.recordError(start, len(pData), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_SignMessageNext(long hSession, Object pParameter, byte[] in, int inOfs, int inLen,
+      boolean isLastOperation, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_SignMessageNext(hSession, pParameter, in, inOfs, inLen, isLastOperation, useUtf8);
+      signMessageNextStats.record(start, inLen, len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      signMessageNextStats.recordError(start, inLen, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_SignMessageNext(long hSession, Object pParameter, ByteBuffer in, boolean isLastOperation,
+      boolean useUtf8) throws PKCS11Exception {
+    int inLen = in.remaining();
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_SignMessageNext(hSession, pParameter, in, isLastOperation, useUtf8);
+      signMessageNextStats.record(start, inLen, len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      signMessageNextStats.recordError(start, inLen, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_MessageSignFinal(long hSession) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_MessageSignFinal(hSession);
+      messageSignFinalStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      messageSignFinalStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_VerifyInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_VerifyInit(hSession, pMechanism, hKey, useUtf8);
+      verifyInitStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      verifyInitStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_Verify(long hSession, byte[] pData, byte[] pSignature) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_Verify(hSession, pData, pSignature);
+      verifyStats.record(start, len(pData) + len(pSignature), 0);
+    } catch (PKCS11Exception e) {
+      verifyStats.recordError(start, len(pData) + len(pSignature), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_VerifySingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pData, byte[] pSignature,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_VerifySingle(hSession, pMechanism, hKey, pData, pSignature, useUtf8);
+      verifySingleStats.record(start, len(pData) + len(pSignature), 0);
+    } catch (PKCS11Exception e) {
+      verifySingleStats.recordError(start, len(pData) + len(pSignature), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_VerifyUpdate(long hSession, byte[] pPart) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_VerifyUpdate(hSession, pPart);
+      verifyUpdateStats.record(start, len(pPart), 0);
+    } catch (PKCS11Exception e) {
+      verifyUpdateStats.recordError(start, len(pPart), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_VerifyUpdate(long hSession, byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_VerifyUpdate(hSession, in, inOfs, inLen);
+      verifyUpdateStats.record(start, inLen, 0);
+    } catch (PKCS11Exception e) {
+      verifyUpdateStats.recordError(start, inLen, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_VerifyUpdate(long hSession, ByteBuffer in) throws PKCS11Exception {
+    int inLen = in.remaining();
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_VerifyUpdate(hSession, in);
+      verifyUpdateStats.record(start, inLen, 0);
+    } catch (PKCS11Exception e) {
+      verifyUpdateStats.recordError(start, inLen, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_VerifyFinal(long hSession, byte[] pSignature) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_VerifyFinal(hSession, pSignature);
+      verifyFinalStats.record(start, len(pSignature), 0);
+    } catch (PKCS11Exception e) {
+      verifyFinalStats.recordError(start, len(pSignature), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_VerifyRecoverInit(long hSession, CK_MECHANISM pMechanism, long hKey,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_VerifyRecoverInit(hSession, pMechanism, hKey, useUtf8);
+      verifyRecoverInitStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      verifyRecoverInitStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_VerifyRecover(long hSession, byte[] pSignature) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_VerifyRecover(hSession, pSignature);
+      verifyRecoverStats.record(start, len(pSignature), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      verifyRecoverStats.recordError(start, len(pSignature), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_MessageVerifyInit(long hSession, CK_MECHANISM pMechanism, long hKey,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_MessageVerifyInit(hSession, pMechanism, hKey, useUtf8);
+      messageVerifyInitStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      messageVerifyInitStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_VerifyMessage(long hSession, Object pParameter, byte[] pData, byte[] pSignature,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_VerifyMessage(hSession, pParameter, pData, pSignature, useUtf8);
+      verifyMessageStats.record(start, len(pData) + len(pSignature), 0);
+    } catch (PKCS11Exception e) {
+      verifyMessageStats.recordError(start, len(pData) + len(pSignature), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_VerifyMessageBegin(long hSession, Object pParameter, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_VerifyMessageBegin(hSession, pParameter, useUtf8);
+      verifyMessageBeginStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      verifyMessageBeginStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_VerifyMessageNext(long hSession, Object pParameter, byte[] pData, byte[] pSignature,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_VerifyMessageNext(hSession, pParameter, pData, pSignature, useUtf8);
+      verifyMessageNextStats.record(start, len(pData) + len(pSignature), 0);
+    } catch (PKCS11Exception e) {
+      verifyMessageNextStats.recordError(start, len(pData) + len(pSignature), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_VerifyMessageNext(long hSession, Object pParameter, byte[] in, int inOfs, int inLen,
+      byte[] pSignature, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_VerifyMessageNext(hSession, pParameter, in, inOfs, inLen, pSignature, useUtf8);
+      verifyMessageNextStats.record(start, inLen + len(pSignature), 0);
+    } catch (PKCS11Exception e) {
+      verifyMessageNextStats.recordError(start, inLen + len(pSignature), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_VerifyMessageNext(long hSession, Object pParameter, ByteBuffer in, byte[] pSignature,
+      boolean useUtf8) throws PKCS11Exception {
+    int inLen = in.remaining();
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_VerifyMessageNext(hSession, pParameter, in, pSignature, useUtf8);
+      verifyMessageNextStats.record(start, inLen + len(pSignature), 0);
+    } catch (PKCS11Exception e) {
+      verifyMessageNextStats.recordError(start, inLen + len(pSignature), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_MessageVerifyFinal(long hSession) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_MessageVerifyFinal(hSession);
+      messageVerifyFinalStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      messageVerifyFinalStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_DigestEncryptUpdate(long hSession, byte[] pPart) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_DigestEncryptUpdate(hSession, pPart);
+      digestEncryptUpdateStats.record(start, len(pPart), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      digestEncryptUpdateStats.recordError(start, len(pPart), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_DecryptDigestUpdate(long hSession, byte[] pEncryptedPart) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_DecryptDigestUpdate(hSession, pEncryptedPart);
+      decryptDigestUpdateStats.record(start, len(pEncryptedPart), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      decryptDigestUpdateStats.recordError(start, len(pEncryptedPart), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_SignEncryptUpdate(long hSession, byte[] pPart) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_SignEncryptUpdate(hSession, pPart);
+      signEncryptUpdateStats.record(start, len(pPart), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      signEncryptUpdateStats.recordError(start, len(pPart), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_DecryptVerifyUpdate(long hSession, byte[] pEncryptedPart) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_DecryptVerifyUpdate(hSession, pEncryptedPart);
+      decryptVerifyUpdateStats.record(start, len(pEncryptedPart), len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      decryptVerifyUpdateStats.recordError(start, len(pEncryptedPart), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public long C_GenerateKey(long hSession, CK_MECHANISM pMechanism, CK_ATTRIBUTE[] pTemplate,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      long rv = pkcs11.C_GenerateKey(hSession, pMechanism, pTemplate, useUtf8);
+      generateKeyStats.record(start, 0, 0);
+      return rv;
+    } catch (PKCS11Exception e) {
+      generateKeyStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public long[] C_GenerateKeyPair(long hSession, CK_MECHANISM pMechanism, CK_ATTRIBUTE[] pPublicKeyTemplate,
+      CK_ATTRIBUTE[] pPrivateKeyTemplate, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      long[] rv = pkcs11.C_GenerateKeyPair(hSession, pMechanism, pPublicKeyTemplate, pPrivateKeyTemplate, useUtf8);
+      generateKeyPairStats.record(start, 0, 0);
+      return rv;
+    } catch (PKCS11Exception e) {
+      generateKeyPairStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public byte[] C_WrapKey(long hSession, CK_MECHANISM pMechanism, long hWrappingKey, long hKey,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] rv = pkcs11.C_WrapKey(hSession, pMechanism, hWrappingKey, hKey, useUtf8);
+      wrapKeyStats.record(start, 0, len(rv));
+      return rv;
+    } catch (PKCS11Exception e) {
+      wrapKeyStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public long C_UnwrapKey(long hSession, CK_MECHANISM pMechanism, long hUnwrappingKey, byte[] pWrappedKey,
+      CK_ATTRIBUTE[] pTemplate, boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      long rv = pkcs11.C_UnwrapKey(hSession, pMechanism, hUnwrappingKey, pWrappedKey, pTemplate, useUtf8);
+      unwrapKeyStats.record(start, len(pWrappedKey), 0);
+      return rv;
+    } catch (PKCS11Exception e) {
+      unwrapKeyStats.recordError(start, len(pWrappedKey), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public long C_DeriveKey(long hSession, CK_MECHANISM pMechanism, long hBaseKey, CK_ATTRIBUTE[] pTemplate,
+      boolean useUtf8) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      long rv = pkcs11.C_DeriveKey(hSession, pMechanism, hBaseKey, pTemplate, useUtf8);
+      deriveKeyStats.record(start, 0, 0);
+      return rv;
+    } catch (PKCS11Exception e) {
+      deriveKeyStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_SeedRandom(long hSession, byte[] pSeed) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_SeedRandom(hSession, pSeed);
+      seedRandomStats.record(start, len(pSeed), 0);
+    } catch (PKCS11Exception e) {
+      seedRandomStats.recordError(start, len(pSeed), e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_GenerateRandom(long hSession, byte[] randomData) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_GenerateRandom(hSession, randomData);
+      generateRandomStats.record(start, 0, len(randomData));
+    } catch (PKCS11Exception e) {
+      generateRandomStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_GetFunctionStatus(long hSession) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_GetFunctionStatus(hSession);
+      getFunctionStatusStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      getFunctionStatusStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public void C_CancelFunction(long hSession) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      pkcs11.C_CancelFunction(hSession);
+      cancelFunctionStats.record(start, 0, 0);
+    } catch (PKCS11Exception e) {
+      cancelFunctionStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  @Override
+  public long C_WaitForSlotEvent(long flags, Object pReserved) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      long rv = pkcs11.C_WaitForSlotEvent(flags, pReserved);
+      waitForSlotEventStats.record(start, 0, 0);
+      return rv;
+    } catch (PKCS11Exception e) {
+      waitForSlotEventStats.recordError(start, 0, e.getErrorCode());
+      throw e;
+    }
+  }
+
+  /**
+   * Does nothing. The wrapped implementation cleans up itself, forwarding would disconnect its
+   * native part twice.
+   */
+  @Override
+  @SuppressWarnings("deprecation")
+  public void finalize() {
+  }
+
+  @Override
+  public boolean isDisableBufferPreAllocation() {
+    return pkcs11.isDisableBufferPreAllocation();
+  }
+
+  @Override
+  public boolean isOutputSizeHintSupported() {
+    return pkcs11.isOutputSizeHintSupported();
+  }
+
+  @Override
+  public String toString() {
+    return "Instrumented " + pkcs11;
+  }
+
+}
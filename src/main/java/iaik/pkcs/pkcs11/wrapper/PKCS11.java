@@ -3,6 +3,8 @@
 
 package iaik.pkcs.pkcs11.wrapper;
 
+import java.nio.ByteBuffer;
+
 /**
  * If the underlying PKCS#11 function returns CK_OK, the method returns normally. If the return
  * value of the underlying function is not CK_OK, it throws PKCS11Exception with the return value as
@@ -501,6 +503,46 @@ public interface PKCS11 {
    */
   byte[] C_Encrypt(long hSession, byte[] pData) throws PKCS11Exception;
 
+  /**
+   * C_EncryptSingle initializes an encryption operation and encrypts the data in a single part,
+   * equivalent to C_EncryptInit followed by C_Encrypt. The default implementation calls both functions,
+   * an implementation may override it to cross to the PKCS#11 module only once.
+   *
+   * @param hSession the session's handle
+   * @param pMechanism the encryption mechanism
+   * @param hKey the handle of the key
+   * @param pData the data
+   * @param useUtf8 use UTF-8 encoding
+   * @return the encrypted data
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default byte[] C_EncryptSingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pData,
+      boolean useUtf8) throws PKCS11Exception {
+    C_EncryptInit(hSession, pMechanism, hKey, useUtf8);
+    return C_Encrypt(hSession, pData);
+  }
+
+  /**
+   * Same as C_EncryptSingle, with a hint of the expected ciphertext size, e.g. derived from the
+   * key size or the padding of the mechanism. The hint is an upper bound, 0 if unknown. An
+   * implementation may use it to allocate the output buffer in one call instead of querying the
+   * size first. The default implementation ignores the hint, as does {@link PKCS11Implementation},
+   * see {@link #isOutputSizeHintSupported()}.
+   *
+   * @param hSession the session's handle
+   * @param pMechanism the encryption mechanism
+   * @param hKey the handle of the key
+   * @param pData the data
+   * @param outLenHint the expected size of the ciphertext, 0 if unknown
+   * @param useUtf8 use UTF-8 encoding
+   * @return the ciphertext
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default byte[] C_EncryptSingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pData,
+      int outLenHint, boolean useUtf8) throws PKCS11Exception {
+    return C_EncryptSingle(hSession, pMechanism, hKey, pData, useUtf8);
+  }
+
   /**
    * C_EncryptUpdate continues a multiple-part encryption operation. (Encryption and decryption)
    *
@@ -517,6 +559,39 @@ public interface PKCS11 {
    */
   byte[] C_EncryptUpdate(long hSession, byte[] pPart) throws PKCS11Exception;
 
+  /**
+   * C_EncryptUpdate with the data part to get encrypted given by the array, offset and length.
+   * The default implementation copies the data part if it is not the whole array.
+   *
+   * @param hSession the session's handle
+   * @param in the buffer containing the data part to get encrypted
+   * @param inOfs the offset of the data part to get encrypted in the buffer
+   * @param inLen the length of the data part to get encrypted
+   * @return the output data part.
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default byte[] C_EncryptUpdate(long hSession, byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    return C_EncryptUpdate(hSession, PKCS11UTIL.subArray(in, inOfs, inLen));
+  }
+
+  /**
+   * C_EncryptUpdate with the data part to get encrypted given by the remaining bytes of the buffer. The position of the
+   * buffer is advanced by the number of consumed bytes.
+   * The default implementation copies the data part if the buffer is a direct buffer.
+   *
+   * @param hSession the session's handle
+   * @param in the buffer containing the data part to get encrypted
+   * @return the output data part.
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default byte[] C_EncryptUpdate(long hSession, ByteBuffer in) throws PKCS11Exception {
+    int len = in.remaining();
+    byte[] out = in.hasArray() ? C_EncryptUpdate(hSession, in.array(), in.arrayOffset() + in.position(), len)
+        : C_EncryptUpdate(hSession, PKCS11UTIL.getBytes(in, len));
+    in.position(in.position() + len);
+    return out;
+  }
+
   /**
    * C_EncryptFinal finishes a multiple-part encryption operation. (Encryption and decryption)
    *
@@ -620,6 +695,47 @@ public interface PKCS11 {
   byte[] C_EncryptMessageNext(long hSession, Object pParameter, byte[] pPlainTextPart, long flags, boolean useUtf8)
       throws PKCS11Exception;
 
+  /**
+   * C_EncryptMessageNext with the plaintext part given by the array, offset and length.
+   * The default implementation copies the plaintext part if it is not the whole array.
+   *
+   * @param hSession the session's handle
+   * @param pParameter the mechanism parameter
+   * @param in the buffer containing the plaintext part
+   * @param inOfs the offset of the plaintext part in the buffer
+   * @param inLen the length of the plaintext part
+   * @param flags 0 or CKF_END_OF_MESSAGE
+   * @param useUtf8 use UTF-8 encoding
+   * @return the ciphertext part.
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default byte[] C_EncryptMessageNext(long hSession, Object pParameter, byte[] in, int inOfs, int inLen,
+                                      long flags, boolean useUtf8) throws PKCS11Exception {
+    return C_EncryptMessageNext(hSession, pParameter, PKCS11UTIL.subArray(in, inOfs, inLen), flags, useUtf8);
+  }
+
+  /**
+   * C_EncryptMessageNext with the plaintext part given by the remaining bytes of the buffer. The
+   * position of the buffer is advanced by the number of consumed bytes.
+   *
+   * @param hSession the session's handle
+   * @param pParameter the mechanism parameter
+   * @param in the buffer containing the plaintext part
+   * @param flags 0 or CKF_END_OF_MESSAGE
+   * @param useUtf8 use UTF-8 encoding
+   * @return the ciphertext part.
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default byte[] C_EncryptMessageNext(long hSession, Object pParameter, ByteBuffer in, long flags, boolean useUtf8)
+      throws PKCS11Exception {
+    int len = in.remaining();
+    byte[] out = in.hasArray()
+        ? C_EncryptMessageNext(hSession, pParameter, in.array(), in.arrayOffset() + in.position(), len, flags, useUtf8)
+        : C_EncryptMessageNext(hSession, pParameter, PKCS11UTIL.getBytes(in, len), flags, useUtf8);
+    in.position(in.position() + len);
+    return out;
+  }
+
   /**
    * C_MessageEncryptFinal finishes a message-based encryption process.
    * @param hSession
@@ -659,6 +775,46 @@ public interface PKCS11 {
    */
   byte[] C_Decrypt(long hSession, byte[] pEncryptedData) throws PKCS11Exception;
 
+  /**
+   * C_DecryptSingle initializes a decryption operation and decrypts the data in a single part,
+   * equivalent to C_DecryptInit followed by C_Decrypt. The default implementation calls both functions,
+   * an implementation may override it to cross to the PKCS#11 module only once.
+   *
+   * @param hSession the session's handle
+   * @param pMechanism the decryption mechanism
+   * @param hKey the handle of the key
+   * @param pEncryptedData the data
+   * @param useUtf8 use UTF-8 encoding
+   * @return the decrypted data
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default byte[] C_DecryptSingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pEncryptedData,
+      boolean useUtf8) throws PKCS11Exception {
+    C_DecryptInit(hSession, pMechanism, hKey, useUtf8);
+    return C_Decrypt(hSession, pEncryptedData);
+  }
+
+  /**
+   * Same as C_DecryptSingle, with a hint of the expected plaintext size, e.g. derived from the
+   * key size or the padding of the mechanism. The hint is an upper bound, 0 if unknown. An
+   * implementation may use it to allocate the output buffer in one call instead of querying the
+   * size first. The default implementation ignores the hint, as does {@link PKCS11Implementation},
+   * see {@link #isOutputSizeHintSupported()}.
+   *
+   * @param hSession the session's handle
+   * @param pMechanism the decryption mechanism
+   * @param hKey the handle of the key
+   * @param pEncryptedData the data
+   * @param outLenHint the expected size of the plaintext, 0 if unknown
+   * @param useUtf8 use UTF-8 encoding
+   * @return the plaintext
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default byte[] C_DecryptSingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pEncryptedData,
+      int outLenHint, boolean useUtf8) throws PKCS11Exception {
+    return C_DecryptSingle(hSession, pMechanism, hKey, pEncryptedData, useUtf8);
+  }
+
   /**
    * C_DecryptUpdate continues a multiple-part decryption operation. (Encryption and decryption)
    *
@@ -675,6 +831,39 @@ public interface PKCS11 {
    */
   byte[] C_DecryptUpdate(long hSession, byte[] pEncryptedPart) throws PKCS11Exception;
 
+  /**
+   * C_DecryptUpdate with the encrypted data part given by the array, offset and length.
+   * The default implementation copies the data part if it is not the whole array.
+   *
+   * @param hSession the session's handle
+   * @param in the buffer containing the encrypted data part
+   * @param inOfs the offset of the encrypted data part in the buffer
+   * @param inLen the length of the encrypted data part
+   * @return the output data part.
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default byte[] C_DecryptUpdate(long hSession, byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    return C_DecryptUpdate(hSession, PKCS11UTIL.subArray(in, inOfs, inLen));
+  }
+
+  /**
+   * C_DecryptUpdate with the encrypted data part given by the remaining bytes of the buffer. The position of the
+   * buffer is advanced by the number of consumed bytes.
+   * The default implementation copies the data part if the buffer is a direct buffer.
+   *
+   * @param hSession the session's handle
+   * @param in the buffer containing the encrypted data part
+   * @return the output data part.
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default byte[] C_DecryptUpdate(long hSession, ByteBuffer in) throws PKCS11Exception {
+    int len = in.remaining();
+    byte[] out = in.hasArray() ? C_DecryptUpdate(hSession, in.array(), in.arrayOffset() + in.position(), len)
+        : C_DecryptUpdate(hSession, PKCS11UTIL.getBytes(in, len));
+    in.position(in.position() + len);
+    return out;
+  }
+
   /**
    * C_DecryptFinal finishes a multiple-part decryption operation. (Encryption and decryption)
    *
@@ -778,6 +967,47 @@ public interface PKCS11 {
   byte[] C_DecryptMessageNext(long hSession, Object pParameter, byte[] pCipherTextPart, long flags, boolean useUtf8)
       throws PKCS11Exception;
 
+  /**
+   * C_DecryptMessageNext with the ciphertext part given by the array, offset and length.
+   * The default implementation copies the ciphertext part if it is not the whole array.
+   *
+   * @param hSession the session's handle
+   * @param pParameter the mechanism parameter
+   * @param in the buffer containing the ciphertext part
+   * @param inOfs the offset of the ciphertext part in the buffer
+   * @param inLen the length of the ciphertext part
+   * @param flags 0 or CKF_END_OF_MESSAGE
+   * @param useUtf8 use UTF-8 encoding
+   * @return the plaintext part.
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default byte[] C_DecryptMessageNext(long hSession, Object pParameter, byte[] in, int inOfs, int inLen,
+                                      long flags, boolean useUtf8) throws PKCS11Exception {
+    return C_DecryptMessageNext(hSession, pParameter, PKCS11UTIL.subArray(in, inOfs, inLen), flags, useUtf8);
+  }
+
+  /**
+   * C_DecryptMessageNext with the ciphertext part given by the remaining bytes of the buffer. The
+   * position of the buffer is advanced by the number of consumed bytes.
+   *
+   * @param hSession the session's handle
+   * @param pParameter the mechanism parameter
+   * @param in the buffer containing the ciphertext part
+   * @param flags 0 or CKF_END_OF_MESSAGE
+   * @param useUtf8 use UTF-8 encoding
+   * @return the plaintext part.
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default byte[] C_DecryptMessageNext(long hSession, Object pParameter, ByteBuffer in, long flags, boolean useUtf8)
+      throws PKCS11Exception {
+    int len = in.remaining();
+    byte[] out = in.hasArray()
+        ? C_DecryptMessageNext(hSession, pParameter, in.array(), in.arrayOffset() + in.position(), len, flags, useUtf8)
+        : C_DecryptMessageNext(hSession, pParameter, PKCS11UTIL.getBytes(in, len), flags, useUtf8);
+    in.position(in.position() + len);
+    return out;
+  }
+
   /**
    * C_MessageDecryptFinal finishes a message-based Decryption process.
    * @param hSession
@@ -821,6 +1051,24 @@ public interface PKCS11 {
    */
   byte[] C_Digest(long hSession, byte[] data) throws PKCS11Exception;
 
+  /**
+   * C_DigestSingle initializes a digesting operation and digests the data in a single part,
+   * equivalent to C_DigestInit followed by C_Digest. The default implementation calls both functions,
+   * an implementation may override it to cross to the PKCS#11 module only once.
+   *
+   * @param hSession the session's handle
+   * @param pMechanism the digesting mechanism
+   * @param data the data
+   * @param useUtf8 use UTF-8 encoding
+   * @return the message digest
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default byte[] C_DigestSingle(long hSession, CK_MECHANISM pMechanism, byte[] data,
+      boolean useUtf8) throws PKCS11Exception {
+    C_DigestInit(hSession, pMechanism, useUtf8);
+    return C_Digest(hSession, data);
+  }
+
   /**
    * C_DigestUpdate continues a multiple-part message-digesting operation. (Message digesting)
    *
@@ -835,6 +1083,39 @@ public interface PKCS11 {
    */
   void C_DigestUpdate(long hSession, byte[] pPart) throws PKCS11Exception;
 
+  /**
+   * C_DigestUpdate with the data part to get digested given by the array, offset and length.
+   * The default implementation copies the data part if it is not the whole array.
+   *
+   * @param hSession the session's handle
+   * @param in the buffer containing the data part to get digested
+   * @param inOfs the offset of the data part to get digested in the buffer
+   * @param inLen the length of the data part to get digested
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default void C_DigestUpdate(long hSession, byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    C_DigestUpdate(hSession, PKCS11UTIL.subArray(in, inOfs, inLen));
+  }
+
+  /**
+   * C_DigestUpdate with the data part to get digested given by the remaining bytes of the buffer. The position of the
+   * buffer is advanced by the number of consumed bytes.
+   * The default implementation copies the data part if the buffer is a direct buffer.
+   *
+   * @param hSession the session's handle
+   * @param in the buffer containing the data part to get digested
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default void C_DigestUpdate(long hSession, ByteBuffer in) throws PKCS11Exception {
+    int len = in.remaining();
+    if (in.hasArray()) {
+      C_DigestUpdate(hSession, in.array(), in.arrayOffset() + in.position(), len);
+    } else {
+      C_DigestUpdate(hSession, PKCS11UTIL.getBytes(in, len));
+    }
+    in.position(in.position() + len);
+  }
+
   /**
    * C_DigestKey continues a multipart message-digesting operation, by digesting the value of a
    * secret key as part of the data already digested. (Message digesting)
@@ -901,6 +1182,46 @@ public interface PKCS11 {
    */
   byte[] C_Sign(long hSession, byte[] pData) throws PKCS11Exception;
 
+  /**
+   * C_SignSingle initializes a signature operation and signs the data in a single part,
+   * equivalent to C_SignInit followed by C_Sign. The default implementation calls both functions,
+   * an implementation may override it to cross to the PKCS#11 module only once.
+   *
+   * @param hSession the session's handle
+   * @param pMechanism the signature mechanism
+   * @param hKey the handle of the key
+   * @param pData the data
+   * @param useUtf8 use UTF-8 encoding
+   * @return the signature
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default byte[] C_SignSingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pData,
+      boolean useUtf8) throws PKCS11Exception {
+    C_SignInit(hSession, pMechanism, hKey, useUtf8);
+    return C_Sign(hSession, pData);
+  }
+
+  /**
+   * Same as C_SignSingle, with a hint of the expected signature size, e.g. derived from the
+   * key size or the padding of the mechanism. The hint is an upper bound, 0 if unknown. An
+   * implementation may use it to allocate the output buffer in one call instead of querying the
+   * size first. The default implementation ignores the hint, as does {@link PKCS11Implementation},
+   * see {@link #isOutputSizeHintSupported()}.
+   *
+   * @param hSession the session's handle
+   * @param pMechanism the signature mechanism
+   * @param hKey the handle of the key
+   * @param pData the data
+   * @param outLenHint the expected size of the signature, 0 if unknown
+   * @param useUtf8 use UTF-8 encoding
+   * @return the signature
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default byte[] C_SignSingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pData,
+      int outLenHint, boolean useUtf8) throws PKCS11Exception {
+    return C_SignSingle(hSession, pMechanism, hKey, pData, useUtf8);
+  }
+
   /**
    * C_SignUpdate continues a multiple-part signature operation, where the signature is (will be) an
    * appendix to the data, and plaintext cannot be recovered from the signature. (Sign and
@@ -917,6 +1238,39 @@ public interface PKCS11 {
    */
   void C_SignUpdate(long hSession, byte[] pPart) throws PKCS11Exception;
 
+  /**
+   * C_SignUpdate with the data part to sign given by the array, offset and length.
+   * The default implementation copies the data part if it is not the whole array.
+   *
+   * @param hSession the session's handle
+   * @param in the buffer containing the data part to sign
+   * @param inOfs the offset of the data part to sign in the buffer
+   * @param inLen the length of the data part to sign
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default void C_SignUpdate(long hSession, byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    C_SignUpdate(hSession, PKCS11UTIL.subArray(in, inOfs, inLen));
+  }
+
+  /**
+   * C_SignUpdate with the data part to sign given by the remaining bytes of the buffer. The position of the
+   * buffer is advanced by the number of consumed bytes.
+   * The default implementation copies the data part if the buffer is a direct buffer.
+   *
+   * @param hSession the session's handle
+   * @param in the buffer containing the data part to sign
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default void C_SignUpdate(long hSession, ByteBuffer in) throws PKCS11Exception {
+    int len = in.remaining();
+    if (in.hasArray()) {
+      C_SignUpdate(hSession, in.array(), in.arrayOffset() + in.position(), len);
+    } else {
+      C_SignUpdate(hSession, PKCS11UTIL.getBytes(in, len));
+    }
+    in.position(in.position() + len);
+  }
+
   /**
    * C_SignFinal finishes a multiple-part signature operation, returning the signature. (Sign and
    * MAC)
@@ -1027,6 +1381,48 @@ public interface PKCS11 {
   byte[] C_SignMessageNext(long hSession, Object pParameter, byte[] pData, boolean isLastOperation,
                            boolean useUtf8) throws PKCS11Exception;
 
+  /**
+   * C_SignMessageNext with the data part given by the array, offset and length.
+   * The default implementation copies the data part if it is not the whole array.
+   *
+   * @param hSession the session's handle
+   * @param pParameter the mechanism parameter
+   * @param in the buffer containing the data part
+   * @param inOfs the offset of the data part in the buffer
+   * @param inLen the length of the data part
+   * @param isLastOperation true if this is the last message.
+   * @param useUtf8 use UTF-8 encoding
+   * @return the signature if isLastOperation is true.
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default byte[] C_SignMessageNext(long hSession, Object pParameter, byte[] in, int inOfs, int inLen,
+                                   boolean isLastOperation, boolean useUtf8) throws PKCS11Exception {
+    return C_SignMessageNext(hSession, pParameter, PKCS11UTIL.subArray(in, inOfs, inLen), isLastOperation, useUtf8);
+  }
+
+  /**
+   * C_SignMessageNext with the data part given by the remaining bytes of the buffer. The position of
+   * the buffer is advanced by the number of consumed bytes.
+   *
+   * @param hSession the session's handle
+   * @param pParameter the mechanism parameter
+   * @param in the buffer containing the data part
+   * @param isLastOperation true if this is the last message.
+   * @param useUtf8 use UTF-8 encoding
+   * @return the signature if isLastOperation is true.
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default byte[] C_SignMessageNext(long hSession, Object pParameter, ByteBuffer in, boolean isLastOperation,
+                                   boolean useUtf8) throws PKCS11Exception {
+    int len = in.remaining();
+    byte[] out = in.hasArray()
+        ? C_SignMessageNext(hSession, pParameter, in.array(), in.arrayOffset() + in.position(), len,
+            isLastOperation, useUtf8)
+        : C_SignMessageNext(hSession, pParameter, PKCS11UTIL.getBytes(in, len), isLastOperation, useUtf8);
+    in.position(in.position() + len);
+    return out;
+  }
+
   /**
    * C_MessageSignFinal finishes a message-based Sign process.
    *
@@ -1078,6 +1474,25 @@ public interface PKCS11 {
    */
   void C_Verify(long hSession, byte[] pData, byte[] pSignature) throws PKCS11Exception;
 
+  /**
+   * C_VerifySingle initializes a verification operation and verifies the data in a single part,
+   * equivalent to C_VerifyInit followed by C_Verify. The default implementation calls both functions,
+   * an implementation may override it to cross to the PKCS#11 module only once.
+   *
+   * @param hSession the session's handle
+   * @param pMechanism the verification mechanism
+   * @param hKey the handle of the key
+   * @param pData the data
+   * @param pSignature the signature to be verified
+   * @param useUtf8 use UTF-8 encoding
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default void C_VerifySingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pData, byte[] pSignature,
+      boolean useUtf8) throws PKCS11Exception {
+    C_VerifyInit(hSession, pMechanism, hKey, useUtf8);
+    C_Verify(hSession, pData, pSignature);
+  }
+
   /**
    * C_VerifyUpdate continues a multiple-part verification operation, where the signature is an
    * appendix to the data, and plaintext cannot be recovered from the signature. (Sign and
@@ -1094,6 +1509,39 @@ public interface PKCS11 {
    */
   void C_VerifyUpdate(long hSession, byte[] pPart) throws PKCS11Exception;
 
+  /**
+   * C_VerifyUpdate with the signed data part given by the array, offset and length.
+   * The default implementation copies the data part if it is not the whole array.
+   *
+   * @param hSession the session's handle
+   * @param in the buffer containing the signed data part
+   * @param inOfs the offset of the signed data part in the buffer
+   * @param inLen the length of the signed data part
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default void C_VerifyUpdate(long hSession, byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    C_VerifyUpdate(hSession, PKCS11UTIL.subArray(in, inOfs, inLen));
+  }
+
+  /**
+   * C_VerifyUpdate with the signed data part given by the remaining bytes of the buffer. The position of the
+   * buffer is advanced by the number of consumed bytes.
+   * The default implementation copies the data part if the buffer is a direct buffer.
+   *
+   * @param hSession the session's handle
+   * @param in the buffer containing the signed data part
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default void C_VerifyUpdate(long hSession, ByteBuffer in) throws PKCS11Exception {
+    int len = in.remaining();
+    if (in.hasArray()) {
+      C_VerifyUpdate(hSession, in.array(), in.arrayOffset() + in.position(), len);
+    } else {
+      C_VerifyUpdate(hSession, PKCS11UTIL.getBytes(in, len));
+    }
+    in.position(in.position() + len);
+  }
+
   /**
    * C_VerifyFinal finishes a multiple-part verification operation, checking the signature. (Sign
    * and MAC)
@@ -1197,6 +1645,47 @@ public interface PKCS11 {
   void C_VerifyMessageNext(long hSession, Object pParameter, byte[] pData, byte[] pSignature, boolean useUtf8)
       throws PKCS11Exception;
 
+  /**
+   * C_VerifyMessageNext with the data part given by the array, offset and length.
+   * The default implementation copies the data part if it is not the whole array.
+   *
+   * @param hSession the session's handle
+   * @param pParameter the mechanism parameter
+   * @param in the buffer containing the data part
+   * @param inOfs the offset of the data part in the buffer
+   * @param inLen the length of the data part
+   * @param pSignature the signature to be verified, null if more data part follows.
+   * @param useUtf8 use UTF-8 encoding
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default void C_VerifyMessageNext(long hSession, Object pParameter, byte[] in, int inOfs, int inLen,
+                                   byte[] pSignature, boolean useUtf8) throws PKCS11Exception {
+    C_VerifyMessageNext(hSession, pParameter, PKCS11UTIL.subArray(in, inOfs, inLen), pSignature, useUtf8);
+  }
+
+  /**
+   * C_VerifyMessageNext with the data part given by the remaining bytes of the buffer. The position of
+   * the buffer is advanced by the number of consumed bytes.
+   *
+   * @param hSession the session's handle
+   * @param pParameter the mechanism parameter
+   * @param in the buffer containing the data part
+   * @param pSignature the signature to be verified, null if more data part follows.
+   * @param useUtf8 use UTF-8 encoding
+   * @exception PKCS11Exception If function returns other value than CKR_OK.
+   */
+  default void C_VerifyMessageNext(long hSession, Object pParameter, ByteBuffer in, byte[] pSignature,
+                                   boolean useUtf8) throws PKCS11Exception {
+    int len = in.remaining();
+    if (in.hasArray()) {
+      C_VerifyMessageNext(hSession, pParameter, in.array(), in.arrayOffset() + in.position(), len,
+          pSignature, useUtf8);
+    } else {
+      C_VerifyMessageNext(hSession, pParameter, PKCS11UTIL.getBytes(in, len), pSignature, useUtf8);
+    }
+    in.position(in.position() + len);
+  }
+
   /**
    * C_MessageSignFinal finishes a message-based Sign process.
    *
@@ -1491,4 +1980,14 @@ public interface PKCS11 {
 
   boolean isDisableBufferPreAllocation();
 
+  /**
+   * Returns whether the output size hints of C_SignSingle, C_EncryptSingle and C_DecryptSingle are
+   * used. If not, the callers need not compute them.
+   *
+   * @return whether the output size hints are used. The default implementation returns false.
+   */
+  default boolean isOutputSizeHintSupported() {
+    return false;
+  }
+
 }
@@ -0,0 +1,204 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package iaik.pkcs.pkcs11.wrapper;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of one PKCS#11 function (e.g. C_Sign) recorded by {@link InstrumentedPKCS11}: the number
+ * of calls and errors, the error codes, the bytes passed in and out, and the latency. All counters
+ * are updated without locking.
+ * <p>
+ * The latency histogram has {@link #NUM_BUCKETS} buckets with exponentially growing bounds: bucket 0
+ * counts the calls faster than 1 microsecond, and bucket i (i &gt; 0) the calls of at least
+ * 2<sup>i-1</sup> and less than 2<sup>i</sup> microseconds. The last bucket counts all slower calls.
+ *
+ * @author Lijun Liao (xipki)
+ */
+public class PKCS11FunctionStats {
+
+  public static final int NUM_BUCKETS = 32;
+
+  private final String name;
+
+  private final LongAdder calls = new LongAdder();
+
+  private final LongAdder errors = new LongAdder();
+
+  private final LongAdder bytesIn = new LongAdder();
+
+  private final LongAdder bytesOut = new LongAdder();
+
+  private final LongAdder totalNanos = new LongAdder();
+
+  private final AtomicLongArray latencyHistogram = new AtomicLongArray(NUM_BUCKETS);
+
+  private final ConcurrentHashMap<Long, LongAdder> errorCodes = new ConcurrentHashMap<>();
+
+  PKCS11FunctionStats(String name) {
+    this.name = name;
+  }
+
+  void record(long startNanos, long inLen, long outLen) {
+    long nanos = System.nanoTime() - startNanos;
+    calls.increment();
+    totalNanos.add(nanos);
+    latencyHistogram.incrementAndGet(bucket(nanos));
+    if (inLen > 0) {
+      bytesIn.add(inLen);
+    }
+    if (outLen > 0) {
+      bytesOut.add(outLen);
+    }
+  }
+
+  void recordError(long startNanos, long inLen, long errorCode) {
+    record(startNanos, inLen, 0);
+    errors.increment();
+    LongAdder counter = errorCodes.get(errorCode);
+    if (counter == null) {
+      counter = errorCodes.computeIfAbsent(errorCode, k -> new LongAdder());
+    }
+    counter.increment();
+  }
+
+  void reset() {
+    calls.reset();
+    errors.reset();
+    bytesIn.reset();
+    bytesOut.reset();
+    totalNanos.reset();
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      latencyHistogram.set(i, 0);
+    }
+    errorCodes.clear();
+  }
+
+  private static int bucket(long nanos) {
+    long micros = nanos / 1000;
+    return micros <= 0 ? 0 : Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+  }
+
+  /**
+   * Returns the exclusive upper bound of the given bucket in nanoseconds.
+   *
+   * @param bucket the index of the bucket.
+   * @return the upper bound in nanoseconds, {@link Long#MAX_VALUE} for the last bucket.
+   */
+  public static long getBucketUpperBoundNanos(int bucket) {
+    return bucket >= NUM_BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) * 1000;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the number of calls, including the failed ones.
+   * @return the number of calls.
+   */
+  public long getCalls() {
+    return calls.sum();
+  }
+
+  /**
+   * Returns the number of calls which failed with a {@link PKCS11Exception}.
+   * @return the number of failed calls.
+   */
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  /**
+   * Returns the number of failed calls per error code (CKR_*).
+   * @return the number of failed calls per error code.
+   */
+  public Map<Long, Long> getErrorCodes() {
+    Map<Long, Long> map = new HashMap<>();
+    for (Map.Entry<Long, LongAdder> entry : errorCodes.entrySet()) {
+      map.put(entry.getKey(), entry.getValue().sum());
+    }
+    return Collections.unmodifiableMap(map);
+  }
+
+  public long getBytesIn() {
+    return bytesIn.sum();
+  }
+
+  public long getBytesOut() {
+    return bytesOut.sum();
+  }
+
+  /**
+   * Returns the total time spent in this function.
+   * @return the total time in nanoseconds.
+   */
+  public long getTotalNanos() {
+    return totalNanos.sum();
+  }
+
+  /**
+   * Returns the average latency.
+   * @return the average latency in nanoseconds, 0 if there was no call.
+   */
+  public long getAverageNanos() {
+    long n = calls.sum();
+    return n == 0 ? 0 : totalNanos.sum() / n;
+  }
+
+  /**
+   * Returns a copy of the latency histogram.
+   * @return the number of calls per bucket.
+   * @see #getBucketUpperBoundNanos(int)
+   */
+  public long[] getLatencyHistogram() {
+    long[] counts = new long[NUM_BUCKETS];
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts[i] = latencyHistogram.get(i);
+    }
+    return counts;
+  }
+
+  /**
+   * Estimates the latency percentile from the histogram.
+   *
+   * @param percentile the percentile, between 0 and 100, e.g. 99.
+   * @return the upper bound of the bucket containing the percentile in nanoseconds, 0 if there was
+   *         no call.
+   */
+  public long getLatencyPercentileNanos(double percentile) {
+    long[] counts = getLatencyHistogram();
+    long total = 0;
+    for (long count : counts) {
+      total += count;
+    }
+
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(total * percentile / 100);
+    long sum = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      sum += counts[i];
+      if (sum >= rank) {
+        return getBucketUpperBoundNanos(i);
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+  @Override
+  public String toString() {
+    return name + ": calls=" + getCalls() + ", errors=" + getErrors() + ", bytesIn=" + getBytesIn()
+        + ", bytesOut=" + getBytesOut() + ", avg=" + getAverageNanos() / 1000 + "us, p99<="
+        + getLatencyPercentileNanos(99) / 1000 + "us";
+  }
+
+}
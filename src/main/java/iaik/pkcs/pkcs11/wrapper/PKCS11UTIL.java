@@ -4,7 +4,9 @@
 package iaik.pkcs.pkcs11.wrapper;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * @author Stiftung SIC
@@ -37,4 +39,30 @@ public class PKCS11UTIL {
     return new String(byteArray, StandardCharsets.UTF_8).toCharArray();
   }
 
+  /**
+   * Returns the sub-array without copying if it is the whole array.
+   *
+   * @param bytes the array, may be null.
+   * @param offset the offset of the sub-array.
+   * @param len the length of the sub-array.
+   * @return the sub-array.
+   */
+  public static byte[] subArray(byte[] bytes, int offset, int len) {
+    return (bytes == null || (offset == 0 && len == bytes.length)) ? bytes
+        : Arrays.copyOfRange(bytes, offset, offset + len);
+  }
+
+  /**
+   * Copies the next len bytes of the buffer, without changing its position.
+   *
+   * @param buffer the buffer.
+   * @param len number of bytes to be copied.
+   * @return the copied bytes.
+   */
+  public static byte[] getBytes(ByteBuffer buffer, int len) {
+    byte[] bytes = new byte[len];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
 }
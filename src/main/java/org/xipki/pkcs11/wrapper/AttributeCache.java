@@ -0,0 +1,216 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.pkcs11.wrapper;
+
+import iaik.pkcs.pkcs11.wrapper.CK_ATTRIBUTE;
+import org.xipki.pkcs11.wrapper.attrs.Attribute;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.xipki.pkcs11.wrapper.PKCS11Constants.*;
+
+/**
+ * Cache of the attribute values read via {@link PKCS11Token}, keyed by object handle and attribute
+ * type. At most <code>maxObjects</code> objects are cached, the least recently used object is
+ * evicted.
+ * <p>
+ * Sensitive attributes (those marked as sensitive, CKA_VALUE and the private RSA components) and
+ * attributes containing templates are never cached. The values are copied into and out of the
+ * cache, so that the callers cannot modify the cached values.
+ * <p>
+ * Values read from the device are only cached if the cache has not been invalidated since the
+ * read started, see {@link #generation()}. Otherwise a value read before a concurrent update or
+ * destruction of the object could be cached after the invalidation.
+ *
+ * @author Lijun Liao (xipki)
+ */
+final class AttributeCache {
+
+  private static final long[] NOT_CACHEABLE_TYPES = {CKA_VALUE, CKA_PRIVATE_EXPONENT, CKA_PRIME_1,
+      CKA_PRIME_2, CKA_EXPONENT_1, CKA_EXPONENT_2, CKA_COEFFICIENT};
+
+  /**
+   * A cached attribute.
+   */
+  private static final class CachedAttribute {
+
+    private final CK_ATTRIBUTE ckAttribute;
+
+    private final boolean present;
+
+    private CachedAttribute(CK_ATTRIBUTE ckAttribute, boolean present) {
+      this.ckAttribute = ckAttribute;
+      this.present = present;
+    }
+
+  }
+
+  private final int maxObjects;
+
+  /**
+   * Cached attributes per object handle in access order. Guarded by this.
+   */
+  private final LinkedHashMap<Long, LongMap<CachedAttribute>> objects;
+
+  /**
+   * Incremented on each invalidation. Guarded by this.
+   */
+  private long generation;
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  private final LongAdder evictions = new LongAdder();
+
+  AttributeCache(int maxObjects) {
+    if (maxObjects < 1) {
+      throw new IllegalArgumentException("maxObjects is not positive: " + maxObjects);
+    }
+    this.maxObjects = maxObjects;
+    this.objects = new LinkedHashMap<Long, LongMap<CachedAttribute>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, LongMap<CachedAttribute>> eldest) {
+        if (size() > AttributeCache.this.maxObjects) {
+          evictions.increment();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  static boolean isCacheable(Attribute attr) {
+    if (attr.isSensitive()) {
+      return false;
+    }
+
+    long type = attr.getType();
+    for (long t : NOT_CACHEABLE_TYPES) {
+      if (t == type) {
+        return false;
+      }
+    }
+
+    Object value = attr.getCkAttribute().pValue;
+    return !(value instanceof CK_ATTRIBUTE[]);
+  }
+
+  /**
+   * Returns a copy of the cached attribute.
+   *
+   * @param objectHandle the object handle.
+   * @param type the attribute type.
+   * @return the copy of the cached attribute, or null if not cached.
+   */
+  Attribute get(long objectHandle, long type) {
+    CachedAttribute entry;
+    synchronized (this) {
+      LongMap<CachedAttribute> attrs = objects.get(objectHandle);
+      entry = attrs == null ? null : attrs.get(type);
+    }
+
+    if (entry == null) {
+      misses.increment();
+      return null;
+    }
+
+    hits.increment();
+    return Attribute.getInstance(type).ckAttribute(copy(entry.ckAttribute)).present(entry.present);
+  }
+
+  /**
+   * Returns the current generation of the cache. It must be retrieved before the values to be
+   * cached are read from the device.
+   *
+   * @return the current generation.
+   */
+  synchronized long generation() {
+    return generation;
+  }
+
+  /**
+   * Caches copies of the cacheable attributes, unless the cache has been invalidated since the
+   * given generation.
+   *
+   * @param objectHandle the object handle.
+   * @param attrs the attributes read from the device.
+   * @param generation the generation retrieved before the attributes were read.
+   */
+  void put(long objectHandle, List<Attribute> attrs, long generation) {
+    List<CachedAttribute> entries = new ArrayList<>(attrs.size());
+    for (Attribute attr : attrs) {
+      entries.add(isCacheable(attr) ? new CachedAttribute(copy(attr.getCkAttribute()), attr.isPresent()) : null);
+    }
+
+    synchronized (this) {
+      if (generation != this.generation) {
+        return;
+      }
+
+      LongMap<CachedAttribute> cachedAttrs = null;
+      for (int i = 0; i < entries.size(); i++) {
+        CachedAttribute entry = entries.get(i);
+        if (entry == null) {
+          continue;
+        }
+
+        if (cachedAttrs == null) {
+          cachedAttrs = objects.get(objectHandle);
+          if (cachedAttrs == null) {
+            cachedAttrs = new LongMap<>();
+            objects.put(objectHandle, cachedAttrs);
+          }
+        }
+        cachedAttrs.put(attrs.get(i).getType(), entry);
+      }
+    }
+  }
+
+  synchronized void remove(long objectHandle) {
+    generation++;
+    objects.remove(objectHandle);
+  }
+
+  synchronized void clear() {
+    generation++;
+    objects.clear();
+  }
+
+  synchronized int size() {
+    return objects.size();
+  }
+
+  long getHits() {
+    return hits.sum();
+  }
+
+  long getMisses() {
+    return misses.sum();
+  }
+
+  long getEvictions() {
+    return evictions.sum();
+  }
+
+  private static CK_ATTRIBUTE copy(CK_ATTRIBUTE ckAttr) {
+    CK_ATTRIBUTE copy = new CK_ATTRIBUTE();
+    copy.type = ckAttr.type;
+    Object value = ckAttr.pValue;
+    if (value instanceof byte[]) {
+      value = ((byte[]) value).clone();
+    } else if (value instanceof char[]) {
+      value = ((char[]) value).clone();
+    } else if (value instanceof long[]) {
+      value = ((long[]) value).clone();
+    }
+    copy.pValue = value;
+    return copy;
+  }
+
+}
@@ -14,12 +14,35 @@ import static org.xipki.pkcs11.wrapper.PKCS11Constants.*;
 
 /**
  * Object of this class represents the attribute vector.
+ * <p>
+ * The attributes are kept in insertion order in an array. An open-addressing hash table keyed by
+ * the attribute type maps to the position in this array, so that setting and getting an attribute
+ * does not scan the attributes. Setting an attribute which is already present replaces it at its
+ * position.
  *
  * @author Lijun Liao (xipki)
  */
 public class AttributeVector {
 
-  private final List<Attribute> attributes = new LinkedList<>();
+  private static final int INITIAL_CAPACITY = 8;
+
+  /**
+   * The attributes in insertion order, the first {@link #size} elements are used.
+   */
+  private Attribute[] attributes = new Attribute[INITIAL_CAPACITY];
+
+  private int size;
+
+  /**
+   * Hash table of the attribute types, linear probing. Length is a power of 2 and at least twice
+   * the length of {@link #attributes}.
+   */
+  private long[] slotTypes = new long[2 * INITIAL_CAPACITY];
+
+  /**
+   * Index in {@link #attributes} plus 1 of the attribute in the corresponding slot, 0 for an empty slot.
+   */
+  private int[] slotIndexes = new int[2 * INITIAL_CAPACITY];
 
   public AttributeVector() {
   }
@@ -99,44 +122,98 @@ public class AttributeVector {
   }
 
   public AttributeVector attr(Attribute attr) {
-    if (!attributes.isEmpty()) {
-      long type = attr.getType();
-      int oldAttrIdx = -1;
-      for (int i = 0; i < attributes.size(); i++) {
-        if (attributes.get(i).getType() == type) {
-          oldAttrIdx = i;
-          break;
-        }
+    long type = attr.getType();
+    int mask = slotTypes.length - 1;
+    int slot = slot(type, mask);
+    while (slotIndexes[slot] != 0) {
+      if (slotTypes[slot] == type) {
+        attributes[slotIndexes[slot] - 1] = attr;
+        return this;
       }
+      slot = (slot + 1) & mask;
+    }
 
-      if (oldAttrIdx != -1) {
-        attributes.remove(oldAttrIdx);
+    if (size == attributes.length) {
+      grow();
+      mask = slotTypes.length - 1;
+      slot = slot(type, mask);
+      while (slotIndexes[slot] != 0) {
+        slot = (slot + 1) & mask;
       }
     }
 
-    attributes.add(attr);
+    attributes[size++] = attr;
+    slotTypes[slot] = type;
+    slotIndexes[slot] = size;
     return this;
   }
 
+  private static int slot(long type, int mask) {
+    long h = type * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+
+  private void grow() {
+    attributes = Arrays.copyOf(attributes, attributes.length * 2);
+    slotTypes = new long[attributes.length * 2];
+    slotIndexes = new int[attributes.length * 2];
+    int mask = slotTypes.length - 1;
+    for (int i = 0; i < size; i++) {
+      long type = attributes[i].getType();
+      int slot = slot(type, mask);
+      while (slotIndexes[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slotTypes[slot] = type;
+      slotIndexes[slot] = i + 1;
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
   public List<Attribute> snapshot() {
-    return Collections.unmodifiableList(attributes);
+    return Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(attributes, size)));
   }
 
   public CK_ATTRIBUTE[] toCkAttributes() {
-    List<CK_ATTRIBUTE> attributeList = new ArrayList<>();
-    for (Attribute attribute : attributes) {
-      if (attribute.isPresent()) {
-        attributeList.add(attribute.getCkAttribute());
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      if (attributes[i].isPresent()) {
+        count++;
+      }
+    }
+
+    CK_ATTRIBUTE[] ckAttributes = new CK_ATTRIBUTE[count];
+    int index = 0;
+    for (int i = 0; i < size; i++) {
+      if (attributes[i].isPresent()) {
+        ckAttributes[index++] = attributes[i].getCkAttribute();
       }
     }
-    return attributeList.toArray(new CK_ATTRIBUTE[0]);
+    return ckAttributes;
+  }
+
+  /**
+   * Converts this attribute vector once into a {@link FrozenTemplate} bound to the given module.
+   *
+   * @param module The module the template is used with.
+   * @return the frozen template.
+   */
+  public FrozenTemplate freeze(PKCS11Module module) {
+    return new FrozenTemplate(module, this);
   }
 
   public Attribute getAttribute(long type) {
-    for (Attribute attr : attributes) {
-      if (attr.getType() == type) {
-        return attr;
+    int mask = slotTypes.length - 1;
+    int slot = slot(type, mask);
+    int index;
+    while ((index = slotIndexes[slot]) != 0) {
+      if (slotTypes[slot] == type) {
+        return attributes[index - 1];
       }
+      slot = (slot + 1) & mask;
     }
     return null;
   }
@@ -180,7 +257,7 @@ public class AttributeVector {
     }
 
     // sort the attributes to print
-    List<Attribute> copy = new ArrayList<>(attributes);
+    List<Attribute> copy = new ArrayList<>(Arrays.asList(attributes).subList(0, size));
     copy.sort(Comparator.comparingLong(Attribute::getType));
 
     int nameLen = 0;
@@ -1153,12 +1230,10 @@ public class AttributeVector {
   }
 
   public AttributeVector attributesAsSensitive(long... ckaTypes) {
-    for (Attribute attr : attributes) {
-      for (long type : ckaTypes) {
-        if (attr.type() == type) {
-          attr.sensitive(true);
-          break;
-        }
+    for (long type : ckaTypes) {
+      Attribute attr = getAttribute(type);
+      if (attr != null) {
+        attr.sensitive(true);
       }
     }
     return this;
@@ -0,0 +1,99 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.pkcs11.wrapper;
+
+import iaik.pkcs.pkcs11.wrapper.CK_ATTRIBUTE;
+import org.xipki.pkcs11.wrapper.attrs.Attribute;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.xipki.pkcs11.wrapper.PKCS11Constants.*;
+
+/**
+ * An immutable attribute template bound to a module. The {@link AttributeVector} is converted once
+ * into the CK_ATTRIBUTE[] passed to the module, including the vendor code mapping, so that a frozen
+ * template can be used by many threads concurrently for the search and creation of objects without
+ * any further conversion or allocation.
+ * <p>
+ * Use {@link AttributeVector#freeze(PKCS11Module)} to create a frozen template. Later changes of
+ * the source {@link AttributeVector} do not affect the frozen template.
+ *
+ * @author Lijun Liao (xipki)
+ */
+public final class FrozenTemplate {
+
+  private final PKCS11Module module;
+
+  /**
+   * All present attributes, used to create objects.
+   */
+  private final CK_ATTRIBUTE[] ckAttributes;
+
+  /**
+   * All present attributes with non-null value, used to search objects.
+   */
+  private final CK_ATTRIBUTE[] searchCkAttributes;
+
+  /**
+   * The string representation, computed on first use.
+   */
+  private volatile String text;
+
+  FrozenTemplate(PKCS11Module module, AttributeVector template) {
+    this.module = Functions.requireNonNull("module", module);
+    this.ckAttributes = Session.toOutCKAttributes(module, template, false, true);
+
+    List<CK_ATTRIBUTE> nonNullCkAttrs = new ArrayList<>(ckAttributes.length);
+    for (CK_ATTRIBUTE ckAttr : ckAttributes) {
+      if (ckAttr.pValue != null) {
+        nonNullCkAttrs.add(ckAttr);
+      }
+    }
+    this.searchCkAttributes = nonNullCkAttrs.size() == ckAttributes.length
+        ? ckAttributes : nonNullCkAttrs.toArray(new CK_ATTRIBUTE[0]);
+  }
+
+  public PKCS11Module getModule() {
+    return module;
+  }
+
+  CK_ATTRIBUTE[] toCkAttributes(PKCS11Module module, boolean withoutNullValueAttr) {
+    if (module != this.module) {
+      throw new IllegalArgumentException("template is frozen for another module");
+    }
+    return withoutNullValueAttr ? searchCkAttributes : ckAttributes;
+  }
+
+  /**
+   * Returns the string representation of this object.
+   *
+   * @return the string representation of this object
+   */
+  @Override
+  public String toString() {
+    String str = text;
+    if (str == null) {
+      // build the attributes from copies of the CK_ATTRIBUTEs, so that marking them as sensitive
+      // does not change anything used by the module or by the caller.
+      AttributeVector attrs = new AttributeVector();
+      for (CK_ATTRIBUTE ckAttr : ckAttributes) {
+        CK_ATTRIBUTE copy = new CK_ATTRIBUTE();
+        copy.type = ckAttr.type;
+        copy.pValue = (ckAttr.type == CKA_KEY_TYPE && ckAttr.pValue != null)
+            ? module.vendorToGenericCode(Category.CKK, (long) ckAttr.pValue) : ckAttr.pValue;
+        attrs.attr(Attribute.getInstance(ckAttr.type).present(true).ckAttribute(copy));
+      }
+
+      Long objClass = attrs.class_();
+      if (objClass != null && (objClass == CKO_PRIVATE_KEY || objClass == CKO_SECRET_KEY)) {
+        attrs.attributesAsSensitive(CKA_VALUE, // secret key, DSA, EC
+            CKA_PRIVATE_EXPONENT, CKA_PRIME_1, CKA_PRIME_2, CKA_EXPONENT_1, CKA_EXPONENT_2, CKA_COEFFICIENT); // RSA
+      }
+      text = str = "Frozen " + attrs;
+    }
+    return str;
+  }
+
+}
@@ -0,0 +1,156 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.pkcs11.wrapper;
+
+import java.util.Arrays;
+
+/**
+ * A hash map with primitive <code>long</code> keys (open addressing with linear probing), used
+ * for the registries of codes, names and attribute types. Looking up a key neither boxes the key
+ * nor allocates any object. Null values are not supported.
+ * <p>
+ * This class is not thread-safe. The registries are built once and then only read, or are
+ * replaced by a modified {@link #copy()}.
+ *
+ * @param <V> the type of the values.
+ * @author Lijun Liao (xipki)
+ */
+public final class LongMap<V> {
+
+  private long[] keys;
+
+  /**
+   * The values, null for an empty slot.
+   */
+  private Object[] values;
+
+  private int size;
+
+  public LongMap() {
+    this(16);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param expectedSize the expected number of entries.
+   */
+  public LongMap(int expectedSize) {
+    int capacity = 16;
+    while (capacity < 2 * expectedSize) {
+      capacity <<= 1;
+    }
+    keys = new long[capacity];
+    values = new Object[capacity];
+  }
+
+  private static int slot(long key, int mask) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+
+  @SuppressWarnings("unchecked")
+  public V get(long key) {
+    int mask = keys.length - 1;
+    int slot = slot(key, mask);
+    Object value;
+    while ((value = values[slot]) != null) {
+      if (keys[slot] == key) {
+        return (V) value;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return null;
+  }
+
+  public V getOrDefault(long key, V defaultValue) {
+    V value = get(key);
+    return value == null ? defaultValue : value;
+  }
+
+  public boolean containsKey(long key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Associates the value with the key.
+   *
+   * @param key the key.
+   * @param value the value, must not be null.
+   * @return the previous value of the key, or null.
+   */
+  @SuppressWarnings("unchecked")
+  public V put(long key, V value) {
+    Functions.requireNonNull("value", value);
+    int mask = keys.length - 1;
+    int slot = slot(key, mask);
+    Object oldValue;
+    while ((oldValue = values[slot]) != null) {
+      if (keys[slot] == key) {
+        values[slot] = value;
+        return (V) oldValue;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    keys[slot] = key;
+    values[slot] = value;
+    if (++size * 2 > keys.length) {
+      rehash(keys.length * 2);
+    }
+    return null;
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    keys = new long[capacity];
+    values = new Object[capacity];
+    int mask = capacity - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldValues[i] != null) {
+        int slot = slot(oldKeys[i], mask);
+        while (values[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns the keys in ascending order.
+   *
+   * @return the sorted keys.
+   */
+  public long[] keys() {
+    long[] ret = new long[size];
+    int index = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (values[i] != null) {
+        ret[index++] = keys[i];
+      }
+    }
+    Arrays.sort(ret);
+    return ret;
+  }
+
+  public LongMap<V> copy() {
+    LongMap<V> copy = new LongMap<>(0);
+    copy.keys = keys.clone();
+    copy.values = values.clone();
+    copy.size = size;
+    return copy;
+  }
+
+}
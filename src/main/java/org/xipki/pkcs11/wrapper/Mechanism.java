@@ -7,6 +7,7 @@
 package org.xipki.pkcs11.wrapper;
 
 import iaik.pkcs.pkcs11.wrapper.*;
+import org.xipki.pkcs11.wrapper.params.CkMessageParams;
 import org.xipki.pkcs11.wrapper.params.CkParams;
 
 import static org.xipki.pkcs11.wrapper.PKCS11Constants.Category.CKM;
@@ -14,6 +15,10 @@ import static org.xipki.pkcs11.wrapper.PKCS11Constants.Category.CKM;
 /**
  * Objects of this class represent a mechanism as defined in PKCS#11. There are
  * constants defined for all mechanisms that PKCS#11 version 2.11 defines.
+ * <p>
+ * A mechanism created via the constructors is bound to a module lazily by each operation. Use
+ * {@link #bind(PKCS11Module)} to get an immutable mechanism whose vendor code and native
+ * parameters are resolved once, and which can be shared by all threads without synchronization.
  *
  * @author Karl Scheibelhofer (SIC)
  * @author Lijun Liao (xipki)
@@ -33,6 +38,16 @@ public class Mechanism {
    */
   private final CkParams parameters;
 
+  /**
+   * The module this mechanism is bound to, null if not bound.
+   */
+  private final PKCS11Module boundModule;
+
+  /**
+   * The precompiled native mechanism, null if not bound.
+   */
+  private final CK_MECHANISM ckMechanism;
+
   /**
    * Constructor taking just the mechanism code as defined in PKCS11Constants.
    *
@@ -52,9 +67,83 @@ public class Mechanism {
   public Mechanism(long mechanismCode, CkParams parameters) {
     this.mechanismCode = mechanismCode;
     this.parameters = parameters;
+    this.boundModule = null;
+    this.ckMechanism = null;
+  }
+
+  private Mechanism(Mechanism mechanism, PKCS11Module module) {
+    this.mechanismCode = mechanism.mechanismCode;
+    this.parameters = mechanism.parameters;
+    this.boundModule = module;
+
+    CK_MECHANISM ckMech = new CK_MECHANISM();
+    ckMech.mechanism = module.genericToVendorCode(CKM, mechanismCode);
+    if (parameters != null) {
+      // the parameters may be shared with other mechanisms, do not change their module.
+      ckMech.pParameter = parameters.getParams(module);
+    }
+    this.ckMechanism = ckMech;
+  }
+
+  /**
+   * Returns an immutable copy of this mechanism bound to the given module. The vendor code and the
+   * native parameters are resolved once here, so that the bound mechanism can be used by many
+   * threads concurrently, and each operation uses the precompiled CK_MECHANISM without any further
+   * allocation or lookup.
+   * <p>
+   * The parameters must not be modified after the binding. Message parameters, which are updated
+   * by the module, are not allowed.
+   *
+   * @param module The module to bind to.
+   * @return the bound mechanism.
+   * @throws IllegalArgumentException if the parameters are message parameters.
+   */
+  public Mechanism bind(PKCS11Module module) {
+    Functions.requireNonNull("module", module);
+    if (boundModule == module) {
+      return this;
+    }
+
+    if (parameters instanceof CkMessageParams) {
+      throw new IllegalArgumentException("mechanism with message parameters cannot be bound");
+    }
+    return new Mechanism(this, module);
+  }
+
+  /**
+   * Same as {@link #bind(PKCS11Module)}, but also accepts message parameters. Used by the
+   * {@link Session} to bind the mechanism of a single operation.
+   *
+   * @param module The module to bind to.
+   * @return the bound mechanism.
+   * @throws IllegalArgumentException if this mechanism is bound to another module.
+   */
+  Mechanism bindTo(PKCS11Module module) {
+    if (boundModule == module) {
+      return this;
+    } else if (boundModule != null) {
+      throw new IllegalArgumentException("mechanism is bound to another module");
+    }
+    return new Mechanism(this, module);
+  }
+
+  /**
+   * Whether this mechanism is bound to a module via {@link #bind(PKCS11Module)}.
+   *
+   * @return true if this mechanism is bound, false otherwise.
+   */
+  public boolean isBound() {
+    return boundModule != null;
   }
 
   public void setModule(PKCS11Module module) {
+    if (boundModule != null) {
+      if (module != boundModule) {
+        throw new IllegalArgumentException("mechanism is bound to another module");
+      }
+      return;
+    }
+
     this.module = module;
     if (parameters != null) {
       parameters.setModule(module);
@@ -86,6 +175,7 @@ public class Mechanism {
    * @return The name of this mechanism.
    */
   public String getName() {
+    PKCS11Module module = boundModule != null ? boundModule : this.module;
     if (module == null) {
       return PKCS11Constants.ckmCodeToName(mechanismCode);
     }
@@ -101,6 +191,10 @@ public class Mechanism {
   }
 
   CK_MECHANISM toCkMechanism() {
+    if (ckMechanism != null) {
+      return ckMechanism;
+    }
+
     if (module == null) {
       throw new IllegalStateException("module is not set");
     }
@@ -0,0 +1,195 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.pkcs11.wrapper;
+
+import org.xipki.pkcs11.wrapper.params.CCM_PARAMS;
+import org.xipki.pkcs11.wrapper.params.CkParams;
+import org.xipki.pkcs11.wrapper.params.GCM_PARAMS;
+
+import java.math.BigInteger;
+
+import static org.xipki.pkcs11.wrapper.PKCS11Constants.*;
+
+/**
+ * Computes the expected output size of single-part sign, encrypt and decrypt operations, passed as
+ * output size hint to the {@link iaik.pkcs.pkcs11.wrapper.PKCS11} implementation. The size is derived
+ * from the mechanism and the input length, for asymmetric keys from the key size attribute if known,
+ * otherwise from the maximal key size of the {@link MechanismInfo}.
+ * <p>
+ * A hint is an upper bound of the output size, 0 means unknown.
+ *
+ * @author Lijun Liao (xipki)
+ */
+final class OutputSizeHints {
+
+  private static final LongMap<Integer> MAC_SIZES = new LongMap<>();
+
+  private static final LongMap<Integer> PAD_BLOCK_SIZES = new LongMap<>();
+
+  private static final long[] SAME_SIZE_CIPHERS = {CKM_AES_ECB, CKM_AES_CBC, CKM_AES_CTR, CKM_AES_OFB,
+      CKM_AES_CFB128, CKM_DES3_ECB, CKM_DES3_CBC, CKM_VENDOR_SM4_ECB, CKM_VENDOR_SM4_CBC};
+
+  private static final long[] RSA_MECHANISMS = {CKM_RSA_PKCS, CKM_RSA_X_509, CKM_RSA_PKCS_OAEP, CKM_RSA_PKCS_PSS,
+      CKM_SHA1_RSA_PKCS, CKM_SHA224_RSA_PKCS, CKM_SHA256_RSA_PKCS, CKM_SHA384_RSA_PKCS, CKM_SHA512_RSA_PKCS,
+      CKM_SHA1_RSA_PKCS_PSS, CKM_SHA224_RSA_PKCS_PSS, CKM_SHA256_RSA_PKCS_PSS, CKM_SHA384_RSA_PKCS_PSS,
+      CKM_SHA512_RSA_PKCS_PSS, CKM_SHA3_224_RSA_PKCS, CKM_SHA3_256_RSA_PKCS, CKM_SHA3_384_RSA_PKCS,
+      CKM_SHA3_512_RSA_PKCS, CKM_SHA3_224_RSA_PKCS_PSS, CKM_SHA3_256_RSA_PKCS_PSS, CKM_SHA3_384_RSA_PKCS_PSS,
+      CKM_SHA3_512_RSA_PKCS_PSS};
+
+  private static final long[] ECDSA_MECHANISMS = {CKM_ECDSA, CKM_ECDSA_SHA1, CKM_ECDSA_SHA224, CKM_ECDSA_SHA256,
+      CKM_ECDSA_SHA384, CKM_ECDSA_SHA512, CKM_ECDSA_SHA3_224, CKM_ECDSA_SHA3_256, CKM_ECDSA_SHA3_384,
+      CKM_ECDSA_SHA3_512};
+
+  static {
+    MAC_SIZES.put(CKM_SHA_1_HMAC, 20);
+    MAC_SIZES.put(CKM_SHA224_HMAC, 28);
+    MAC_SIZES.put(CKM_SHA256_HMAC, 32);
+    MAC_SIZES.put(CKM_SHA384_HMAC, 48);
+    MAC_SIZES.put(CKM_SHA512_HMAC, 64);
+    MAC_SIZES.put(CKM_SHA3_224_HMAC, 28);
+    MAC_SIZES.put(CKM_SHA3_256_HMAC, 32);
+    MAC_SIZES.put(CKM_SHA3_384_HMAC, 48);
+    MAC_SIZES.put(CKM_SHA3_512_HMAC, 64);
+    MAC_SIZES.put(CKM_AES_CMAC, 16);
+    MAC_SIZES.put(CKM_DES3_CMAC, 8);
+    // SM2 signature: r || s of 32 bytes each
+    MAC_SIZES.put(CKM_VENDOR_SM2, 64);
+    MAC_SIZES.put(CKM_VENDOR_SM2_SM3, 64);
+
+    PAD_BLOCK_SIZES.put(CKM_AES_CBC_PAD, 16);
+    PAD_BLOCK_SIZES.put(CKM_DES3_CBC_PAD, 8);
+  }
+
+  private OutputSizeHints() {
+  }
+
+  /**
+   * Returns the attribute of the key which determines the output size of the given mechanism.
+   *
+   * @param mechanism the mechanism.
+   * @return CKA_MODULUS for RSA, CKA_EC_PARAMS for ECDSA and EdDSA, and 0 if the size does not
+   *         depend on the key.
+   */
+  static long keySizeAttribute(Mechanism mechanism) {
+    long code = mechanism.getMechanismCode();
+    if (contains(RSA_MECHANISMS, code)) {
+      return CKA_MODULUS;
+    } else if (code == CKM_EDDSA || contains(ECDSA_MECHANISMS, code)) {
+      return CKA_EC_PARAMS;
+    } else {
+      return 0;
+    }
+  }
+
+  /**
+   * Returns the expected size of the signature or MAC.
+   *
+   * @param mechanism the mechanism.
+   * @param mechInfo the information of the mechanism, may be null.
+   * @param keyAttrs the attribute {@link #keySizeAttribute(Mechanism)} of the key, may be null.
+   * @return the expected size, 0 if unknown.
+   */
+  static int sign(Mechanism mechanism, MechanismInfo mechInfo, AttributeVector keyAttrs) {
+    long code = mechanism.getMechanismCode();
+    Integer macSize = MAC_SIZES.get(code);
+    if (macSize != null) {
+      return macSize;
+    } else if (contains(RSA_MECHANISMS, code)) {
+      return rsaSize(mechInfo, keyAttrs);
+    } else if (contains(ECDSA_MECHANISMS, code)) {
+      int bits = ecOrderBits(mechInfo, keyAttrs);
+      return 2 * ((bits + 7) / 8);
+    } else if (code == CKM_EDDSA) {
+      // Ed25519: 64 bytes, Ed448: 114 bytes
+      Integer bits = keyAttrs == null ? null : ecOrderBits(keyAttrs.ecParams());
+      return bits != null && bits <= 256 ? 64 : 114;
+    } else {
+      return 0;
+    }
+  }
+
+  /**
+   * Returns the expected size of the ciphertext.
+   *
+   * @param mechanism the mechanism.
+   * @param mechInfo the information of the mechanism, may be null.
+   * @param keyAttrs the attribute {@link #keySizeAttribute(Mechanism)} of the key, may be null.
+   * @param inLen the length of the plaintext.
+   * @return the expected size, 0 if unknown.
+   */
+  static int encrypt(Mechanism mechanism, MechanismInfo mechInfo, AttributeVector keyAttrs, int inLen) {
+    long code = mechanism.getMechanismCode();
+    Integer blockSize = PAD_BLOCK_SIZES.get(code);
+    if (blockSize != null) {
+      return (inLen / blockSize + 1) * blockSize;
+    } else if (contains(SAME_SIZE_CIPHERS, code)) {
+      return inLen;
+    } else if (code == CKM_AES_GCM || code == CKM_AES_CCM) {
+      int tagLen = tagLen(mechanism.getParameters());
+      return tagLen == 0 ? 0 : inLen + tagLen;
+    } else if (contains(RSA_MECHANISMS, code)) {
+      return rsaSize(mechInfo, keyAttrs);
+    } else {
+      return 0;
+    }
+  }
+
+  /**
+   * Returns the maximal size of the plaintext.
+   *
+   * @param mechanism the mechanism.
+   * @param inLen the length of the ciphertext.
+   * @return the maximal size, 0 if unknown.
+   */
+  static int decrypt(Mechanism mechanism, int inLen) {
+    long code = mechanism.getMechanismCode();
+    if (PAD_BLOCK_SIZES.containsKey(code) || contains(SAME_SIZE_CIPHERS, code) || contains(RSA_MECHANISMS, code)) {
+      return inLen;
+    } else if (code == CKM_AES_GCM || code == CKM_AES_CCM) {
+      int tagLen = tagLen(mechanism.getParameters());
+      return tagLen == 0 ? 0 : Math.max(0, inLen - tagLen);
+    } else {
+      return 0;
+    }
+  }
+
+  private static int rsaSize(MechanismInfo mechInfo, AttributeVector keyAttrs) {
+    BigInteger modulus = keyAttrs == null ? null : keyAttrs.modulus();
+    long bits = modulus != null ? modulus.bitLength() : mechInfo != null ? mechInfo.getMaxKeySize() : 0;
+    return (int) Math.min(Integer.MAX_VALUE, (bits + 7) / 8);
+  }
+
+  private static int ecOrderBits(MechanismInfo mechInfo, AttributeVector keyAttrs) {
+    Integer bits = keyAttrs == null ? null : ecOrderBits(keyAttrs.ecParams());
+    if (bits != null) {
+      return bits;
+    }
+    // the key size of EC mechanisms is the field size, which is the order size of the usual curves.
+    return mechInfo == null ? 0 : (int) Math.min(4096, mechInfo.getMaxKeySize());
+  }
+
+  private static Integer ecOrderBits(byte[] ecParams) {
+    return ecParams == null ? null : Functions.getCurveOrderBitLength(ecParams);
+  }
+
+  private static int tagLen(CkParams params) {
+    if (params instanceof GCM_PARAMS) {
+      return (int) ((GCM_PARAMS) params).getParams().ulTagBits / 8;
+    } else if (params instanceof CCM_PARAMS) {
+      return (int) ((CCM_PARAMS) params).getParams().ulMacLen;
+    } else {
+      return 0;
+    }
+  }
+
+  private static boolean contains(long[] codes, long code) {
+    for (long c : codes) {
+      if (c == code) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
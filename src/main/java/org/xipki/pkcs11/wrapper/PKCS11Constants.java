@@ -1265,7 +1265,7 @@ public final class PKCS11Constants {
     private static final String pathPrefix = "org/xipki/pkcs11/wrapper/";
     private final Category category;
 
-    private final Map<Long, String> codeNameMap;
+    private final LongMap<String> codeNameMap;
     private final Map<String, Long> nameCodeMap;
 
     CodeNameMap(Category category) {
@@ -1273,7 +1273,7 @@ public final class PKCS11Constants {
       this.category = category;
 
       String prefix = category.prefix;
-      codeNameMap = new HashMap<>();
+      codeNameMap = new LongMap<>(1000);
       nameCodeMap = new HashMap<>();
       Properties props = new Properties();
       try {
@@ -1312,8 +1312,7 @@ public final class PKCS11Constants {
           }
         }
 
-        Set<Long> codes = codeNameMap.keySet();
-        for (Long code : codes) {
+        for (long code : codeNameMap.keys()) {
           nameCodeMap.put(codeNameMap.get(code), code);
         }
       } catch (Throwable t) {
@@ -1334,8 +1333,8 @@ public final class PKCS11Constants {
       return nameCodeMap.get(name);
     }
 
-    Set<Long> codes() {
-      return codeNameMap.keySet();
+    long[] codes() {
+      return codeNameMap.keys();
     }
 
   }
@@ -1415,14 +1414,14 @@ public final class PKCS11Constants {
     return nameToCode(Category.CKR, name);
   }
 
-  private static final Map<Category, CodeNameMap> codeNameMaps = new HashMap<>(20);
-  private static final Map<Long, String> hashMechCodeToHashNames;
+  private static final Map<Category, CodeNameMap> codeNameMaps = new EnumMap<>(Category.class);
+  private static final LongMap<String> hashMechCodeToHashNames;
   public static String getHashAlgName(long hashMechanism) {
     return hashMechCodeToHashNames.get(hashMechanism);
   }
 
   static {
-    hashMechCodeToHashNames = new HashMap<>();
+    hashMechCodeToHashNames = new LongMap<>();
     hashMechCodeToHashNames.put(CKM_SHA_1, "SHA1");
     hashMechCodeToHashNames.put(CKM_SHA224, "SHA224");
     hashMechCodeToHashNames.put(CKM_SHA256, "SHA256");
@@ -0,0 +1,157 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.pkcs11.wrapper;
+
+/**
+ * Emits JDK Flight Recorder (JFR) events for the PKCS#11 calls made by {@link Session}, and for
+ * borrowing sessions, opening sessions and logging in by {@link PKCS11Token}. The events are
+ * named org.xipki.pkcs11.Call, org.xipki.pkcs11.SessionBorrow, org.xipki.pkcs11.SessionOpen and
+ * org.xipki.pkcs11.Login, and are enabled via the JFR settings like any other event.
+ * <p>
+ * If the JVM does not provide JFR, if the library has been built without the events (the events are
+ * only compiled with JDK 11 or above), or if the system property
+ * <code>org.xipki.pkcs11.jfr.disabled</code> is set to true, no event is emitted. The is*Enabled()
+ * checks are cheap, the events are only created and filled if they are enabled in a running
+ * recording.
+ *
+ * @author Lijun Liao (xipki)
+ */
+final class PKCS11Events {
+
+  /**
+   * Creates and commits the events. Implemented by JfrEvents.
+   */
+  interface Recorder {
+
+    boolean isCallEnabled();
+
+    boolean isSessionBorrowEnabled();
+
+    boolean isSessionOpenEnabled();
+
+    boolean isLoginEnabled();
+
+    Object beginCall(String function, long sessionHandle);
+
+    void setCallMechanism(Object event, String mechanism);
+
+    void setCallKeyHandle(Object event, long keyHandle);
+
+    void addCallBytes(Object event, long bytesIn, long bytesOut);
+
+    void commitCall(Object event, String ckr);
+
+    Object beginSessionBorrow();
+
+    void commitSessionBorrow(Object event, String token, String operationClass, boolean success);
+
+    Object beginSessionOpen();
+
+    void commitSessionOpen(Object event, long slotId, long sessionHandle, boolean success);
+
+    Object beginLogin();
+
+    void commitLogin(Object event, long sessionHandle, String userType, boolean relogin, boolean success);
+
+  }
+
+  /**
+   * The recorder, null if no event is emitted.
+   */
+  private static final Recorder RECORDER;
+
+  static {
+    Recorder recorder = null;
+    if (!Boolean.getBoolean("org.xipki.pkcs11.jfr.disabled")) {
+      try {
+        Class.forName("jdk.jfr.Event", false, PKCS11Events.class.getClassLoader());
+        recorder = (Recorder) Class.forName("org.xipki.pkcs11.wrapper.JfrEvents")
+            .getDeclaredConstructor().newInstance();
+      } catch (Throwable t) {
+        StaticLogger.info("JFR or the JFR events are not available, PKCS#11 JFR events are disabled");
+      }
+    }
+    RECORDER = recorder;
+  }
+
+  private PKCS11Events() {
+  }
+
+  static boolean isCallEnabled() {
+    return RECORDER != null && RECORDER.isCallEnabled();
+  }
+
+  static boolean isSessionBorrowEnabled() {
+    return RECORDER != null && RECORDER.isSessionBorrowEnabled();
+  }
+
+  static boolean isSessionOpenEnabled() {
+    return RECORDER != null && RECORDER.isSessionOpenEnabled();
+  }
+
+  static boolean isLoginEnabled() {
+    return RECORDER != null && RECORDER.isLoginEnabled();
+  }
+
+  static Object beginCall(String function, long sessionHandle) {
+    return RECORDER.beginCall(function, sessionHandle);
+  }
+
+  /**
+   * Sets the arguments of a call event.
+   *
+   * @param event the event returned by {@link #beginCall(String, long)}.
+   * @param mechanism the mechanism, may be null.
+   * @param keyHandle the key handle, 0 if the call has no key.
+   * @param bytesIn the number of input bytes.
+   */
+  static void setCallArguments(Object event, Mechanism mechanism, long keyHandle, int bytesIn) {
+    if (mechanism != null) {
+      RECORDER.setCallMechanism(event, mechanism.getName());
+    }
+    if (keyHandle != 0) {
+      RECORDER.setCallKeyHandle(event, keyHandle);
+    }
+    RECORDER.addCallBytes(event, bytesIn, 0);
+  }
+
+  static void addCallBytesOut(Object event, int bytesOut) {
+    RECORDER.addCallBytes(event, 0, bytesOut);
+  }
+
+  /**
+   * Ends and commits the call event.
+   *
+   * @param event the event returned by {@link #beginCall(String, long)}.
+   * @param ckr the return code name, null if successful.
+   */
+  static void commitCall(Object event, String ckr) {
+    RECORDER.commitCall(event, ckr == null ? "CKR_OK" : ckr);
+  }
+
+  static Object beginSessionBorrow() {
+    return RECORDER.beginSessionBorrow();
+  }
+
+  static void commitSessionBorrow(Object event, String token, String operationClass, boolean success) {
+    RECORDER.commitSessionBorrow(event, token, operationClass, success);
+  }
+
+  static Object beginSessionOpen() {
+    return RECORDER.beginSessionOpen();
+  }
+
+  static void commitSessionOpen(Object event, long slotId, long sessionHandle, boolean success) {
+    RECORDER.commitSessionOpen(event, slotId, sessionHandle, success);
+  }
+
+  static Object beginLogin() {
+    return RECORDER.beginLogin();
+  }
+
+  static void commitLogin(Object event, long sessionHandle, String userType, boolean relogin, boolean success) {
+    RECORDER.commitLogin(event, sessionHandle, userType, relogin, success);
+  }
+
+}
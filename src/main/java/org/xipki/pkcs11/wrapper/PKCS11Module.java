@@ -7,11 +7,13 @@
 package org.xipki.pkcs11.wrapper;
 
 import iaik.pkcs.pkcs11.wrapper.CK_C_INITIALIZE_ARGS;
+import iaik.pkcs.pkcs11.wrapper.InstrumentedPKCS11;
 import iaik.pkcs.pkcs11.wrapper.PKCS11;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Implementation;
 import org.xipki.pkcs11.wrapper.PKCS11Constants.Category;
 
 import java.io.*;
+import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
@@ -122,13 +124,13 @@ public class PKCS11Module {
 
   private ModuleInfo moduleInfo;
 
-  private Boolean ecPointFixNeeded;
+  private volatile Boolean ecPointFixNeeded;
 
-  private Boolean ecdsaSignatureFixNeeded;
+  private volatile Boolean ecdsaSignatureFixNeeded;
 
-  private Boolean sm2SignatureFixNeeded;
+  private volatile Boolean sm2SignatureFixNeeded;
 
-  private final Map<Category, VendorMap> vendorMaps = new HashMap<>();
+  private final Map<Category, VendorMap> vendorMaps = new EnumMap<>(Category.class);
 
   private final Set<Integer> vendorBehaviours = new HashSet<>();
 
@@ -170,13 +172,35 @@ public class PKCS11Module {
    * to load the PKCS#11 wrapper native library from the class path (jar file) or library path.
    *
    * @param pkcs11ModulePath
-   *          The path of the module; e.g. "/path/to/slbck.dll".
+   *          The path of the module; e.g. "/path/to/slbck.dll", or
+   *          <code>java:&lt;class name&gt;:&lt;module path&gt;</code> to use an alternative implementation
+   *          of {@link PKCS11} instead of the JNI library pkcs11wrapper, e.g.
+   *          <code>java:iaik.pkcs.pkcs11.wrapper.ForeignPKCS11:/path/to/module.so</code> on Java 22.
    * @return An instance of Module that is connected to the given PKCS#11 module.
    * @exception IOException
    *              If connecting to the named module fails.
    *
    */
   public static PKCS11Module getInstance(String pkcs11ModulePath) throws IOException {
+    return getInstance(pkcs11ModulePath, false);
+  }
+
+  /**
+   * Get an instance of this class by giving the name of the PKCS#11 module, see
+   * {@link #getInstance(String)}.
+   *
+   * @param pkcs11ModulePath
+   *          The path of the module; e.g. "/path/to/slbck.dll", or
+   *          <code>java:&lt;class name&gt;:&lt;module path&gt;</code>.
+   * @param instrumented
+   *          Whether to wrap the PKCS#11 implementation by an {@link InstrumentedPKCS11} which records
+   *          the number of calls, errors, bytes and latency of each C_* function, see
+   *          {@link #getInstrumentation()}.
+   * @return An instance of Module that is connected to the given PKCS#11 module.
+   * @exception IOException
+   *              If connecting to the named module fails.
+   */
+  public static PKCS11Module getInstance(String pkcs11ModulePath, boolean instrumented) throws IOException {
     Functions.requireNonNull("pkcs11ModulePath", pkcs11ModulePath);
     synchronized (licensePrinted) {
       if (!licensePrinted.get()) {
@@ -193,24 +217,70 @@ public class PKCS11Module {
     PKCS11 pkcs11;
 
     if (pkcs11ModulePath.startsWith("java:")) {
-      final int prefixLen = 5; // "java:".length
-      int sepClassEndIndex = pkcs11ModulePath.indexOf(":", prefixLen);
-      String className = pkcs11ModulePath.substring(prefixLen, sepClassEndIndex);
-      String path = pkcs11ModulePath.substring(sepClassEndIndex + 1);
-      try {
-        pkcs11 = (PKCS11) PKCS11Module.class.getClassLoader().loadClass(className).getConstructor(String.class).newInstance(path);
-      } catch (Exception e) {
-        throw new IOException("error initializing PKCS#11 module " + pkcs11ModulePath, e);
-      }
+      pkcs11 = newJavaPKCS11(pkcs11ModulePath);
     } else {
       ensureLinkedAndInitialized();
       pkcs11 = new PKCS11Implementation(Functions.requireNonNull("pkcs11ModulePath", pkcs11ModulePath));
     }
 
-    StaticLogger.info("PKCS11Module.getInstance: pkcs11ModulePath={}", pkcs11ModulePath);
+    if (instrumented) {
+      pkcs11 = new InstrumentedPKCS11(pkcs11);
+    }
+
+    StaticLogger.info("PKCS11Module.getInstance: pkcs11ModulePath={}, instrumented={}", pkcs11ModulePath, instrumented);
     return new PKCS11Module(pkcs11, pkcs11ModulePath);
   }
 
+  /**
+   * Creates the {@link PKCS11} implementation given by <code>java:&lt;class name&gt;:&lt;module path&gt;</code>,
+   * e.g. one not based on the JNI library pkcs11wrapper. The class must provide a public constructor
+   * with the module path as the only parameter. It is loaded by the context class loader of the current
+   * thread, and if not found there or if it implements the {@link PKCS11} of another class loader, by the
+   * class loader of this class.
+   */
+  private static PKCS11 newJavaPKCS11(String pkcs11ModulePath) throws IOException {
+    final int prefixLen = 5; // "java:".length
+    int sepClassEndIndex = pkcs11ModulePath.indexOf(':', prefixLen);
+    if (sepClassEndIndex == -1) {
+      throw new IOException("invalid PKCS#11 module path " + pkcs11ModulePath
+          + ", expected java:<class name>:<module path>");
+    }
+
+    String className = pkcs11ModulePath.substring(prefixLen, sepClassEndIndex).trim();
+    String path = pkcs11ModulePath.substring(sepClassEndIndex + 1);
+
+    Class<?> clazz = null;
+    ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+    if (contextLoader != null) {
+      try {
+        clazz = contextLoader.loadClass(className);
+        if (!PKCS11.class.isAssignableFrom(clazz)) {
+          // e.g. the context class loader has its own copy of this library.
+          clazz = null;
+        }
+      } catch (ClassNotFoundException e) {
+        // try the class loader of this class
+      }
+    }
+
+    try {
+      if (clazz == null) {
+        clazz = PKCS11Module.class.getClassLoader().loadClass(className);
+      }
+
+      if (!PKCS11.class.isAssignableFrom(clazz)) {
+        throw new IOException(className + " does not implement " + PKCS11.class.getName());
+      }
+
+      return (PKCS11) clazz.getConstructor(String.class).newInstance(path);
+    } catch (InvocationTargetException e) {
+      Throwable cause = e.getCause() == null ? e : e.getCause();
+      throw new IOException("error initializing PKCS#11 module " + pkcs11ModulePath + ": " + cause.getMessage(), cause);
+    } catch (ReflectiveOperationException e) {
+      throw new IOException("error initializing PKCS#11 module " + pkcs11ModulePath, e);
+    }
+  }
+
   /**
    * This method ensures that the library is linked to this class and that it is initialized. Tries
    * to load the PKCS#11 wrapper native library from the library or the class path (jar file).
@@ -378,6 +448,16 @@ public class PKCS11Module {
     return pkcs11;
   }
 
+  /**
+   * Gets the instrumentation of the PKCS#11 module, which holds the statistics of each C_* function.
+   *
+   * @return the instrumentation, or null if this module is not instrumented.
+   * @see #getInstance(String, boolean)
+   */
+  public InstrumentedPKCS11 getInstrumentation() {
+    return pkcs11 instanceof InstrumentedPKCS11 ? (InstrumentedPKCS11) pkcs11 : null;
+  }
+
   boolean hasVendorBehaviour(int vendorBehavior) {
     return vendorBehaviours.contains(vendorBehavior);
   }
@@ -714,11 +794,11 @@ public class PKCS11Module {
 
   private static final class VendorMap {
 
-    private final Map<Long, Long> genericToVendorMap = new HashMap<>();
+    private final LongMap<Long> genericToVendorMap = new LongMap<>();
 
-    private final Map<Long, Long> vendorToGenericMap = new HashMap<>();
+    private final LongMap<Long> vendorToGenericMap = new LongMap<>();
 
-    private final Map<Long, String> codeNameMap      = new HashMap<>();
+    private final LongMap<String> codeNameMap      = new LongMap<>();
 
     private final Map<String, Long> nameCodeMap      = new HashMap<>();
 
@@ -748,11 +828,13 @@ public class PKCS11Module {
     }
 
     long genericToVendor(long genericCode) {
-      return genericToVendorMap.getOrDefault(genericCode, genericCode);
+      Long vendorCode = genericToVendorMap.get(genericCode);
+      return vendorCode == null ? genericCode : vendorCode;
     }
 
     long vendorToGeneric(long vendorCode) {
-      return vendorToGenericMap.getOrDefault(vendorCode, vendorCode);
+      Long genericCode = vendorToGenericMap.get(vendorCode);
+      return genericCode == null ? vendorCode : genericCode;
     }
 
     public String codeToName(long code) {
@@ -3,19 +3,32 @@
 
 package org.xipki.pkcs11.wrapper;
 
+import iaik.pkcs.pkcs11.wrapper.PKCS11UTIL;
+import org.xipki.pkcs11.wrapper.attrs.Attribute;
 import org.xipki.pkcs11.wrapper.multipart.*;
 import org.xipki.pkcs11.wrapper.params.CkParams;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
 import java.security.PublicKey;
 import java.time.Clock;
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static org.xipki.pkcs11.wrapper.PKCS11Constants.*;
 
@@ -26,6 +39,68 @@ import static org.xipki.pkcs11.wrapper.PKCS11Constants.*;
  */
 public class PKCS11Token {
 
+  /**
+   * Policy to validate (via C_GetSessionInfo) the liveness, device error and login state of a
+   * pooled session.
+   */
+  public enum SessionValidation {
+
+    /**
+     * Validate the session on every borrow.
+     */
+    ALWAYS,
+
+    /**
+     * Validate the session on borrow only if a PKCS#11 function called in this session failed.
+     */
+    AFTER_ERROR,
+
+    /**
+     * Validate the idle sessions in the background at a fixed interval. As in {@link #AFTER_ERROR},
+     * a session is validated on borrow if a PKCS#11 function called in this session failed.
+     */
+    BACKGROUND,
+
+    /**
+     * Validate the session on borrow if it has been idle longer than the configured time, or if
+     * a PKCS#11 function called in this session failed.
+     */
+    IDLE
+
+  }
+
+  /**
+   * Classes of operations, each of which may be assigned a quota of sessions.
+   */
+  public enum OperationClass {
+
+    /**
+     * Generation, derivation, wrapping and unwrapping of keys.
+     */
+    KEY_GENERATION,
+
+    /**
+     * Sign, verify, sign-recover and verify-recover.
+     */
+    SIGN_VERIFY,
+
+    /**
+     * Encrypt and decrypt.
+     */
+    ENCRYPT_DECRYPT,
+
+    /**
+     * Create, copy, find, destroy objects, and read and write attributes.
+     */
+    OBJECT_MANAGEMENT,
+
+    /**
+     * All other operations, e.g. digest, random generation, login and logout.
+     */
+    OTHER
+
+  }
+
   private enum OP {
     DIGEST,
     SIGN,
@@ -42,10 +117,43 @@ public class PKCS11Token {
 
   private static final Clock clock = Clock.systemUTC();
 
-  private int maxMessageSize = 2048;
+  /**
+   * Number of object handles read with one session at a time by
+   * {@link #getAttrValues(long[], long...)}.
+   */
+  private static final int BULK_CHUNK_SIZE = 256;
+
+  private static final int SESSION_IN_USE = 0;
+
+  private static final int SESSION_IDLE = 1;
+
+  private static final int SESSION_CLOSED = 2;
+
+  /**
+   * Handle of Thread.isVirtual(), null if virtual threads are not supported (JDK before 21).
+   */
+  private static final MethodHandle isVirtualThreadHandle;
+
+  private volatile int maxMessageSize = 2048;
+
+  /**
+   * Cache of attribute values, null if disabled.
+   */
+  private volatile AttributeCache attributeCache;
 
   private final Token token;
 
+  /**
+   * Whether the output size hints of the single-part operations are computed, i.e. whether the
+   * PKCS11 implementation uses them.
+   */
+  private final boolean outputSizeHints;
+
+  /**
+   * Label of the token, used in the JFR events.
+   */
+  private final String tokenLabel;
+
   private final Map<Long, MechanismInfo> mechanisms = new HashMap<>();
 
   private final long userType;
@@ -58,13 +166,133 @@ public class PKCS11Token {
 
   private final boolean readOnly;
 
-  private long timeOutWaitNewSessionMs = 10000; // maximal wait for 10 second
+  private volatile long timeOutWaitNewSessionMs = 10000; // maximal wait for 10 second
 
   private final AtomicLong countSessions = new AtomicLong(0);
 
-  private final LinkedBlockingQueue<Session> sessions;
+  private volatile int minSessionCount = 1;
+
+  /**
+   * Idle sessions. Sessions are returned to and taken from the head (LIFO), so that
+   * a small set of hot sessions serves the load. The queue may contain sessions which have
+   * been taken directly by the thread they are affine to, these are skipped while polling.
+   */
+  private final ConcurrentLinkedDeque<Session> sessions = new ConcurrentLinkedDeque<>();
+
+  private final ThreadLocal<Session> affineSessions = new ThreadLocal<>();
+
+  private volatile boolean threadAffinity;
+
+  /**
+   * Each borrowed session holds one permit. Since a new session is only opened by a permit
+   * holder who found no idle session, at most {@link #maxSessionCount} sessions are open.
+   */
+  private final Semaphore sessionPermits;
+
+  private final ReentrantLock loginLock = new ReentrantLock();
+
+  /**
+   * Permits of the session quota per operation class (index is the ordinal). Each starts with
+   * {@link #maxSessionCount} permits and is adjusted in place by {@link #setSessionQuota(OperationClass, int)}.
+   */
+  private final QuotaPermits[] sessionQuotaPermits = new QuotaPermits[OperationClass.values().length];
+
+  private final AtomicIntegerArray sessionQuotas = new AtomicIntegerArray(OperationClass.values().length);
+
+  private final AtomicIntegerArray sessionsInUse = new AtomicIntegerArray(OperationClass.values().length);
+
+  private final LongAdder[] sessionQuotaWaits = new LongAdder[OperationClass.values().length];
+
+  /**
+   * Limits the number of virtual threads using a borrowed session concurrently, null if the
+   * virtual thread mode is not enabled.
+   */
+  private volatile Semaphore carrierPermits;
+
+  private volatile SessionValidation sessionValidation = SessionValidation.ALWAYS;
+
+  private volatile long sessionValidationIntervalMs;
+
+  private ScheduledExecutorService maintainer;
+
+  /**
+   * Helper threads of {@link #getAttrValues(long[], long...)}, created on first use.
+   */
+  private ExecutorService bulkReaders;
+
+  /**
+   * Maximal number of sessions used by {@link #getAttrValues(long[], long...)}, 0 for the default.
+   */
+  private volatile int maxBulkReadSessions;
+
+  private ScheduledFuture<?> backgroundValidation;
+
+  private ScheduledFuture<?> adaptiveSizing;
+
+  private ScheduledFuture<?> sessionMaintenance;
+
+  private volatile int asyncQueueCapacity = 1024;
 
-  private final Object loginSync = new Object();
+  /**
+   * Pending asynchronous operations, executed by {@link #asyncWorkers}.
+   */
+  private BlockingQueue<AsyncTask<?>> asyncQueue;
+
+  private ExecutorService asyncWorkers;
+
+  /**
+   * Sum of the time (in nano-seconds) to borrow a session.
+   */
+  private final LongAdder borrowTimeNanos = new LongAdder();
+
+  private final LongAdder countBorrows = new LongAdder();
+
+  /**
+   * Maximal time (in nano-seconds) to borrow a session.
+   */
+  private final LongAccumulator maxBorrowTimeNanos = new LongAccumulator(Math::max, 0);
+
+  /**
+   * Number of logins after a session has lost its login state.
+   */
+  private final LongAdder countRelogins = new LongAdder();
+
+  /**
+   * Number of completed operations per operation class (index is the ordinal).
+   */
+  private final LongAdder[] operationCounts = new LongAdder[OperationClass.values().length];
+
+  /**
+   * Name under which this token is registered in the platform MBean server, null if not registered.
+   */
+  private ObjectName mbeanName;
+
+  /**
+   * Number of sessions opened on the request path, since no idle session was available.
+   */
+  private final LongAdder countOpenOnBorrow = new LongAdder();
+
+  /**
+   * Number of operations rejected since their deadline could not be met.
+   */
+  private final LongAdder countDeadlineRejects = new LongAdder();
+
+  /**
+   * Moving average of the time (in nano-seconds) a session is held by an operation. Updated without
+   * synchronization, only used to estimate the waiting time.
+   */
+  private volatile long avgSessionHoldNanos;
+
+  static {
+    MethodHandle handle = null;
+    try {
+      handle = MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual",
+          MethodType.methodType(boolean.class));
+    } catch (NoSuchMethodException | IllegalAccessException ex) {
+      // virtual threads are not supported
+    }
+    isVirtualThreadHandle = handle;
+  }
 
   /**
    * The simple constructor.
@@ -109,8 +337,10 @@ public class PKCS11Token {
     this.userType = userType;
     this.userName = userName;
     this.pins = pins;
+    this.outputSizeHints = token.getSlot().getModule().getPKCS11Module().isOutputSizeHintSupported();
 
     TokenInfo tokenInfo = token.getTokenInfo();
+    this.tokenLabel = tokenInfo.getLabel();
     long lc = tokenInfo.getMaxSessionCount();
     int tokenMaxSessionCount = lc > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) lc;
 
@@ -127,7 +357,13 @@ public class PKCS11Token {
     }
 
     StaticLogger.info("tokenMaxSessionCount={}, maxSessionCount={}", tokenMaxSessionCount, this.maxSessionCount);
-    this.sessions = new LinkedBlockingQueue<>();
+    this.sessionPermits = new Semaphore(maxSessionCount, true);
+    for (int i = 0; i < sessionQuotaWaits.length; i++) {
+      sessionQuotas.set(i, maxSessionCount);
+      sessionQuotaPermits[i] = new QuotaPermits(maxSessionCount);
+      sessionQuotaWaits[i] = new LongAdder();
+      operationCounts[i] = new LongAdder();
+    }
 
     for (long mech : token.getMechanismList()) {
       try {
@@ -141,8 +377,9 @@ public class PKCS11Token {
 
     // login
     Session session = openSession();
-    login(session);
-    sessions.add(session);
+    login(session, userType, userName, pins, false);
+    session.lastReturnTime = clock.millis();
+    putIdleSession(session, true);
   }
 
   public PKCS11Module getModule() {
@@ -157,1825 +394,3883 @@ public class PKCS11Token {
     StaticLogger.info("timeOutWaitNewSession = {} milli-seconds", timeOutWaitNewSessionMs);
   }
 
+  public long getTimeOutWaitNewSession() {
+    return timeOutWaitNewSessionMs;
+  }
+
   /**
-   * Sets the maximal message size sent to the PKCS#11 device in one command.
+   * Sets the policy to validate the pooled sessions. The validation checks whether the session is
+   * still active, whether the device has an error, and logs the user in if required. Default to
+   * {@link SessionValidation#ALWAYS}.
+   * <p>
+   * If the validation is skipped, a session which has lost its login state is detected by the
+   * failed operation and will be validated (and logged in) on the next borrow.
    *
-   * @param maxMessageSize the maximal message size in bytes.
+   * @param validation the validation policy.
+   * @param intervalMs for {@link SessionValidation#BACKGROUND} the interval between two background
+   *                   validations, for {@link SessionValidation#IDLE} the idle time after which a
+   *                   session is validated, ignored otherwise.
    */
-  public void setMaxMessageSize(int maxMessageSize) {
-    if (maxMessageSize < 256) {
-      throw new IllegalArgumentException("maxMessageSize too small, at least 256 is required: " + maxMessageSize);
+  public synchronized void setSessionValidation(SessionValidation validation, long intervalMs) {
+    Objects.requireNonNull(validation, "validation shall not be null");
+    if ((validation == SessionValidation.BACKGROUND || validation == SessionValidation.IDLE) && intervalMs < 1) {
+      throw new IllegalArgumentException("intervalMs is not positive: " + intervalMs);
     }
-    this.maxMessageSize = maxMessageSize;
-  }
 
-  public Set<Long> getMechanisms() {
-    return Collections.unmodifiableSet(mechanisms.keySet());
+    if (backgroundValidation != null) {
+      backgroundValidation.cancel(false);
+      backgroundValidation = null;
+    }
+
+    // the interval is published before the policy which uses it.
+    this.sessionValidationIntervalMs = intervalMs;
+    this.sessionValidation = validation;
+
+    if (validation == SessionValidation.BACKGROUND) {
+      backgroundValidation = getMaintainer().scheduleWithFixedDelay(
+          this::validateIdleSessions, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    StaticLogger.info("sessionValidation = {}, interval = {} milli-seconds", validation, intervalMs);
   }
 
   /**
-   * Gets the {@link MechanismInfo} for given mechanism code.
+   * Sets the minimal number of sessions, and opens the missing sessions in parallel. By default,
+   * only one session is opened in the constructor, and further sessions are opened on demand.
    *
-   * @param mechanism The mechanism code.
-   * @return the {@link MechanismInfo}.
+   * @param minSessionCount the minimal number of sessions, between 1 and the maximal session count.
+   * @throws TokenException If opening the sessions failed.
    */
-  public MechanismInfo getMechanismInfo(long mechanism) {
-    return mechanisms.get(mechanism);
+  public void setMinSessionCount(int minSessionCount) throws TokenException {
+    if (minSessionCount < 1 || minSessionCount > maxSessionCount) {
+      throw new IllegalArgumentException("minSessionCount is not in [1, " + maxSessionCount + "]: " + minSessionCount);
+    }
+    this.minSessionCount = minSessionCount;
+    StaticLogger.info("minSessionCount = {}", minSessionCount);
+
+    int num = (int) (minSessionCount - countSessions.get());
+    if (num > 0) {
+      int opened = openIdleSessions(num);
+      StaticLogger.info("warm-up: opened {} sessions", opened);
+    }
   }
 
   /**
-   * Returns whether the mechanism for given purpose is supported.
+   * Enables or disables the adaptive sizing of the session pool between the minimal and maximal
+   * session count. Every <code>intervalMs</code> milli-seconds, the pool
+   * <ul>
+   *   <li>opens idle sessions in advance, if sessions have been opened on the request path or the
+   *       average time to borrow a session exceeded <code>waitThresholdMs</code>, and the token
+   *       (as reported by {@link TokenInfo#getSessionCount()}) can open more sessions, or</li>
+   *   <li>closes one session idle for the whole interval, if no borrower has waited for a session and
+   *       there are more than the minimal number of sessions. The same applies if the token is
+   *       running out of sessions.</li>
+   * </ul>
    *
-   * @param mechanism The mechanism.
-   * @param flagBit   The purpose. Valid values are (could be extended in the future PKCS#11 version):
-   *                  {@link PKCS11Constants#CKF_SIGN}, {@link PKCS11Constants#CKF_VERIFY},
-   *                  {@link PKCS11Constants#CKF_SIGN_RECOVER}, {@link PKCS11Constants#CKF_VERIFY_RECOVER},
-   *                  {@link PKCS11Constants#CKF_ENCRYPT}, {@link PKCS11Constants#CKF_DECRYPT},
-   *                  {@link PKCS11Constants#CKF_DERIVE}, {@link PKCS11Constants#CKF_DIGEST},
-   *                  {@link PKCS11Constants#CKF_UNWRAP}, {@link PKCS11Constants#CKF_WRAP}.
-   * @return whether mechanism with given flag bit is supported.
+   * @param intervalMs the interval in milli-seconds, 0 to disable the adaptive sizing.
+   * @param waitThresholdMs average time in milli-seconds to borrow a session above which the pool grows.
    */
-  public boolean supportsMechanism(long mechanism, long flagBit) {
-    MechanismInfo info = mechanisms.get(mechanism);
-    return info != null && info.hasFlagBit(flagBit);
+  public synchronized void setAdaptiveSizing(long intervalMs, long waitThresholdMs) {
+    if (intervalMs < 0 || waitThresholdMs < 0) {
+      throw new IllegalArgumentException("intervalMs and waitThresholdMs shall not be negative");
+    }
+
+    if (adaptiveSizing != null) {
+      adaptiveSizing.cancel(false);
+      adaptiveSizing = null;
+    }
+
+    if (intervalMs > 0) {
+      adaptiveSizing = getMaintainer().scheduleWithFixedDelay(new AdaptiveSizingTask(intervalMs, waitThresholdMs),
+          intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    StaticLogger.info("adaptiveSizing: interval = {} ms, waitThreshold = {} ms", intervalMs, waitThresholdMs);
   }
 
   /**
-   * Set the user-PIN to a new value. Can only be called from a read-write sessions.
+   * Enables or disables the background session maintainer. Every <code>intervalMs</code> milli-seconds,
+   * the maintainer thread
+   * <ul>
+   *   <li>pings each idle session via C_GetSessionInfo, which keeps it alive on network HSMs,</li>
+   *   <li>removes the dead sessions and logs in the sessions which have lost the login state,</li>
+   *   <li>closes the sessions idle longer than <code>idleTtlMs</code> milli-seconds, as long as
+   *       there are more than the minimal number of sessions, and</li>
+   *   <li>opens new sessions up to the minimal session count, see {@link #setMinSessionCount(int)}.</li>
+   * </ul>
+   * The sessions in use are not touched. So the recovery cost is moved away from the request path.
    *
-   * @param oldPin The old (current) user-PIN.
-   * @param newPin The new value for the user-PIN.
-   * @throws TokenException If setting the new PIN fails.
+   * @param intervalMs the interval in milli-seconds, 0 to disable the maintainer.
+   * @param idleTtlMs the time in milli-seconds after which an idle session is closed, 0 to keep idle sessions.
    */
-  public void setPIN(char[] oldPin, char[] newPin) throws TokenException {
-    Session session = borrowSession();
-    try {
-      long sessionState = session.getSessionInfo().getState();
-      if (sessionState == CKS_RO_PUBLIC_SESSION) {
-        return;
-      }
+  public synchronized void setSessionMaintainer(long intervalMs, long idleTtlMs) {
+    if (intervalMs < 0 || idleTtlMs < 0) {
+      throw new IllegalArgumentException("intervalMs and idleTtlMs shall not be negative");
+    }
 
-      if (sessionState != CKS_RW_SO_FUNCTIONS) {
-        throw new TokenException("Session is not logged in as CKU_SO");
-      }
-      session.setPIN(oldPin, newPin);
-      StaticLogger.info("setPIN");
-    } finally {
-      sessions.offer(session);
+    if (sessionMaintenance != null) {
+      sessionMaintenance.cancel(false);
+      sessionMaintenance = null;
     }
+
+    if (intervalMs > 0) {
+      sessionMaintenance = getMaintainer().scheduleWithFixedDelay(() -> maintainIdleSessions(idleTtlMs),
+          intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    StaticLogger.info("sessionMaintainer: interval = {} ms, idleTtl = {} ms", intervalMs, idleTtlMs);
   }
 
   /**
-   * Initializes the user-PIN. Can only be called from a read-write security officer session. May be
-   * used to set a new user-PIN if the user-PIN is locked.
+   * Sets the maximal number of sessions used concurrently by operations of the given class, so
+   * that slow operations (e.g. generation of RSA keys) cannot occupy the whole session pool.
+   * By default, no class is limited.
+   * <p>
+   * The quota can be changed at any time. Sessions already borrowed keep their permits and return
+   * them on release. If the quota is lowered below the number of sessions currently in use by the
+   * class, no further session is borrowed for this class until enough of them have been returned.
+   * Threads waiting for a permit wait with respect to the new quota.
    *
-   * @param pin The new user-PIN. This parameter may be null, if the token has a protected
-   *            authentication path. Refer to the PKCS#11 standard for details.
-   * @throws TokenException If the session has not the right to set the PIN of if the operation fails for some
-   *                         other reason.
+   * @param operationClass the operation class.
+   * @param quota the maximal number of sessions, 0 or the maximal session count for no limitation.
    */
-  public void initPIN(char[] pin) throws TokenException {
-    Session session = borrowSession();
-    try {
-      long sessionState = session.getSessionInfo().getState();
-      if (sessionState == CKS_RO_PUBLIC_SESSION) {
-        return;
-      }
+  public synchronized void setSessionQuota(OperationClass operationClass, int quota) {
+    Objects.requireNonNull(operationClass, "operationClass shall not be null");
+    if (quota < 0 || quota > maxSessionCount) {
+      throw new IllegalArgumentException("quota is not in [0, " + maxSessionCount + "]: " + quota);
+    }
 
-      if (sessionState != CKS_RW_SO_FUNCTIONS) {
-        throw new TokenException("Session is not logged in as CKU_SO");
-      }
-      session.initPIN(pin);
-      StaticLogger.info("initPIN");
-    } finally {
-      sessions.add(session);
+    int index = operationClass.ordinal();
+    int newQuota = (quota == 0) ? maxSessionCount : quota;
+    int delta = newQuota - sessionQuotas.getAndSet(index, newQuota);
+    if (delta > 0) {
+      sessionQuotaPermits[index].release(delta);
+    } else if (delta < 0) {
+      // may make the available permits negative, in-flight borrowers pay them back on release.
+      sessionQuotaPermits[index].reducePermits(-delta);
     }
+    StaticLogger.info("sessionQuota of {} = {}", operationClass, quota);
   }
 
   /**
-   * Closes all sessions.
+   * Returns the maximal number of sessions used concurrently by operations of the given class.
+   *
+   * @param operationClass the operation class.
+   * @return the session quota, the maximal session count if not limited.
    */
-  public void closeAllSessions() {
-    if (token != null) {
-      try {
-        StaticLogger.info("close all sessions on token: {}", token.getTokenInfo());
-
-        for (Session session : sessions) {
-          session.closeSession();
-        }
-      } catch (Throwable th) {
-        StaticLogger.error("error closing sessions, {}", th.getMessage());
-      }
-    }
+  public int getSessionQuota(OperationClass operationClass) {
+    return sessionQuotas.get(operationClass.ordinal());
+  }
 
-    // clear the session pool
-    sessions.clear();
-    countSessions.lazySet(0);
+  /**
+   * Returns the number of sessions currently used by operations of the given class. Together with
+   * {@link #getSessionQuota(OperationClass)} it gives the utilization of the quota.
+   *
+   * @param operationClass the operation class.
+   * @return the number of sessions in use.
+   */
+  public int getSessionsInUse(OperationClass operationClass) {
+    return sessionsInUse.get(operationClass.ordinal());
   }
 
   /**
-   * Get the token (slot) identifier of this token.
+   * Returns how often an operation of the given class had to wait, since its session quota was
+   * exhausted.
    *
-   * @return the slot identifier of this token.
+   * @param operationClass the operation class.
+   * @return the number of waits for the session quota.
    */
-  public long getTokenId() {
-    return token.getTokenID();
+  public long getSessionQuotaWaits(OperationClass operationClass) {
+    return sessionQuotaWaits[operationClass.ordinal()].sum();
   }
 
   /**
-   * Get the token that created this Session object.
+   * Returns the number of operations rejected without accessing the device, since their deadline
+   * could not be met.
    *
-   * @return The token.
+   * @return number of rejected operations.
    */
-  public Token getToken() {
-    return token;
+  public long getDeadlineRejects() {
+    return countDeadlineRejects.sum();
   }
 
-  public String getModuleInfo() throws TokenException {
-    return token.getSlot().getModule().getInfo().toString();
+  public int getMaxSessionCount() {
+    return maxSessionCount;
+  }
+
+  public int getMinSessionCount() {
+    return minSessionCount;
   }
 
   /**
-   * Returns whether this token is read-only.
-   * @return true if read-only, false if read-write.
+   * Returns the number of open sessions, idle or in use.
+   *
+   * @return number of open sessions.
    */
-  public boolean isReadOnly() {
-    return readOnly;
+  public long getSessionCount() {
+    return countSessions.get();
   }
 
   /**
-   * Login this session as CKU_SO (Security Officer).
+   * Returns the number of sessions currently borrowed by operations of all classes.
    *
-   * @param userName Username of user type CKU_SO.
-   * @param pin      PIN.
-   * @throws TokenException If logging in the session fails.
+   * @return number of borrowed sessions.
    */
-  public void logInSecurityOfficer(char[] userName, char[] pin) throws TokenException {
-    Session session = borrowNoLoginSession();
-    try {
-      login(session, CKU_SO, userName, (pin == null) ? null : Collections.singletonList(pin));
-      StaticLogger.info("logIn CKU_SO");
-    } finally {
-      sessions.add(session);
+  public int getBorrowedSessionCount() {
+    int sum = 0;
+    for (int i = 0; i < sessionsInUse.length(); i++) {
+      sum += sessionsInUse.get(i);
     }
+    return sum;
   }
 
   /**
-   * Logs out this session.
+   * Returns the number of threads waiting for a session. A steadily positive value indicates that
+   * the session pool is exhausted.
    *
-   * @throws TokenException If logging out the session fails.
+   * @return estimated number of waiting threads.
    */
-  public void logout() throws TokenException {
-    Session session = borrowSession();
-    try {
-      session.logout();
-      StaticLogger.info("logout");
-    } finally {
-      sessions.add(session);
-    }
+  public int getSessionWaiters() {
+    return sessionPermits.getQueueLength();
   }
 
   /**
-   * Create a new object on the token (or in the session). The application must provide a template
-   * that holds enough information to create a certain object. For instance, if the application
-   * wants to create a new DES key object it creates a new instance of the AttributesTemplate class to
-   * serve as a template. The application must set all attributes of this new object which are
-   * required for the creation of such an object on the token. Then it passes this DESSecretKey
-   * object to this method to create the object on the token. Example: <code>
-   * AttributesTemplate desKeyTemplate = AttributesTemplate.newSecretKey(CKK_DES3);
-   * // the key type is set by the DESSecretKey's constructor, so you need not do it
-   * desKeyTemplate.value(myDesKeyValueAs8BytesLongByteArray)
-   * .token(true)
-   * .private(true);
-   * .encrypt(true);
-   * .decrypt(true);
-   * ...
-   * long theCreatedDESKeyObjectHandle = userSession.createObject(desKeyTemplate);
-   * </code> Refer to the PKCS#11 standard to find out what attributes must be set for certain types
-   * of objects to create them on the token.
+   * Returns the number of borrowed sessions since the creation of this token.
    *
-   * @param template The template object that holds all values that the new object on the token should
-   *                 contain.
-   * @return A new PKCS#11 Object that serves holds all the
-   * (readable) attributes of the object on the token. In contrast to the templateObject,
-   * this object might have certain attributes set to token-dependent default-values.
-   * @throws TokenException If the creation of the new object fails. If it fails, the no new object was
-   *                        created on the token.
+   * @return number of borrowed sessions.
    */
-  public long createObject(AttributeVector template) throws TokenException {
-    Session session = borrowSession();
-    try {
-      return session.createObject(template);
-    } finally {
-      sessions.add(session);
-    }
+  public long getBorrowCount() {
+    return countBorrows.sum();
   }
 
-  public long createPrivateKeyObject(AttributeVector template, PublicKey publicKey) throws TokenException {
-    Session session = borrowSession();
-    try {
-      return session.createPrivateKeyObject(template, publicKey);
-    } finally {
-      sessions.add(session);
-    }
+  /**
+   * Returns the total time spent to borrow sessions, including the waiting time.
+   *
+   * @return the total time in nano-seconds.
+   */
+  public long getBorrowTimeNanos() {
+    return borrowTimeNanos.sum();
   }
 
   /**
-   * Create EC private key object in the PKCS#11 device.
-   * @param template Template of the EC private key.
-   * @param ecPoint The encoded EC-Point. May be null.
-   * @return object handle of the new EC private key.
-   * @throws TokenException if creating new object failed.
+   * Returns the maximal time to borrow a session since the creation of this token or the last
+   * call of {@link #resetMaxBorrowTime()}.
+   *
+   * @return the maximal time in nano-seconds.
    */
-  public long createECPrivateKeyObject(AttributeVector template, byte[] ecPoint) throws TokenException {
-    Session session = borrowSession();
-    try {
-      return session.createECPrivateKeyObject(template, ecPoint);
-    } finally {
-      sessions.add(session);
-    }
+  public long getMaxBorrowTimeNanos() {
+    return maxBorrowTimeNanos.get();
+  }
+
+  public void resetMaxBorrowTime() {
+    maxBorrowTimeNanos.reset();
   }
 
   /**
-   * Copy an existing object. The source object and a template object are given. Any value set in
-   * the template object will override the corresponding value from the source object, when the new
-   * object is created. See the PKCS#11 standard for details.
+   * Returns the number of sessions opened on the request path, since no idle session was available.
    *
-   * @param sourceObjectHandle The source object of the copy operation.
-   * @param template           A template object whose attribute values are used for the new object; i.e. they have
-   *                           higher priority than the attribute values from the source object. May be null; in that
-   *                           case the new object is just a one-to-one copy of the sourceObject.
-   * @return The new object that is created by copying the source object and setting attributes to
-   * the values given by the template.
-   * @throws TokenException If copying the object fails for some reason.
+   * @return number of sessions opened while borrowing.
    */
-  public long copyObject(long sourceObjectHandle, AttributeVector template) throws TokenException {
-    Session session = borrowSession();
-    try {
-      return session.copyObject(sourceObjectHandle, template);
-    } finally {
-      sessions.add(session);
-    }
+  public long getOpenOnBorrowCount() {
+    return countOpenOnBorrow.sum();
   }
 
   /**
-   * Gets all present attributes of the given template object and writes them to the object to update
-   * on the token (or in the session). Both parameters may refer to the same Java object. This is
-   * possible, because this method only needs the object handle of the objectToUpdate, and gets the
-   * attributes to set from the template. This means, an application can get the object using
-   * createObject of findObject, then modify attributes of this Java object and then call this
-   * method passing this object as both parameters. This will update the object on the token to the
-   * values as modified in the Java object.
+   * Returns how often a session was logged in again after it had lost its login state.
    *
-   * @param objectToUpdateHandle The attributes of this object get updated.
-   * @param template             This method gets all present attributes of this template object and set this
-   *                             attributes at the objectToUpdate.
-   * @throws TokenException If updating the attributes fails. All or no attributes are updated.
+   * @return number of re-logins.
    */
-  public void setAttributeValues(long objectToUpdateHandle, AttributeVector template) throws TokenException {
-    Session session = borrowSession();
-    try {
-      session.setAttributeValues(objectToUpdateHandle, template);
-    } finally {
-      sessions.add(session);
-    }
+  public long getReloginCount() {
+    return countRelogins.sum();
   }
 
   /**
-   * Destroy a certain object on the token (or in the session). Give the object that you want to
-   * destroy. This method uses only the internal object handle of the given object to identify the
-   * object.
+   * Returns the number of completed operations of the given class, i.e. the number of sessions of
+   * this class returned to the pool.
    *
-   * @param objectHandle The object handle that should be destroyed.
-   * @throws TokenException If the object could not be destroyed.
+   * @param operationClass the operation class.
+   * @return number of completed operations.
    */
-  public void destroyObject(long objectHandle) throws TokenException {
-    Session session = borrowSession();
-    try {
-      session.destroyObject(objectHandle);
-    } finally {
-      sessions.add(session);
-    }
+  public long getOperationCount(OperationClass operationClass) {
+    return operationCounts[operationClass.ordinal()].sum();
   }
 
   /**
-   * Destroy a certain object on the token (or in the session). Give the object that you want to
-   * destroy. This method uses only the internal object handle of the given object to identify the
-   * object.
+   * Registers this token in the platform MBean server, so that the session pool can be monitored
+   * and tuned via JMX, see {@link PKCS11TokenMXBean}. The object name is
+   * <code>org.xipki.pkcs11:type=PKCS11Token,slot=&lt;slot id&gt;,label=&lt;quoted token label&gt;</code>.
    *
-   * @param objectHandles The object handles that should be destroyed.
-   * @return objects that have been destroyed.
-   * @throws TokenException If could not get a valid session.
+   * @return the object name.
+   * @throws TokenException If registering the MBean failed.
    */
-  public long[] destroyObjects(long... objectHandles) throws TokenException {
-    List<Long> list = new ArrayList<>(objectHandles.length);
-    for (long handle : objectHandles) {
-      list.add(handle);
+  public synchronized ObjectName registerMBean() throws TokenException {
+    if (mbeanName != null) {
+      return mbeanName;
     }
 
-    List<Long> destroyedHandles = destroyObjects(list);
-    long[] ret = new long[destroyedHandles.size()];
-    for (int i = 0; i < ret.length; i++) {
-      ret[i] = destroyedHandles.get(i);
+    try {
+      ObjectName name = new ObjectName("org.xipki.pkcs11:type=PKCS11Token,slot=" + token.getSlot().getSlotID()
+          + ",label=" + ObjectName.quote(tokenLabel == null ? "" : tokenLabel));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new PKCS11TokenManagement(this, tokenLabel), name);
+      mbeanName = name;
+      StaticLogger.info("registered MBean {}", name);
+      return name;
+    } catch (JMException ex) {
+      throw new TokenException("error registering MBean: " + ex.getMessage(), ex);
     }
-    return ret;
   }
 
-  public List<Long> destroyObjects(List<Long> objectHandles) throws TokenException {
-    Session session = borrowSession();
+  /**
+   * Unregisters this token from the platform MBean server, if registered.
+   */
+  public synchronized void unregisterMBean() {
+    if (mbeanName == null) {
+      return;
+    }
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
     try {
-      List<Long> destroyedHandles = new ArrayList<>(objectHandles.size());
-      for (long objectHandle : objectHandles) {
-        try {
-          session.destroyObject(objectHandle);
-          destroyedHandles.add(objectHandle);
-        } catch (PKCS11Exception e) {
-          StaticLogger.warn("error destroying object {}: {}", objectHandle, e.getMessage());
-        }
+      if (server.isRegistered(mbeanName)) {
+        server.unregisterMBean(mbeanName);
       }
-
-      return destroyedHandles;
-    } finally {
-      sessions.add(session);
+    } catch (JMException ex) {
+      StaticLogger.warn("error unregistering MBean {}: {}", mbeanName, ex.getMessage());
     }
+    mbeanName = null;
   }
 
   /**
-   * Get the size of the specified object in bytes. This size specifies how much memory the object
-   * takes up on the token.
+   * Enables or disables the thread affinity of sessions. If enabled, a thread borrows at first the
+   * session it has used the last time, without going through the shared queue of idle sessions.
+   * The session remains in the shared queue while idle, so it can be borrowed by other threads
+   * if the thread it is affine to terminates or does not need it, and the maximal session count
+   * is never exceeded. Recommended for long-lived worker threads. Default to false.
    *
-   * @param objectHandle The object to get the size for.
-   * @return The object's size bytes.
-   * @throws TokenException If determining the size fails.
+   * @param threadAffinity true to enable the thread affinity, false to disable it.
    */
-  public long getObjectSize(long objectHandle) throws TokenException {
-    Session session = borrowSession();
-    try {
-      return session.getObjectSize(objectHandle);
-    } finally {
-      sessions.add(session);
-    }
+  public void setThreadAffinity(boolean threadAffinity) {
+    this.threadAffinity = threadAffinity;
+    StaticLogger.info("threadAffinity = {}", threadAffinity);
   }
 
   /**
-   * Generate a unique CKA_ID.
-   * @param template The search criteria for the uniqueness.
-   * @param idLength Length of the CKA_ID.
-   * @param random random to generate the random CKA_ID.
-   * @return the unique CKA_ID.
-   * @throws TokenException If executing operation fails.
+   * Enables or disables the virtual thread mode.
+   * <p>
+   * A virtual thread which calls a native PKCS#11 function is pinned to its carrier thread
+   * during the call. If there are more sessions than carrier threads, the blocking PKCS#11
+   * calls may occupy all carrier threads and starve the other virtual threads. In the virtual
+   * thread mode, at most <code>parallelism - 1</code> virtual threads use a borrowed session
+   * concurrently, where <code>parallelism</code> is the number of carrier threads. Further virtual
+   * threads wait for a free slot without being pinned. Platform threads are not limited.
+   * <p>
+   * This mode has no effect on JDK without virtual threads.
+   *
+   * @param enabled true to enable the virtual thread mode, false to disable it.
    */
-  public byte[] generateUniqueId(AttributeVector template, int idLength, Random random) throws TokenException {
-    if (template != null && template.id() != null) {
-      throw new IllegalArgumentException("template shall not have CKA_ID");
-    }
-
-    if (template == null) {
-      template = new AttributeVector();
+  public void setVirtualThreadMode(boolean enabled) {
+    if (!enabled) {
+      carrierPermits = null;
+      StaticLogger.info("virtualThreadMode = false");
+      return;
     }
 
-    byte[] keyId = new byte[idLength];
-    template.id(keyId);
-
-    Session session = borrowSession();
-    try {
-      while (true) {
-        random.nextBytes(keyId);
-        if (session.findObjectsSingle(template, 1).length == 0) {
-          return keyId;
-        }
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    String str = System.getProperty("jdk.virtualThreadScheduler.parallelism");
+    if (str != null) {
+      try {
+        parallelism = Integer.parseInt(str.trim());
+      } catch (NumberFormatException ex) {
+        StaticLogger.warn("invalid jdk.virtualThreadScheduler.parallelism {}", str);
       }
-    } finally {
-      sessions.add(session);
     }
+
+    int maxPinnedCarriers = Math.max(1, parallelism - 1);
+    carrierPermits = new Semaphore(maxPinnedCarriers, true);
+    StaticLogger.info("virtualThreadMode = true, maxPinnedCarriers = {}", maxPinnedCarriers);
   }
 
   /**
-   * Gets the {@link PKCS11Key} identified by the given {@link PKCS11KeyId}.
-   * @param keyId The key identifier.
-   * @return {@link PKCS11Key} identified by the given {@link PKCS11KeyId}.
-   * @throws TokenException If executing operation fails.
+   * Sets the maximal number of pending asynchronous operations. Operations submitted to a full queue
+   * fail with {@link TokenException}. Must be called before the first asynchronous operation.
+   *
+   * @param asyncQueueCapacity the maximal number of pending asynchronous operations.
    */
-  public PKCS11Key getKey(PKCS11KeyId keyId) throws TokenException {
-    if (keyId == null) {
-      return null;
+  public synchronized void setAsyncQueueCapacity(int asyncQueueCapacity) {
+    if (asyncQueueCapacity < 1) {
+      throw new IllegalArgumentException("asyncQueueCapacity must be positive: " + asyncQueueCapacity);
     }
 
-    Session session = borrowSession();
-    try {
-      return getKey(session, keyId);
-    } finally {
-      sessions.add(session);
+    if (asyncQueue != null) {
+      throw new IllegalStateException("asynchronous operations have already been started");
     }
+    this.asyncQueueCapacity = asyncQueueCapacity;
   }
 
   /**
-   * Gets the {@link PKCS11Key} of a key satisfying the given criteria.
-   * @param criteria The criteria. At one of the CKA_ID and CKA_LABEL must be set.
-   * @return {@link PKCS11Key} of a key satisfying the given criteria
-   * @throws TokenException If executing operation fails.
+   * Sets the maximal number of sessions, including the session of the calling thread, used to read
+   * the attributes of many objects via {@link #getAttrValues(long[], long...)}. The default is half
+   * of the maximal number of sessions, so that an inventory scan does not take all idle sessions away
+   * from the other operations. In any case the number is limited by the quota of
+   * {@link OperationClass#OBJECT_MANAGEMENT}.
+   *
+   * @param maxBulkReadSessions the maximal number of sessions, 0 for the default.
    */
-  public PKCS11Key getKey(AttributeVector criteria) throws TokenException {
-    Session session = borrowSession();
-    try {
-      PKCS11KeyId keyId = getKeyId(session, criteria);
-      return (keyId == null) ? null : getKey(session, keyId);
-    } finally {
-      sessions.add(session);
+  public void setMaxBulkReadSessions(int maxBulkReadSessions) {
+    if (maxBulkReadSessions < 0) {
+      throw new IllegalArgumentException("maxBulkReadSessions shall not be negative: " + maxBulkReadSessions);
     }
+    this.maxBulkReadSessions = maxBulkReadSessions;
+    StaticLogger.info("maxBulkReadSessions = {}", maxBulkReadSessions);
   }
 
-  private PKCS11Key getKey(Session session, PKCS11KeyId keyId) throws TokenException {
-    long objClass = keyId.getObjectCLass();
-    long keyType = keyId.getKeyType();
-
-    List<Long> ckaTypes = new LinkedList<>();
-
-    if (objClass == CKO_SECRET_KEY || objClass == CKO_PRIVATE_KEY) {
-      addCkaTypes(ckaTypes, CKA_EXTRACTABLE, CKA_NEVER_EXTRACTABLE, CKA_PRIVATE,
-          CKA_DECRYPT, CKA_SIGN, CKA_UNWRAP, CKA_WRAP_WITH_TRUSTED, CKA_SENSITIVE, CKA_ALWAYS_SENSITIVE);
+  /**
+   * Returns the number of asynchronous operations waiting for a session. Can be used for backpressure.
+   *
+   * @return number of pending asynchronous operations.
+   */
+  public int getAsyncQueueDepth() {
+    BlockingQueue<AsyncTask<?>> queue = asyncQueue;
+    return queue == null ? 0 : queue.size();
+  }
 
-      if (objClass == CKO_SECRET_KEY) {
-        addCkaTypes(ckaTypes, CKA_ENCRYPT, CKA_TRUSTED, CKA_VERIFY, CKA_WRAP);
+  /**
+   * Sets the maximal message size sent to the PKCS#11 device in one command.
+   *
+   * @param maxMessageSize the maximal message size in bytes.
+   */
+  public void setMaxMessageSize(int maxMessageSize) {
+    if (maxMessageSize < 256) {
+      throw new IllegalArgumentException("maxMessageSize too small, at least 256 is required: " + maxMessageSize);
+    }
+    this.maxMessageSize = maxMessageSize;
+  }
 
-        if (!(keyType == CKK_DES || keyType == CKK_DES2 || keyType == CKK_DES3)) {
-          ckaTypes.add(CKA_VALUE_LEN);
-        }
-      } else {
-        addCkaTypes(ckaTypes, CKA_ALWAYS_AUTHENTICATE, CKA_SIGN_RECOVER);
+  public int getMaxMessageSize() {
+    return maxMessageSize;
+  }
 
-        if (keyType == CKK_RSA) {
-          addCkaTypes(ckaTypes, CKA_MODULUS, CKA_PUBLIC_EXPONENT);
-        } else if (keyType == CKK_EC || keyType == CKK_EC_EDWARDS || keyType == CKK_EC_MONTGOMERY
-            || keyType == CKK_VENDOR_SM2) {
-          addCkaTypes(ckaTypes, CKA_EC_PARAMS, CKA_EC_POINT);
-        } else if (keyType == CKK_DSA) {
-          addCkaTypes(ckaTypes, CKA_PRIME, CKA_SUBPRIME, CKA_BASE);
-        }
-      }
-    } else { // if (objClass == CKO_PUBLIC_KEY) {
-      addCkaTypes(ckaTypes, CKA_ENCRYPT, CKA_TRUSTED, CKA_VERIFY, CKA_VERIFY_RECOVER, CKA_WRAP);
-      if (keyType == CKK_RSA) {
-        addCkaTypes(ckaTypes, CKA_MODULUS, CKA_PUBLIC_EXPONENT);
-      } else if (keyType == CKK_EC || keyType == CKK_EC_EDWARDS || keyType == CKK_EC_MONTGOMERY
-          || keyType == CKK_VENDOR_SM2) {
-        addCkaTypes(ckaTypes, CKA_EC_PARAMS, CKA_EC_POINT);
-      } else if (keyType == CKK_DSA) {
-        addCkaTypes(ckaTypes, CKA_PRIME, CKA_SUBPRIME, CKA_BASE);
-      }
+  /**
+   * Enables or disables the cache of attribute values read via {@link #getAttrValues(long, long...)},
+   * {@link #getAttrValues(long, List)} and {@link #getKey(PKCS11KeyId)}. Repeated reads of the same
+   * attribute of an object are served from the cache without calling C_GetAttributeValue. Default
+   * is disabled.
+   * <p>
+   * The cached attributes of an object are removed if the object is modified or destroyed via this
+   * token. The whole cache is cleared on logout, if a session is lost or closed, and if a session has
+   * to be logged in again. Sensitive attributes are never cached.
+   * <p>
+   * Objects modified by other applications are not detected, enable the cache only if the
+   * attributes of the used objects are not changed outside this token.
+   *
+   * @param maxObjects maximal number of objects whose attributes are cached, 0 to disable the cache.
+   */
+  public void setAttributeCache(int maxObjects) {
+    if (maxObjects < 0) {
+      throw new IllegalArgumentException("maxObjects shall not be negative: " + maxObjects);
     }
+    this.attributeCache = maxObjects == 0 ? null : new AttributeCache(maxObjects);
+    StaticLogger.info("attributeCache: maxObjects = {}", maxObjects);
+  }
 
-    AttributeVector attrs = session.getAttrValues(keyId.getHandle(), ckaTypes);
-    // read EC_POINT from the public key
-    if (objClass == CKO_PRIVATE_KEY && keyId.getPublicKeyHandle() != null) {
-      if (keyType == CKK_EC || keyType == CKK_EC_EDWARDS || keyType == CKK_EC_MONTGOMERY
-          || keyType == CKK_VENDOR_SM2) {
-        if (attrs.ecPoint() == null) {
-          AttributeVector pubAttrs = session.getAttrValues(keyId.getPublicKeyHandle(), CKA_EC_POINT);
-          byte[] ecPoint = pubAttrs.ecPoint();
-          if (ecPoint != null) {
-            attrs.ecPoint(pubAttrs.ecPoint());
-          }
-        }
-      }
+  /**
+   * Removes all cached attribute values.
+   */
+  public void clearAttributeCache() {
+    AttributeCache cache = attributeCache;
+    if (cache != null) {
+      cache.clear();
     }
+  }
 
-    return new PKCS11Key(keyId, attrs);
+  /**
+   * Returns the number of attributes served from the attribute cache.
+   *
+   * @return number of cache hits, 0 if the cache is disabled.
+   */
+  public long getAttributeCacheHits() {
+    AttributeCache cache = attributeCache;
+    return cache == null ? 0 : cache.getHits();
   }
 
   /**
-   * Gets the {@link PKCS11KeyId} of a key satisfying the given criteria.
-   * @param criteria The criteria. At one of the CKA_ID and CKA_LABEL must be set.
-   * @return {@link PKCS11KeyId} of a key satisfying the given criteria
-   * @throws TokenException If executing operation fails.
+   * Returns the number of attributes not found in the attribute cache.
+   *
+   * @return number of cache misses, 0 if the cache is disabled.
    */
-  public PKCS11KeyId getKeyId(AttributeVector criteria) throws TokenException {
-    Session session = borrowSession();
-    try {
-      return getKeyId(session, criteria);
-    } finally {
-      sessions.add(session);
-    }
+  public long getAttributeCacheMisses() {
+    AttributeCache cache = attributeCache;
+    return cache == null ? 0 : cache.getMisses();
   }
 
-  private PKCS11KeyId getKeyId(Session session, AttributeVector criteria) throws TokenException {
-    byte[] id = criteria.id();
-    String label = criteria.label();
-    if ((id == null || id.length == 0) && (label == null || label.isEmpty())) {
-      return null;
-    }
+  /**
+   * Returns the number of objects evicted from the attribute cache since it exceeded its size.
+   *
+   * @return number of evicted objects, 0 if the cache is disabled.
+   */
+  public long getAttributeCacheEvictions() {
+    AttributeCache cache = attributeCache;
+    return cache == null ? 0 : cache.getEvictions();
+  }
 
-    Long oClass = criteria.class_();
-    if (oClass != null) {
-      // CKA_CLASS is set in criteria
-      if (!(CKO_PRIVATE_KEY == oClass || CKO_PUBLIC_KEY == oClass || CKO_SECRET_KEY == oClass)) {
-        return null;
-      }
+  /**
+   * Returns the number of objects whose attributes are cached.
+   *
+   * @return number of cached objects, 0 if the cache is disabled.
+   */
+  public int getAttributeCacheSize() {
+    AttributeCache cache = attributeCache;
+    return cache == null ? 0 : cache.size();
+  }
 
-      long[] handles = session.findObjectsSingle(criteria, 2);
-      if (handles.length == 0) {
-        return null;
-      } else if (handles.length > 1) {
-        throw new TokenException("found more than 1 key for the criteria " + criteria);
-      } else {
-        return getKeyIdByHandle(session, handles[0]);
-      }
+  private void invalidateAttributes(long objectHandle) {
+    AttributeCache cache = attributeCache;
+    if (cache != null) {
+      cache.remove(objectHandle);
     }
+  }
 
-    // CKA_CLASS is not set in criteria
-    oClass = CKO_PRIVATE_KEY;
-    long[] handles = session.findObjectsSingle(criteria.class_(oClass), 2);
-    if (handles.length == 0) {
-      oClass = CKO_SECRET_KEY;
-      handles = session.findObjectsSingle(criteria.class_(oClass), 2);
+  public Set<Long> getMechanisms() {
+    return Collections.unmodifiableSet(mechanisms.keySet());
+  }
 
-      if (handles.length == 0) {
-        oClass = CKO_PUBLIC_KEY;
-        handles = session.findObjectsSingle(criteria.class_(oClass), 2);
-      }
-    }
-
-    if (handles.length == 0) {
-      return null;
-    } else if (handles.length > 1) {
-      throw new TokenException(("found more than 1 key of " + ckoCodeToName(oClass)
-          + " for the criteria " + criteria.class_(null)));
-    } else {
-      return getKeyIdByHandle(session, handles[0]);
-    }
-  }
-
-  private PKCS11KeyId getKeyIdByHandle(Session session, long hKey) throws TokenException {
-    AttributeVector attrs = session.getAttrValues(hKey, CKA_CLASS, CKA_KEY_TYPE, CKA_ID, CKA_LABEL);
-    Long oClass = attrs.class_();
-    Long keyType = attrs.keyType();
-    if (oClass == null || keyType == null) {
-      return null;
-    }
-    byte[] id = attrs.id();
-    PKCS11KeyId ret = new PKCS11KeyId(hKey, oClass, keyType, id, attrs.label());
-    if (oClass == CKO_PRIVATE_KEY) {
-      // find the public key
-      long[] pubKeyHandles = session.findObjectsSingle(AttributeVector.newPublicKey(keyType).id(id), 2);
-      if (pubKeyHandles.length == 1) {
-        ret.setPublicKeyHandle(pubKeyHandles[0]);
-      } else if (pubKeyHandles.length > 1) {
-        StaticLogger.warn("found more than 1 public key for the private key {}, ignore them.", hKey);
-      }
-    }
-    return ret;
+  /**
+   * Gets the {@link MechanismInfo} for given mechanism code.
+   *
+   * @param mechanism The mechanism code.
+   * @return the {@link MechanismInfo}.
+   */
+  public MechanismInfo getMechanismInfo(long mechanism) {
+    return mechanisms.get(mechanism);
   }
 
   /**
-   * Finds all objects that match the template.
+   * Returns whether the mechanism for given purpose is supported.
    *
-   * @param template The object that serves as a template for searching. If this object is null, the find
-   *                 operation will find all objects that this session can see. Notice, that only a user
-   *                 session will see private objects.
-   * @return An array of found objects. The maximum size of this array is maxObjectCount, the
-   * minimum length is 0. Never returns null.
-   * @throws TokenException if finding objects failed.
+   * @param mechanism The mechanism.
+   * @param flagBit   The purpose. Valid values are (could be extended in the future PKCS#11 version):
+   *                  {@link PKCS11Constants#CKF_SIGN}, {@link PKCS11Constants#CKF_VERIFY},
+   *                  {@link PKCS11Constants#CKF_SIGN_RECOVER}, {@link PKCS11Constants#CKF_VERIFY_RECOVER},
+   *                  {@link PKCS11Constants#CKF_ENCRYPT}, {@link PKCS11Constants#CKF_DECRYPT},
+   *                  {@link PKCS11Constants#CKF_DERIVE}, {@link PKCS11Constants#CKF_DIGEST},
+   *                  {@link PKCS11Constants#CKF_UNWRAP}, {@link PKCS11Constants#CKF_WRAP}.
+   * @return whether mechanism with given flag bit is supported.
    */
-  public long[] findAllObjects(AttributeVector template) throws TokenException {
-    Session session = borrowSession();
-    try {
-      return session.findAllObjectsSingle(template);
-    } finally {
-      sessions.add(session);
-    }
+  public boolean supportsMechanism(long mechanism, long flagBit) {
+    MechanismInfo info = mechanisms.get(mechanism);
+    return info != null && info.hasFlagBit(flagBit);
   }
 
   /**
-   * Finds objects that match the template.
+   * Set the user-PIN to a new value. Can only be called from a read-write sessions.
    *
-   * @param template The object that serves as a template for searching. If this object is null, the find
-   *                 operation will find all objects that this session can see. Notice, that only a user
-   *                 session will see private objects.
-   * @param maxObjectCount Specifies how many objects to return with this call.
-   * @return An array of found objects. The maximum size of this array is maxObjectCount, the
-   * minimum length is 0. Never returns null.
-   * @throws TokenException if finding objects failed.
+   * @param oldPin The old (current) user-PIN.
+   * @param newPin The new value for the user-PIN.
+   * @throws TokenException If setting the new PIN fails.
    */
-  public long[] findObjects(AttributeVector template, int maxObjectCount) throws TokenException {
-    Session session = borrowSession();
+  public void setPIN(char[] oldPin, char[] newPin) throws TokenException {
+    Session session = borrowSession(OperationClass.OTHER);
     try {
-      return session.findObjectsSingle(template, maxObjectCount);
+      long sessionState = session.getSessionInfo().getState();
+      if (sessionState == CKS_RO_PUBLIC_SESSION) {
+        return;
+      }
+
+      if (sessionState != CKS_RW_SO_FUNCTIONS) {
+        throw new TokenException("Session is not logged in as CKU_SO");
+      }
+      session.setPIN(oldPin, newPin);
+      StaticLogger.info("setPIN");
     } finally {
-      sessions.add(session);
+      requiteSession(session);
     }
   }
 
   /**
-   * Encrypts the given data with the key and mechanism.
+   * Initializes the user-PIN. Can only be called from a read-write security officer session. May be
+   * used to set a new user-PIN if the user-PIN is locked.
    *
-   * @param mechanism The mechanism to use; e.g. Mechanism.DES_CBC.
-   * @param keyHandle The decryption key to use.
-   * @param plaintext the to-be-encrypted data
-   * @return the encrypted data. Never returns {@code null}.
-   * @throws TokenException If encrypting failed.
+   * @param pin The new user-PIN. This parameter may be null, if the token has a protected
+   *            authentication path. Refer to the PKCS#11 standard for details.
+   * @throws TokenException If the session has not the right to set the PIN of if the operation fails for some
+   *                         other reason.
    */
-  public byte[] encrypt(Mechanism mechanism, long keyHandle, byte[] plaintext) throws TokenException {
-    Session session = borrowSession();
+  public void initPIN(char[] pin) throws TokenException {
+    Session session = borrowSession(OperationClass.OTHER);
     try {
-      opInit(OP.ENCRYPT, session, mechanism, keyHandle);
-      int len = plaintext.length;
-      if (len <= maxMessageSize) {
-        return session.encrypt(plaintext);
-      } else {
-
-        ByteArrayOutputStream bout = new ByteArrayOutputStream(plaintext.length + 16);
-        try {
-          for (int ofs = 0; ofs < len; ofs += maxMessageSize) {
-            byte[] ciphertextPart = session.encryptUpdate(
-                                      copyOfLen(plaintext, ofs, Math.min(maxMessageSize, len - ofs)));
-            bout.write(ciphertextPart, 0, ciphertextPart.length);
-          }
-        } finally {
-          byte[] ciphertextPart = session.encryptFinal();
-          bout.write(ciphertextPart, 0, ciphertextPart.length);
-        }
+      long sessionState = session.getSessionInfo().getState();
+      if (sessionState == CKS_RO_PUBLIC_SESSION) {
+        return;
+      }
 
-        return bout.toByteArray();
+      if (sessionState != CKS_RW_SO_FUNCTIONS) {
+        throw new TokenException("Session is not logged in as CKU_SO");
       }
+      session.initPIN(pin);
+      StaticLogger.info("initPIN");
     } finally {
-      sessions.add(session);
+      requiteSession(session);
     }
   }
 
   /**
-   * This method can be used to encrypt large data.
-   *
-   * @param out        Stream to which the cipher text is written.
-   * @param mechanism  The mechanism to use.
-   * @param keyHandle  The decryption key to use.
-   * @param plaintext  Input-stream of the to-be-encrypted data
-   * @return length of the encrypted data.
-   * @throws TokenException If encrypting the data failed.
-   * @throws IOException if reading data from the plaintext stream failed or writing to the ciphertext stream failed.
+   * Closes all sessions and stops the background tasks.
    */
-  public int encrypt(OutputStream out, Mechanism mechanism, long keyHandle, InputStream plaintext)
-      throws TokenException, IOException {
-    Session session = borrowSession();
-    try {
-      byte[] buffer = new byte[maxMessageSize];
-      int read;
-      int resSum = 0;
+  public void closeAllSessions() {
+    unregisterMBean();
+    synchronized (this) {
+      if (maintainer != null) {
+        maintainer.shutdownNow();
+        maintainer = null;
+        backgroundValidation = null;
+        adaptiveSizing = null;
+        sessionMaintenance = null;
+      }
 
-      // encryptInit
-      opInit(OP.ENCRYPT, session, mechanism, keyHandle);
+      clearAttributeCache();
+
+      if (bulkReaders != null) {
+        bulkReaders.shutdownNow();
+        bulkReaders = null;
+      }
+
+      if (asyncWorkers != null) {
+        asyncWorkers.shutdownNow();
+        asyncWorkers = null;
+
+        AsyncTask<?> task;
+        while ((task = asyncQueue.poll()) != null) {
+          task.future.completeExceptionally(new TokenException("token has been closed"));
+        }
+        asyncQueue = null;
+      }
+    }
 
+    if (token != null) {
       try {
-        while ((read = plaintext.read(buffer)) != -1) {
-          if (read > 0) {
-            byte[] res = session.encryptUpdate(copyOfLen(buffer, read));
-            if (res != null && res.length > 0) {
-              resSum += res.length;
-              out.write(res, 0, res.length);
-            }
+        StaticLogger.info("close all sessions on token: {}", token.getTokenInfo());
+
+        Session session;
+        while ((session = sessions.pollFirst()) != null) {
+          if (session.poolState.compareAndSet(SESSION_IDLE, SESSION_CLOSED)) {
+            countSessions.decrementAndGet();
+            session.closeSession();
           }
         }
-      } finally {
-        byte[] res = session.encryptFinal();
-        if (res != null && res.length > 0) {
-          resSum += res.length;
-          out.write(res, 0, res.length);
-        }
+      } catch (Throwable th) {
+        StaticLogger.error("error closing sessions, {}", th.getMessage());
       }
+    }
 
-      return resSum;
-    } finally {
-      sessions.add(session);
+    // clear the session pool
+    Session session;
+    while ((session = sessions.pollFirst()) != null) {
+      if (session.poolState.compareAndSet(SESSION_IDLE, SESSION_CLOSED)) {
+        countSessions.decrementAndGet();
+      }
     }
   }
 
   /**
-   * Decrypts the given data with the key and mechanism.
+   * Get the token (slot) identifier of this token.
    *
-   * @param mechanism  The mechanism to use.
-   * @param keyHandle  The decryption key to use.
-   * @param ciphertext the to-be-decrypted data
-   * @return the decrypted data. Never returns {@code null}.
-   * @throws TokenException If encrypting failed.
+   * @return the slot identifier of this token.
    */
-  public byte[] decrypt(Mechanism mechanism, long keyHandle, byte[] ciphertext) throws TokenException {
-    Session session = borrowSession();
+  public long getTokenId() {
+    return token.getTokenID();
+  }
 
-    try {
-      opInit(OP.DECRYPT, session, mechanism, keyHandle);
+  /**
+   * Get the token that created this Session object.
+   *
+   * @return The token.
+   */
+  public Token getToken() {
+    return token;
+  }
 
-      int len = ciphertext.length;
-      if (len <= maxMessageSize) {
-        return session.decrypt(ciphertext);
-      } else {
-        ByteArrayOutputStream bout = new ByteArrayOutputStream(ciphertext.length);
-        try {
-          for (int ofs = 0; ofs < len; ofs += maxMessageSize) {
-            byte[] plaintextPart = session.decryptUpdate(
-                                      copyOfLen(ciphertext, ofs, Math.min(maxMessageSize, len - ofs)));
-            bout.write(plaintextPart, 0, plaintextPart.length);
-          }
-        } finally {
-          byte[] plaintextPart = session.decryptFinal();
-          bout.write(plaintextPart, 0, plaintextPart.length);
-        }
+  public String getModuleInfo() throws TokenException {
+    return token.getSlot().getModule().getInfo().toString();
+  }
 
-        return bout.toByteArray();
-      }
-    } finally {
-      sessions.add(session);
-    }
+  /**
+   * Returns whether this token is read-only.
+   * @return true if read-only, false if read-write.
+   */
+  public boolean isReadOnly() {
+    return readOnly;
   }
 
   /**
-   * This method can be used to decrypt large data.
+   * Login this session as CKU_SO (Security Officer).
    *
-   * @param out        Stream to which the plain text is written.
-   * @param mechanism  The mechanism to use.
-   * @param keyHandle  The decryption key to use.
-   * @param ciphertext Input-stream of the to-be-encrypted data
-   * @return length of the decrypted data.
-   * @throws TokenException If decrypting the data failed.
-   * @throws IOException if reading data from the ciphertext stream failed or writing to the plaintext stream failed.
+   * @param userName Username of user type CKU_SO.
+   * @param pin      PIN.
+   * @throws TokenException If logging in the session fails.
    */
-  public int decrypt(OutputStream out, Mechanism mechanism, long keyHandle, InputStream ciphertext)
-      throws TokenException, IOException {
-    Session session = borrowSession();
+  public void logInSecurityOfficer(char[] userName, char[] pin) throws TokenException {
+    Session session = borrowNoLoginSession();
     try {
-      byte[] buffer = new byte[maxMessageSize];
-      int read;
-
-      int resSum = 0;
-      // decryptInit
-      opInit(OP.DECRYPT, session, mechanism, keyHandle);
-
-      try {
-        while ((read = ciphertext.read(buffer)) != -1) {
-          if (read > 0) {
-            byte[] res = session.decryptUpdate(copyOfLen(buffer, read));
-            if (res != null && res.length > 0) {
-              resSum += res.length;
-              out.write(res, 0, res.length);
-            }
-          }
-        }
-      } finally {
-        byte[] res = session.decryptFinal();
-        if (res != null && res.length > 0) {
-          resSum += res.length;
-          out.write(res, 0, res.length);
-        }
-      }
-
-      return resSum;
+      login(session, CKU_SO, userName, (pin == null) ? null : Collections.singletonList(pin), false);
+      StaticLogger.info("logIn CKU_SO");
     } finally {
-      sessions.add(session);
+      requiteSession(session);
     }
   }
 
   /**
-   * Digests the given data with the mechanism.
+   * Logs out this session.
    *
-   * @param mechanism The mechanism to use; e.g. Mechanism.SHA_1.
-   * @param data      the to-be-digested data
-   * @return the message digest. Never returns {@code null}.
-   * @throws TokenException If digesting the data failed.
+   * @throws TokenException If logging out the session fails.
    */
-  public byte[] digest(Mechanism mechanism, byte[] data) throws TokenException {
-    Session session = borrowSession();
-    int len = data.length;
+  public void logout() throws TokenException {
+    Session session = borrowSession(OperationClass.OTHER);
     try {
-      opInit(OP.DIGEST, session, mechanism, 0);
-      if (len < maxMessageSize) {
-        return session.digest(data);
-      } else {
-        byte[] digest;
-        try {
-          for (int ofs = 0; ofs < len; ofs += maxMessageSize) {
-            session.signUpdate(data, ofs, Math.min(maxMessageSize, len - ofs));
-          }
-        } finally {
-          digest = session.digestFinal();
-        }
-        return digest;
-      }
+      session.logout();
+      clearAttributeCache();
+      StaticLogger.info("logout");
     } finally {
-      sessions.add(session);
+      requiteSession(session);
     }
   }
 
   /**
-   * Digests the given key with the mechanism.
+   * Borrows a session for several operations. The session is validated once, and returned to
+   * the pool by {@link TokenLease#close()}. All operations of the lease are accounted to the quota
+   * of the given operation class, see {@link #setSessionQuota(OperationClass, int)}. Example: <code>
+   * try (TokenLease lease = token.lease(OperationClass.SIGN_VERIFY)) {
+   *   PKCS11KeyId keyId = lease.getKeyId(criteria);
+   *   byte[] signature = lease.sign(mechanism, keyId.getHandle(), data);
+   * }
+   * </code>
+   *
+   * @param operationClass The operation class whose quota applies to the lease.
+   * @return the lease.
+   * @throws TokenException If no session could be borrowed.
+   */
+  public TokenLease lease(OperationClass operationClass) throws TokenException {
+    return new TokenLease(this, borrowSession(operationClass));
+  }
+
+  /**
+   * Create a new object on the token (or in the session). The application must provide a template
+   * that holds enough information to create a certain object. For instance, if the application
+   * wants to create a new DES key object it creates a new instance of the AttributesTemplate class to
+   * serve as a template. The application must set all attributes of this new object which are
+   * required for the creation of such an object on the token. Then it passes this DESSecretKey
+   * object to this method to create the object on the token. Example: <code>
+   * AttributesTemplate desKeyTemplate = AttributesTemplate.newSecretKey(CKK_DES3);
+   * // the key type is set by the DESSecretKey's constructor, so you need not do it
+   * desKeyTemplate.value(myDesKeyValueAs8BytesLongByteArray)
+   * .token(true)
+   * .private(true);
+   * .encrypt(true);
+   * .decrypt(true);
+   * ...
+   * long theCreatedDESKeyObjectHandle = userSession.createObject(desKeyTemplate);
+   * </code> Refer to the PKCS#11 standard to find out what attributes must be set for certain types
+   * of objects to create them on the token.
+   *
+   * @param template The template object that holds all values that the new object on the token should
+   *                 contain.
+   * @return A new PKCS#11 Object that serves holds all the
+   * (readable) attributes of the object on the token. In contrast to the templateObject,
+   * this object might have certain attributes set to token-dependent default-values.
+   * @throws TokenException If the creation of the new object fails. If it fails, the no new object was
+   *                        created on the token.
+   */
+  public long createObject(AttributeVector template) throws TokenException {
+    Session session = borrowSession(OperationClass.OBJECT_MANAGEMENT);
+    try {
+      return createObject(session, template);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  long createObject(Session session, AttributeVector template) throws TokenException {
+    return session.createObject(template);
+  }
+
+  /**
+   * Create a new object on the token from the frozen template.
+   *
+   * @param template The frozen template of the new object.
+   * @return the handle of the new object.
+   * @throws TokenException If the creation of the new object fails.
+   * @see #createObject(AttributeVector)
+   * @see #freeze(AttributeVector)
+   */
+  public long createObject(FrozenTemplate template) throws TokenException {
+    Session session = borrowSession(OperationClass.OBJECT_MANAGEMENT);
+    try {
+      return createObject(session, template);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  long createObject(Session session, FrozenTemplate template) throws TokenException {
+    return session.createObject(template);
+  }
+
+  /**
+   * Converts the template once into a {@link FrozenTemplate} for the module of this token. The
+   * frozen template can be used repeatedly and concurrently to search and create objects.
+   *
+   * @param template The template to freeze.
+   * @return the frozen template.
+   */
+  public FrozenTemplate freeze(AttributeVector template) {
+    return template.freeze(getModule());
+  }
+
+  public long createPrivateKeyObject(AttributeVector template, PublicKey publicKey) throws TokenException {
+    Session session = borrowSession(OperationClass.OBJECT_MANAGEMENT);
+    try {
+      return createPrivateKeyObject(session, template, publicKey);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  long createPrivateKeyObject(Session session, AttributeVector template, PublicKey publicKey) throws TokenException {
+    return session.createPrivateKeyObject(template, publicKey);
+  }
+
+  /**
+   * Create EC private key object in the PKCS#11 device.
+   * @param template Template of the EC private key.
+   * @param ecPoint The encoded EC-Point. May be null.
+   * @return object handle of the new EC private key.
+   * @throws TokenException if creating new object failed.
+   */
+  public long createECPrivateKeyObject(AttributeVector template, byte[] ecPoint) throws TokenException {
+    Session session = borrowSession(OperationClass.OBJECT_MANAGEMENT);
+    try {
+      return createECPrivateKeyObject(session, template, ecPoint);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  long createECPrivateKeyObject(Session session, AttributeVector template, byte[] ecPoint) throws TokenException {
+    return session.createECPrivateKeyObject(template, ecPoint);
+  }
+
+  /**
+   * Copy an existing object. The source object and a template object are given. Any value set in
+   * the template object will override the corresponding value from the source object, when the new
+   * object is created. See the PKCS#11 standard for details.
+   *
+   * @param sourceObjectHandle The source object of the copy operation.
+   * @param template           A template object whose attribute values are used for the new object; i.e. they have
+   *                           higher priority than the attribute values from the source object. May be null; in that
+   *                           case the new object is just a one-to-one copy of the sourceObject.
+   * @return The new object that is created by copying the source object and setting attributes to
+   * the values given by the template.
+   * @throws TokenException If copying the object fails for some reason.
+   */
+  public long copyObject(long sourceObjectHandle, AttributeVector template) throws TokenException {
+    Session session = borrowSession(OperationClass.OBJECT_MANAGEMENT);
+    try {
+      return copyObject(session, sourceObjectHandle, template);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  long copyObject(Session session, long sourceObjectHandle, AttributeVector template) throws TokenException {
+    return session.copyObject(sourceObjectHandle, template);
+  }
+
+  /**
+   * Gets all present attributes of the given template object and writes them to the object to update
+   * on the token (or in the session). Both parameters may refer to the same Java object. This is
+   * possible, because this method only needs the object handle of the objectToUpdate, and gets the
+   * attributes to set from the template. This means, an application can get the object using
+   * createObject of findObject, then modify attributes of this Java object and then call this
+   * method passing this object as both parameters. This will update the object on the token to the
+   * values as modified in the Java object.
+   *
+   * @param objectToUpdateHandle The attributes of this object get updated.
+   * @param template             This method gets all present attributes of this template object and set this
+   *                             attributes at the objectToUpdate.
+   * @throws TokenException If updating the attributes fails. All or no attributes are updated.
+   */
+  public void setAttributeValues(long objectToUpdateHandle, AttributeVector template) throws TokenException {
+    Session session = borrowSession(OperationClass.OBJECT_MANAGEMENT);
+    try {
+      setAttributeValues(session, objectToUpdateHandle, template);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  void setAttributeValues(Session session, long objectToUpdateHandle, AttributeVector template) throws TokenException {
+    try {
+      session.setAttributeValues(objectToUpdateHandle, template);
+    } finally {
+      // some attributes may have been set even if the operation failed.
+      invalidateAttributes(objectToUpdateHandle);
+    }
+  }
+
+  /**
+   * Destroy a certain object on the token (or in the session). Give the object that you want to
+   * destroy. This method uses only the internal object handle of the given object to identify the
+   * object.
+   *
+   * @param objectHandle The object handle that should be destroyed.
+   * @throws TokenException If the object could not be destroyed.
+   */
+  public void destroyObject(long objectHandle) throws TokenException {
+    Session session = borrowSession(OperationClass.OBJECT_MANAGEMENT);
+    try {
+      destroyObject(session, objectHandle);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  void destroyObject(Session session, long objectHandle) throws TokenException {
+    session.destroyObject(objectHandle);
+    invalidateAttributes(objectHandle);
+  }
+
+  /**
+   * Destroy a certain object on the token (or in the session). Give the object that you want to
+   * destroy. This method uses only the internal object handle of the given object to identify the
+   * object.
+   *
+   * @param objectHandles The object handles that should be destroyed.
+   * @return objects that have been destroyed.
+   * @throws TokenException If could not get a valid session.
+   */
+  public long[] destroyObjects(long... objectHandles) throws TokenException {
+    List<Long> list = new ArrayList<>(objectHandles.length);
+    for (long handle : objectHandles) {
+      list.add(handle);
+    }
+
+    List<Long> destroyedHandles = destroyObjects(list);
+    long[] ret = new long[destroyedHandles.size()];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = destroyedHandles.get(i);
+    }
+    return ret;
+  }
+
+  public List<Long> destroyObjects(List<Long> objectHandles) throws TokenException {
+    Session session = borrowSession(OperationClass.OBJECT_MANAGEMENT);
+    try {
+      return destroyObjects(session, objectHandles);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  List<Long> destroyObjects(Session session, List<Long> objectHandles) throws TokenException {
+    List<Long> destroyedHandles = new ArrayList<>(objectHandles.size());
+    for (long objectHandle : objectHandles) {
+      try {
+        session.destroyObject(objectHandle);
+        invalidateAttributes(objectHandle);
+        destroyedHandles.add(objectHandle);
+      } catch (PKCS11Exception e) {
+        StaticLogger.warn("error destroying object {}: {}", objectHandle, e.getMessage());
+      }
+    }
+
+    return destroyedHandles;
+  }
+
+  /**
+   * Get the size of the specified object in bytes. This size specifies how much memory the object
+   * takes up on the token.
+   *
+   * @param objectHandle The object to get the size for.
+   * @return The object's size bytes.
+   * @throws TokenException If determining the size fails.
+   */
+  public long getObjectSize(long objectHandle) throws TokenException {
+    Session session = borrowSession(OperationClass.OBJECT_MANAGEMENT);
+    try {
+      return getObjectSize(session, objectHandle);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  long getObjectSize(Session session, long objectHandle) throws TokenException {
+    return session.getObjectSize(objectHandle);
+  }
+
+  /**
+   * Generate a unique CKA_ID.
+   * @param template The search criteria for the uniqueness.
+   * @param idLength Length of the CKA_ID.
+   * @param random random to generate the random CKA_ID.
+   * @return the unique CKA_ID.
+   * @throws TokenException If executing operation fails.
+   */
+  public byte[] generateUniqueId(AttributeVector template, int idLength, Random random) throws TokenException {
+    Session session = borrowSession(OperationClass.OBJECT_MANAGEMENT);
+    try {
+      return generateUniqueId(session, template, idLength, random);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  byte[] generateUniqueId(Session session, AttributeVector template, int idLength, Random random)
+      throws TokenException {
+    if (template != null && template.id() != null) {
+      throw new IllegalArgumentException("template shall not have CKA_ID");
+    }
+
+    if (template == null) {
+      template = new AttributeVector();
+    }
+
+    byte[] keyId = new byte[idLength];
+    template.id(keyId);
+
+    while (true) {
+      random.nextBytes(keyId);
+      if (session.findObjectsSingle(template, 1).length == 0) {
+        return keyId;
+      }
+    }
+  }
+
+  /**
+   * Gets the {@link PKCS11Key} identified by the given {@link PKCS11KeyId}.
+   * @param keyId The key identifier.
+   * @return {@link PKCS11Key} identified by the given {@link PKCS11KeyId}.
+   * @throws TokenException If executing operation fails.
+   */
+  public PKCS11Key getKey(PKCS11KeyId keyId) throws TokenException {
+    if (keyId == null) {
+      return null;
+    }
+
+    Session session = borrowSession(OperationClass.OBJECT_MANAGEMENT);
+    try {
+      return getKey(session, keyId);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  /**
+   * Gets the {@link PKCS11Key} of a key satisfying the given criteria.
+   * @param criteria The criteria. At one of the CKA_ID and CKA_LABEL must be set.
+   * @return {@link PKCS11Key} of a key satisfying the given criteria
+   * @throws TokenException If executing operation fails.
+   */
+  public PKCS11Key getKey(AttributeVector criteria) throws TokenException {
+    Session session = borrowSession(OperationClass.OBJECT_MANAGEMENT);
+    try {
+      PKCS11KeyId keyId = getKeyId(session, criteria);
+      return (keyId == null) ? null : getKey(session, keyId);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  PKCS11Key getKey(Session session, PKCS11KeyId keyId) throws TokenException {
+    long objClass = keyId.getObjectCLass();
+    long keyType = keyId.getKeyType();
+
+    List<Long> ckaTypes = new LinkedList<>();
+
+    if (objClass == CKO_SECRET_KEY || objClass == CKO_PRIVATE_KEY) {
+      addCkaTypes(ckaTypes, CKA_EXTRACTABLE, CKA_NEVER_EXTRACTABLE, CKA_PRIVATE,
+          CKA_DECRYPT, CKA_SIGN, CKA_UNWRAP, CKA_WRAP_WITH_TRUSTED, CKA_SENSITIVE, CKA_ALWAYS_SENSITIVE);
+
+      if (objClass == CKO_SECRET_KEY) {
+        addCkaTypes(ckaTypes, CKA_ENCRYPT, CKA_TRUSTED, CKA_VERIFY, CKA_WRAP);
+
+        if (!(keyType == CKK_DES || keyType == CKK_DES2 || keyType == CKK_DES3)) {
+          ckaTypes.add(CKA_VALUE_LEN);
+        }
+      } else {
+        addCkaTypes(ckaTypes, CKA_ALWAYS_AUTHENTICATE, CKA_SIGN_RECOVER);
+
+        if (keyType == CKK_RSA) {
+          addCkaTypes(ckaTypes, CKA_MODULUS, CKA_PUBLIC_EXPONENT);
+        } else if (keyType == CKK_EC || keyType == CKK_EC_EDWARDS || keyType == CKK_EC_MONTGOMERY
+            || keyType == CKK_VENDOR_SM2) {
+          addCkaTypes(ckaTypes, CKA_EC_PARAMS, CKA_EC_POINT);
+        } else if (keyType == CKK_DSA) {
+          addCkaTypes(ckaTypes, CKA_PRIME, CKA_SUBPRIME, CKA_BASE);
+        }
+      }
+    } else { // if (objClass == CKO_PUBLIC_KEY) {
+      addCkaTypes(ckaTypes, CKA_ENCRYPT, CKA_TRUSTED, CKA_VERIFY, CKA_VERIFY_RECOVER, CKA_WRAP);
+      if (keyType == CKK_RSA) {
+        addCkaTypes(ckaTypes, CKA_MODULUS, CKA_PUBLIC_EXPONENT);
+      } else if (keyType == CKK_EC || keyType == CKK_EC_EDWARDS || keyType == CKK_EC_MONTGOMERY
+          || keyType == CKK_VENDOR_SM2) {
+        addCkaTypes(ckaTypes, CKA_EC_PARAMS, CKA_EC_POINT);
+      } else if (keyType == CKK_DSA) {
+        addCkaTypes(ckaTypes, CKA_PRIME, CKA_SUBPRIME, CKA_BASE);
+      }
+    }
+
+    AttributeVector attrs = getAttrValues(session, keyId.getHandle(), ckaTypes);
+    // read EC_POINT from the public key
+    if (objClass == CKO_PRIVATE_KEY && keyId.getPublicKeyHandle() != null) {
+      if (keyType == CKK_EC || keyType == CKK_EC_EDWARDS || keyType == CKK_EC_MONTGOMERY
+          || keyType == CKK_VENDOR_SM2) {
+        if (attrs.ecPoint() == null) {
+          AttributeVector pubAttrs = getAttrValues(session, keyId.getPublicKeyHandle(),
+              new ArrayList<>(Collections.singletonList(CKA_EC_POINT)));
+          byte[] ecPoint = pubAttrs.ecPoint();
+          if (ecPoint != null) {
+            attrs.ecPoint(pubAttrs.ecPoint());
+          }
+        }
+      }
+    }
+
+    return new PKCS11Key(keyId, attrs);
+  }
+
+  /**
+   * Gets the {@link PKCS11KeyId} of a key satisfying the given criteria.
+   * @param criteria The criteria. At one of the CKA_ID and CKA_LABEL must be set.
+   * @return {@link PKCS11KeyId} of a key satisfying the given criteria
+   * @throws TokenException If executing operation fails.
+   */
+  public PKCS11KeyId getKeyId(AttributeVector criteria) throws TokenException {
+    Session session = borrowSession(OperationClass.OBJECT_MANAGEMENT);
+    try {
+      return getKeyId(session, criteria);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  PKCS11KeyId getKeyId(Session session, AttributeVector criteria) throws TokenException {
+    byte[] id = criteria.id();
+    String label = criteria.label();
+    if ((id == null || id.length == 0) && (label == null || label.isEmpty())) {
+      return null;
+    }
+
+    Long oClass = criteria.class_();
+    if (oClass != null) {
+      // CKA_CLASS is set in criteria
+      if (!(CKO_PRIVATE_KEY == oClass || CKO_PUBLIC_KEY == oClass || CKO_SECRET_KEY == oClass)) {
+        return null;
+      }
+
+      long[] handles = session.findObjectsSingle(criteria, 2);
+      if (handles.length == 0) {
+        return null;
+      } else if (handles.length > 1) {
+        throw new TokenException("found more than 1 key for the criteria " + criteria);
+      } else {
+        return getKeyIdByHandle(session, handles[0]);
+      }
+    }
+
+    // CKA_CLASS is not set in criteria
+    oClass = CKO_PRIVATE_KEY;
+    long[] handles = session.findObjectsSingle(criteria.class_(oClass), 2);
+    if (handles.length == 0) {
+      oClass = CKO_SECRET_KEY;
+      handles = session.findObjectsSingle(criteria.class_(oClass), 2);
+
+      if (handles.length == 0) {
+        oClass = CKO_PUBLIC_KEY;
+        handles = session.findObjectsSingle(criteria.class_(oClass), 2);
+      }
+    }
+
+    if (handles.length == 0) {
+      return null;
+    } else if (handles.length > 1) {
+      throw new TokenException(("found more than 1 key of " + ckoCodeToName(oClass)
+          + " for the criteria " + criteria.class_(null)));
+    } else {
+      return getKeyIdByHandle(session, handles[0]);
+    }
+  }
+
+  private PKCS11KeyId getKeyIdByHandle(Session session, long hKey) throws TokenException {
+    AttributeVector attrs = session.getAttrValues(hKey, CKA_CLASS, CKA_KEY_TYPE, CKA_ID, CKA_LABEL);
+    Long oClass = attrs.class_();
+    Long keyType = attrs.keyType();
+    if (oClass == null || keyType == null) {
+      return null;
+    }
+    byte[] id = attrs.id();
+    PKCS11KeyId ret = new PKCS11KeyId(hKey, oClass, keyType, id, attrs.label());
+    if (oClass == CKO_PRIVATE_KEY) {
+      // find the public key
+      long[] pubKeyHandles = session.findObjectsSingle(AttributeVector.newPublicKey(keyType).id(id), 2);
+      if (pubKeyHandles.length == 1) {
+        ret.setPublicKeyHandle(pubKeyHandles[0]);
+      } else if (pubKeyHandles.length > 1) {
+        StaticLogger.warn("found more than 1 public key for the private key {}, ignore them.", hKey);
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Finds all objects that match the template.
+   *
+   * @param template The object that serves as a template for searching. If this object is null, the find
+   *                 operation will find all objects that this session can see. Notice, that only a user
+   *                 session will see private objects.
+   * @return An array of found objects. The maximum size of this array is maxObjectCount, the
+   * minimum length is 0. Never returns null.
+   * @throws TokenException if finding objects failed.
+   */
+  public long[] findAllObjects(AttributeVector template) throws TokenException {
+    Session session = borrowSession(OperationClass.OBJECT_MANAGEMENT);
+    try {
+      return findAllObjects(session, template);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  long[] findAllObjects(Session session, AttributeVector template) throws TokenException {
+    return session.findAllObjectsSingle(template);
+  }
+
+  /**
+   * Finds objects that match the template.
+   *
+   * @param template The object that serves as a template for searching. If this object is null, the find
+   *                 operation will find all objects that this session can see. Notice, that only a user
+   *                 session will see private objects.
+   * @param maxObjectCount Specifies how many objects to return with this call.
+   * @return An array of found objects. The maximum size of this array is maxObjectCount, the
+   * minimum length is 0. Never returns null.
+   * @throws TokenException if finding objects failed.
+   */
+  public long[] findObjects(AttributeVector template, int maxObjectCount) throws TokenException {
+    Session session = borrowSession(OperationClass.OBJECT_MANAGEMENT);
+    try {
+      return findObjects(session, template, maxObjectCount);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  long[] findObjects(Session session, AttributeVector template, int maxObjectCount) throws TokenException {
+    return session.findObjectsSingle(template, maxObjectCount);
+  }
+
+  /**
+   * Finds objects that match the frozen template.
+   *
+   * @param template The frozen template for searching.
+   * @param maxObjectCount Specifies how many objects to return with this call.
+   * @return An array of found objects. The maximum size of this array is maxObjectCount, the
+   * minimum length is 0. Never returns null.
+   * @throws TokenException if finding objects failed.
+   * @see #findObjects(AttributeVector, int)
+   */
+  public long[] findObjects(FrozenTemplate template, int maxObjectCount) throws TokenException {
+    Session session = borrowSession(OperationClass.OBJECT_MANAGEMENT);
+    try {
+      return findObjects(session, template, maxObjectCount);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  long[] findObjects(Session session, FrozenTemplate template, int maxObjectCount) throws TokenException {
+    return session.findObjectsSingle(template, maxObjectCount);
+  }
+
+  /**
+   * Encrypts the given data with the key and mechanism.
+   *
+   * @param mechanism The mechanism to use; e.g. Mechanism.DES_CBC.
+   * @param keyHandle The decryption key to use.
+   * @param plaintext the to-be-encrypted data
+   * @return the encrypted data. Never returns {@code null}.
+   * @throws TokenException If encrypting failed.
+   */
+  public byte[] encrypt(Mechanism mechanism, long keyHandle, byte[] plaintext) throws TokenException {
+    return encrypt(mechanism, keyHandle, plaintext, 0);
+  }
+
+  /**
+   * Encrypts the given data with the key and mechanism.
+   *
+   * @param mechanism The mechanism to use; e.g. Mechanism.DES_CBC.
+   * @param keyHandle The decryption key to use.
+   * @param plaintext the to-be-encrypted data
+   * @param deadlineMs Deadline in milliseconds since epoch, 0 to use the timeout to borrow a session.
+   *                   The operation fails without accessing the device if the deadline cannot be met.
+   * @return the encrypted data. Never returns {@code null}.
+   * @throws TokenException If encrypting failed.
+   */
+  public byte[] encrypt(Mechanism mechanism, long keyHandle, byte[] plaintext, long deadlineMs) throws TokenException {
+    Session session = borrowSession(OperationClass.ENCRYPT_DECRYPT, deadlineMs);
+    try {
+      return encrypt(session, mechanism, keyHandle, plaintext);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  byte[] encrypt(Session session, Mechanism mechanism, long keyHandle, byte[] plaintext) throws TokenException {
+    int len = plaintext.length;
+    if (len <= maxMessageSize) {
+      int outLenHint = encryptHint(session, mechanism, keyHandle, len);
+      return singleOp(session, s -> s.encryptSingle(mechanism, keyHandle, plaintext, outLenHint));
+    } else {
+      opInit(OP.ENCRYPT, session, mechanism, keyHandle);
+
+      ByteArrayOutputStream bout = new ByteArrayOutputStream(plaintext.length + 16);
+      try {
+        for (int ofs = 0; ofs < len; ofs += maxMessageSize) {
+          byte[] ciphertextPart = session.encryptUpdate(plaintext, ofs, Math.min(maxMessageSize, len - ofs));
+          bout.write(ciphertextPart, 0, ciphertextPart.length);
+        }
+      } finally {
+        byte[] ciphertextPart = session.encryptFinal();
+        bout.write(ciphertextPart, 0, ciphertextPart.length);
+      }
+
+      return bout.toByteArray();
+    }
+  }
+
+  /**
+   * Encrypts the given plaintext with the key and mechanism, and writes the ciphertext to the given buffer.
+   *
+   * @param mechanism The mechanism to use.
+   * @param keyHandle The encryption key to use.
+   * @param in        buffer containing the plaintext
+   * @param inOfs     buffer offset of the plaintext
+   * @param inLen     length of the plaintext
+   * @param out       buffer for the ciphertext
+   * @param outOfs    buffer offset for the ciphertext
+   * @param outLen    buffer size for the ciphertext
+   * @return the length of the ciphertext.
+   * @throws TokenException If encrypting failed, or the ciphertext does not fit into the buffer.
+   */
+  public int encrypt(Mechanism mechanism, long keyHandle, byte[] in, int inOfs, int inLen,
+                     byte[] out, int outOfs, int outLen) throws TokenException {
+    Session session = borrowSession(OperationClass.ENCRYPT_DECRYPT);
+    try {
+      return encrypt(session, mechanism, keyHandle, in, inOfs, inLen, out, outOfs, outLen);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  int encrypt(Session session, Mechanism mechanism, long keyHandle, byte[] in, int inOfs, int inLen,
+              byte[] out, int outOfs, int outLen) throws TokenException {
+    if (inLen <= maxMessageSize) {
+      byte[] part = PKCS11UTIL.subArray(in, inOfs, inLen);
+      int outLenHint = encryptHint(session, mechanism, keyHandle, inLen);
+      return copyOut(singleOp(session, s -> s.encryptSingle(mechanism, keyHandle, part, outLenHint)),
+          out, outOfs, outLen);
+    }
+
+    opInit(OP.ENCRYPT, session, mechanism, keyHandle);
+
+    int written = 0;
+    try {
+      for (int ofs = 0; ofs < inLen; ofs += maxMessageSize) {
+        written += session.encryptUpdate(in, inOfs + ofs, Math.min(maxMessageSize, inLen - ofs),
+                      out, outOfs + written, outLen - written);
+      }
+    } finally {
+      written += session.encryptFinal(out, outOfs + written, outLen - written);
+    }
+    return written;
+  }
+
+  /**
+   * This method can be used to encrypt large data.
+   *
+   * @param out        Stream to which the cipher text is written.
+   * @param mechanism  The mechanism to use.
+   * @param keyHandle  The decryption key to use.
+   * @param plaintext  Input-stream of the to-be-encrypted data
+   * @return length of the encrypted data.
+   * @throws TokenException If encrypting the data failed.
+   * @throws IOException if reading data from the plaintext stream failed or writing to the ciphertext stream failed.
+   */
+  public int encrypt(OutputStream out, Mechanism mechanism, long keyHandle, InputStream plaintext)
+      throws TokenException, IOException {
+    Session session = borrowSession(OperationClass.ENCRYPT_DECRYPT);
+    try {
+      return encrypt(session, out, mechanism, keyHandle, plaintext);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  int encrypt(Session session, OutputStream out, Mechanism mechanism, long keyHandle, InputStream plaintext)
+      throws TokenException, IOException {
+    byte[] buffer = new byte[maxMessageSize];
+    int read;
+    int resSum = 0;
+
+    // encryptInit
+    opInit(OP.ENCRYPT, session, mechanism, keyHandle);
+
+    try {
+      while ((read = plaintext.read(buffer)) != -1) {
+        if (read > 0) {
+          byte[] res = session.encryptUpdate(buffer, 0, read);
+          if (res != null && res.length > 0) {
+            resSum += res.length;
+            out.write(res, 0, res.length);
+          }
+        }
+      }
+    } finally {
+      byte[] res = session.encryptFinal();
+      if (res != null && res.length > 0) {
+        resSum += res.length;
+        out.write(res, 0, res.length);
+      }
+    }
+
+    return resSum;
+  }
+
+  /**
+   * Decrypts the given data with the key and mechanism.
+   *
+   * @param mechanism  The mechanism to use.
+   * @param keyHandle  The decryption key to use.
+   * @param ciphertext the to-be-decrypted data
+   * @return the decrypted data. Never returns {@code null}.
+   * @throws TokenException If encrypting failed.
+   */
+  public byte[] decrypt(Mechanism mechanism, long keyHandle, byte[] ciphertext) throws TokenException {
+    return decrypt(mechanism, keyHandle, ciphertext, 0);
+  }
+
+  /**
+   * Decrypts the given data with the key and mechanism.
+   *
+   * @param mechanism  The mechanism to use.
+   * @param keyHandle  The decryption key to use.
+   * @param ciphertext the to-be-decrypted data
+   * @param deadlineMs Deadline in milliseconds since epoch, 0 to use the timeout to borrow a session.
+   *                   The operation fails without accessing the device if the deadline cannot be met.
+   * @return the decrypted data. Never returns {@code null}.
+   * @throws TokenException If encrypting failed.
+   */
+  public byte[] decrypt(Mechanism mechanism, long keyHandle, byte[] ciphertext, long deadlineMs) throws TokenException {
+    Session session = borrowSession(OperationClass.ENCRYPT_DECRYPT, deadlineMs);
+    try {
+      return decrypt(session, mechanism, keyHandle, ciphertext);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  byte[] decrypt(Session session, Mechanism mechanism, long keyHandle, byte[] ciphertext) throws TokenException {
+    int len = ciphertext.length;
+    if (len <= maxMessageSize) {
+      int outLenHint = outputSizeHints ? OutputSizeHints.decrypt(mechanism, len) : 0;
+      return singleOp(session, s -> s.decryptSingle(mechanism, keyHandle, ciphertext, outLenHint));
+    } else {
+      opInit(OP.DECRYPT, session, mechanism, keyHandle);
+      ByteArrayOutputStream bout = new ByteArrayOutputStream(ciphertext.length);
+      try {
+        for (int ofs = 0; ofs < len; ofs += maxMessageSize) {
+          byte[] plaintextPart = session.decryptUpdate(ciphertext, ofs, Math.min(maxMessageSize, len - ofs));
+          bout.write(plaintextPart, 0, plaintextPart.length);
+        }
+      } finally {
+        byte[] plaintextPart = session.decryptFinal();
+        bout.write(plaintextPart, 0, plaintextPart.length);
+      }
+
+      return bout.toByteArray();
+    }
+  }
+
+  /**
+   * Decrypts the given ciphertext with the key and mechanism, and writes the plaintext to the given buffer.
+   *
+   * @param mechanism The mechanism to use.
+   * @param keyHandle The decryption key to use.
+   * @param in        buffer containing the ciphertext
+   * @param inOfs     buffer offset of the ciphertext
+   * @param inLen     length of the ciphertext
+   * @param out       buffer for the plaintext
+   * @param outOfs    buffer offset for the plaintext
+   * @param outLen    buffer size for the plaintext
+   * @return the length of the plaintext.
+   * @throws TokenException If decrypting failed, or the plaintext does not fit into the buffer.
+   */
+  public int decrypt(Mechanism mechanism, long keyHandle, byte[] in, int inOfs, int inLen,
+                     byte[] out, int outOfs, int outLen) throws TokenException {
+    Session session = borrowSession(OperationClass.ENCRYPT_DECRYPT);
+    try {
+      return decrypt(session, mechanism, keyHandle, in, inOfs, inLen, out, outOfs, outLen);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  int decrypt(Session session, Mechanism mechanism, long keyHandle, byte[] in, int inOfs, int inLen,
+              byte[] out, int outOfs, int outLen) throws TokenException {
+    if (inLen <= maxMessageSize) {
+      byte[] part = PKCS11UTIL.subArray(in, inOfs, inLen);
+      int outLenHint = outputSizeHints ? OutputSizeHints.decrypt(mechanism, inLen) : 0;
+      return copyOut(singleOp(session, s -> s.decryptSingle(mechanism, keyHandle, part, outLenHint)),
+          out, outOfs, outLen);
+    }
+
+    opInit(OP.DECRYPT, session, mechanism, keyHandle);
+
+    int written = 0;
+    try {
+      for (int ofs = 0; ofs < inLen; ofs += maxMessageSize) {
+        written += session.decryptUpdate(in, inOfs + ofs, Math.min(maxMessageSize, inLen - ofs),
+                      out, outOfs + written, outLen - written);
+      }
+    } finally {
+      written += session.decryptFinal(out, outOfs + written, outLen - written);
+    }
+    return written;
+  }
+
+  /**
+   * This method can be used to decrypt large data.
+   *
+   * @param out        Stream to which the plain text is written.
+   * @param mechanism  The mechanism to use.
+   * @param keyHandle  The decryption key to use.
+   * @param ciphertext Input-stream of the to-be-encrypted data
+   * @return length of the decrypted data.
+   * @throws TokenException If decrypting the data failed.
+   * @throws IOException if reading data from the ciphertext stream failed or writing to the plaintext stream failed.
+   */
+  public int decrypt(OutputStream out, Mechanism mechanism, long keyHandle, InputStream ciphertext)
+      throws TokenException, IOException {
+    Session session = borrowSession(OperationClass.ENCRYPT_DECRYPT);
+    try {
+      return decrypt(session, out, mechanism, keyHandle, ciphertext);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  int decrypt(Session session, OutputStream out, Mechanism mechanism, long keyHandle, InputStream ciphertext)
+      throws TokenException, IOException {
+    byte[] buffer = new byte[maxMessageSize];
+    int read;
+
+    int resSum = 0;
+    // decryptInit
+    opInit(OP.DECRYPT, session, mechanism, keyHandle);
+
+    try {
+      while ((read = ciphertext.read(buffer)) != -1) {
+        if (read > 0) {
+          byte[] res = session.decryptUpdate(buffer, 0, read);
+          if (res != null && res.length > 0) {
+            resSum += res.length;
+            out.write(res, 0, res.length);
+          }
+        }
+      }
+    } finally {
+      byte[] res = session.decryptFinal();
+      if (res != null && res.length > 0) {
+        resSum += res.length;
+        out.write(res, 0, res.length);
+      }
+    }
+
+    return resSum;
+  }
+
+  /**
+   * Digests the given data with the mechanism.
+   *
+   * @param mechanism The mechanism to use; e.g. Mechanism.SHA_1.
+   * @param data      the to-be-digested data
+   * @return the message digest. Never returns {@code null}.
+   * @throws TokenException If digesting the data failed.
+   */
+  public byte[] digest(Mechanism mechanism, byte[] data) throws TokenException {
+    return digest(mechanism, data, 0);
+  }
+
+  /**
+   * Digests the given data with the mechanism.
+   *
+   * @param mechanism The mechanism to use; e.g. Mechanism.SHA_1.
+   * @param data      the to-be-digested data
+   * @param deadlineMs Deadline in milliseconds since epoch, 0 to use the timeout to borrow a session.
+   *                   The operation fails without accessing the device if the deadline cannot be met.
+   * @return the message digest. Never returns {@code null}.
+   * @throws TokenException If digesting the data failed.
+   */
+  public byte[] digest(Mechanism mechanism, byte[] data, long deadlineMs) throws TokenException {
+    Session session = borrowSession(OperationClass.OTHER, deadlineMs);
+    try {
+      return digest(session, mechanism, data);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  byte[] digest(Session session, Mechanism mechanism, byte[] data) throws TokenException {
+    int len = data.length;
+    if (len <= maxMessageSize) {
+      return singleOp(session, s -> s.digestSingle(mechanism, data));
+    } else {
+      opInit(OP.DIGEST, session, mechanism, 0);
+      byte[] digest;
+      try {
+        for (int ofs = 0; ofs < len; ofs += maxMessageSize) {
+          session.digestUpdate(data, ofs, Math.min(maxMessageSize, len - ofs));
+        }
+      } finally {
+        digest = session.digestFinal();
+      }
+      return digest;
+    }
+  }
+
+  /**
+   * Digests the given key with the mechanism.
    *
    * @param mechanism The mechanism to use; e.g. Mechanism.SHA_1.
    * @param keyHandle handle of the to-be-digested key.
    * @return the message digest. Never returns {@code null}.
    * @throws TokenException If digesting the data failed.
    */
-  public byte[] digestKey(Mechanism mechanism, long keyHandle) throws TokenException {
-    Session session = borrowSession();
+  public byte[] digestKey(Mechanism mechanism, long keyHandle) throws TokenException {
+    Session session = borrowSession(OperationClass.OTHER);
+    try {
+      return digestKey(session, mechanism, keyHandle);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  byte[] digestKey(Session session, Mechanism mechanism, long keyHandle) throws TokenException {
+    opInit(OP.DIGEST, session, mechanism, 0);
+    byte[] digest;
+    try {
+      session.digestKey(keyHandle);
+    } finally {
+      digest = session.digestFinal();
+    }
+    return digest;
+  }
+
+  /**
+   * Digests the large data with the mechanism.
+   *
+   * @param mechanism  The mechanism to use; e.g. Mechanism.SHA_1.
+   * @param data       the to-be-digested data
+   * @return the message digest. Never returns {@code null}.
+   * @throws TokenException If digesting the data failed.
+   * @throws IOException if reading data from stream failed.
+   */
+  public byte[] digest(Mechanism mechanism, InputStream data) throws TokenException, IOException {
+    Session session = borrowSession(OperationClass.OTHER);
+    try {
+      return digest(session, mechanism, data);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  byte[] digest(Session session, Mechanism mechanism, InputStream data) throws TokenException, IOException {
+    byte[] buffer = new byte[maxMessageSize];
+    int read;
+
+    opInit(OP.DIGEST, session, mechanism, 0);
+
+    byte[] digest;
+    try {
+      while ((read = data.read(buffer)) != -1) {
+        if (read > 0) {
+          session.digestUpdate(buffer, 0, read);
+        }
+      }
+    } finally {
+      digest = session.digestFinal();
+    }
+    return digest;
+  }
+
+  /**
+   * Signs the given data with the key and mechanism.
+   *
+   * @param mechanism The mechanism to use.
+   * @param keyHandle The signing key to use.
+   * @param data      The data to sign.
+   * @return The signed data. Never returns {@code null}.
+   * @throws TokenException If signing the data failed.
+   */
+  public byte[] sign(Mechanism mechanism, long keyHandle, byte[] data) throws TokenException {
+    return sign(mechanism, keyHandle, data, 0);
+  }
+
+  /**
+   * Signs the given data with the key and mechanism.
+   *
+   * @param mechanism The mechanism to use.
+   * @param keyHandle The signing key to use.
+   * @param data      The data to sign.
+   * @param deadlineMs Deadline in milliseconds since epoch, 0 to use the timeout to borrow a session.
+   *                   The operation fails without accessing the device if the deadline cannot be met.
+   * @return The signed data. Never returns {@code null}.
+   * @throws TokenException If signing the data failed.
+   */
+  public byte[] sign(Mechanism mechanism, long keyHandle, byte[] data, long deadlineMs) throws TokenException {
+    Session session = borrowSession(OperationClass.SIGN_VERIFY, deadlineMs);
+    try {
+      return sign(session, mechanism, keyHandle, data);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  byte[] sign(Session session, Mechanism mechanism, long keyHandle, byte[] data) throws TokenException {
+    return sign(session, mechanism, keyHandle, data, 0, data.length);
+  }
+
+  /**
+   * Signs the given data with the key and mechanism, and writes the signature to the given buffer.
+   *
+   * @param mechanism The mechanism to use.
+   * @param keyHandle The signing key to use.
+   * @param in        buffer containing the to-be-signed data
+   * @param inOfs     buffer offset of the to-be-signed data
+   * @param inLen     length of the to-be-signed data
+   * @param out       buffer for the signature
+   * @param outOfs    buffer offset for the signature
+   * @param outLen    buffer size for the signature
+   * @return the length of the signature.
+   * @throws TokenException If signing failed, or the signature does not fit into the buffer.
+   */
+  public int sign(Mechanism mechanism, long keyHandle, byte[] in, int inOfs, int inLen,
+                  byte[] out, int outOfs, int outLen) throws TokenException {
+    Session session = borrowSession(OperationClass.SIGN_VERIFY);
+    try {
+      return sign(session, mechanism, keyHandle, in, inOfs, inLen, out, outOfs, outLen);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  int sign(Session session, Mechanism mechanism, long keyHandle, byte[] in, int inOfs, int inLen,
+           byte[] out, int outOfs, int outLen) throws TokenException {
+    return copyOut(sign(session, mechanism, keyHandle, in, inOfs, inLen), out, outOfs, outLen);
+  }
+
+  private byte[] sign(Session session, Mechanism mechanism, long keyHandle, byte[] in, int inOfs, int inLen)
+      throws TokenException {
+    if (inLen <= maxMessageSize) {
+      byte[] data = PKCS11UTIL.subArray(in, inOfs, inLen);
+      int outLenHint = signHint(session, mechanism, keyHandle);
+      return singleOp(session, s -> s.signSingle(mechanism, keyHandle, data, outLenHint));
+    } else {
+      opInit(OP.SIGN, session, mechanism, keyHandle);
+      try {
+        byte[] signature;
+        try {
+          for (int ofs = 0; ofs < inLen; ofs += maxMessageSize) {
+            session.signUpdate(in, inOfs + ofs, Math.min(maxMessageSize, inLen - ofs));
+          }
+        } finally {
+          signature = session.signFinal();
+        }
+        return signature;
+      } catch (PKCS11Exception e) {
+        if (e.getErrorCode() == CKR_OPERATION_NOT_INITIALIZED) {
+          return session.signSingle(mechanism, keyHandle, PKCS11UTIL.subArray(in, inOfs, inLen),
+              signHint(session, mechanism, keyHandle));
+        } else {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * This method can be used to sign large data.
+   *
+   * @param mechanism  The mechanism to use.
+   * @param keyHandle  The signing key to use.
+   * @param data       Input-stream of the to-be-signed data
+   * @return length of the signature.
+   * @throws TokenException If signing the data failed.
+   * @throws IOException If reading data stream failed.
+   */
+  public byte[] sign(Mechanism mechanism, long keyHandle, InputStream data)
+      throws TokenException, IOException {
+    Session session = borrowSession(OperationClass.SIGN_VERIFY);
+    try {
+      return sign(session, mechanism, keyHandle, data);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  byte[] sign(Session session, Mechanism mechanism, long keyHandle, InputStream data)
+      throws TokenException, IOException {
+    byte[] buffer = new byte[maxMessageSize];
+    int firstBlockLen = readBytes(data, buffer, maxMessageSize);
+    byte[] firstBlock = copyOfLen(buffer, firstBlockLen);
+
+    opInit(OP.SIGN, session, mechanism, keyHandle);
+    if (firstBlockLen < maxMessageSize) {
+      return session.sign(firstBlock);
+    } else {
+      int read;
+
+      try {
+        session.signUpdate(firstBlock);
+      } catch (PKCS11Exception e) {
+        if (e.getErrorCode() == CKR_OPERATION_NOT_INITIALIZED) {
+          ByteArrayOutputStream bout = new ByteArrayOutputStream(maxMessageSize + data.available());
+          bout.write(firstBlock);
+
+          while ((read = data.read(buffer)) != -1) {
+            bout.write(buffer, 0, read);
+          }
+
+          opInit(OP.SIGN, session, mechanism, keyHandle);
+          return session.sign(bout.toByteArray());
+        }
+      }
+
+      byte[] signature;
+      try {
+        while ((read = data.read(buffer)) != -1) {
+          if (read > 0) {
+            session.signUpdate(buffer, 0, read);
+          }
+        }
+      } finally {
+        signature = session.signFinal();
+      }
+
+      return signature;
+    }
+  }
+
+  /**
+   * Sign-recovers the given data with the key and mechanism.
+   *
+   * @param mechanism The mechanism to use.
+   * @param keyHandle The signing key to use.
+   * @param data      The data to sign-recovers.
+   * @return The signed data. Never returns {@code null}.
+   * @throws TokenException If signing the data failed.
+   */
+  public byte[] signRecover(Mechanism mechanism, long keyHandle, byte[] data) throws TokenException {
+    Session session = borrowSession(OperationClass.SIGN_VERIFY);
+    try {
+      return signRecover(session, mechanism, keyHandle, data);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  byte[] signRecover(Session session, Mechanism mechanism, long keyHandle, byte[] data) throws TokenException {
+    opInit(OP.SIGN_RECOVER, session, mechanism, keyHandle);
+    return session.signRecover(data);
+  }
+
+  /**
+   * Verifies the given signature against the given data with the key and mechanism.
+   * This method throws an exception, if the verification of the signature fails.
+   *
+   * @param mechanism The mechanism to use; e.g. Mechanism.RSA_PKCS.
+   * @param keyHandle The verification key to use.
+   * @param data      The data that was signed.
+   * @param signature The signature or MAC to verify.
+   * @return true if signature is invalid, false otherwise.
+   * @throws TokenException If verifying the signature fails.
+   */
+  public boolean verify(Mechanism mechanism, long keyHandle, byte[] data, byte[] signature) throws TokenException {
+    return verify(mechanism, keyHandle, data, signature, 0);
+  }
+
+  /**
+   * Verifies the given signature against the given data with the key and mechanism.
+   * This method throws an exception, if the verification of the signature fails.
+   *
+   * @param mechanism The mechanism to use; e.g. Mechanism.RSA_PKCS.
+   * @param keyHandle The verification key to use.
+   * @param data      The data that was signed.
+   * @param signature The signature or MAC to verify.
+   * @param deadlineMs Deadline in milliseconds since epoch, 0 to use the timeout to borrow a session.
+   *                   The operation fails without accessing the device if the deadline cannot be met.
+   * @return true if signature is invalid, false otherwise.
+   * @throws TokenException If verifying the signature fails.
+   */
+  public boolean verify(Mechanism mechanism, long keyHandle, byte[] data, byte[] signature, long deadlineMs)
+      throws TokenException {
+    Session session = borrowSession(OperationClass.SIGN_VERIFY, deadlineMs);
+    try {
+      return verify(session, mechanism, keyHandle, data, signature);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  boolean verify(Session session, Mechanism mechanism, long keyHandle, byte[] data, byte[] signature)
+      throws TokenException {
+    int len = data.length;
+    long code = mechanism.getMechanismCode();
+    boolean supportVerify = supportsMechanism(code, CKF_VERIFY);
+    boolean supportSignAndIsMac = supportsMechanism(code, CKF_SIGN) && isMacMechanism(code);
+    if ((!supportVerify) && supportSignAndIsMac) {
+      // CKF_VERIFY is not supported, use CKF_SIGN to verify the MAC tags.
+      byte[] sig2;
+      if (len <= maxMessageSize) {
+        int outLenHint = signHint(session, mechanism, keyHandle);
+        sig2 = singleOp(session, s -> s.signSingle(mechanism, keyHandle, data, outLenHint));
+      } else {
+        opInit(OP.SIGN, session, mechanism, keyHandle);
+        try {
+          for (int ofs = 0; ofs < len; ofs += maxMessageSize) {
+            session.signUpdate(data, ofs, Math.min(maxMessageSize, len - ofs));
+          }
+        } finally {
+          sig2 = session.signFinal();
+        }
+      }
+      return Arrays.equals(signature, sig2);
+    } else {
+      try {
+        if (len <= maxMessageSize) {
+          singleOp(session, s -> {
+            s.verifySingle(mechanism, keyHandle, data, signature);
+            return null;
+          });
+        } else {
+          opInit(OP.VERIFY, session, mechanism, keyHandle);
+          try {
+            try {
+              for (int ofs = 0; ofs < len; ofs += maxMessageSize) {
+                session.verifyUpdate(data, ofs, Math.min(maxMessageSize, len - ofs));
+              }
+            } finally {
+              session.verifyFinal(signature);
+            }
+          } catch (PKCS11Exception e) {
+            if (e.getErrorCode() == CKR_OPERATION_NOT_INITIALIZED) {
+              session.verifySingle(mechanism, keyHandle, data, signature);
+            } else {
+              throw e;
+            }
+          }
+        }
+        return true;
+      } catch (PKCS11Exception e) {
+        long ckr = e.getErrorCode();
+        if (ckr == CKR_SIGNATURE_INVALID || ckr == CKR_SIGNATURE_LEN_RANGE) {
+          return false;
+        } else {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * This method can be used to verify large data.
+   *
+   * @param mechanism  The mechanism to use.
+   * @param keyHandle  The signing key to use.
+   * @param data       Input-stream of the to-be-verified data
+   * @param signature  the signature.
+   * @return true if signature is invalid, false otherwise.
+   * @throws TokenException If signing the data failed.
+   * @throws IOException If reading data stream failed.
+   */
+  public boolean verify(Mechanism mechanism, long keyHandle, InputStream data, byte[] signature)
+      throws TokenException, IOException {
+    Session session = borrowSession(OperationClass.SIGN_VERIFY);
+    try {
+      return verify(session, mechanism, keyHandle, data, signature);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  boolean verify(Session session, Mechanism mechanism, long keyHandle, InputStream data, byte[] signature)
+      throws TokenException, IOException {
+    try {
+      byte[] buffer = new byte[maxMessageSize];
+      int firstBlockLen = readBytes(data, buffer, maxMessageSize);
+      byte[] firstBlock = copyOfLen(buffer, firstBlockLen);
+
+      long code = mechanism.getMechanismCode();
+      opInit(OP.VERIFY, session, mechanism, keyHandle);
+
+      if (supportsMechanism(code, CKF_VERIFY)) {
+        if (firstBlockLen < maxMessageSize) {
+          session.verify(firstBlock, signature);
+        } else {
+          try {
+            session.verifyUpdate(firstBlock);
+          } catch (PKCS11Exception e) {
+            if (e.getErrorCode() == CKR_OPERATION_NOT_INITIALIZED) {
+              ByteArrayOutputStream bout = new ByteArrayOutputStream(maxMessageSize + data.available());
+              bout.write(firstBlock);
+
+              int read;
+              while ((read = data.read(buffer)) != -1) {
+                bout.write(buffer, 0, read);
+              }
+              session.verifySingle(mechanism, keyHandle, bout.toByteArray(), signature);
+              return true;
+            }
+          }
+
+          try {
+            int read;
+            while ((read = data.read(buffer)) != -1) {
+              if (read > 0) {
+                session.verifyUpdate(buffer, 0, read);
+              }
+            }
+          } finally {
+            session.verifyFinal(signature);
+          }
+        }
+        return true;
+      } else if (supportsMechanism(code, CKF_SIGN) && isMacMechanism(code)) {
+        opInit(OP.SIGN, session, mechanism, keyHandle);
+
+        byte[] sig2;
+        if (firstBlockLen < maxMessageSize) {
+          sig2 = session.sign(firstBlock);
+        } else {
+          try {
+            session.signUpdate(firstBlock);
+            int read;
+            while ((read = data.read(buffer)) != -1) {
+              if (read > 0) {
+                session.signUpdate(buffer, 0, read);
+              }
+            }
+          } finally {
+            sig2 = session.signFinal();
+          }
+        }
+        return Arrays.equals(signature, sig2);
+      } else {
+        throw new PKCS11Exception(CKR_MECHANISM_INVALID);
+      }
+    } catch (PKCS11Exception e) {
+      long ckr = e.getErrorCode();
+      if (ckr == CKR_SIGNATURE_INVALID || ckr == CKR_SIGNATURE_LEN_RANGE) {
+        return false;
+      } else {
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Verify-recovers the given data with the key and mechanism.
+   *
+   * @param mechanism The mechanism to use.
+   * @param keyHandle The signing key to use.
+   * @param data      The data to be verify-recovered.
+   * @return The verify-recovered data. Never returns {@code null}.
+   * @throws TokenException If signing the data failed.
+   */
+  public byte[] verifyRecover(Mechanism mechanism, long keyHandle, byte[] data) throws TokenException {
+    Session session = borrowSession(OperationClass.SIGN_VERIFY);
+    try {
+      return verifyRecover(session, mechanism, keyHandle, data);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  byte[] verifyRecover(Session session, Mechanism mechanism, long keyHandle, byte[] data) throws TokenException {
+    opInit(OP.VERIFY_RECOVER, session, mechanism, keyHandle);
+    return session.verifyRecover(data);
+  }
+
+  /**
+   * Generate a new secret key or a set of domain parameters. It uses the set attributes of the
+   * template for setting the attributes of the new key object. As mechanism the application can use
+   * a constant of the Mechanism class.
+   *
+   * @param mechanism The mechanism to generate a key for; e.g. Mechanism.DES to generate a DES key.
+   * @param template  The template for the new key or domain parameters; e.g. a DESSecretKey object which
+   *                  has set certain attributes.
+   * @return The newly generated secret key or domain parameters.
+   * @throws TokenException If generating a new secret key or domain parameters failed.
+   */
+  public long generateKey(Mechanism mechanism, AttributeVector template) throws TokenException {
+    return generateKey(mechanism, template, 0);
+  }
+
+  /**
+   * Generate a new secret key or a set of domain parameters. It uses the set attributes of the
+   * template for setting the attributes of the new key object. As mechanism the application can use
+   * a constant of the Mechanism class.
+   *
+   * @param mechanism The mechanism to generate a key for; e.g. Mechanism.DES to generate a DES key.
+   * @param template  The template for the new key or domain parameters; e.g. a DESSecretKey object which
+   *                  has set certain attributes.
+   * @param deadlineMs Deadline in milliseconds since epoch, 0 to use the timeout to borrow a session.
+   *                   The operation fails without accessing the device if the deadline cannot be met.
+   * @return The newly generated secret key or domain parameters.
+   * @throws TokenException If generating a new secret key or domain parameters failed.
+   */
+  public long generateKey(Mechanism mechanism, AttributeVector template, long deadlineMs) throws TokenException {
+    Session session = borrowSession(OperationClass.KEY_GENERATION, deadlineMs);
+    try {
+      return generateKey(session, mechanism, template);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  long generateKey(Session session, Mechanism mechanism, AttributeVector template) throws TokenException {
+    return session.generateKey(mechanism, template);
+  }
+
+  /**
+   * Generate a new secret key or a set of domain parameters from the frozen template.
+   *
+   * @param mechanism The mechanism to generate a key for.
+   * @param template  The frozen template for the new key or domain parameters.
+   * @return The newly generated secret key or domain parameters.
+   * @throws TokenException If generating a new secret key or domain parameters failed.
+   * @see #generateKey(Mechanism, AttributeVector)
+   */
+  public long generateKey(Mechanism mechanism, FrozenTemplate template) throws TokenException {
+    Session session = borrowSession(OperationClass.KEY_GENERATION);
+    try {
+      return generateKey(session, mechanism, template);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  long generateKey(Session session, Mechanism mechanism, FrozenTemplate template) throws TokenException {
+    return session.generateKey(mechanism, template);
+  }
+
+  /**
+   * Generate a new public key - private key key-pair and use the set attributes of the template
+   * objects for setting the attributes of the new public key and private key objects. As mechanism
+   * the application can use a constant of the Mechanism class.
+   *
+   * @param mechanism The mechanism to generate a key for; e.g. Mechanism.RSA to generate a new RSA
+   *                  key-pair.
+   * @param template  The template for the new keypair.
+   * @return The newly generated key-pair.
+   * @throws TokenException If generating a new key-pair failed.
+   */
+  public PKCS11KeyPair generateKeyPair(Mechanism mechanism, KeyPairTemplate template) throws TokenException {
+    return generateKeyPair(mechanism, template, 0);
+  }
+
+  /**
+   * Generate a new public key - private key key-pair and use the set attributes of the template
+   * objects for setting the attributes of the new public key and private key objects. As mechanism
+   * the application can use a constant of the Mechanism class.
+   *
+   * @param mechanism The mechanism to generate a key for; e.g. Mechanism.RSA to generate a new RSA
+   *                  key-pair.
+   * @param template  The template for the new keypair.
+   * @param deadlineMs Deadline in milliseconds since epoch, 0 to use the timeout to borrow a session.
+   *                   The operation fails without accessing the device if the deadline cannot be met.
+   * @return The newly generated key-pair.
+   * @throws TokenException If generating a new key-pair failed.
+   */
+  public PKCS11KeyPair generateKeyPair(Mechanism mechanism, KeyPairTemplate template, long deadlineMs)
+      throws TokenException {
+    Session session = borrowSession(OperationClass.KEY_GENERATION, deadlineMs);
+    try {
+      return generateKeyPair(session, mechanism, template);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  PKCS11KeyPair generateKeyPair(Session session, Mechanism mechanism, KeyPairTemplate template) throws TokenException {
+    return session.generateKeyPair(mechanism, template);
+  }
+
+  /**
+   * Generate a new key-pair from the frozen templates.
+   *
+   * @param mechanism The mechanism to generate a key-pair for.
+   * @param publicKeyTemplate  The frozen template for the new public key.
+   * @param privateKeyTemplate The frozen template for the new private key.
+   * @return The newly generated key-pair.
+   * @throws TokenException If generating a new key-pair failed.
+   * @see #generateKeyPair(Mechanism, KeyPairTemplate)
+   */
+  public PKCS11KeyPair generateKeyPair(
+      Mechanism mechanism, FrozenTemplate publicKeyTemplate, FrozenTemplate privateKeyTemplate)
+      throws TokenException {
+    Session session = borrowSession(OperationClass.KEY_GENERATION);
+    try {
+      return generateKeyPair(session, mechanism, publicKeyTemplate, privateKeyTemplate);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  PKCS11KeyPair generateKeyPair(
+      Session session, Mechanism mechanism, FrozenTemplate publicKeyTemplate, FrozenTemplate privateKeyTemplate)
+      throws TokenException {
+    return session.generateKeyPair(mechanism, publicKeyTemplate, privateKeyTemplate);
+  }
+
+  /**
+   * Wraps (encrypts) the given key with the wrapping key using the given mechanism.
+   *
+   * @param mechanism         The mechanism to use for wrapping the key.
+   * @param wrappingKeyHandle The key to use for wrapping (encrypting).
+   * @param keyHandle         The key to wrap (encrypt).
+   * @return The wrapped key as byte array. Never returns {@code null}.
+   * @throws TokenException If wrapping the key failed.
+   */
+  public byte[] wrapKey(Mechanism mechanism, long wrappingKeyHandle, long keyHandle) throws TokenException {
+    Session session = borrowSession(OperationClass.KEY_GENERATION);
+    try {
+      return wrapKey(session, mechanism, wrappingKeyHandle, keyHandle);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  byte[] wrapKey(Session session, Mechanism mechanism, long wrappingKeyHandle, long keyHandle) throws TokenException {
+    return session.wrapKey(mechanism, wrappingKeyHandle, keyHandle);
+  }
+
+  /**
+   * Unwraps (decrypts) the given encrypted key with the unwrapping key using the given mechanism.
+   * The application can also pass a template key to set certain attributes of the unwrapped key.
+   * This creates a key object after unwrapping the key and returns an object representing this key.
+   *
+   * @param mechanism           The mechanism to use for unwrapping the key.
+   * @param unwrappingKeyHandle The key to use for unwrapping (decrypting).
+   * @param wrappedKey          The encrypted key to unwrap (decrypt).
+   * @param keyTemplate         The template for creating the new key object.
+   * @return A key object representing the newly created key object.
+   * @throws TokenException If unwrapping the key or creating a new key object failed.
+   */
+  public long unwrapKey(Mechanism mechanism, long unwrappingKeyHandle, byte[] wrappedKey,
+                        AttributeVector keyTemplate) throws TokenException {
+    Session session = borrowSession(OperationClass.KEY_GENERATION);
+    try {
+      return unwrapKey(session, mechanism, unwrappingKeyHandle, wrappedKey, keyTemplate);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  long unwrapKey(Session session, Mechanism mechanism, long unwrappingKeyHandle, byte[] wrappedKey,
+                 AttributeVector keyTemplate) throws TokenException {
+    return session.unwrapKey(mechanism, unwrappingKeyHandle, wrappedKey, keyTemplate);
+  }
+
+  /**
+   * Derives a new key from a specified base key using the given mechanism. After deriving a new
+   * key from the base key, a new key object is created and a representation of it is returned. The
+   * application can provide a template key to set certain attributes of the new key object.
+   *
+   * @param mechanism     The mechanism to use for deriving the new key from the base key.
+   * @param baseKeyHandle The key to use as base for derivation.
+   * @param template      The template for creating the new key object.
+   * @return A key object representing the newly derived (created) key object or null, if the used
+   * mechanism uses other means to return its values; e.g. the CKM_SSL3_KEY_AND_MAC_DERIVE
+   * mechanism.
+   * @throws TokenException If deriving the key or creating a new key object failed.
+   */
+  public long deriveKey(Mechanism mechanism, long baseKeyHandle, AttributeVector template) throws TokenException {
+    Session session = borrowSession(OperationClass.KEY_GENERATION);
+    try {
+      return deriveKey(session, mechanism, baseKeyHandle, template);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  long deriveKey(Session session, Mechanism mechanism, long baseKeyHandle, AttributeVector template)
+      throws TokenException {
+    return session.deriveKey(mechanism, baseKeyHandle, template);
+  }
+
+  /**
+   * Generates a certain number of random bytes.
+   *
+   * @param numberOfBytesToGenerate The number of random bytes to generate.
+   * @return An array of random bytes with length numberOfBytesToGenerate.
+   * @throws TokenException If generating random bytes failed.
+   */
+  public byte[] generateRandom(int numberOfBytesToGenerate) throws TokenException {
+    return generateRandom(numberOfBytesToGenerate, null);
+  }
+
+  /**
+   * Generates a certain number of random bytes.
+   *
+   * @param numberOfBytesToGenerate The number of random bytes to generate.
+   * @param extraSeed               The seed bytes to mix in.
+   * @return An array of random bytes with length numberOfBytesToGenerate.
+   * @throws TokenException If generating random bytes failed.
+   */
+  public byte[] generateRandom(int numberOfBytesToGenerate, byte[] extraSeed) throws TokenException {
+    Session session = borrowSession(OperationClass.OTHER);
+    try {
+      return generateRandom(session, numberOfBytesToGenerate, extraSeed);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  byte[] generateRandom(Session session, int numberOfBytesToGenerate, byte[] extraSeed) throws TokenException {
+    if (extraSeed != null && extraSeed.length > 0) {
+      session.seedRandom(extraSeed);
+    }
+    return session.generateRandom(numberOfBytesToGenerate);
+  }
+
+  /**
+   * Encrypts the given messages using the given mechanism and key
+   *
+   * @param mechanism The encryption mechanism
+   * @param keyHandle Handle of the encryption key.
+   * @param entries   Arrays of plaintexts in byte[] with additional parameters to be encrypted.
+   * @return Array of ciphertexts. The result at index i is the ciphertext of entries[i].
+   * @throws TokenException If encrypting failed.
+   */
+  public byte[][] encryptMessages(Mechanism mechanism, long keyHandle, EncryptMessageBytesEntry[] entries)
+      throws TokenException {
+    Session session = borrowSession(OperationClass.ENCRYPT_DECRYPT);
     try {
-      opInit(OP.DIGEST, session, mechanism, 0);
-      byte[] digest;
-      try {
-        session.digestKey(keyHandle);
-      } finally {
-        digest = session.digestFinal();
-      }
-      return digest;
+      return encryptMessages(session, mechanism, keyHandle, entries);
     } finally {
-      sessions.add(session);
+      requiteSession(session);
     }
   }
 
-  /**
-   * Digests the large data with the mechanism.
-   *
-   * @param mechanism  The mechanism to use; e.g. Mechanism.SHA_1.
-   * @param data       the to-be-digested data
-   * @return the message digest. Never returns {@code null}.
-   * @throws TokenException If digesting the data failed.
-   * @throws IOException if reading data from stream failed.
-   */
-  public byte[] digest(Mechanism mechanism, InputStream data) throws TokenException, IOException {
-    Session session = borrowSession();
+  byte[][] encryptMessages(Session session, Mechanism mechanism, long keyHandle, EncryptMessageBytesEntry[] entries)
+      throws TokenException {
+    byte[][] ciphertexts = new byte[entries.length][];
+
+    // messageEncryptInit
+    opInit(OP.MESSAGE_ENCRYPT, session, mechanism, keyHandle);
+
     try {
-      byte[] buffer = new byte[maxMessageSize];
-      int read;
+      for (int i = 0; i < entries.length; i++) {
+        EncryptMessageBytesEntry entry = entries[i];
+        byte[] plaintext = entry.plaintext();
+        int len = plaintext.length;
 
-      opInit(OP.DIGEST, session, mechanism, 0);
+        if (len <= maxMessageSize) {
+          ciphertexts[i] = session.encryptMessage(entry.params(), entry.associatedData(), entry.plaintext());
+        } else {
+          session.encryptMessageBegin(entry.params(), entry.associatedData());
+          ByteArrayOutputStream bout = new ByteArrayOutputStream(plaintext.length + 16);
 
-      byte[] digest;
-      try {
-        while ((read = data.read(buffer)) != -1) {
-          if (read > 0) {
-            session.digestUpdate(copyOfLen(buffer, read));
+          for (int ofs = 0; ofs < len; ofs += maxMessageSize) {
+            boolean lastBlock = (ofs + maxMessageSize >= len);
+            byte[] ciphertextPart = session.encryptMessageNext(
+                entry.params(), plaintext, ofs, Math.min(len - ofs, maxMessageSize), lastBlock);
+            bout.write(ciphertextPart, 0, ciphertextPart.length);
           }
+          ciphertexts[i] = bout.toByteArray();
         }
-      } finally {
-        digest = session.digestFinal();
       }
-      return digest;
     } finally {
-      sessions.add(session);
+      session.messageEncryptFinal();
     }
+
+    return ciphertexts;
   }
 
   /**
-   * Signs the given data with the key and mechanism.
+   * Encrypts the given messages using the given mechanism and key.
    *
-   * @param mechanism The mechanism to use.
-   * @param keyHandle The signing key to use.
-   * @param data      The data to sign.
-   * @return The signed data. Never returns {@code null}.
-   * @throws TokenException If signing the data failed.
+   * @param mechanism The encryption mechanism
+   * @param keyHandle Handle of the encryption key.
+   * @param entries   Arrays of plaintexts in stream with additional parameters to be encrypted.
+   * @return Array of lengths of ciphertext. The result at index i corresponds to entries[i].
+   * @throws TokenException If encrypting failed.
+   * @throws IOException    if reading or writing stream failed.
    */
-  public byte[] sign(Mechanism mechanism, long keyHandle, byte[] data) throws TokenException {
-    Session session = borrowSession();
+  public int[] encryptMessages(Mechanism mechanism, long keyHandle, EncryptMessageStreamEntry[] entries)
+      throws TokenException, IOException {
+    Session session = borrowSession(OperationClass.ENCRYPT_DECRYPT);
     try {
-      opInit(OP.SIGN, session, mechanism, keyHandle);
+      return encryptMessages(session, mechanism, keyHandle, entries);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  int[] encryptMessages(Session session, Mechanism mechanism, long keyHandle, EncryptMessageStreamEntry[] entries)
+      throws TokenException, IOException {
+    int[] ciphertextLens = new int[entries.length];
+
+    // messageEncryptInit
+    opInit(OP.MESSAGE_ENCRYPT, session, mechanism, keyHandle);
+
+    try {
+      for (int i = 0; i < entries.length; i++) {
+        EncryptMessageStreamEntry entry = entries[i];
+        byte[] buffer = new byte[maxMessageSize];
+        int read;
+
+        InputStream inPlaintext = entry.inPlaintext();
+        OutputStream outCiphertext = entry.outCiphertext();
+        CkParams params = entry.params();
 
-      int len = data.length;
-      if (len < maxMessageSize) {
-        return session.sign(data);
-      } else {
         try {
-          byte[] signature;
-          try {
-            for (int ofs = 0; ofs < len; ofs += maxMessageSize) {
-              session.signUpdate(data, ofs, Math.min(maxMessageSize, len - ofs));
+          session.encryptMessageBegin(params, entry.associatedData());
+
+          int ciphertextLen = 0;
+          while ((read = inPlaintext.read(buffer)) != -1) {
+            if (read > 0) {
+              byte[] ciphertextPart = session.encryptMessageNext(params, buffer, 0, read, false);
+              ciphertextLen += ciphertextPart.length;
+              outCiphertext.write(ciphertextPart);
             }
-          } finally {
-            signature = session.signFinal();
           }
-          return signature;
+
+          byte[] ciphertextPart = session.encryptMessageNext(params, new byte[0], true);
+          ciphertextLen += ciphertextPart.length;
+          outCiphertext.write(ciphertextPart);
+
+          ciphertextLens[i] = ciphertextLen;
         } catch (PKCS11Exception e) {
-          if (e.getErrorCode() == CKR_OPERATION_NOT_INITIALIZED) {
-            return session.signSingle(mechanism, keyHandle, data);
-          } else {
-            throw e;
-          }
         }
       }
     } finally {
-      sessions.add(session);
+      session.messageEncryptFinal();
     }
+
+    return ciphertextLens;
   }
 
   /**
-   * This method can be used to sign large data.
+   * Decrypts the given ciphertexts using the given mechanism and keys.
    *
-   * @param mechanism  The mechanism to use.
-   * @param keyHandle  The signing key to use.
-   * @param data       Input-stream of the to-be-signed data
-   * @return length of the signature.
-   * @throws TokenException If signing the data failed.
-   * @throws IOException If reading data stream failed.
+   * @param mechanism The encryption mechanism
+   * @param keyHandle Handle of the encryption key.
+   * @param entries   Arrays of ciphertexts in byte[] with additional parameters to be encrypted.
+   * @return Array of lengths of ciphertext. The result at index i corresponds to entries[i].
+   * @throws TokenException If encrypting failed.
    */
-  public byte[] sign(Mechanism mechanism, long keyHandle, InputStream data)
-      throws TokenException, IOException {
-    Session session = borrowSession();
+  public byte[][] decryptMessages(Mechanism mechanism, long keyHandle, DecryptMessageBytesEntry[] entries)
+      throws TokenException {
+    Session session = borrowSession(OperationClass.ENCRYPT_DECRYPT);
     try {
-      byte[] buffer = new byte[maxMessageSize];
-      int firstBlockLen = readBytes(data, buffer, maxMessageSize);
-      byte[] firstBlock = copyOfLen(buffer, firstBlockLen);
+      return decryptMessages(session, mechanism, keyHandle, entries);
+    } finally {
+      requiteSession(session);
+    }
+  }
 
-      opInit(OP.SIGN, session, mechanism, keyHandle);
-      if (firstBlockLen < maxMessageSize) {
-        return session.sign(firstBlock);
-      } else {
-        int read;
+  byte[][] decryptMessages(Session session, Mechanism mechanism, long keyHandle, DecryptMessageBytesEntry[] entries)
+      throws TokenException {
+    byte[][] plaintexts = new byte[entries.length][];
 
-        try {
-          session.signUpdate(firstBlock);
-        } catch (PKCS11Exception e) {
-          if (e.getErrorCode() == CKR_OPERATION_NOT_INITIALIZED) {
-            ByteArrayOutputStream bout = new ByteArrayOutputStream(maxMessageSize + data.available());
-            bout.write(firstBlock);
+    // messageDecryptInit
+    opInit(OP.MESSAGE_DECRYPT, session, mechanism, keyHandle);
 
-            while ((read = data.read(buffer)) != -1) {
-              bout.write(buffer, 0, read);
-            }
+    try {
+      for (int i = 0; i < entries.length; i++) {
+        DecryptMessageBytesEntry entry = entries[i];
+        byte[] ciphertext = entry.ciphertext();
+        int len = ciphertext.length;
+
+        if (len <= maxMessageSize) {
+          plaintexts[i] = session.decryptMessage(entry.params(), entry.associatedData(), ciphertext);
+        } else {
+          session.decryptMessageBegin(entry.params(), entry.associatedData());
+          ByteArrayOutputStream bout = new ByteArrayOutputStream(ciphertext.length);
 
-            opInit(OP.SIGN, session, mechanism, keyHandle);
-            return session.sign(bout.toByteArray());
+          for (int ofs = 0; ofs < len; ofs += maxMessageSize) {
+            boolean lastBlock = (ofs + maxMessageSize >= len);
+            byte[] plaintextPart = session.decryptMessageNext(
+                entry.params(), ciphertext, ofs, Math.min(len - ofs, maxMessageSize), lastBlock);
+            bout.write(plaintextPart, 0, plaintextPart.length);
           }
+          plaintexts[i] = bout.toByteArray();
         }
+      }
+    } finally {
+      session.messageDecryptFinal();
+    }
+
+    return plaintexts;
+  }
+
+  /**
+   * Decrypts the given ciphertexts using the given mechanism and key.
+   *
+   * @param mechanism The encryption mechanism
+   * @param keyHandle Handle of the encryption key.
+   * @param entries   Arrays of ciphertexts in stream with additional parameters to be encrypted.
+   * @return Array of lengths of ciphertext. The result at index i corresponds to entries[i].
+   * @throws TokenException If encrypting failed.
+   * @throws IOException    if reading or writing stream failed.
+   */
+  public int[] decryptMessages(Mechanism mechanism, long keyHandle, DecryptMessageStreamEntry[] entries)
+      throws TokenException, IOException {
+    Session session = borrowSession(OperationClass.ENCRYPT_DECRYPT);
+    try {
+      return decryptMessages(session, mechanism, keyHandle, entries);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  int[] decryptMessages(Session session, Mechanism mechanism, long keyHandle, DecryptMessageStreamEntry[] entries)
+      throws TokenException, IOException {
+    int[] plaintextLens = new int[entries.length];
+
+    // messageDecryptInit
+    opInit(OP.MESSAGE_DECRYPT, session, mechanism, keyHandle);
+
+    try {
+      for (int i = 0; i < entries.length; i++) {
+        DecryptMessageStreamEntry entry = entries[i];
+        byte[] buffer = new byte[maxMessageSize];
+        int read;
+
+        InputStream inCiphertext = entry.inCiphertext();
+        OutputStream outPlaintext = entry.outPlaintext();
+        CkParams params = entry.params();
 
-        byte[] signature;
         try {
-          while ((read = data.read(buffer)) != -1) {
+          session.decryptMessageBegin(params, entry.associatedData());
+
+          int plaintextLen = 0;
+          while ((read = inCiphertext.read(buffer)) != -1) {
             if (read > 0) {
-              session.signUpdate(copyOfLen(buffer, read));
+              byte[] plaintextPart = session.decryptMessageNext(params, buffer, 0, read, false);
+              plaintextLen += plaintextPart.length;
+              outPlaintext.write(plaintextPart);
             }
           }
-        } finally {
-          signature = session.signFinal();
-        }
 
-        return signature;
+          byte[] plaintextPart = session.decryptMessageNext(params, new byte[0], true);
+          plaintextLen += plaintextPart.length;
+          outPlaintext.write(plaintextPart);
+          plaintextLens[i] = plaintextLen;
+        } catch (PKCS11Exception e) {
+        }
       }
     } finally {
-      sessions.add(session);
+      session.messageDecryptFinal();
     }
+
+    return plaintextLens;
   }
 
   /**
-   * Sign-recovers the given data with the key and mechanism.
+   * Signs the given messages using the given mechanism and key.
    *
-   * @param mechanism The mechanism to use.
-   * @param keyHandle The signing key to use.
-   * @param data      The data to sign-recovers.
-   * @return The signed data. Never returns {@code null}.
-   * @throws TokenException If signing the data failed.
+   * @param mechanism The encryption mechanism
+   * @param keyHandle Handle of the signing key.
+   * @param entries   Arrays of messages in byte[] with additional parameters to be encrypted.
+   * @return Array of signatures. The result at index i corresponds to entries[i].
+   * @throws TokenException If signing failed.
    */
-  public byte[] signRecover(Mechanism mechanism, long keyHandle, byte[] data) throws TokenException {
-    Session session = borrowSession();
+  public byte[][] signMessages(Mechanism mechanism, long keyHandle, SignMessageBytesEntry[] entries)
+      throws TokenException {
+    Session session = borrowSession(OperationClass.SIGN_VERIFY);
+    try {
+      return signMessages(session, mechanism, keyHandle, entries);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  byte[][] signMessages(Session session, Mechanism mechanism, long keyHandle, SignMessageBytesEntry[] entries)
+      throws TokenException {
+    byte[][] signatures = new byte[entries.length][];
+
+    // messageSignInit
+    opInit(OP.MESSAGE_SIGN, session, mechanism, keyHandle);
+
     try {
-      opInit(OP.SIGN_RECOVER, session, mechanism, keyHandle);
-      return session.signRecover(data);
+      for (int i = 0; i < entries.length; i++) {
+        SignMessageBytesEntry entry = entries[i];
+        byte[] data = entry.data();
+        int len = data.length;
+        if (len <= maxMessageSize) {
+          signatures[i] = session.signMessage(entry.params(), entry.data());
+        } else {
+          session.signMessageBegin(entry.params());
+          for (int ofs = 0; ofs < len; ofs += maxMessageSize) {
+            boolean lastBlock = (ofs + maxMessageSize >= len);
+            signatures[i] = session.signMessageNext(
+                entry.params(), data, ofs, Math.min(maxMessageSize, len - ofs), lastBlock);
+          }
+        }
+      }
     } finally {
-      sessions.add(session);
+      session.messageSignFinal();
     }
+
+    return signatures;
   }
 
   /**
-   * Verifies the given signature against the given data with the key and mechanism.
-   * This method throws an exception, if the verification of the signature fails.
+   * Signs the given messages using the given mechanism and key.
    *
-   * @param mechanism The mechanism to use; e.g. Mechanism.RSA_PKCS.
-   * @param keyHandle The verification key to use.
-   * @param data      The data that was signed.
-   * @param signature The signature or MAC to verify.
-   * @return true if signature is invalid, false otherwise.
-   * @throws TokenException If verifying the signature fails.
+   * @param mechanism The encryption mechanism
+   * @param keyHandle Handle of the signing key.
+   * @param entries   Arrays of messages in stream with additional parameters to be encrypted.
+   * @return Array of signatures. The result at index i corresponds to entries[i].
+   * @throws TokenException If signing failed.
+   * @throws IOException    if reading or writing stream failed.
    */
-  public boolean verify(Mechanism mechanism, long keyHandle, byte[] data, byte[] signature) throws TokenException {
-    Session session = borrowSession();
-    int len = data.length;
+  public byte[][] signMessages(Mechanism mechanism, long keyHandle, SignMessageStreamEntry[] entries)
+      throws TokenException, IOException {
+    Session session = borrowSession(OperationClass.SIGN_VERIFY);
+    try {
+      return signMessages(session, mechanism, keyHandle, entries);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  byte[][] signMessages(Session session, Mechanism mechanism, long keyHandle, SignMessageStreamEntry[] entries)
+      throws TokenException, IOException {
+    byte[][] signatures = new byte[entries.length][];
+
+    // messageSignInit
+    opInit(OP.MESSAGE_SIGN, session, mechanism, keyHandle);
 
-    long code = mechanism.getMechanismCode();
     try {
-      boolean supportVerify = supportsMechanism(code, CKF_VERIFY);
-      boolean supportSignAndIsMac = supportsMechanism(code, CKF_SIGN) && isMacMechanism(code);
-      if ((!supportVerify) && supportSignAndIsMac) {
-        opInit(OP.VERIFY, session, mechanism, keyHandle);
-        // CKF_VERIFY is not supported, use CKF_SIGN to verify the MAC tags.
-        byte[] sig2;
-        if (len <= maxMessageSize) {
-          sig2 = session.sign(data);
-        } else {
-          try {
-            for (int ofs = 0; ofs < len; ofs += maxMessageSize) {
-              session.signUpdate(copyOfLen(data, ofs, Math.min(maxMessageSize, len - ofs)));
+      for (int i = 0; i < entries.length; i++) {
+        SignMessageStreamEntry entry = entries[i];
+        byte[] buffer = new byte[maxMessageSize];
+        int read;
+
+        InputStream data = entry.data();
+        CkParams params = entry.params();
+
+        try {
+          session.signMessageBegin(params);
+
+          while ((read = data.read(buffer)) != -1) {
+            if (read > 0) {
+              session.signMessageNext(params, buffer, 0, read, false);
             }
-          } finally {
-            sig2 = session.signFinal();
           }
+
+          signatures[i] = session.signMessageNext(params, new byte[0], true);
+        } catch (PKCS11Exception e) {
+          break;
         }
-        return Arrays.equals(signature, sig2);
-      } else {
-        try {
-          opInit(OP.VERIFY, session, mechanism, keyHandle);
+      }
+    } finally {
+      session.messageSignFinal();
+    }
+
+    return signatures;
+  }
+
+  public boolean[] verifyMessages(Mechanism mechanism, long keyHandle, VerifyMessageBytesEntry[] entries)
+      throws TokenException {
+    Session session = borrowSession(OperationClass.SIGN_VERIFY);
+    try {
+      return verifyMessages(session, mechanism, keyHandle, entries);
+    } finally {
+      requiteSession(session);
+    }
+  }
+
+  boolean[] verifyMessages(Session session, Mechanism mechanism, long keyHandle, VerifyMessageBytesEntry[] entries)
+      throws TokenException {
+    boolean[] verifyResults = new boolean[entries.length];
 
+    // decryptInit
+    opInit(OP.MESSAGE_VERIFY, session, mechanism, keyHandle);
+
+    try {
+      for (int i = 0; i < entries.length; i++) {
+        VerifyMessageBytesEntry entry = entries[i];
+        byte[] data = entry.data();
+        int len = data.length;
+
+        try {
           if (len <= maxMessageSize) {
-            session.verify(data, signature);
-          } else {
-            try {
-              try {
-                for (int ofs = 0; ofs < len; ofs += maxMessageSize) {
-                  session.verifyUpdate(copyOfLen(data, ofs, Math.min(maxMessageSize, len - ofs)));
-                }
-              } finally {
-                session.verifyFinal(signature);
-              }
-            } catch (PKCS11Exception e) {
-              if (e.getErrorCode() == CKR_OPERATION_NOT_INITIALIZED) {
-                session.verifySingle(mechanism, keyHandle, data, signature);
-              } else {
-                throw e;
-              }
+            session.verifyMessage(entry.params(), entry.data(), entry.signature());
+          } else {
+            session.verifyMessageBegin(entry.params());
+            for (int ofs = 0; ofs < len; ofs += maxMessageSize) {
+              boolean lastBlock = (ofs + maxMessageSize >= len);
+              session.verifyMessageNext(
+                  entry.params(), data, ofs, Math.min(maxMessageSize, len - ofs),
+                  lastBlock ? entry.signature() : null);
             }
           }
-          return true;
+          verifyResults[i] = true;
         } catch (PKCS11Exception e) {
-          long ckr = e.getErrorCode();
-          if (ckr == CKR_SIGNATURE_INVALID || ckr == CKR_SIGNATURE_LEN_RANGE) {
-            return false;
-          } else {
-            throw e;
-          }
+          verifyResults[i] = false;
         }
       }
     } finally {
-      sessions.add(session);
+      session.messageVerifyFinal();
     }
+
+    return verifyResults;
   }
 
   /**
-   * This method can be used to verify large data.
+   * Verify the signatures over given messages using the given mechanism and key.
    *
-   * @param mechanism  The mechanism to use.
-   * @param keyHandle  The signing key to use.
-   * @param data       Input-stream of the to-be-verified data
-   * @param signature  the signature.
-   * @return true if signature is invalid, false otherwise.
-   * @throws TokenException If signing the data failed.
-   * @throws IOException If reading data stream failed.
+   * @param mechanism The signature verification mechanism
+   * @param keyHandle Handle of the verification key.
+   * @param entries   Arrays of messages in stream with additional parameters to be verified.
+   * @return Array of signature verification result. The result at index i corresponds to entries[i].
+   * @throws TokenException If verifying failed.
+   * @throws IOException    if reading or writing stream failed.
    */
-  public boolean verify(Mechanism mechanism, long keyHandle, InputStream data, byte[] signature)
+  public boolean[] verifyMessages(Mechanism mechanism, long keyHandle, VerifyMessageStreamEntry[] entries)
       throws TokenException, IOException {
-    Session session = borrowSession();
+    Session session = borrowSession(OperationClass.SIGN_VERIFY);
     try {
-      byte[] buffer = new byte[maxMessageSize];
-      int firstBlockLen = readBytes(data, buffer, maxMessageSize);
-      byte[] firstBlock = copyOfLen(buffer, firstBlockLen);
+      return verifyMessages(session, mechanism, keyHandle, entries);
+    } finally {
+      requiteSession(session);
+    }
+  }
 
-      long code = mechanism.getMechanismCode();
-      opInit(OP.VERIFY, session, mechanism, keyHandle);
+  boolean[] verifyMessages(Session session, Mechanism mechanism, long keyHandle, VerifyMessageStreamEntry[] entries)
+      throws TokenException, IOException {
+    boolean[] verifyResults = new boolean[entries.length];
 
-      if (supportsMechanism(code, CKF_VERIFY)) {
-        if (firstBlockLen < maxMessageSize) {
-          session.verify(firstBlock, signature);
-        } else {
-          try {
-            session.verifyUpdate(firstBlock);
-          } catch (PKCS11Exception e) {
-            if (e.getErrorCode() == CKR_OPERATION_NOT_INITIALIZED) {
-              ByteArrayOutputStream bout = new ByteArrayOutputStream(maxMessageSize + data.available());
-              bout.write(firstBlock);
+    // messageVerifyInit
+    opInit(OP.MESSAGE_VERIFY, session, mechanism, keyHandle);
 
-              int read;
-              while ((read = data.read(buffer)) != -1) {
-                bout.write(buffer, 0, read);
-              }
-              session.verifySingle(mechanism, keyHandle, bout.toByteArray(), signature);
-              return true;
-            }
-          }
+    try {
+      for (int i = 0; i < entries.length; i++) {
+        VerifyMessageStreamEntry entry = entries[i];
+        byte[] buffer = new byte[maxMessageSize];
+        int read;
 
-          try {
-            int read;
-            while ((read = data.read(buffer)) != -1) {
-              if (read > 0) {
-                session.verifyUpdate(copyOfLen(buffer, read));
-              }
-            }
-          } finally {
-            session.verifyFinal(signature);
-          }
-        }
-        return true;
-      } else if (supportsMechanism(code, CKF_SIGN) && isMacMechanism(code)) {
-        opInit(OP.SIGN, session, mechanism, keyHandle);
+        InputStream data = entry.data();
+        CkParams params = entry.params();
 
-        byte[] sig2;
-        if (firstBlockLen < maxMessageSize) {
-          sig2 = session.sign(firstBlock);
-        } else {
-          try {
-            session.signUpdate(firstBlock);
-            int read;
-            while ((read = data.read(buffer)) != -1) {
-              if (read > 0) {
-                session.signUpdate(buffer, 0, read);
-              }
+        try {
+          session.verifyMessageBegin(params);
+
+          while ((read = data.read(buffer)) != -1) {
+            if (read > 0) {
+              session.verifyMessageNext(params, buffer, 0, read, null);
             }
-          } finally {
-            sig2 = session.signFinal();
           }
+
+          session.verifyMessageNext(params, new byte[0], entry.signature());
+          verifyResults[i] = true;
+        } catch (PKCS11Exception e) {
+          verifyResults[i] = false;
         }
-        return Arrays.equals(signature, sig2);
-      } else {
-        throw new PKCS11Exception(CKR_MECHANISM_INVALID);
-      }
-    } catch (PKCS11Exception e) {
-      long ckr = e.getErrorCode();
-      if (ckr == CKR_SIGNATURE_INVALID || ckr == CKR_SIGNATURE_LEN_RANGE) {
-        return false;
-      } else {
-        throw e;
       }
     } finally {
-      sessions.add(session);
+      session.messageVerifyFinal();
     }
+
+    return verifyResults;
   }
 
   /**
-   * Verify-recovers the given data with the key and mechanism.
+   * Encrypts the given data with the key and mechanism asynchronously.
+   * The operation is executed by a worker thread of this token, one per session.
+   *
+   * @param mechanism The mechanism to use.
+   * @param keyHandle The encryption key to use.
+   * @param plaintext the to-be-encrypted data
+   * @return the future of the encrypted data.
+   * @see #encrypt(Mechanism, long, byte[])
+   */
+  public CompletableFuture<byte[]> encryptAsync(Mechanism mechanism, long keyHandle, byte[] plaintext) {
+    return submitAsync(OperationClass.ENCRYPT_DECRYPT, session -> encrypt(session, mechanism, keyHandle, plaintext));
+  }
+
+  /**
+   * Decrypts the given data with the key and mechanism asynchronously.
+   *
+   * @param mechanism  The mechanism to use.
+   * @param keyHandle  The decryption key to use.
+   * @param ciphertext the to-be-decrypted data
+   * @return the future of the decrypted data.
+   * @see #decrypt(Mechanism, long, byte[])
+   */
+  public CompletableFuture<byte[]> decryptAsync(Mechanism mechanism, long keyHandle, byte[] ciphertext) {
+    return submitAsync(OperationClass.ENCRYPT_DECRYPT, session -> decrypt(session, mechanism, keyHandle, ciphertext));
+  }
+
+  /**
+   * Digests the given data with the mechanism asynchronously.
+   *
+   * @param mechanism The mechanism to use.
+   * @param data      the to-be-digested data
+   * @return the future of the message digest.
+   * @see #digest(Mechanism, byte[])
+   */
+  public CompletableFuture<byte[]> digestAsync(Mechanism mechanism, byte[] data) {
+    return submitAsync(OperationClass.OTHER, session -> digest(session, mechanism, data));
+  }
+
+  /**
+   * Signs the given data with the key and mechanism asynchronously.
    *
    * @param mechanism The mechanism to use.
    * @param keyHandle The signing key to use.
-   * @param data      The data to be verify-recovered.
-   * @return The verify-recovered data. Never returns {@code null}.
-   * @throws TokenException If signing the data failed.
+   * @param data      The data to sign.
+   * @return the future of the signature.
+   * @see #sign(Mechanism, long, byte[])
    */
-  public byte[] verifyRecover(Mechanism mechanism, long keyHandle, byte[] data) throws TokenException {
-    Session session = borrowSession();
-    try {
-      opInit(OP.VERIFY_RECOVER, session, mechanism, keyHandle);
-      return session.verifyRecover(data);
-    } finally {
-      sessions.add(session);
-    }
+  public CompletableFuture<byte[]> signAsync(Mechanism mechanism, long keyHandle, byte[] data) {
+    return submitAsync(OperationClass.SIGN_VERIFY, session -> sign(session, mechanism, keyHandle, data));
   }
 
   /**
-   * Generate a new secret key or a set of domain parameters. It uses the set attributes of the
-   * template for setting the attributes of the new key object. As mechanism the application can use
-   * a constant of the Mechanism class.
+   * Verifies the given signature against the given data with the key and mechanism asynchronously.
    *
-   * @param mechanism The mechanism to generate a key for; e.g. Mechanism.DES to generate a DES key.
-   * @param template  The template for the new key or domain parameters; e.g. a DESSecretKey object which
-   *                  has set certain attributes.
-   * @return The newly generated secret key or domain parameters.
-   * @throws TokenException If generating a new secret key or domain parameters failed.
+   * @param mechanism The mechanism to use.
+   * @param keyHandle The verification key to use.
+   * @param data      The data that was signed.
+   * @param signature The signature or MAC to verify.
+   * @return the future of the verification result.
+   * @see #verify(Mechanism, long, byte[], byte[])
    */
-  public long generateKey(Mechanism mechanism, AttributeVector template) throws TokenException {
-    Session session = borrowSession();
-    try {
-      return session.generateKey(mechanism, template);
-    } finally {
-      sessions.add(session);
-    }
+  public CompletableFuture<Boolean> verifyAsync(Mechanism mechanism, long keyHandle, byte[] data, byte[] signature) {
+    return submitAsync(OperationClass.SIGN_VERIFY, session -> verify(session, mechanism, keyHandle, data, signature));
   }
 
   /**
-   * Generate a new public key - private key key-pair and use the set attributes of the template
-   * objects for setting the attributes of the new public key and private key objects. As mechanism
-   * the application can use a constant of the Mechanism class.
+   * Generates a new secret key asynchronously.
    *
-   * @param mechanism The mechanism to generate a key for; e.g. Mechanism.RSA to generate a new RSA
-   *                  key-pair.
-   * @param template  The template for the new keypair.
-   * @return The newly generated key-pair.
-   * @throws TokenException If generating a new key-pair failed.
+   * @param mechanism The mechanism to generate a key for.
+   * @param template  The template for the new key.
+   * @return the future of the handle of the new key.
+   * @see #generateKey(Mechanism, AttributeVector)
    */
-  public PKCS11KeyPair generateKeyPair(Mechanism mechanism, KeyPairTemplate template) throws TokenException {
-    Session session = borrowSession();
-    try {
-      return session.generateKeyPair(mechanism, template);
-    } finally {
-      sessions.add(session);
+  public CompletableFuture<Long> generateKeyAsync(Mechanism mechanism, AttributeVector template) {
+    return submitAsync(OperationClass.KEY_GENERATION, session -> generateKey(session, mechanism, template));
+  }
+
+  /**
+   * Generates a new key-pair asynchronously.
+   *
+   * @param mechanism The mechanism to generate a key for.
+   * @param template  The template of the key-pair.
+   * @return the future of the handles of the new key-pair.
+   * @see #generateKeyPair(Mechanism, KeyPairTemplate)
+   */
+  public CompletableFuture<PKCS11KeyPair> generateKeyPairAsync(Mechanism mechanism, KeyPairTemplate template) {
+    return submitAsync(OperationClass.KEY_GENERATION, session -> generateKeyPair(session, mechanism, template));
+  }
+
+  /**
+   * Generates random data asynchronously.
+   *
+   * @param numberOfBytesToGenerate The number of random bytes to generate.
+   * @return the future of the random bytes.
+   * @see #generateRandom(int)
+   */
+  public CompletableFuture<byte[]> generateRandomAsync(int numberOfBytesToGenerate) {
+    return submitAsync(OperationClass.OTHER, session -> generateRandom(session, numberOfBytesToGenerate, null));
+  }
+
+  private <T> CompletableFuture<T> submitAsync(OperationClass operationClass, SessionFunction<T> function) {
+    AsyncTask<T> task = new AsyncTask<>(operationClass, function);
+    if (!getAsyncQueue().offer(task)) {
+      task.future.completeExceptionally(new TokenException("asynchronous queue is full"));
+    }
+    return task.future;
+  }
+
+  private synchronized BlockingQueue<AsyncTask<?>> getAsyncQueue() {
+    if (asyncQueue == null) {
+      asyncQueue = new ArrayBlockingQueue<>(asyncQueueCapacity);
+      asyncWorkers = Executors.newFixedThreadPool(maxSessionCount, r -> {
+        Thread thread = new Thread(r, "pkcs11-token-" + token.getTokenID() + "-async");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+      // one worker per session
+      for (int i = 0; i < maxSessionCount; i++) {
+        asyncWorkers.execute(new AsyncWorker(asyncQueue));
+      }
     }
+    return asyncQueue;
   }
 
   /**
-   * Wraps (encrypts) the given key with the wrapping key using the given mechanism.
+   * Returns the string representation of this object.
    *
-   * @param mechanism         The mechanism to use for wrapping the key.
-   * @param wrappingKeyHandle The key to use for wrapping (encrypting).
-   * @param keyHandle         The key to wrap (encrypt).
-   * @return The wrapped key as byte array. Never returns {@code null}.
-   * @throws TokenException If wrapping the key failed.
+   * @return the string representation of this object
    */
-  public byte[] wrapKey(Mechanism mechanism, long wrappingKeyHandle, long keyHandle) throws TokenException {
-    Session session = borrowSession();
+  @Override
+  public String toString() {
+    return "User type: " + codeToName(Category.CKU, userType) +
+        "\nUser name: " + (userName == null ? "null" : new String(userName)) +
+        "\nMinimal session count: " + minSessionCount +
+        "\nMaximal session count: " + maxSessionCount +
+        "\nNew session timeout: " + timeOutWaitNewSessionMs + " ms" +
+        "\nRead only: " + readOnly +
+        "\nToken: " + token;
+  }
+
+  /**
+   * Gets give attributes for the given object handle.
+   * @param objectHandle the object handle.
+   * @param attributeTypes types of attributes to be read.
+   * @return attributes for the given object handle.
+   * @throws TokenException if getting attributes failed.
+   */
+  public AttributeVector getAttrValues(long objectHandle, long... attributeTypes) throws TokenException {
+    List<Long> typeList = new ArrayList<>(attributeTypes.length);
+    for (long attrType : attributeTypes) {
+      typeList.add(attrType);
+    }
+    return getAttrValues(objectHandle, typeList);
+  }
+
+  /**
+   * Gets give attributes for the given object handle.
+   * @param objectHandle the object handle.
+   * @param attributeTypes types of attributes to be read.
+   * @return attributes for the given object handle.
+   * @throws TokenException if getting attributes failed.
+   */
+  public AttributeVector getAttrValues(long objectHandle, List<Long> attributeTypes) throws TokenException {
+    Session session = borrowSession(OperationClass.OBJECT_MANAGEMENT);
     try {
-      return session.wrapKey(mechanism, wrappingKeyHandle, keyHandle);
+      return getAttrValues(session, objectHandle, attributeTypes);
     } finally {
-      sessions.add(session);
+      requiteSession(session);
+    }
+  }
+
+  AttributeVector getAttrValues(Session session, long objectHandle, List<Long> attributeTypes) throws TokenException {
+    AttributeCache cache = attributeCache;
+    if (cache == null) {
+      return session.getAttrValues(objectHandle, attributeTypes);
+    }
+
+    Attribute[] attrs = new Attribute[attributeTypes.size()];
+    List<Long> missingTypes = null;
+    for (int i = 0; i < attrs.length; i++) {
+      long type = attributeTypes.get(i);
+      attrs[i] = cache.get(objectHandle, type);
+      if (attrs[i] == null) {
+        if (missingTypes == null) {
+          missingTypes = new ArrayList<>(attrs.length - i);
+        }
+        missingTypes.add(type);
+      }
+    }
+
+    if (missingTypes == null) {
+      return new AttributeVector(attrs);
+    }
+
+    long generation = cache.generation();
+    AttributeVector readAttrs = session.getAttrValues(objectHandle, missingTypes);
+    cache.put(objectHandle, readAttrs.snapshot(), generation);
+
+    AttributeVector ret = new AttributeVector(attrs);
+    for (Attribute attr : readAttrs.snapshot()) {
+      ret.attr(attr);
     }
+    return ret;
   }
 
   /**
-   * Unwraps (decrypts) the given encrypted key with the unwrapping key using the given mechanism.
-   * The application can also pass a template key to set certain attributes of the unwrapped key.
-   * This creates a key object after unwrapping the key and returns an object representing this key.
+   * Gets the given attributes of many objects at once. The object handles are split into chunks of
+   * {@value #BULK_CHUNK_SIZE}, which are read in parallel by the calling thread and by helper
+   * threads, each with its own session. A helper thread is only used for a session which can be
+   * borrowed without waiting, and the number of sessions used is limited, see
+   * {@link #setMaxBulkReadSessions(int)}.
+   * <p>
+   * The attribute cache is bypassed.
    *
-   * @param mechanism           The mechanism to use for unwrapping the key.
-   * @param unwrappingKeyHandle The key to use for unwrapping (decrypting).
-   * @param wrappedKey          The encrypted key to unwrap (decrypt).
-   * @param keyTemplate         The template for creating the new key object.
-   * @return A key object representing the newly created key object.
-   * @throws TokenException If unwrapping the key or creating a new key object failed.
+   * @param objectHandles the object handles.
+   * @param attributeTypes types of attributes to be read.
+   * @return attributes in the order of the object handles. The entry is null if the object handle is
+   *         invalid, e.g. the object has been destroyed meanwhile.
+   * @throws TokenException if getting attributes failed.
    */
-  public long unwrapKey(Mechanism mechanism, long unwrappingKeyHandle, byte[] wrappedKey,
-                        AttributeVector keyTemplate) throws TokenException {
-    Session session = borrowSession();
+  public AttributeVector[] getAttrValues(long[] objectHandles, long... attributeTypes) throws TokenException {
+    int numChunks = (objectHandles.length + BULK_CHUNK_SIZE - 1) / BULK_CHUNK_SIZE;
+    BulkAttributeReader reader = new BulkAttributeReader(objectHandles, attributeTypes, numChunks);
+    if (numChunks == 0) {
+      return reader.result;
+    }
+
+    Session session = borrowSession(OperationClass.OBJECT_MANAGEMENT);
     try {
-      return session.unwrapKey(mechanism, unwrappingKeyHandle, wrappedKey, keyTemplate);
+      int maxSessions = maxBulkReadSessions;
+      if (maxSessions == 0) {
+        maxSessions = Math.max(1, maxSessionCount / 2);
+      }
+      int parallelism = Math.min(numChunks,
+          Math.min(maxSessions, getSessionQuota(OperationClass.OBJECT_MANAGEMENT)));
+      List<Future<Void>> futures = new ArrayList<>(Math.max(0, parallelism - 1));
+      while (futures.size() + 1 < parallelism) {
+        Session helperSession = tryBorrowSession(OperationClass.OBJECT_MANAGEMENT);
+        if (helperSession == null) {
+          break;
+        }
+
+        try {
+          // the helper returns its session itself.
+          futures.add(getBulkReaders().submit(() -> {
+            try {
+              reader.read(helperSession);
+              return null;
+            } finally {
+              requiteSession(helperSession);
+            }
+          }));
+        } catch (RuntimeException ex) {
+          requiteSession(helperSession);
+          throw ex;
+        }
+      }
+
+      TokenException firstEx = null;
+      try {
+        reader.read(session);
+      } catch (TokenException ex) {
+        firstEx = ex;
+      }
+
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException ex) {
+          reader.failed = true;
+          Thread.currentThread().interrupt();
+          throw new TokenException("interrupted while reading attributes", ex);
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          if (cause instanceof TokenException) {
+            if (firstEx == null) {
+              firstEx = (TokenException) cause;
+            }
+          } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          } else {
+            throw (Error) cause;
+          }
+        }
+      }
+
+      if (firstEx != null) {
+        throw firstEx;
+      }
+      return reader.result;
     } finally {
-      sessions.add(session);
+      requiteSession(session);
     }
   }
 
   /**
-   * Derives a new key from a specified base key using the given mechanism. After deriving a new
-   * key from the base key, a new key object is created and a representation of it is returned. The
-   * application can provide a template key to set certain attributes of the new key object.
-   *
-   * @param mechanism     The mechanism to use for deriving the new key from the base key.
-   * @param baseKeyHandle The key to use as base for derivation.
-   * @param template      The template for creating the new key object.
-   * @return A key object representing the newly derived (created) key object or null, if the used
-   * mechanism uses other means to return its values; e.g. the CKM_SSL3_KEY_AND_MAC_DERIVE
-   * mechanism.
-   * @throws TokenException If deriving the key or creating a new key object failed.
+   * Gets all attributes for the given object handle.
+   * @param objectHandle the object handle.
+   * @return all attributes for the given object handle.
+   * @throws TokenException if getting attributes failed.
    */
-  public long deriveKey(Mechanism mechanism, long baseKeyHandle, AttributeVector template) throws TokenException {
-    Session session = borrowSession();
+  public AttributeVector getDefaultAttrValues(long objectHandle) throws TokenException {
+    Session session = borrowSession(OperationClass.OBJECT_MANAGEMENT);
     try {
-      return session.deriveKey(mechanism, baseKeyHandle, template);
+      return getDefaultAttrValues(session, objectHandle);
     } finally {
-      sessions.add(session);
+      requiteSession(session);
     }
   }
 
-  /**
-   * Generates a certain number of random bytes.
-   *
-   * @param numberOfBytesToGenerate The number of random bytes to generate.
-   * @return An array of random bytes with length numberOfBytesToGenerate.
-   * @throws TokenException If generating random bytes failed.
-   */
-  public byte[] generateRandom(int numberOfBytesToGenerate) throws TokenException {
-    return generateRandom(numberOfBytesToGenerate, null);
+  AttributeVector getDefaultAttrValues(Session session, long objectHandle) throws TokenException {
+    return session.getDefaultAttrValues(objectHandle);
+  }
+
+  private Session openSession() throws PKCS11Exception {
+    // the pool state of a new session is SESSION_IN_USE.
+    Session session = token.openSession(!readOnly);
+    countSessions.incrementAndGet();
+    return session;
+  }
+
+  private Session borrowNoLoginSession() throws TokenException {
+    return borrowSession(OperationClass.OTHER, false, 0);
+  }
+
+  private Session borrowSession(OperationClass operationClass) throws TokenException {
+    return borrowSession(operationClass, true, 0);
+  }
+
+  private Session borrowSession(OperationClass operationClass, long deadlineMs) throws TokenException {
+    return borrowSession(operationClass, true, deadlineMs);
   }
 
   /**
-   * Generates a certain number of random bytes.
+   * Borrows a session only if the permits are available without waiting.
    *
-   * @param numberOfBytesToGenerate The number of random bytes to generate.
-   * @param extraSeed               The seed bytes to mix in.
-   * @return An array of random bytes with length numberOfBytesToGenerate.
-   * @throws TokenException If generating random bytes failed.
+   * @return the session, or null if a permit is not available.
    */
-  public byte[] generateRandom(int numberOfBytesToGenerate, byte[] extraSeed) throws TokenException {
-    Session session = borrowSession();
+  private Session tryBorrowSession(OperationClass operationClass) throws TokenException {
+    return borrowSession(operationClass, true, 0, false);
+  }
+
+  private Session borrowSession(OperationClass operationClass, boolean login, long deadlineMs)
+      throws TokenException {
+    return borrowSession(operationClass, login, deadlineMs, true);
+  }
+
+  private Session borrowSession(OperationClass operationClass, boolean login, long deadlineMs, boolean wait)
+      throws TokenException {
+    if (!PKCS11Events.isSessionBorrowEnabled()) {
+      return doBorrowSession(operationClass, login, deadlineMs, wait);
+    }
+
+    Object event = PKCS11Events.beginSessionBorrow();
+    boolean success = false;
     try {
-      if (extraSeed != null && extraSeed.length > 0) {
-        session.seedRandom(extraSeed);
-      }
-      return session.generateRandom(numberOfBytesToGenerate);
+      Session session = doBorrowSession(operationClass, login, deadlineMs, wait);
+      success = session != null;
+      return session;
     } finally {
-      sessions.add(session);
+      PKCS11Events.commitSessionBorrow(event, tokenLabel, operationClass.name(), success);
     }
   }
 
   /**
-   * Encrypts the given messages using the given mechanism and key
+   * Borrows a session. Waiters are served in FIFO order.
    *
-   * @param mechanism The encryption mechanism
-   * @param keyHandle Handle of the encryption key.
-   * @param entries   Arrays of plaintexts in byte[] with additional parameters to be encrypted.
-   * @return Array of ciphertexts. The result at index i is the ciphertext of entries[i].
-   * @throws TokenException If encrypting failed.
+   * @param deadlineMs deadline in milliseconds since epoch, 0 to wait at most timeOutWaitNewSessionMs.
+   * @param wait whether to wait for the permits. If false, null is returned if a permit is not
+   *        available.
    */
-  public byte[][] encryptMessages(Mechanism mechanism, long keyHandle, EncryptMessageBytesEntry[] entries)
+  private Session doBorrowSession(OperationClass operationClass, boolean login, long deadlineMs, boolean wait)
       throws TokenException {
-    byte[][] ciphertexts = new byte[entries.length][];
+    long startNanos = System.nanoTime();
+    long maxTimeMs;
+    if (deadlineMs == 0) {
+      maxTimeMs = clock.millis() + timeOutWaitNewSessionMs;
+    } else {
+      maxTimeMs = deadlineMs;
+      if (clock.millis() >= deadlineMs) {
+        // the client has already timed out.
+        countDeadlineRejects.increment();
+        throw new TokenException("deadline exceeded before borrowing session");
+      }
+    }
 
-    Session session = borrowSession();
-    try {
-      // messageEncryptInit
-      opInit(OP.MESSAGE_ENCRYPT, session, mechanism, keyHandle);
+    int classIndex = operationClass.ordinal();
+    Semaphore quotaPermits = sessionQuotaPermits[classIndex];
+    if (!tryAcquirePermit(quotaPermits)) {
+      if (!wait) {
+        return null;
+      }
 
-      try {
-        for (int i = 0; i < entries.length; i++) {
-          EncryptMessageBytesEntry entry = entries[i];
-          byte[] plaintext = entry.plaintext();
-          int len = plaintext.length;
+      sessionQuotaWaits[classIndex].increment();
+      if (!acquirePermit(quotaPermits, maxTimeMs)) {
+        throw new TokenException("no idle session within the quota of " + operationClass);
+      }
+    }
 
-          if (len <= maxMessageSize) {
-            ciphertexts[i] = session.encryptMessage(entry.params(), entry.associatedData(), entry.plaintext());
-          } else {
-            session.encryptMessageBegin(entry.params(), entry.associatedData());
-            ByteArrayOutputStream bout = new ByteArrayOutputStream(plaintext.length + 16);
+    Semaphore carrierPermits = this.carrierPermits;
+    if (carrierPermits != null && isVirtualThread()) {
+      if (!tryAcquirePermit(carrierPermits)) {
+        if (!wait) {
+          release(quotaPermits);
+          return null;
+        }
 
-            for (int ofs = 0; ofs < len; ofs += maxMessageSize) {
-              boolean lastBlock = (ofs + maxMessageSize >= len);
-              byte[] ciphertextPart = session.encryptMessageNext(
-                  entry.params(), copyOfLen(plaintext, ofs, Math.min(len - ofs, maxMessageSize)), lastBlock);
-              bout.write(ciphertextPart, 0, ciphertextPart.length);
-            }
-            ciphertexts[i] = bout.toByteArray();
-          }
+        if (!acquirePermit(carrierPermits, maxTimeMs)) {
+          release(quotaPermits);
+          throw new TokenException("no free slot for virtual thread");
         }
-      } finally {
-        session.messageEncryptFinal();
       }
-
-      return ciphertexts;
-    } finally {
-      sessions.add(session);
+    } else {
+      carrierPermits = null;
     }
-  }
 
-  /**
-   * Encrypts the given messages using the given mechanism and key.
-   *
-   * @param mechanism The encryption mechanism
-   * @param keyHandle Handle of the encryption key.
-   * @param entries   Arrays of plaintexts in stream with additional parameters to be encrypted.
-   * @return Array of lengths of ciphertext. The result at index i corresponds to entries[i].
-   * @throws TokenException If encrypting failed.
-   * @throws IOException    if reading or writing stream failed.
-   */
-  public int[] encryptMessages(Mechanism mechanism, long keyHandle, EncryptMessageStreamEntry[] entries)
-      throws TokenException, IOException {
-    int[] ciphertextLens = new int[entries.length];
+    if (!tryAcquirePermit(sessionPermits)) {
+      if (!wait) {
+        release(carrierPermits);
+        release(quotaPermits);
+        return null;
+      }
 
-    Session session = borrowSession();
-    try {
-      // messageEncryptInit
-      opInit(OP.MESSAGE_ENCRYPT, session, mechanism, keyHandle);
+      if (deadlineMs != 0) {
+        // fail fast if the expected waiting time exceeds the deadline.
+        long expectedWaitNanos = (sessionPermits.getQueueLength() + 1) * avgSessionHoldNanos / maxSessionCount;
+        if (TimeUnit.NANOSECONDS.toMillis(expectedWaitNanos) > deadlineMs - clock.millis()) {
+          release(carrierPermits);
+          release(quotaPermits);
+          countDeadlineRejects.increment();
+          throw new TokenException("deadline cannot be met, expected waiting time for session "
+              + TimeUnit.NANOSECONDS.toMillis(expectedWaitNanos) + " ms");
+        }
+      }
 
-      try {
-        for (int i = 0; i < entries.length; i++) {
-          EncryptMessageStreamEntry entry = entries[i];
-          byte[] buffer = new byte[maxMessageSize];
-          int read;
+      if (!acquirePermit(sessionPermits, maxTimeMs)) {
+        release(carrierPermits);
+        release(quotaPermits);
+        if (deadlineMs != 0) {
+          countDeadlineRejects.increment();
+        }
+        throw new TokenException("no idle session");
+      }
 
-          InputStream inPlaintext = entry.inPlaintext();
-          OutputStream outCiphertext = entry.outCiphertext();
-          CkParams params = entry.params();
+      if (deadlineMs != 0 && clock.millis() >= deadlineMs) {
+        // shed the request, the client has timed out while waiting.
+        sessionPermits.release();
+        release(carrierPermits);
+        release(quotaPermits);
+        countDeadlineRejects.increment();
+        throw new TokenException("deadline exceeded while waiting for session");
+      }
+    }
 
-          try {
-            session.encryptMessageBegin(params, entry.associatedData());
+    boolean borrowed = false;
+    try {
+      int maxTries = maxSessionCount + 1;
+      for (int retries = 0; retries < maxTries; retries++) {
+        if (retries > 0 && deadlineMs != 0 && clock.millis() >= deadlineMs) {
+          countDeadlineRejects.increment();
+          throw new TokenException("deadline exceeded after " + retries + " tries to borrow session");
+        }
 
-            int ciphertextLen = 0;
-            while ((read = inPlaintext.read(buffer)) != -1) {
-              if (read > 0) {
-                byte[] ciphertextPart = session.encryptMessageNext(params, copyOfLen(buffer, read), false);
-                ciphertextLen += ciphertextPart.length;
-                outCiphertext.write(ciphertextPart);
-              }
-            }
+        Session session = null;
+        if (retries == 0 && threadAffinity) {
+          session = affineSessions.get();
+          if (session != null && !session.poolState.compareAndSet(SESSION_IDLE, SESSION_IN_USE)) {
+            // in use by another thread or closed
+            session = null;
+          }
+        }
 
-            byte[] ciphertextPart = session.encryptMessageNext(params, new byte[0], true);
-            ciphertextLen += ciphertextPart.length;
-            outCiphertext.write(ciphertextPart);
+        if (session == null) {
+          session = pollIdleSession();
+        }
 
-            ciphertextLens[i] = ciphertextLen;
-          } catch (PKCS11Exception e) {
+        boolean validate;
+        if (session == null) {
+          // create new session
+          session = openSession();
+          countOpenOnBorrow.increment();
+          validate = true;
+        } else {
+          validate = isValidationRequired(session);
+        }
+
+        if (!validate || validateSession(session, login)) {
+          if (retries != 0) {
+            StaticLogger.info("Borrowed session after " + (retries + 1) + " tries.");
           }
+          session.carrierPermits = carrierPermits;
+          session.quotaPermits = quotaPermits;
+          session.operationClass = operationClass;
+          sessionsInUse.incrementAndGet(classIndex);
+          long nowNanos = System.nanoTime();
+          session.borrowNanos = nowNanos;
+          borrowTimeNanos.add(nowNanos - startNanos);
+          maxBorrowTimeNanos.accumulate(nowNanos - startNanos);
+          countBorrows.increment();
+          borrowed = true;
+          return session;
         }
-      } finally {
-        session.messageEncryptFinal();
       }
 
-      return ciphertextLens;
+      throw new TokenException("could not borrow session after " + maxTries + " tries.");
     } finally {
-      sessions.add(session);
+      if (!borrowed) {
+        sessionPermits.release();
+        release(carrierPermits);
+        release(quotaPermits);
+      }
     }
   }
 
   /**
-   * Decrypts the given ciphertexts using the given mechanism and keys.
-   *
-   * @param mechanism The encryption mechanism
-   * @param keyHandle Handle of the encryption key.
-   * @param entries   Arrays of ciphertexts in byte[] with additional parameters to be encrypted.
-   * @return Array of lengths of ciphertext. The result at index i corresponds to entries[i].
-   * @throws TokenException If encrypting failed.
+   * Acquires a permit without waiting. Unlike {@link Semaphore#tryAcquire()}, the fairness is respected.
    */
-  public byte[][] decryptMessages(Mechanism mechanism, long keyHandle, DecryptMessageBytesEntry[] entries)
-      throws TokenException {
-    byte[][] plaintexts = new byte[entries.length][];
-
-    Session session = borrowSession();
+  private static boolean tryAcquirePermit(Semaphore permits) {
     try {
-      // messageDecryptInit
-      opInit(OP.MESSAGE_DECRYPT, session, mechanism, keyHandle);
-
-      try {
-        for (int i = 0; i < entries.length; i++) {
-          DecryptMessageBytesEntry entry = entries[i];
-          byte[] ciphertext = entry.ciphertext();
-          int len = ciphertext.length;
+      return permits.tryAcquire(0, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
 
-          if (len <= maxMessageSize) {
-            plaintexts[i] = session.decryptMessage(entry.params(), entry.associatedData(), ciphertext);
-          } else {
-            session.decryptMessageBegin(entry.params(), entry.associatedData());
-            ByteArrayOutputStream bout = new ByteArrayOutputStream(ciphertext.length);
+  private static boolean acquirePermit(Semaphore permits, long maxTimeMs) {
+    long timeOutMs = maxTimeMs - clock.millis();
+    if (timeOutMs <= 0) {
+      return false;
+    }
 
-            for (int ofs = 0; ofs < len; ofs += maxMessageSize) {
-              boolean lastBlock = (ofs + maxMessageSize >= len);
-              byte[] plaintextPart = session.decryptMessageNext(
-                  entry.params(), copyOfLen(ciphertext, ofs, Math.min(len - ofs, maxMessageSize)), lastBlock);
-              bout.write(plaintextPart, 0, plaintextPart.length);
-            }
-            plaintexts[i] = bout.toByteArray();
-          }
-        }
-      } finally {
-        session.messageDecryptFinal();
-      }
+    try {
+      return permits.tryAcquire(timeOutMs, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
 
-      return plaintexts;
-    } finally {
-      sessions.add(session);
+  private static void release(Semaphore permits) {
+    if (permits != null) {
+      permits.release();
     }
   }
 
-  /**
-   * Decrypts the given ciphertexts using the given mechanism and key.
-   *
-   * @param mechanism The encryption mechanism
-   * @param keyHandle Handle of the encryption key.
-   * @param entries   Arrays of ciphertexts in stream with additional parameters to be encrypted.
-   * @return Array of lengths of ciphertext. The result at index i corresponds to entries[i].
-   * @throws TokenException If encrypting failed.
-   * @throws IOException    if reading or writing stream failed.
-   */
-  public int[] decryptMessages(Mechanism mechanism, long keyHandle, DecryptMessageStreamEntry[] entries)
-      throws TokenException, IOException {
-    int[] plaintextLens = new int[entries.length];
+  private static boolean isVirtualThread() {
+    if (isVirtualThreadHandle == null) {
+      return false;
+    }
 
-    Session session = borrowSession();
     try {
-      // messageDecryptInit
-      opInit(OP.MESSAGE_DECRYPT, session, mechanism, keyHandle);
-
-      try {
-        for (int i = 0; i < entries.length; i++) {
-          DecryptMessageStreamEntry entry = entries[i];
-          byte[] buffer = new byte[maxMessageSize];
-          int read;
+      return (boolean) isVirtualThreadHandle.invokeExact(Thread.currentThread());
+    } catch (Throwable th) {
+      return false;
+    }
+  }
 
-          InputStream inCiphertext = entry.inCiphertext();
-          OutputStream outPlaintext = entry.outPlaintext();
-          CkParams params = entry.params();
+  void requiteSession(Session session) {
+    // exponentially weighted moving average of the time a session is held.
+    long holdNanos = System.nanoTime() - session.borrowNanos;
+    avgSessionHoldNanos += (holdNanos - avgSessionHoldNanos) >> 4;
+
+    release(session.carrierPermits);
+    release(session.quotaPermits);
+    session.carrierPermits = null;
+    session.quotaPermits = null;
+    if (session.operationClass != null) {
+      sessionsInUse.decrementAndGet(session.operationClass.ordinal());
+      operationCounts[session.operationClass.ordinal()].increment();
+      session.operationClass = null;
+    }
 
-          try {
-            session.decryptMessageBegin(params, entry.associatedData());
+    session.lastReturnTime = clock.millis();
+    if (threadAffinity) {
+      affineSessions.set(session);
+      // put to the tail, so that the other threads take at first the sessions of idle threads.
+      putIdleSession(session, false);
+    } else {
+      putIdleSession(session, true);
+    }
+    sessionPermits.release();
+  }
 
-            int plaintextLen = 0;
-            while ((read = inCiphertext.read(buffer)) != -1) {
-              if (read > 0) {
-                byte[] plaintextPart = session.decryptMessageNext(params, copyOfLen(buffer, read), false);
-                plaintextLen += plaintextPart.length;
-                outPlaintext.write(plaintextPart);
-              }
-            }
+  /**
+   * Takes an idle session from the head of the queue.
+   * @return the idle session, now in use, or null if there is no idle session.
+   */
+  private Session pollIdleSession() {
+    Session session;
+    while ((session = sessions.pollFirst()) != null) {
+      session.queued.set(false);
+      if (session.poolState.compareAndSet(SESSION_IDLE, SESSION_IN_USE)) {
+        return session;
+      }
+      // otherwise, the session has been taken by the thread it is affine to, or closed.
+    }
+    return null;
+  }
 
-            byte[] plaintextPart = session.decryptMessageNext(params, new byte[0], true);
-            plaintextLen += plaintextPart.length;
-            outPlaintext.write(plaintextPart);
-            plaintextLens[i] = plaintextLen;
-          } catch (PKCS11Exception e) {
-          }
-        }
-      } finally {
-        session.messageDecryptFinal();
+  private void putIdleSession(Session session, boolean head) {
+    session.poolState.set(SESSION_IDLE);
+    if (session.queued.compareAndSet(false, true)) {
+      if (head) {
+        sessions.offerFirst(session);
+      } else {
+        sessions.offerLast(session);
       }
+    }
+  }
 
-      return plaintextLens;
-    } finally {
-      sessions.add(session);
+  private boolean isValidationRequired(Session session) {
+    switch (sessionValidation) {
+      case ALWAYS:
+        return true;
+      case IDLE:
+        return session.errorOccurred || clock.millis() - session.lastReturnTime > sessionValidationIntervalMs;
+      default:
+        return session.errorOccurred;
     }
   }
 
+  private void validateIdleSessions() {
+    maintainIdleSessions(0);
+  }
+
   /**
-   * Signs the given messages using the given mechanism and key.
-   *
-   * @param mechanism The encryption mechanism
-   * @param keyHandle Handle of the signing key.
-   * @param entries   Arrays of messages in byte[] with additional parameters to be encrypted.
-   * @return Array of signatures. The result at index i corresponds to entries[i].
-   * @throws TokenException If signing failed.
+   * Validates the idle sessions (keep-alive and re-login), closes the sessions idle longer than
+   * <code>idleTtlMs</code> above the minimal session count, and replaces the closed and dead sessions up to
+   * the minimal session count.
    */
-  public byte[][] signMessages(Mechanism mechanism, long keyHandle, SignMessageBytesEntry[] entries)
-      throws TokenException {
-    byte[][] signatures = new byte[entries.length][];
-
-    Session session = borrowSession();
-    try {
-      // messageSignInit
-      opInit(OP.MESSAGE_SIGN, session, mechanism, keyHandle);
+  private void maintainIdleSessions(long idleTtlMs) {
+    int evicted = 0;
+    int dead = 0;
+
+    // Each session taken from the tail (least recently used) is put to the head after the validation,
+    // so that every idle session is visited once.
+    for (int i = 0; i < maxSessionCount; i++) {
+      if (!sessionPermits.tryAcquire()) {
+        // all sessions are in use
+        break;
+      }
 
       try {
-        for (int i = 0; i < entries.length; i++) {
-          SignMessageBytesEntry entry = entries[i];
-          byte[] data = entry.data();
-          int len = data.length;
-          if (len <= maxMessageSize) {
-            signatures[i] = session.signMessage(entry.params(), entry.data());
-          } else {
-            session.signMessageBegin(entry.params());
-            for (int ofs = 0; ofs < len; ofs += maxMessageSize) {
-              boolean lastBlock = (ofs + maxMessageSize >= len);
-              signatures[i] = session.signMessageNext(
-                  entry.params(), copyOfLen(data, ofs, Math.min(maxMessageSize, len - ofs)), lastBlock);
-            }
+        Session session = sessions.pollLast();
+        if (session == null) {
+          break;
+        }
+
+        session.queued.set(false);
+        if (!session.poolState.compareAndSet(SESSION_IDLE, SESSION_IN_USE)) {
+          continue;
+        }
+
+        if (idleTtlMs > 0 && clock.millis() - session.lastReturnTime > idleTtlMs
+            && countSessions.get() > minSessionCount) {
+          discardSession(session);
+          evicted++;
+          continue;
+        }
+
+        boolean valid = false;
+        try {
+          // validateSession() puts the session back to the pool if the login failed.
+          valid = validateSession(session, true);
+          if (!valid) {
+            dead++;
           }
+        } catch (Throwable th) {
+          StaticLogger.warn("error validating session in background: {}", th.getMessage());
+        }
+
+        if (valid) {
+          putIdleSession(session, true);
         }
       } finally {
-        session.messageSignFinal();
+        sessionPermits.release();
       }
-
-      return signatures;
-    } finally {
-      sessions.add(session);
     }
-  }
 
-  /**
-   * Signs the given messages using the given mechanism and key.
-   *
-   * @param mechanism The encryption mechanism
-   * @param keyHandle Handle of the signing key.
-   * @param entries   Arrays of messages in stream with additional parameters to be encrypted.
-   * @return Array of signatures. The result at index i corresponds to entries[i].
-   * @throws TokenException If signing failed.
-   * @throws IOException    if reading or writing stream failed.
-   */
-  public byte[][] signMessages(Mechanism mechanism, long keyHandle, SignMessageStreamEntry[] entries)
-      throws TokenException, IOException {
-    byte[][] signatures = new byte[entries.length][];
+    int missing = (int) (minSessionCount - countSessions.get());
+    int opened = 0;
+    if (missing > 0) {
+      try {
+        opened = openIdleSessions(missing);
+      } catch (Throwable th) {
+        StaticLogger.warn("error opening sessions in background: {}", th.getMessage());
+      }
+    }
 
-    Session session = borrowSession();
-    try {
-      // messageSignInit
-      opInit(OP.MESSAGE_SIGN, session, mechanism, keyHandle);
+    if (evicted + dead + opened > 0) {
+      StaticLogger.info("session maintenance: evicted {} idle, removed {} dead, opened {} sessions",
+          evicted, dead, opened);
+    }
+  }
 
-      try {
-        for (int i = 0; i < entries.length; i++) {
-          SignMessageStreamEntry entry = entries[i];
-          byte[] buffer = new byte[maxMessageSize];
-          int read;
+  /**
+   * Opens up to the given number of idle sessions in parallel, without exceeding the maximal session count.
+   * @return number of opened sessions.
+   */
+  private int openIdleSessions(int num) throws TokenException {
+    if (num == 1) {
+      return openIdleSession() ? 1 : 0;
+    }
 
-          InputStream data = entry.data();
-          CkParams params = entry.params();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(num, 8), r -> {
+      Thread thread = new Thread(r, "pkcs11-token-" + token.getTokenID() + "-warmup");
+      thread.setDaemon(true);
+      return thread;
+    });
 
-          try {
-            session.signMessageBegin(params);
+    try {
+      List<Future<Boolean>> futures = new ArrayList<>(num);
+      for (int i = 0; i < num; i++) {
+        futures.add(executor.submit(this::openIdleSession));
+      }
 
-            while ((read = data.read(buffer)) != -1) {
-              if (read > 0) {
-                session.signMessageNext(params, copyOfLen(buffer, read), false);
-              }
+      int opened = 0;
+      TokenException firstEx = null;
+      for (Future<Boolean> future : futures) {
+        try {
+          if (future.get()) {
+            opened++;
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new TokenException("interrupted while opening sessions", ex);
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          if (cause instanceof TokenException) {
+            if (firstEx == null) {
+              firstEx = (TokenException) cause;
             }
-
-            signatures[i] = session.signMessageNext(params, new byte[0], true);
-          } catch (PKCS11Exception e) {
-            break;
+          } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          } else {
+            throw (Error) cause;
           }
         }
-      } finally {
-        session.messageSignFinal();
       }
 
-      return signatures;
+      if (opened == 0 && firstEx != null) {
+        throw firstEx;
+      }
+      return opened;
     } finally {
-      sessions.add(session);
+      executor.shutdownNow();
     }
   }
 
-  public boolean[] verifyMessages(Mechanism mechanism, long keyHandle, VerifyMessageBytesEntry[] entries)
-      throws TokenException {
-    boolean[] verifyResults = new boolean[entries.length];
+  /**
+   * Opens a new session, logs it in if required and puts it to the idle sessions.
+   * @return true if opened, false if the maximal session count has been reached.
+   */
+  private boolean openIdleSession() throws TokenException {
+    if (!sessionPermits.tryAcquire()) {
+      return false;
+    }
 
-    Session session = borrowSession();
     try {
-      // decryptInit
-      opInit(OP.MESSAGE_VERIFY, session, mechanism, keyHandle);
+      // reserve the place of the new session
+      long count;
+      do {
+        count = countSessions.get();
+        if (count >= maxSessionCount) {
+          return false;
+        }
+      } while (!countSessions.compareAndSet(count, count + 1));
 
+      Session session;
       try {
-        for (int i = 0; i < entries.length; i++) {
-          VerifyMessageBytesEntry entry = entries[i];
-          byte[] data = entry.data();
-          int len = data.length;
-
-          try {
-            if (len <= maxMessageSize) {
-              session.verifyMessage(entry.params(), entry.data(), entry.signature());
-            } else {
-              session.verifyMessageBegin(entry.params());
-              for (int ofs = 0; ofs < len; ofs += maxMessageSize) {
-                boolean lastBlock = (ofs + maxMessageSize >= len);
-                session.verifyMessageNext(
-                    entry.params(), copyOfLen(data, ofs, Math.min(maxMessageSize, len - ofs)),
-                    lastBlock ? entry.signature() : null);
-              }
-            }
-            verifyResults[i] = true;
-          } catch (PKCS11Exception e) {
-            verifyResults[i] = false;
-          }
-        }
-      } finally {
-        session.messageVerifyFinal();
+        session = token.openSession(!readOnly);
+      } catch (PKCS11Exception ex) {
+        countSessions.decrementAndGet();
+        throw ex;
       }
 
-      return verifyResults;
+      if (validateSession(session, true)) {
+        session.lastReturnTime = clock.millis();
+        putIdleSession(session, false);
+        return true;
+      } else {
+        return false;
+      }
     } finally {
-      sessions.add(session);
+      sessionPermits.release();
+    }
+  }
+
+  private void discardSession(Session session) {
+    session.poolState.set(SESSION_CLOSED);
+    countSessions.decrementAndGet();
+    // closing the session destroys its session objects.
+    clearAttributeCache();
+    try {
+      session.closeSession();
+    } catch (Throwable th) {
+      StaticLogger.warn("error closing session {}: {}", session.getSessionHandle(), th.getMessage());
     }
   }
 
+  @FunctionalInterface
+  private interface SessionFunction<T> {
+    T apply(Session session) throws TokenException;
+  }
+
   /**
-   * Verify the signatures over given messages using the given mechanism and key.
-   *
-   * @param mechanism The signature verification mechanism
-   * @param keyHandle Handle of the verification key.
-   * @param entries   Arrays of messages in stream with additional parameters to be verified.
-   * @return Array of signature verification result. The result at index i corresponds to entries[i].
-   * @throws TokenException If verifying failed.
-   * @throws IOException    if reading or writing stream failed.
+   * Semaphore whose permits can be reduced when the session quota is lowered.
    */
-  public boolean[] verifyMessages(Mechanism mechanism, long keyHandle, VerifyMessageStreamEntry[] entries)
-      throws TokenException, IOException {
-    boolean[] verifyResults = new boolean[entries.length];
+  private static final class QuotaPermits extends Semaphore {
 
-    Session session = borrowSession();
-    try {
-      // messageVerifyInit
-      opInit(OP.MESSAGE_VERIFY, session, mechanism, keyHandle);
+    QuotaPermits(int permits) {
+      super(permits, true);
+    }
 
-      try {
-        for (int i = 0; i < entries.length; i++) {
-          VerifyMessageStreamEntry entry = entries[i];
-          byte[] buffer = new byte[maxMessageSize];
-          int read;
+    @Override
+    protected void reducePermits(int reduction) {
+      super.reducePermits(reduction);
+    }
 
-          InputStream data = entry.data();
-          CkParams params = entry.params();
+  }
 
-          try {
-            session.verifyMessageBegin(params);
+  private static class AsyncTask<T> {
 
-            while ((read = data.read(buffer)) != -1) {
-              if (read > 0) {
-                session.verifyMessageNext(params, copyOfLen(buffer, read), null);
-              }
-            }
+    private final OperationClass operationClass;
 
-            session.verifyMessageNext(params, new byte[0], entry.signature());
-            verifyResults[i] = true;
-          } catch (PKCS11Exception e) {
-            verifyResults[i] = false;
-          }
-        }
-      } finally {
-        session.messageVerifyFinal();
+    private final SessionFunction<T> function;
+
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+
+    AsyncTask(OperationClass operationClass, SessionFunction<T> function) {
+      this.operationClass = operationClass;
+      this.function = function;
+    }
+
+    void run(Session session) {
+      if (future.isDone()) {
+        // cancelled by the caller
+        return;
       }
 
-      return verifyResults;
-    } finally {
-      sessions.add(session);
+      try {
+        future.complete(function.apply(session));
+      } catch (Throwable th) {
+        future.completeExceptionally(th);
+      }
     }
-  }
 
-  /**
-   * Returns the string representation of this object.
-   *
-   * @return the string representation of this object
-   */
-  @Override
-  public String toString() {
-    return "User type: " + codeToName(Category.CKU, userType) +
-        "\nUser name: " + (userName == null ? "null" : new String(userName)) +
-        "\nMaximal session count: " + maxSessionCount +
-        "\nNew session timeout: " + timeOutWaitNewSessionMs + " ms" +
-        "\nRead only: " + readOnly +
-        "\nToken: " + token;
   }
 
   /**
-   * Gets give attributes for the given object handle.
-   * @param objectHandle the object handle.
-   * @param attributeTypes types of attributes to be read.
-   * @return attributes for the given object handle.
-   * @throws TokenException if getting attributes failed.
+   * Reads the attributes of the chunks of object handles, until all chunks are claimed.
    */
-  public AttributeVector getAttrValues(long objectHandle, long... attributeTypes) throws TokenException {
-    List<Long> typeList = new ArrayList<>(attributeTypes.length);
-    for (long attrType : attributeTypes) {
-      typeList.add(attrType);
+  private static class BulkAttributeReader {
+
+    private final long[] objectHandles;
+
+    private final long[] attributeTypes;
+
+    private final AttributeVector[] result;
+
+    private final int numChunks;
+
+    private final AtomicInteger nextChunk = new AtomicInteger();
+
+    /**
+     * Whether reading a chunk has failed, the remaining chunks are skipped once set.
+     */
+    private volatile boolean failed;
+
+    BulkAttributeReader(long[] objectHandles, long[] attributeTypes, int numChunks) {
+      this.objectHandles = objectHandles;
+      this.attributeTypes = attributeTypes;
+      this.result = new AttributeVector[objectHandles.length];
+      this.numChunks = numChunks;
     }
-    return getAttrValues(objectHandle, typeList);
-  }
 
-  /**
-   * Gets give attributes for the given object handle.
-   * @param objectHandle the object handle.
-   * @param attributeTypes types of attributes to be read.
-   * @return attributes for the given object handle.
-   * @throws TokenException if getting attributes failed.
-   */
-  public AttributeVector getAttrValues(long objectHandle, List<Long> attributeTypes) throws TokenException {
-    Session session = borrowSession();
-    try {
-      return session.getAttrValues(objectHandle, attributeTypes);
-    } finally {
-      sessions.add(session);
+    void read(Session session) throws TokenException {
+      int chunk;
+      while (!failed && (chunk = nextChunk.getAndIncrement()) < numChunks) {
+        int from = chunk * BULK_CHUNK_SIZE;
+        int to = Math.min(from + BULK_CHUNK_SIZE, objectHandles.length);
+        try {
+          session.getAttrValues(objectHandles, from, to, attributeTypes, result);
+        } catch (TokenException | RuntimeException ex) {
+          failed = true;
+          throw ex;
+        }
+      }
     }
+
   }
 
   /**
-   * Gets all attributes for the given object handle.
-   * @param objectHandle the object handle.
-   * @return all attributes for the given object handle.
-   * @throws TokenException if getting attributes failed.
+   * Borrows a session for the next queued task, and passes it to the following tasks of the same
+   * operation class until the queue is drained, or an error occurred in the session.
    */
-  public AttributeVector getDefaultAttrValues(long objectHandle) throws TokenException {
-    Session session = borrowSession();
-    try {
-      return session.getDefaultAttrValues(objectHandle);
-    } finally {
-      sessions.add(session);
-    }
-  }
+  private class AsyncWorker implements Runnable {
 
-  private Session openSession() throws PKCS11Exception {
-    Session session = token.openSession(!readOnly);
-    countSessions.incrementAndGet();
-    return session;
-  }
+    private final BlockingQueue<AsyncTask<?>> queue;
 
-  private Session borrowSession() throws TokenException {
-    return borrowSession(true);
-  }
+    AsyncWorker(BlockingQueue<AsyncTask<?>> queue) {
+      this.queue = queue;
+    }
 
-  private Session borrowNoLoginSession() throws TokenException {
-    return borrowSession(false);
-  }
+    @Override
+    public void run() {
+      // the task taken from the queue but not executed yet
+      AsyncTask<?> task = null;
+      try {
+        while (!Thread.currentThread().isInterrupted()) {
+          if (task == null) {
+            try {
+              task = queue.take();
+            } catch (InterruptedException ex) {
+              return;
+            }
+          }
+
+          Session session;
+          try {
+            session = borrowSession(task.operationClass);
+          } catch (Throwable th) {
+            task.future.completeExceptionally(th);
+            task = null;
+            continue;
+          }
 
-  private Session borrowSession(boolean login) throws TokenException {
-    long maxTimeMs = clock.millis() + timeOutWaitNewSessionMs;
-    int maxTries = maxSessionCount + 1;
-    for (int retries = 0; retries < maxTries; retries++) {
-      Session session = borrowSession(login, maxTimeMs);
-      if (session != null) {
-        if (retries != 0) {
-          StaticLogger.info("Borrowed session after " + (retries + 1) + " tries.");
+          // the quota of the session is accounted to its operation class.
+          OperationClass operationClass = task.operationClass;
+          try {
+            do {
+              task.run(session);
+              // the session will be validated before it is borrowed again.
+              task = session.errorOccurred ? null : queue.poll();
+            } while (task != null && task.operationClass == operationClass);
+          } finally {
+            requiteSession(session);
+          }
+        }
+      } finally {
+        if (task != null) {
+          task.future.completeExceptionally(new TokenException("token has been closed"));
         }
-        return session;
       }
     }
 
-    throw new TokenException("could not borrow session after " + maxTries + " tries.");
   }
 
-  private Session borrowSession(boolean login, long maxTimeMs) throws TokenException {
-    if (maxTimeMs == 0) {
-      maxTimeMs = clock.millis() + timeOutWaitNewSessionMs;
+  private class AdaptiveSizingTask implements Runnable {
+
+    private final long intervalMs;
+
+    private final long waitThresholdNanos;
+
+    private long lastBorrowTimeNanos;
+
+    private long lastCountBorrows;
+
+    private long lastCountOpenOnBorrow;
+
+    AdaptiveSizingTask(long intervalMs, long waitThresholdMs) {
+      this.intervalMs = intervalMs;
+      this.waitThresholdNanos = TimeUnit.MILLISECONDS.toNanos(waitThresholdMs);
     }
-    Session session = null;
-    synchronized (sessions) {
-      if (countSessions.get() < maxSessionCount) {
-        session = sessions.poll();
-        if (session == null) {
-          // create new session
-          sessions.add(openSession());
+
+    @Override
+    public void run() {
+      long borrowTimeNanos = PKCS11Token.this.borrowTimeNanos.sum();
+      long countBorrows = PKCS11Token.this.countBorrows.sum();
+      long countOpenOnBorrow = PKCS11Token.this.countOpenOnBorrow.sum();
+
+      long borrows = countBorrows - lastCountBorrows;
+      long opens = countOpenOnBorrow - lastCountOpenOnBorrow;
+      long avgWaitNanos = borrows == 0 ? 0 : (borrowTimeNanos - lastBorrowTimeNanos) / borrows;
+
+      lastBorrowTimeNanos = borrowTimeNanos;
+      lastCountBorrows = countBorrows;
+      lastCountOpenOnBorrow = countOpenOnBorrow;
+
+      // feedback of the token
+      boolean tokenFull = false;
+      try {
+        TokenInfo tokenInfo = token.getTokenInfo();
+        long tokenMaxSessionCount = tokenInfo.getMaxSessionCount();
+        long tokenSessionCount = tokenInfo.getSessionCount();
+        // 0: effectively infinite; negative: unavailable information.
+        if (tokenMaxSessionCount > 0 && tokenSessionCount >= 0) {
+          tokenFull = tokenSessionCount >= tokenMaxSessionCount;
         }
+      } catch (PKCS11Exception ex) {
+        StaticLogger.warn("error getTokenInfo: {}", ex.getMessage());
+      }
+
+      try {
+        if (!tokenFull && (opens > 0 || avgWaitNanos > waitThresholdNanos)) {
+          int num = (int) Math.min(Math.max(1, opens), maxSessionCount - countSessions.get());
+          if (num > 0) {
+            int opened = openIdleSessions(num);
+            StaticLogger.info("adaptive sizing: opened {} sessions, avgBorrowTime = {} us",
+                opened, avgWaitNanos / 1000);
+          }
+        } else if (opens == 0 && (tokenFull || avgWaitNanos <= waitThresholdNanos)) {
+          shrink();
+        }
+      } catch (Throwable th) {
+        StaticLogger.warn("error in adaptive sizing: {}", th.getMessage());
       }
     }
 
-    if (session == null) {
-      long timeOutMs = maxTimeMs - clock.millis();
+    private void shrink() {
+      if (countSessions.get() <= minSessionCount || !sessionPermits.tryAcquire()) {
+        return;
+      }
+
       try {
-        session = sessions.poll(Math.max(1, timeOutMs), TimeUnit.MILLISECONDS);
-      } catch (InterruptedException ex) {
+        Session session = sessions.pollLast();
+        if (session == null) {
+          return;
+        }
+
+        session.queued.set(false);
+        if (!session.poolState.compareAndSet(SESSION_IDLE, SESSION_IN_USE)) {
+          return;
+        }
+
+        if (clock.millis() - session.lastReturnTime > intervalMs) {
+          discardSession(session);
+          StaticLogger.info("adaptive sizing: closed idle session, {} sessions left", countSessions.get());
+        } else {
+          putIdleSession(session, false);
+        }
+      } finally {
+        sessionPermits.release();
       }
     }
 
-    if (session == null) {
-      throw new TokenException("no idle session");
+  }
+
+  /**
+   * Returns the executor of the helper threads of {@link #getAttrValues(long[], long...)}. The
+   * number of concurrent helpers is bounded by the borrowed sessions, idle threads terminate after
+   * one minute.
+   */
+  private synchronized ExecutorService getBulkReaders() {
+    if (bulkReaders == null) {
+      bulkReaders = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "pkcs11-token-" + token.getTokenID() + "-bulk");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return bulkReaders;
+  }
+
+  private synchronized ScheduledExecutorService getMaintainer() {
+    if (maintainer == null) {
+      maintainer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "pkcs11-token-" + token.getTokenID() + "-maintainer");
+        thread.setDaemon(true);
+        return thread;
+      });
     }
+    return maintainer;
+  }
 
+  /**
+   * Checks whether the session is still active, and logs it in if required.
+   * @return true if the session can be used, false if it has been discarded.
+   */
+  private boolean validateSession(Session session, boolean login) throws TokenException {
     boolean requiteSession = true;
 
     try {
@@ -2005,9 +4300,11 @@ public class PKCS11Token {
 
       if (!sessionActive) {
         requiteSession = false;
-        sessions.remove(session);
+        session.poolState.set(SESSION_CLOSED);
         countSessions.decrementAndGet();
-        return null;
+        // the session objects are gone, and the token may have been reset.
+        clearAttributeCache();
+        return false;
       }
 
       if (login) {
@@ -2017,7 +4314,8 @@ public class PKCS11Token {
         }
 
         if (!loggedIn) {
-          synchronized (loginSync) {
+          loginLock.lock();
+          try {
             try {
               sessionInfo = session.getSessionInfo();
               loggedIn = isSessionLoggedIn(sessionInfo);
@@ -2028,18 +4326,22 @@ public class PKCS11Token {
             if (!loggedIn) {
               login(session);
             }
+          } finally {
+            loginLock.unlock();
           }
         }
       }
 
+      session.errorOccurred = false;
       requiteSession = false;
-      return session;
+      return true;
     } finally {
       if (requiteSession) {
-        sessions.add(session);
+        // keep the session in the pool, the permit is released by the caller.
+        putIdleSession(session, true);
       }
     }
-  } // method borrowSession
+  } // method validateSession
 
   private static boolean isSessionLoggedIn(SessionInfo sessionInfo) {
     long state = sessionInfo.getState();
@@ -2047,12 +4349,40 @@ public class PKCS11Token {
         || (state == CKS_RW_USER_FUNCTIONS) || (state == CKS_RO_USER_FUNCTIONS);
   }
 
+  /**
+   * Logs in the session again, e.g. after the module reported CKR_USER_NOT_LOGGED_IN.
+   */
   private void login(Session session) throws TokenException {
-    login(session, userType, userName, pins);
+    login(session, userType, userName, pins, true);
+  }
+
+  private void login(Session session, long userType, char[] userName, List<char[]> pins, boolean relogin)
+      throws TokenException {
+    if (relogin) {
+      countRelogins.increment();
+      // the login state has been lost, the token may have been reset.
+      clearAttributeCache();
+    }
+
+    if (!PKCS11Events.isLoginEnabled()) {
+      doLogin(session, userType, userName, pins);
+      return;
+    }
+
+    Object event = PKCS11Events.beginLogin();
+    boolean success = false;
+    try {
+      doLogin(session, userType, userName, pins);
+      success = true;
+    } finally {
+      PKCS11Events.commitLogin(event, session.getSessionHandle(), codeToName(Category.CKU, userType),
+          relogin, success);
+    }
   }
 
-  private void login(Session session, long userType, char[] userName, List<char[]> pins) throws TokenException {
-    synchronized (loginSync) {
+  private void doLogin(Session session, long userType, char[] userName, List<char[]> pins) throws TokenException {
+    loginLock.lock();
+    try {
       StaticLogger.info("verify on PKCS11Module with " + (pins == null || pins.isEmpty() ? "NULL pin" : "pin"));
 
       String userText = "user ";
@@ -2102,7 +4432,69 @@ public class PKCS11Token {
           throw ex;
         }
       }
+    } finally {
+      loginLock.unlock();
+    }
+  }
+
+  /**
+   * Executes the fused init and single-part operation, and retries it after logging in the session
+   * if required.
+   */
+  private <T> T singleOp(Session session, SessionFunction<T> op) throws TokenException {
+    try {
+      return op.apply(session);
+    } catch (PKCS11Exception ex) {
+      if (ex.getErrorCode() == CKR_USER_NOT_LOGGED_IN) {
+        login(session);
+        return op.apply(session);
+      } else {
+        throw ex;
+      }
+    }
+  }
+
+  private int signHint(Session session, Mechanism mechanism, long keyHandle) {
+    if (!outputSizeHints) {
+      return 0;
+    }
+    MechanismInfo mechInfo = mechanisms.get(mechanism.getMechanismCode());
+    return OutputSizeHints.sign(mechanism, mechInfo, getKeySizeAttr(session, mechanism, keyHandle));
+  }
+
+  private int encryptHint(Session session, Mechanism mechanism, long keyHandle, int inLen) {
+    if (!outputSizeHints) {
+      return 0;
+    }
+    MechanismInfo mechInfo = mechanisms.get(mechanism.getMechanismCode());
+    return OutputSizeHints.encrypt(mechanism, mechInfo, getKeySizeAttr(session, mechanism, keyHandle), inLen);
+  }
+
+  /**
+   * Returns the attribute of the key which determines the output size, see
+   * {@link OutputSizeHints#keySizeAttribute(Mechanism)}. It is read only via the attribute cache, so
+   * that it costs at most one call per key; without attribute cache, null is returned.
+   */
+  private AttributeVector getKeySizeAttr(Session session, Mechanism mechanism, long keyHandle) {
+    long type = OutputSizeHints.keySizeAttribute(mechanism);
+    if (type == 0 || attributeCache == null) {
+      return null;
+    }
+
+    try {
+      return getAttrValues(session, keyHandle, Collections.singletonList(type));
+    } catch (TokenException ex) {
+      StaticLogger.debug("error reading attribute {} of key {}: {}", type, keyHandle, ex.getMessage());
+      return null;
+    }
+  }
+
+  private static int copyOut(byte[] result, byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    if (result.length > outLen) {
+      throw new PKCS11Exception(CKR_BUFFER_TOO_SMALL);
     }
+    System.arraycopy(result, 0, out, outOfs, result.length);
+    return result.length;
   }
 
   private void opInit(OP op, Session session, Mechanism mechanism, long keyHandle) throws TokenException {
@@ -2162,10 +4554,6 @@ public class PKCS11Token {
     return bytes.length == len ? bytes : Arrays.copyOf(bytes, len);
   }
 
-  private static byte[] copyOfLen(byte[] bytes, int offset, int len) {
-    return (offset == 0 && bytes.length == len) ? bytes : Arrays.copyOfRange(bytes, offset, offset + len);
-  }
-
   private static int readBytes(InputStream stream, byte[] buffer, int numBytes) throws IOException {
     int ofs = 0;
     int read;
@@ -0,0 +1,130 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.pkcs11.wrapper;
+
+import java.util.Map;
+
+/**
+ * Management interface of a {@link PKCS11Token}, registered via {@link PKCS11Token#registerMBean()}.
+ * It exposes the state of the session pool and allows to tune it at runtime.
+ * <p>
+ * The counters are cumulative since the creation of the token. The throughput and the average
+ * borrow time are measured over the last completed window of {@link #WINDOW_SECONDS} seconds.
+ * <p>
+ * The keys of the maps are the names of {@link PKCS11Token.OperationClass}.
+ *
+ * @author Lijun Liao (xipki)
+ */
+public interface PKCS11TokenMXBean {
+
+  int WINDOW_SECONDS = 10;
+
+  String getTokenLabel();
+
+  long getSlotId();
+
+  int getMaxSessionCount();
+
+  int getMinSessionCount();
+
+  /**
+   * Sets the minimal number of sessions and opens the missing sessions.
+   *
+   * @param minSessionCount the minimal number of sessions, between 1 and the maximal session count.
+   */
+  void setMinSessionCount(int minSessionCount);
+
+  /**
+   * Returns the number of open sessions, idle or in use.
+   *
+   * @return number of open sessions.
+   */
+  long getSessionCount();
+
+  long getIdleSessionCount();
+
+  int getBorrowedSessionCount();
+
+  /**
+   * Returns the number of threads waiting for a session. A steadily positive value indicates that
+   * the session pool is exhausted.
+   *
+   * @return estimated number of waiting threads.
+   */
+  int getSessionWaiters();
+
+  /**
+   * Returns the average time to borrow a session, including the waiting time, in the last window.
+   *
+   * @return the average time in milliseconds.
+   */
+  double getAverageBorrowWaitMillis();
+
+  /**
+   * Returns the maximal time to borrow a session since the creation of the token or the last
+   * {@link #resetMaxBorrowWait()}.
+   *
+   * @return the maximal time in milliseconds.
+   */
+  double getMaxBorrowWaitMillis();
+
+  void resetMaxBorrowWait();
+
+  long getBorrowCount();
+
+  long getOpenOnBorrowCount();
+
+  long getReloginCount();
+
+  long getDeadlineRejects();
+
+  int getAsyncQueueDepth();
+
+  /**
+   * Returns the number of completed operations per operation class.
+   *
+   * @return the number of completed operations.
+   */
+  Map<String, Long> getOperationCounts();
+
+  /**
+   * Returns the number of completed operations per second and operation class in the last window.
+   *
+   * @return the throughput in operations per second.
+   */
+  Map<String, Double> getOperationThroughput();
+
+  Map<String, Integer> getSessionQuotas();
+
+  Map<String, Integer> getSessionsInUse();
+
+  Map<String, Long> getSessionQuotaWaits();
+
+  /**
+   * Sets the maximal number of sessions used concurrently by operations of the given class.
+   *
+   * @param operationClass name of the operation class, e.g. SIGN_VERIFY.
+   * @param quota the maximal number of sessions, 0 or the maximal session count for no limitation.
+   */
+  void setSessionQuota(String operationClass, int quota);
+
+  long getAttributeCacheHits();
+
+  long getAttributeCacheMisses();
+
+  long getAttributeCacheEvictions();
+
+  int getAttributeCacheSize();
+
+  void clearAttributeCache();
+
+  int getMaxMessageSize();
+
+  void setMaxMessageSize(int maxMessageSize);
+
+  long getTimeOutWaitNewSessionMs();
+
+  void setTimeOutWaitNewSessionMs(long timeOutWaitNewSessionMs);
+
+}
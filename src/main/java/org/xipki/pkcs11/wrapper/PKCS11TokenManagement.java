@@ -0,0 +1,274 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.pkcs11.wrapper;
+
+import org.xipki.pkcs11.wrapper.PKCS11Token.OperationClass;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Implementation of {@link PKCS11TokenMXBean}, delegates to the {@link PKCS11Token}.
+ *
+ * @author Lijun Liao (xipki)
+ */
+final class PKCS11TokenManagement implements PKCS11TokenMXBean {
+
+  private static final OperationClass[] OPERATION_CLASSES = OperationClass.values();
+
+  private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(WINDOW_SECONDS);
+
+  /**
+   * Counters of the token at a given time.
+   */
+  private static final class Snapshot {
+
+    private final long nanos;
+
+    private final long borrowCount;
+
+    private final long borrowTimeNanos;
+
+    private final long[] operationCounts = new long[OPERATION_CLASSES.length];
+
+    private Snapshot(PKCS11Token token) {
+      this.nanos = System.nanoTime();
+      this.borrowCount = token.getBorrowCount();
+      this.borrowTimeNanos = token.getBorrowTimeNanos();
+      for (int i = 0; i < OPERATION_CLASSES.length; i++) {
+        operationCounts[i] = token.getOperationCount(OPERATION_CLASSES[i]);
+      }
+    }
+
+  }
+
+  private final PKCS11Token token;
+
+  private final String tokenLabel;
+
+  /**
+   * Start of the current window.
+   */
+  private Snapshot windowStart;
+
+  /**
+   * Start and end of the last completed window, null if no window has been completed.
+   */
+  private Snapshot[] lastWindow;
+
+  PKCS11TokenManagement(PKCS11Token token, String tokenLabel) {
+    this.token = Functions.requireNonNull("token", token);
+    this.tokenLabel = tokenLabel;
+    this.windowStart = new Snapshot(token);
+  }
+
+  /**
+   * Returns the start and end of the last completed window, or of the current window if no window
+   * has been completed yet.
+   */
+  private synchronized Snapshot[] window() {
+    Snapshot now = new Snapshot(token);
+    if (now.nanos - windowStart.nanos >= WINDOW_NANOS) {
+      lastWindow = new Snapshot[]{windowStart, now};
+      windowStart = now;
+    }
+    return lastWindow != null ? lastWindow : new Snapshot[]{windowStart, now};
+  }
+
+  @Override
+  public String getTokenLabel() {
+    return tokenLabel;
+  }
+
+  @Override
+  public long getSlotId() {
+    return token.getTokenId();
+  }
+
+  @Override
+  public int getMaxSessionCount() {
+    return token.getMaxSessionCount();
+  }
+
+  @Override
+  public int getMinSessionCount() {
+    return token.getMinSessionCount();
+  }
+
+  @Override
+  public void setMinSessionCount(int minSessionCount) {
+    try {
+      token.setMinSessionCount(minSessionCount);
+    } catch (TokenException ex) {
+      throw new IllegalStateException(ex.getMessage(), ex);
+    }
+  }
+
+  @Override
+  public long getSessionCount() {
+    return token.getSessionCount();
+  }
+
+  @Override
+  public long getIdleSessionCount() {
+    return Math.max(0, token.getSessionCount() - token.getBorrowedSessionCount());
+  }
+
+  @Override
+  public int getBorrowedSessionCount() {
+    return token.getBorrowedSessionCount();
+  }
+
+  @Override
+  public int getSessionWaiters() {
+    return token.getSessionWaiters();
+  }
+
+  @Override
+  public double getAverageBorrowWaitMillis() {
+    Snapshot[] window = window();
+    long borrows = window[1].borrowCount - window[0].borrowCount;
+    return borrows == 0 ? 0 : toMillis(window[1].borrowTimeNanos - window[0].borrowTimeNanos) / borrows;
+  }
+
+  @Override
+  public double getMaxBorrowWaitMillis() {
+    return toMillis(token.getMaxBorrowTimeNanos());
+  }
+
+  @Override
+  public void resetMaxBorrowWait() {
+    token.resetMaxBorrowTime();
+  }
+
+  @Override
+  public long getBorrowCount() {
+    return token.getBorrowCount();
+  }
+
+  @Override
+  public long getOpenOnBorrowCount() {
+    return token.getOpenOnBorrowCount();
+  }
+
+  @Override
+  public long getReloginCount() {
+    return token.getReloginCount();
+  }
+
+  @Override
+  public long getDeadlineRejects() {
+    return token.getDeadlineRejects();
+  }
+
+  @Override
+  public int getAsyncQueueDepth() {
+    return token.getAsyncQueueDepth();
+  }
+
+  @Override
+  public Map<String, Long> getOperationCounts() {
+    Map<String, Long> map = new LinkedHashMap<>();
+    for (OperationClass oc : OPERATION_CLASSES) {
+      map.put(oc.name(), token.getOperationCount(oc));
+    }
+    return Collections.unmodifiableMap(map);
+  }
+
+  @Override
+  public Map<String, Double> getOperationThroughput() {
+    Snapshot[] window = window();
+    double seconds = (window[1].nanos - window[0].nanos) / 1e9;
+    Map<String, Double> map = new LinkedHashMap<>();
+    for (int i = 0; i < OPERATION_CLASSES.length; i++) {
+      long ops = window[1].operationCounts[i] - window[0].operationCounts[i];
+      map.put(OPERATION_CLASSES[i].name(), seconds <= 0 ? 0.0 : ops / seconds);
+    }
+    return Collections.unmodifiableMap(map);
+  }
+
+  @Override
+  public Map<String, Integer> getSessionQuotas() {
+    Map<String, Integer> map = new LinkedHashMap<>();
+    for (OperationClass oc : OPERATION_CLASSES) {
+      map.put(oc.name(), token.getSessionQuota(oc));
+    }
+    return Collections.unmodifiableMap(map);
+  }
+
+  @Override
+  public Map<String, Integer> getSessionsInUse() {
+    Map<String, Integer> map = new LinkedHashMap<>();
+    for (OperationClass oc : OPERATION_CLASSES) {
+      map.put(oc.name(), token.getSessionsInUse(oc));
+    }
+    return Collections.unmodifiableMap(map);
+  }
+
+  @Override
+  public Map<String, Long> getSessionQuotaWaits() {
+    Map<String, Long> map = new LinkedHashMap<>();
+    for (OperationClass oc : OPERATION_CLASSES) {
+      map.put(oc.name(), token.getSessionQuotaWaits(oc));
+    }
+    return Collections.unmodifiableMap(map);
+  }
+
+  @Override
+  public void setSessionQuota(String operationClass, int quota) {
+    token.setSessionQuota(OperationClass.valueOf(operationClass.trim().toUpperCase()), quota);
+  }
+
+  @Override
+  public long getAttributeCacheHits() {
+    return token.getAttributeCacheHits();
+  }
+
+  @Override
+  public long getAttributeCacheMisses() {
+    return token.getAttributeCacheMisses();
+  }
+
+  @Override
+  public long getAttributeCacheEvictions() {
+    return token.getAttributeCacheEvictions();
+  }
+
+  @Override
+  public int getAttributeCacheSize() {
+    return token.getAttributeCacheSize();
+  }
+
+  @Override
+  public void clearAttributeCache() {
+    token.clearAttributeCache();
+  }
+
+  @Override
+  public int getMaxMessageSize() {
+    return token.getMaxMessageSize();
+  }
+
+  @Override
+  public void setMaxMessageSize(int maxMessageSize) {
+    token.setMaxMessageSize(maxMessageSize);
+  }
+
+  @Override
+  public long getTimeOutWaitNewSessionMs() {
+    return token.getTimeOutWaitNewSession();
+  }
+
+  @Override
+  public void setTimeOutWaitNewSessionMs(long timeOutWaitNewSessionMs) {
+    token.setTimeOutWaitNewSession((int) Math.min(Integer.MAX_VALUE, timeOutWaitNewSessionMs));
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / 1e6;
+  }
+
+}
@@ -10,6 +10,7 @@ import iaik.pkcs.pkcs11.wrapper.*;
 import org.xipki.pkcs11.wrapper.attrs.*;
 import org.xipki.pkcs11.wrapper.params.*;
 
+import java.nio.ByteBuffer;
 import java.security.PublicKey;
 import java.security.interfaces.ECPublicKey;
 import java.security.spec.ECPoint;
@@ -17,6 +18,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.xipki.pkcs11.wrapper.PKCS11Constants.*;
 
@@ -115,6 +119,55 @@ public class Session {
 
   private ExtraParams signVerifyExtraParams;
 
+  /**
+   * The JFR event of the running PKCS#11 call, null if no call is running or the event is disabled.
+   */
+  private Object callEvent;
+
+  /**
+   * Time (in milliseconds since epoch) at which this session was returned to the session pool of
+   * {@link PKCS11Token} the last time.
+   */
+  long lastReturnTime;
+
+  /**
+   * True if a PKCS#11 function called in this session failed since the last validation of this
+   * session in {@link PKCS11Token}.
+   */
+  boolean errorOccurred;
+
+  /**
+   * State of this session in the session pool of {@link PKCS11Token}.
+   */
+  final AtomicInteger poolState = new AtomicInteger();
+
+  /**
+   * True if this session is contained in the queue of idle sessions of {@link PKCS11Token}.
+   */
+  final AtomicBoolean queued = new AtomicBoolean();
+
+  /**
+   * The permits of the virtual thread mode of {@link PKCS11Token}, one of which is held by the
+   * virtual thread that has borrowed this session. null if not borrowed by a virtual thread.
+   */
+  Semaphore carrierPermits;
+
+  /**
+   * The session quota permits of {@link PKCS11Token}, one of which is held by the operation that
+   * has borrowed this session. null if the operation class is not limited.
+   */
+  Semaphore quotaPermits;
+
+  /**
+   * The class of the operation that has borrowed this session from {@link PKCS11Token}.
+   */
+  PKCS11Token.OperationClass operationClass;
+
+  /**
+   * Time (as returned by System.nanoTime()) at which this session was borrowed from {@link PKCS11Token}.
+   */
+  long borrowNanos;
+
   /**
    * Constructor taking the token and the session handle.
    *
@@ -146,7 +199,9 @@ public class Session {
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -165,7 +220,9 @@ public class Session {
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -182,7 +239,9 @@ public class Session {
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -202,10 +261,17 @@ public class Session {
    * @throws PKCS11Exception If getting the information failed.
    */
   public SessionInfo getSessionInfo() throws PKCS11Exception {
+    final String method = "C_GetSessionInfo";
+    debugIn(method);
     try {
-    return new SessionInfo(pkcs11.C_GetSessionInfo(sessionHandle));
+      SessionInfo info = new SessionInfo(pkcs11.C_GetSessionInfo(sessionHandle));
+      debugOut(method);
+      return info;
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
-      throw module.convertException(e);
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -223,7 +289,9 @@ public class Session {
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -253,10 +321,18 @@ public class Session {
    * @throws PKCS11Exception If saving the state fails or is not possible.
    */
   public byte[] getOperationState() throws PKCS11Exception {
+    final String method = "C_GetOperationState";
+    debugIn(method);
     try {
-      return pkcs11.C_GetOperationState(sessionHandle);
+      byte[] state = pkcs11.C_GetOperationState(sessionHandle);
+      callBytesOut(len(state));
+      debugOut(method, "rv.length={}", len(state));
+      return state;
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
-      throw module.convertException(e);
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -276,10 +352,17 @@ public class Session {
    */
   public void setOperationState(byte[] operationState, long encryptionKeyHandle, long authenticationKeyHandle)
       throws PKCS11Exception {
+    final String method = "C_SetOperationState";
+    debugIn(method, "encryptionKeyHandle={}, authenticationKeyHandle={}", encryptionKeyHandle, authenticationKeyHandle);
+    callArguments(null, 0, len(operationState));
     try {
       pkcs11.C_SetOperationState(sessionHandle, operationState, encryptionKeyHandle, authenticationKeyHandle);
+      debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
-      throw module.convertException(e);
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -309,13 +392,17 @@ public class Session {
     final String method = "C_Login";
     if (StaticLogger.isDebugEnabled()) {
       debugIn(method, "userType={}", codeToName(Category.CKU, userType));
+    } else {
+      beginCallEvent(method);
     }
     try {
       pkcs11.C_Login(sessionHandle, userType, pin, useUtf8);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -334,13 +421,17 @@ public class Session {
     if (StaticLogger.isDebugEnabled()) {
       debugIn(method, "userType={}, username={}", codeToName(Category.CKU, userType),
           (username == null) ? null : new String(username));
+    } else {
+      beginCallEvent(method);
     }
     try {
       pkcs11.C_LoginUser(sessionHandle, userType, pin, username, useUtf8);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -357,7 +448,9 @@ public class Session {
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -397,6 +490,8 @@ public class Session {
             CKA_PRIVATE_EXPONENT, CKA_PRIME_1, CKA_PRIME_2, CKA_EXPONENT_1, CKA_EXPONENT_2, CKA_COEFFICIENT); // RSA
       }
       debugIn(method, "template={}", template);
+    } else {
+      beginCallEvent(method);
     }
     try {
       long hObject = pkcs11.C_CreateObject(sessionHandle, toOutCKAttributes(template), useUtf8);
@@ -405,7 +500,33 @@ public class Session {
       return hObject;
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
+    }
+  }
+
+  /**
+   * Create a new object on the token (or in the session) from the frozen template.
+   *
+   * @param template The frozen template of the object to create.
+   * @return The newly created object.
+   * @throws PKCS11Exception If the creation of the new object fails.
+   * @see #createObject(AttributeVector)
+   */
+  public long createObject(FrozenTemplate template) throws PKCS11Exception {
+    final String method = "C_CreateObject";
+    debugIn(method, "template={}", template);
+    try {
+      long hObject = pkcs11.C_CreateObject(sessionHandle, toOutCKAttributes(template, false), useUtf8);
+      debugOut(method, "hObject={}", hObject);
+      traceObject("created object", hObject);
+      return hObject;
+    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -487,7 +608,9 @@ public class Session {
       return hObject;
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -514,7 +637,9 @@ public class Session {
       traceObject("object (after settingAttributeValues)", objectToUpdateHandle);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -534,7 +659,9 @@ public class Session {
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -547,10 +674,17 @@ public class Session {
    * @throws PKCS11Exception If determining the size fails.
    */
   public long getObjectSize(long objectHandle) throws PKCS11Exception {
+    final String method = "C_GetObjectSize";
+    debugIn(method, "objectHandle={}", objectHandle);
     try {
-      return pkcs11.C_GetObjectSize(sessionHandle, objectHandle);
+      long size = pkcs11.C_GetObjectSize(sessionHandle, objectHandle);
+      debugOut(method, "size={}", size);
+      return size;
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
-      throw module.convertException(e);
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -572,7 +706,31 @@ public class Session {
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
+    }
+  }
+
+  /**
+   * Initializes a find operation with the frozen template.
+   *
+   * @param template The frozen template for searching. If this object is null, the find operation
+   *                 will find all objects that this session can see.
+   * @throws PKCS11Exception If initializing the find operation fails.
+   * @see #findObjectsInit(AttributeVector)
+   */
+  public void findObjectsInit(FrozenTemplate template) throws PKCS11Exception {
+    final String method = "C_FindObjectsInit";
+    debugIn(method, "template={}", template);
+    try {
+      pkcs11.C_FindObjectsInit(sessionHandle, toOutCKAttributes(template, true), useUtf8);
+      debugOut(method);
+    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -623,11 +781,15 @@ public class Session {
       long[] hObjects = pkcs11.C_FindObjects(sessionHandle, maxObjectCount);
       if (StaticLogger.isDebugEnabled()) {
         debugOut(method, "hObjects={}", Arrays.toString(hObjects));
+      } else {
+        commitCallEvent(null);
       }
       return hObjects;
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -645,7 +807,9 @@ public class Session {
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -662,6 +826,19 @@ public class Session {
     }
   }
 
+  public long[] findAllObjectsSingle(FrozenTemplate template) throws PKCS11Exception {
+    return findObjectsSingle(template, Integer.MAX_VALUE);
+  }
+
+  public long[] findObjectsSingle(FrozenTemplate template, int maxObjectCount) throws PKCS11Exception {
+    findObjectsInit(template);
+    try {
+      return findObjects(maxObjectCount);
+    } finally {
+      findObjectsFinal();
+    }
+  }
+
   /**
    * Initializes a new encryption operation. The application must call this method before calling
    * any other encrypt* operation. Before initializing a new operation, any currently pending
@@ -677,14 +854,17 @@ public class Session {
    */
   public void encryptInit(Mechanism mechanism, long keyHandle) throws PKCS11Exception {
     final String method = "C_EncryptInit";
-    mechanism.setModule(module);
+    mechanism = mechanism.bindTo(module);
     debugIn(method, "keyHandle={}, mechanism={}", keyHandle, mechanism);
+    callArguments(mechanism, keyHandle, 0);
     try {
       pkcs11.C_EncryptInit(sessionHandle, mechanism.toCkMechanism(), keyHandle, useUtf8);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -701,17 +881,73 @@ public class Session {
   public byte[] encrypt(byte[] plaintext) throws PKCS11Exception {
     final String method = "C_Encrypt";
     debugIn(method, "plaintext.length={}", len(plaintext));
+    callArguments(null, 0, len(plaintext));
     try {
       return toNonNull(method, pkcs11.C_Encrypt(sessionHandle, plaintext));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
+  /**
+   * Encrypts the given plaintext and writes the ciphertext to the given buffer, see {@link #encrypt(byte[])}.
+   *
+   * @param in     buffer containing the plaintext
+   * @param inOfs  buffer offset of the plaintext
+   * @param inLen  length of the plaintext
+   * @param out    buffer for the ciphertext
+   * @param outOfs buffer offset for the ciphertext
+   * @param outLen buffer size for the ciphertext
+   * @return the length of the ciphertext
+   * @throws PKCS11Exception If the operation failed, or CKR_BUFFER_TOO_SMALL if the ciphertext does not fit
+   *         into the buffer. In the latter case, the ciphertext is lost.
+   */
+  public int encrypt(byte[] in, int inOfs, int inLen, byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    return copyOut(encrypt(PKCS11UTIL.subArray(in, inOfs, inLen)), out, outOfs, outLen);
+  }
+
+  /**
+   * Initializes the encryption operation and encrypts the given data in one call.
+   *
+   * @param mechanism The mechanism to use.
+   * @param keyHandle The encryption key to use.
+   * @param plaintext the to-be-encrypted data
+   * @return the encrypted data. Never returns {@code null}.
+   * @throws PKCS11Exception If encrypting failed.
+   */
   public byte[] encryptSingle(Mechanism mechanism, long keyHandle, byte[] plaintext) throws PKCS11Exception {
-    encryptInit(mechanism, keyHandle);
-    return encrypt(plaintext);
+    return encryptSingle(mechanism, keyHandle, plaintext, 0);
+  }
+
+  /**
+   * Same as {@link #encryptSingle(Mechanism, long, byte[])}, with a hint of the expected size of the
+   * ciphertext which allows the module to allocate the output buffer in one call.
+   *
+   * @param mechanism The mechanism to use.
+   * @param keyHandle The key to use.
+   * @param plaintext the input data.
+   * @param outLenHint the expected (maximal) size of the ciphertext, 0 if unknown.
+   * @return the ciphertext. Never returns {@code null}.
+   * @throws PKCS11Exception If the operation failed.
+   */
+  public byte[] encryptSingle(Mechanism mechanism, long keyHandle, byte[] plaintext, int outLenHint)
+      throws PKCS11Exception {
+    final String method = "C_EncryptSingle";
+    mechanism = mechanism.bindTo(module);
+    debugIn(method, "keyHandle={}, mechanism={}, plaintext.length={}", keyHandle, mechanism, len(plaintext));
+    callArguments(mechanism, keyHandle, len(plaintext));
+    try {
+      return toNonNull(method,
+          pkcs11.C_EncryptSingle(sessionHandle, mechanism.toCkMechanism(), keyHandle, plaintext, outLenHint, useUtf8));
+    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
+    }
   }
 
   /**
@@ -725,16 +961,70 @@ public class Session {
    * @throws PKCS11Exception If encrypting the data failed.
    */
   public byte[] encryptUpdate(byte[] plaintextPat) throws PKCS11Exception {
+    return encryptUpdate(plaintextPat, 0, len(plaintextPat));
+  }
+
+  /**
+   * Encrypts a piece of data, see {@link #encryptUpdate(byte[])}.
+   *
+   * @param in    buffer containing the plaintextPat
+   * @param inOfs buffer offset of the plaintextPat
+   * @param inLen length of the plaintextPat
+   * @return the encrypted data for this update. Never returns {@code null}.
+   * @throws PKCS11Exception If the operation failed.
+   */
+  public byte[] encryptUpdate(byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    final String method = "C_EncryptUpdate";
+    debugIn(method, "inLen={}", inLen);
+    callArguments(null, 0, inLen);
+    try {
+      return toNonNull(method, pkcs11.C_EncryptUpdate(sessionHandle, in, inOfs, inLen));
+    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
+    }
+  }
+
+  /**
+   * Encrypts a piece of data, see {@link #encryptUpdate(byte[])}. The remaining bytes of the buffer are consumed.
+   *
+   * @param in buffer (heap or direct) containing the plaintextPat
+   * @return the encrypted data for this update. Never returns {@code null}.
+   * @throws PKCS11Exception If the operation failed.
+   */
+  public byte[] encryptUpdate(ByteBuffer in) throws PKCS11Exception {
     final String method = "C_EncryptUpdate";
-    debugIn(method, "plaintextPat.length={}", len(plaintextPat));
+    debugIn(method, "in.remaining={}", in.remaining());
+    callArguments(null, 0, in.remaining());
     try {
-      return toNonNull(method, pkcs11.C_EncryptUpdate(sessionHandle, plaintextPat));
+      return toNonNull(method, pkcs11.C_EncryptUpdate(sessionHandle, in));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
+  /**
+   * Encrypts a piece of data and writes the ciphertext part to the given buffer, see {@link #encryptUpdate(byte[])}.
+   *
+   * @param in     buffer containing the plaintext part
+   * @param inOfs  buffer offset of the plaintext part
+   * @param inLen  length of the plaintext part
+   * @param out    buffer for the ciphertext part
+   * @param outOfs buffer offset for the ciphertext part
+   * @param outLen buffer size for the ciphertext part
+   * @return the length of the ciphertext part
+   * @throws PKCS11Exception If the operation failed, or CKR_BUFFER_TOO_SMALL if the ciphertext part does not fit
+   *         into the buffer. In the latter case, the ciphertext part is lost.
+   */
+  public int encryptUpdate(byte[] in, int inOfs, int inLen, byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    return copyOut(encryptUpdate(in, inOfs, inLen), out, outOfs, outLen);
+  }
+
   /**
    * This method finalizes an encryption operation and returns the final result. Use this method, if
    * you fed in the data using encryptUpdate. If you used the encrypt(byte[]) method, you need not
@@ -750,10 +1040,27 @@ public class Session {
       return toNonNull(method, pkcs11.C_EncryptFinal(sessionHandle));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
+  /**
+   * Finalizes the encryption operation and writes the last ciphertext part to the given buffer,
+   * see {@link #encryptFinal()}.
+   *
+   * @param out    buffer for the last ciphertext part
+   * @param outOfs buffer offset for the last ciphertext part
+   * @param outLen buffer size for the last ciphertext part
+   * @return the length of the last ciphertext part
+   * @throws PKCS11Exception If the operation failed, or CKR_BUFFER_TOO_SMALL if the last ciphertext part does not fit
+   *         into the buffer. In the latter case, the last ciphertext part is lost.
+   */
+  public int encryptFinal(byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    return copyOut(encryptFinal(), out, outOfs, outLen);
+  }
+
   /**
    * Initializes a new message encryption operation. The application must call this method before calling
    * any other encryptMessage* operation. Before initializing a new operation, any currently pending
@@ -769,14 +1076,17 @@ public class Session {
    */
   public void messageEncryptInit(Mechanism mechanism, long keyHandle) throws PKCS11Exception {
     final String method = "C_MessageEncryptInit";
-    mechanism.setModule(module);
+    mechanism = mechanism.bindTo(module);
     debugIn(method, "keyHandle={}, mechanism={}", keyHandle, mechanism);
+    callArguments(mechanism, keyHandle, 0);
     try {
       pkcs11.C_MessageEncryptInit(sessionHandle, mechanism.toCkMechanism(), keyHandle, useUtf8);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -796,6 +1106,7 @@ public class Session {
     setModule(params);
     Object paramObject = toCkParameters(params);
     debugIn(method, "associatedData.length={}, plaintext.length={}", len(associatedData), len(plaintext));
+    callArguments(null, 0, len(associatedData) + len(plaintext));
     try {
       byte[] rv = pkcs11.C_EncryptMessage(sessionHandle, paramObject, associatedData, plaintext, useUtf8);
 
@@ -806,7 +1117,9 @@ public class Session {
       return toNonNull(method, rv);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -822,12 +1135,15 @@ public class Session {
     final String method = "C_EncryptMessageBegin";
     setModule(params);
     debugIn(method, "associatedData.length={}, params={}", len(associatedData), params);
+    callArguments(null, 0, len(associatedData));
     try {
       pkcs11.C_EncryptMessageBegin(sessionHandle, toCkParameters(params), associatedData, useUtf8);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -844,20 +1160,70 @@ public class Session {
    */
   public byte[] encryptMessageNext(CkParams params, byte[] plaintext, boolean isLastOperation)
       throws PKCS11Exception {
-    setModule(params);
-    Object paramObject = toCkParameters(params);
-    if (params instanceof CkMessageParams) {
-      ((CkMessageParams) params).setValuesFromPKCS11Object(paramObject);
+    return encryptMessageNext(params, plaintext, 0, len(plaintext), isLastOperation);
+  }
+
+  /**
+   * Encrypts one part of a multipart encryption operation, see {@link #encryptMessageNext(CkParams, byte[], boolean)}.
+   *
+   * @param params          The parameter object
+   * @param in              buffer containing the plaintext part
+   * @param inOfs           buffer offset of the plaintext part
+   * @param inLen           length of the plaintext part
+   * @param isLastOperation If this is the last part of the multipart message encryption, this should be true
+   * @return The encrypted message part. Never returns {@code null}.
+   * @throws PKCS11Exception in case of error.
+   */
+  public byte[] encryptMessageNext(CkParams params, byte[] in, int inOfs, int inLen, boolean isLastOperation)
+      throws PKCS11Exception {
+    Object paramObject = encryptMessageNextParams(params);
+    final String method = "C_EncryptMessageNext";
+    debugIn(method, "inLen={}, isLastOperation={}, params={}", inLen, isLastOperation, params);
+    callArguments(null, 0, inLen);
+    try {
+      return toNonNull(method, pkcs11.C_EncryptMessageNext(sessionHandle, paramObject, in, inOfs, inLen,
+          isLastOperation ? CKF_END_OF_MESSAGE : 0, useUtf8));
+    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
+  }
+
+  /**
+   * Encrypts one part of a multipart encryption operation, see {@link #encryptMessageNext(CkParams, byte[], boolean)}.
+   * The remaining bytes of the buffer are consumed.
+   *
+   * @param params          The parameter object
+   * @param in              buffer (heap or direct) containing the plaintext part
+   * @param isLastOperation If this is the last part of the multipart message encryption, this should be true
+   * @return The encrypted message part. Never returns {@code null}.
+   * @throws PKCS11Exception in case of error.
+   */
+  public byte[] encryptMessageNext(CkParams params, ByteBuffer in, boolean isLastOperation) throws PKCS11Exception {
+    Object paramObject = encryptMessageNextParams(params);
     final String method = "C_EncryptMessageNext";
-    debugIn(method, "plaintext.length={}, isLastOperation={}, params={}", len(plaintext), isLastOperation, params);
+    debugIn(method, "in.remaining={}, isLastOperation={}, params={}", in.remaining(), isLastOperation, params);
+    callArguments(null, 0, in.remaining());
     try {
-      return toNonNull(method, pkcs11.C_EncryptMessageNext(sessionHandle, paramObject, plaintext,
+      return toNonNull(method, pkcs11.C_EncryptMessageNext(sessionHandle, paramObject, in,
           isLastOperation ? CKF_END_OF_MESSAGE : 0, useUtf8));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
+    }
+  }
+
+  private Object encryptMessageNextParams(CkParams params) {
+    setModule(params);
+    Object paramObject = toCkParameters(params);
+    if (params instanceof CkMessageParams) {
+      ((CkMessageParams) params).setValuesFromPKCS11Object(paramObject);
     }
+    return paramObject;
   }
 
   /**
@@ -873,7 +1239,9 @@ public class Session {
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -892,14 +1260,17 @@ public class Session {
    */
   public void decryptInit(Mechanism mechanism, long keyHandle) throws PKCS11Exception {
     final String method = "C_DecryptInit";
-    mechanism.setModule(module);
+    mechanism = mechanism.bindTo(module);
     debugIn(method, "keyHandle={}, mechanism={}", keyHandle, mechanism);
+    callArguments(mechanism, keyHandle, 0);
     try {
       pkcs11.C_DecryptInit(sessionHandle, mechanism.toCkMechanism(), keyHandle, useUtf8);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -916,17 +1287,73 @@ public class Session {
   public byte[] decrypt(byte[] ciphertext) throws PKCS11Exception {
     final String method = "C_Decrypt";
     debugIn(method, "ciphertext.length={}", len(ciphertext));
+    callArguments(null, 0, len(ciphertext));
     try {
       return toNonNull(method, pkcs11.C_Decrypt(sessionHandle, ciphertext));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
+  /**
+   * Decrypts the given ciphertext and writes the plaintext to the given buffer, see {@link #decrypt(byte[])}.
+   *
+   * @param in     buffer containing the ciphertext
+   * @param inOfs  buffer offset of the ciphertext
+   * @param inLen  length of the ciphertext
+   * @param out    buffer for the plaintext
+   * @param outOfs buffer offset for the plaintext
+   * @param outLen buffer size for the plaintext
+   * @return the length of the plaintext
+   * @throws PKCS11Exception If the operation failed, or CKR_BUFFER_TOO_SMALL if the plaintext does not fit
+   *         into the buffer. In the latter case, the plaintext is lost.
+   */
+  public int decrypt(byte[] in, int inOfs, int inLen, byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    return copyOut(decrypt(PKCS11UTIL.subArray(in, inOfs, inLen)), out, outOfs, outLen);
+  }
+
+  /**
+   * Initializes the decryption operation and decrypts the given data in one call.
+   *
+   * @param mechanism  The mechanism to use.
+   * @param keyHandle  The decryption key to use.
+   * @param ciphertext the to-be-decrypted data
+   * @return the decrypted data. Never returns {@code null}.
+   * @throws PKCS11Exception If decrypting failed.
+   */
   public byte[] decryptSingle(Mechanism mechanism, long keyHandle, byte[] ciphertext) throws PKCS11Exception {
-    decryptInit(mechanism, keyHandle);
-    return decrypt(ciphertext);
+    return decryptSingle(mechanism, keyHandle, ciphertext, 0);
+  }
+
+  /**
+   * Same as {@link #decryptSingle(Mechanism, long, byte[])}, with a hint of the expected size of the
+   * plaintext which allows the module to allocate the output buffer in one call.
+   *
+   * @param mechanism The mechanism to use.
+   * @param keyHandle The key to use.
+   * @param ciphertext the input data.
+   * @param outLenHint the expected (maximal) size of the plaintext, 0 if unknown.
+   * @return the plaintext. Never returns {@code null}.
+   * @throws PKCS11Exception If the operation failed.
+   */
+  public byte[] decryptSingle(Mechanism mechanism, long keyHandle, byte[] ciphertext, int outLenHint)
+      throws PKCS11Exception {
+    final String method = "C_DecryptSingle";
+    mechanism = mechanism.bindTo(module);
+    debugIn(method, "keyHandle={}, mechanism={}, ciphertext.length={}", keyHandle, mechanism, len(ciphertext));
+    callArguments(mechanism, keyHandle, len(ciphertext));
+    try {
+      return toNonNull(method,
+          pkcs11.C_DecryptSingle(sessionHandle, mechanism.toCkMechanism(), keyHandle, ciphertext, outLenHint, useUtf8));
+    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
+    }
   }
 
   /**
@@ -940,16 +1367,70 @@ public class Session {
    * @throws PKCS11Exception If decrypting the data failed.
    */
   public byte[] decryptUpdate(byte[] ciphertextPart) throws PKCS11Exception {
+    return decryptUpdate(ciphertextPart, 0, len(ciphertextPart));
+  }
+
+  /**
+   * Decrypts a piece of data, see {@link #decryptUpdate(byte[])}.
+   *
+   * @param in    buffer containing the ciphertextPart
+   * @param inOfs buffer offset of the ciphertextPart
+   * @param inLen length of the ciphertextPart
+   * @return the decrypted data for this update. Never returns {@code null}.
+   * @throws PKCS11Exception If the operation failed.
+   */
+  public byte[] decryptUpdate(byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    final String method = "C_DecryptUpdate";
+    debugIn(method, "inLen={}", inLen);
+    callArguments(null, 0, inLen);
+    try {
+      return toNonNull(method, pkcs11.C_DecryptUpdate(sessionHandle, in, inOfs, inLen));
+    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
+    }
+  }
+
+  /**
+   * Decrypts a piece of data, see {@link #decryptUpdate(byte[])}. The remaining bytes of the buffer are consumed.
+   *
+   * @param in buffer (heap or direct) containing the ciphertextPart
+   * @return the decrypted data for this update. Never returns {@code null}.
+   * @throws PKCS11Exception If the operation failed.
+   */
+  public byte[] decryptUpdate(ByteBuffer in) throws PKCS11Exception {
     final String method = "C_DecryptUpdate";
-    debugIn(method, "ciphertextPart.length={}", len(ciphertextPart));
+    debugIn(method, "in.remaining={}", in.remaining());
+    callArguments(null, 0, in.remaining());
     try {
-      return toNonNull(method, pkcs11.C_DecryptUpdate(sessionHandle, ciphertextPart));
+      return toNonNull(method, pkcs11.C_DecryptUpdate(sessionHandle, in));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
+  /**
+   * Decrypts a piece of data and writes the plaintext part to the given buffer, see {@link #decryptUpdate(byte[])}.
+   *
+   * @param in     buffer containing the ciphertext part
+   * @param inOfs  buffer offset of the ciphertext part
+   * @param inLen  length of the ciphertext part
+   * @param out    buffer for the plaintext part
+   * @param outOfs buffer offset for the plaintext part
+   * @param outLen buffer size for the plaintext part
+   * @return the length of the plaintext part
+   * @throws PKCS11Exception If the operation failed, or CKR_BUFFER_TOO_SMALL if the plaintext part does not fit
+   *         into the buffer. In the latter case, the plaintext part is lost.
+   */
+  public int decryptUpdate(byte[] in, int inOfs, int inLen, byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    return copyOut(decryptUpdate(in, inOfs, inLen), out, outOfs, outLen);
+  }
+
   /**
    * This method finalizes a decryption operation and returns the final result. Use this method, if
    * you fed in the data using decryptUpdate. If you used the decrypt(byte[]) method, you need not
@@ -965,10 +1446,27 @@ public class Session {
       return toNonNull(method, pkcs11.C_DecryptFinal(sessionHandle));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
+  /**
+   * Finalizes the decryption operation and writes the last plaintext part to the given buffer,
+   * see {@link #decryptFinal()}.
+   *
+   * @param out    buffer for the last plaintext part
+   * @param outOfs buffer offset for the last plaintext part
+   * @param outLen buffer size for the last plaintext part
+   * @return the length of the last plaintext part
+   * @throws PKCS11Exception If the operation failed, or CKR_BUFFER_TOO_SMALL if the last plaintext part does not fit
+   *         into the buffer. In the latter case, the last plaintext part is lost.
+   */
+  public int decryptFinal(byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    return copyOut(decryptFinal(), out, outOfs, outLen);
+  }
+
   /**
    * Initializes a new message decryption operation. The application must call this method before calling
    * any other decryptMessage* operation. Before initializing a new operation, any currently pending
@@ -984,14 +1482,17 @@ public class Session {
    */
   public void messageDecryptInit(Mechanism mechanism, long keyHandle) throws PKCS11Exception {
     final String method = "C_MessageDecryptInit";
-    mechanism.setModule(module);
+    mechanism = mechanism.bindTo(module);
     debugIn(method, "keyHandle={}, mechanism={}", keyHandle, mechanism);
+    callArguments(mechanism, keyHandle, 0);
     try {
       pkcs11.C_MessageDecryptInit(sessionHandle, mechanism.toCkMechanism(), keyHandle, useUtf8);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1011,12 +1512,15 @@ public class Session {
     setModule(params);
     debugIn(method, "associatedData.length={}, ciphertext.length={}, params={}",
         len(associatedData), len(ciphertext), params);
+    callArguments(null, 0, len(associatedData) + len(ciphertext));
     try {
       return toNonNull(method, pkcs11.C_DecryptMessage(sessionHandle, toCkParameters(params),
           associatedData, ciphertext, useUtf8));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1031,12 +1535,15 @@ public class Session {
     final String method = "C_DecryptMessageBegin";
     setModule(params);
     debugIn(method, "associatedData.length={}, params={}", len(associatedData), params);
+    callArguments(null, 0, len(associatedData));
     try {
       pkcs11.C_DecryptMessageBegin(sessionHandle, toCkParameters(params), associatedData, useUtf8);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1053,16 +1560,60 @@ public class Session {
    */
   public byte[] decryptMessageNext(CkParams params, byte[] ciphertext, boolean isLastOperation)
       throws PKCS11Exception {
+    return decryptMessageNext(params, ciphertext, 0, len(ciphertext), isLastOperation);
+  }
+
+  /**
+   * Decrypts one part of a multipart decryption operation, see {@link #decryptMessageNext(CkParams, byte[], boolean)}.
+   *
+   * @param params          The parameter object
+   * @param in              buffer containing the ciphertext part
+   * @param inOfs           buffer offset of the ciphertext part
+   * @param inLen           length of the ciphertext part
+   * @param isLastOperation If this is the last part of the multipart message encryption, this should be true
+   * @return the decrypted message part. Never returns {@code null}.
+   * @throws PKCS11Exception in case of error.
+   */
+  public byte[] decryptMessageNext(CkParams params, byte[] in, int inOfs, int inLen, boolean isLastOperation)
+      throws PKCS11Exception {
     final String method = "C_DecryptMessageNext";
     setModule(params);
-    debugIn(method, "ciphertext.length={}, isLastOperation={}, params={}",
-        len(ciphertext), isLastOperation, params);
+    debugIn(method, "inLen={}, isLastOperation={}, params={}", inLen, isLastOperation, params);
+    callArguments(null, 0, inLen);
     try {
       return toNonNull(method, pkcs11.C_DecryptMessageNext(sessionHandle, toCkParameters(params),
-          ciphertext, isLastOperation ? CKF_END_OF_MESSAGE : 0, useUtf8));
+          in, inOfs, inLen, isLastOperation ? CKF_END_OF_MESSAGE : 0, useUtf8));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
+    }
+  }
+
+  /**
+   * Decrypts one part of a multipart decryption operation, see {@link #decryptMessageNext(CkParams, byte[], boolean)}.
+   * The remaining bytes of the buffer are consumed.
+   *
+   * @param params          The parameter object
+   * @param in              buffer (heap or direct) containing the ciphertext part
+   * @param isLastOperation If this is the last part of the multipart message encryption, this should be true
+   * @return the decrypted message part. Never returns {@code null}.
+   * @throws PKCS11Exception in case of error.
+   */
+  public byte[] decryptMessageNext(CkParams params, ByteBuffer in, boolean isLastOperation) throws PKCS11Exception {
+    final String method = "C_DecryptMessageNext";
+    setModule(params);
+    debugIn(method, "in.remaining={}, isLastOperation={}, params={}", in.remaining(), isLastOperation, params);
+    callArguments(null, 0, in.remaining());
+    try {
+      return toNonNull(method, pkcs11.C_DecryptMessageNext(sessionHandle, toCkParameters(params),
+          in, isLastOperation ? CKF_END_OF_MESSAGE : 0, useUtf8));
+    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1079,7 +1630,9 @@ public class Session {
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1096,14 +1649,17 @@ public class Session {
    */
   public void digestInit(Mechanism mechanism) throws PKCS11Exception {
     final String method = "C_DigestInit";
-    mechanism.setModule(module);
+    mechanism = mechanism.bindTo(module);
     debugIn(method, "mechanism={}", mechanism);
+    callArguments(mechanism, 0, 0);
     try {
       pkcs11.C_DigestInit(sessionHandle, mechanism.toCkMechanism(), useUtf8);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1119,17 +1675,38 @@ public class Session {
   public byte[] digest(byte[] data) throws PKCS11Exception {
     final String method = "C_Digest";
     debugIn(method, "data.length={}", len(data));
+    callArguments(null, 0, len(data));
     try {
       return toNonNull(method, pkcs11.C_Digest(sessionHandle, data));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
+  /**
+   * Initializes the digesting operation and digests the given data in one call.
+   *
+   * @param mechanism The mechanism to use.
+   * @param data      the to-be-digested data
+   * @return the message digest. Never returns {@code null}.
+   * @throws PKCS11Exception If digesting failed.
+   */
   public byte[] digestSingle(Mechanism mechanism, byte[] data) throws PKCS11Exception {
-    digestInit(mechanism);
-    return digest(data);
+    final String method = "C_DigestSingle";
+    mechanism = mechanism.bindTo(module);
+    debugIn(method, "mechanism={}, data.length={}", mechanism, len(data));
+    callArguments(mechanism, 0, len(data));
+    try {
+      return toNonNull(method, pkcs11.C_DigestSingle(sessionHandle, mechanism.toCkMechanism(), data, useUtf8));
+    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
+    }
   }
 
   /**
@@ -1142,14 +1719,50 @@ public class Session {
    * @throws PKCS11Exception If digesting the data failed.
    */
   public void digestUpdate(byte[] dataPart) throws PKCS11Exception {
+    digestUpdate(dataPart, 0, len(dataPart));
+  }
+
+  /**
+   * Digests a piece of data, see {@link #digestUpdate(byte[])}.
+   *
+   * @param in    buffer containing the dataPart
+   * @param inOfs buffer offset of the dataPart
+   * @param inLen length of the dataPart
+   * @throws PKCS11Exception If the operation failed.
+   */
+  public void digestUpdate(byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    final String method = "C_DigestUpdate";
+    debugIn(method, "inLen={}", inLen);
+    callArguments(null, 0, inLen);
+    try {
+      pkcs11.C_DigestUpdate(sessionHandle, in, inOfs, inLen);
+      debugOut(method);
+    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
+    }
+  }
+
+  /**
+   * Digests a piece of data, see {@link #digestUpdate(byte[])}. The remaining bytes of the buffer are consumed.
+   *
+   * @param in buffer (heap or direct) containing the dataPart
+   * @throws PKCS11Exception If the operation failed.
+   */
+  public void digestUpdate(ByteBuffer in) throws PKCS11Exception {
     final String method = "C_DigestUpdate";
-    debugIn(method, "dataPart.length={}", len(dataPart));
+    debugIn(method, "in.remaining={}", in.remaining());
+    callArguments(null, 0, in.remaining());
     try {
-      pkcs11.C_DigestUpdate(sessionHandle, dataPart);
+      pkcs11.C_DigestUpdate(sessionHandle, in);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1163,12 +1776,15 @@ public class Session {
   public void digestKey(long keyHandle) throws PKCS11Exception {
     final String method = "C_DigestKey";
     debugIn(method, "keyHandle={}", keyHandle);
+    callArguments(null, keyHandle, 0);
     try {
       pkcs11.C_DigestKey(sessionHandle, keyHandle);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1188,7 +1804,9 @@ public class Session {
       return toNonNull(method, pkcs11.C_DigestFinal(sessionHandle));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1205,12 +1823,15 @@ public class Session {
    * @throws PKCS11Exception If calculating the final message digest failed.
    */
   public int digestFinal(byte[] out, int outOfs, int outLen) throws PKCS11Exception {
-    byte[] digest = digestFinal();
-    if (digest.length > outLen) {
+    return copyOut(digestFinal(), out, outOfs, outLen);
+  }
+
+  private static int copyOut(byte[] result, byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    if (result.length > outLen) {
       throw new PKCS11Exception(CKR_BUFFER_TOO_SMALL);
     }
-    System.arraycopy(digest, 0, out, outOfs, digest.length);
-    return digest.length;
+    System.arraycopy(result, 0, out, outOfs, result.length);
+    return result.length;
   }
 
   /**
@@ -1229,15 +1850,18 @@ public class Session {
    */
   public void signInit(Mechanism mechanism, long keyHandle) throws PKCS11Exception {
     final String method = "C_SignInit";
-    mechanism.setModule(module);
+    mechanism = mechanism.bindTo(module);
     debugIn(method, "keyHandle={}, mechanism={}", keyHandle, mechanism);
+    callArguments(mechanism, keyHandle, 0);
     initSignVerify(mechanism, keyHandle);
     try {
       pkcs11.C_SignInit(sessionHandle, mechanism.toCkMechanism(), keyHandle, useUtf8);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1275,19 +1899,80 @@ public class Session {
   public byte[] sign(byte[] data) throws PKCS11Exception {
     final String method = "C_Sign";
     debugIn(method, "data.length={}", len(data));
+    callArguments(null, 0, len(data));
     try {
       byte[] sigValue = pkcs11.C_Sign(sessionHandle, data);
+      callBytesOut(len(sigValue));
       debugOut(method, "rv.length={}", len(sigValue));
       return toNonNull(fixSignOutput(sigValue));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
+  /**
+   * Signs the given data and writes the signature to the given buffer, see {@link #sign(byte[])}.
+   *
+   * @param in     buffer containing the data
+   * @param inOfs  buffer offset of the data
+   * @param inLen  length of the data
+   * @param out    buffer for the signature
+   * @param outOfs buffer offset for the signature
+   * @param outLen buffer size for the signature
+   * @return the length of the signature
+   * @throws PKCS11Exception If the operation failed, or CKR_BUFFER_TOO_SMALL if the signature does not fit
+   *         into the buffer. In the latter case, the signature is lost.
+   */
+  public int sign(byte[] in, int inOfs, int inLen, byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    return copyOut(sign(PKCS11UTIL.subArray(in, inOfs, inLen)), out, outOfs, outLen);
+  }
+
+  /**
+   * Initializes the signing operation and signs the given data in one call.
+   *
+   * @param mechanism The mechanism to use.
+   * @param keyHandle The signing key to use.
+   * @param data      The data to sign.
+   * @return The signed data. Never returns {@code null}.
+   * @throws PKCS11Exception If signing failed.
+   */
   public byte[] signSingle(Mechanism mechanism, long keyHandle, byte[] data) throws PKCS11Exception {
-    signInit(mechanism, keyHandle);
-    return sign(data);
+    return signSingle(mechanism, keyHandle, data, 0);
+  }
+
+  /**
+   * Same as {@link #signSingle(Mechanism, long, byte[])}, with a hint of the expected size of the
+   * signature which allows the module to allocate the output buffer in one call.
+   *
+   * @param mechanism The mechanism to use.
+   * @param keyHandle The key to use.
+   * @param data the input data.
+   * @param outLenHint the expected (maximal) size of the signature, 0 if unknown.
+   * @return the signature. Never returns {@code null}.
+   * @throws PKCS11Exception If the operation failed.
+   */
+  public byte[] signSingle(Mechanism mechanism, long keyHandle, byte[] data, int outLenHint)
+      throws PKCS11Exception {
+    final String method = "C_SignSingle";
+    mechanism = mechanism.bindTo(module);
+    debugIn(method, "keyHandle={}, mechanism={}, data.length={}", keyHandle, mechanism, len(data));
+    callArguments(mechanism, keyHandle, len(data));
+    initSignVerify(mechanism, keyHandle);
+    try {
+      byte[] sigValue = pkcs11.C_SignSingle(
+          sessionHandle, mechanism.toCkMechanism(), keyHandle, data, outLenHint, useUtf8);
+      callBytesOut(len(sigValue));
+      debugOut(method, "rv.length={}", len(sigValue));
+      return toNonNull(fixSignOutput(sigValue));
+    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
+    }
   }
 
   /**
@@ -1300,15 +1985,7 @@ public class Session {
    * @throws PKCS11Exception If signing the data failed.
    */
   public void signUpdate(byte[] dataPart) throws PKCS11Exception {
-    final String method = "C_SignUpdate";
-    debugIn(method, "dataPart.length={}", len(dataPart));
-    try {
-      pkcs11.C_SignUpdate(sessionHandle, dataPart);
-      debugOut(method);
-    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
-      debugError(method, e);
-      throw module.convertException(e);
-    }
+    signUpdate(dataPart, 0, len(dataPart));
   }
 
   /**
@@ -1324,17 +2001,37 @@ public class Session {
    */
   public void signUpdate(byte[] in, int inOfs, int inLen) throws PKCS11Exception {
     final String method = "C_SignUpdate";
-    debugIn(method, "in.length={}", len(in));
+    debugIn(method, "inLen={}", inLen);
+    callArguments(null, 0, inLen);
     try {
-      if (inOfs == 0 && inLen == in.length) {
-        pkcs11.C_SignUpdate(sessionHandle, in);
-      } else {
-        pkcs11.C_SignUpdate(sessionHandle, Arrays.copyOfRange(in, inOfs, inOfs + inLen));
-      }
+      pkcs11.C_SignUpdate(sessionHandle, in, inOfs, inLen);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
+    }
+  }
+
+  /**
+   * Signs a piece of data, see {@link #signUpdate(byte[])}. The remaining bytes of the buffer are consumed.
+   *
+   * @param in buffer (heap or direct) containing the to-be-signed data
+   * @throws PKCS11Exception If signing the data failed.
+   */
+  public void signUpdate(ByteBuffer in) throws PKCS11Exception {
+    final String method = "C_SignUpdate";
+    debugIn(method, "in.remaining={}", in.remaining());
+    callArguments(null, 0, in.remaining());
+    try {
+      pkcs11.C_SignUpdate(sessionHandle, in);
+      debugOut(method);
+    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1352,79 +2049,96 @@ public class Session {
     debugIn(method);
     try {
       byte[] sigValue = pkcs11.C_SignFinal(sessionHandle);
+      callBytesOut(len(sigValue));
       debugOut(method, "rv.length={}", len(sigValue));
       return toNonNull(fixSignOutput(sigValue));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
+  /**
+   * Finalizes the signing operation and writes the signature to the given buffer, see {@link #signFinal()}.
+   *
+   * @param out    buffer for the signature
+   * @param outOfs buffer offset for the signature
+   * @param outLen buffer size for the signature
+   * @return the length of the signature
+   * @throws PKCS11Exception If the operation failed, or CKR_BUFFER_TOO_SMALL if the signature does not fit
+   *         into the buffer. In the latter case, the signature is lost.
+   */
+  public int signFinal(byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    return copyOut(signFinal(), out, outOfs, outLen);
+  }
+
   private byte[] fixSignOutput(byte[] signatureValue) {
     if (signatureType == 0) {
       return signatureValue;
     }
 
-    synchronized (module) {
-      if (signatureType == SIGN_TYPE_ECDSA) {
-        Boolean b = module.getEcdsaSignatureFixNeeded();
-        if (b == null) {
-          StaticLogger.info("EcdsaSignatureFixNeeded: null");
-        } else {
-          StaticLogger.debug("EcdsaSignatureFixNeeded: {}", b);
-        }
-
-        if (b == null || b) {
-          byte[] fixedSigValue;
-          if (signVerifyExtraParams != null) {
-            int rOrSLen = (signVerifyExtraParams.ecOrderBitSize() + 7) / 8;
-            fixedSigValue = Functions.fixECDSASignature(signatureValue, rOrSLen);
-          } else {
-            // get the ecParams
-            byte[] ecParams;
-            try {
-              ecParams = getAttrValues(signOrVerifyKeyHandle, CKA_EC_PARAMS).ecParams();
-            } catch (PKCS11Exception e) {
-              StaticLogger.debug("error getting CKA_EC_PARAMS for key {}", signOrVerifyKeyHandle);
-              return signatureValue;
-            }
-
-            if (ecParams == null) {
-              StaticLogger.debug("found no CKA_EC_PARAMS for key {}", signOrVerifyKeyHandle);
-              return signatureValue;
-            }
+    // No lock here: the flags in the module are volatile, and concurrent first calls would
+    // determine the same value.
+    if (signatureType == SIGN_TYPE_ECDSA) {
+      Boolean b = module.getEcdsaSignatureFixNeeded();
+      if (b == null) {
+        StaticLogger.info("EcdsaSignatureFixNeeded: null");
+      } else {
+        StaticLogger.debug("EcdsaSignatureFixNeeded: {}", b);
+      }
 
-            fixedSigValue = Functions.fixECDSASignature(signatureValue, ecParams);
+      if (b == null || b) {
+        byte[] fixedSigValue;
+        if (signVerifyExtraParams != null) {
+          int rOrSLen = (signVerifyExtraParams.ecOrderBitSize() + 7) / 8;
+          fixedSigValue = Functions.fixECDSASignature(signatureValue, rOrSLen);
+        } else {
+          // get the ecParams
+          byte[] ecParams;
+          try {
+            ecParams = getAttrValues(signOrVerifyKeyHandle, CKA_EC_PARAMS).ecParams();
+          } catch (PKCS11Exception e) {
+            StaticLogger.debug("error getting CKA_EC_PARAMS for key {}", signOrVerifyKeyHandle);
+            return signatureValue;
           }
 
-          boolean fixed = !Arrays.equals(fixedSigValue, signatureValue);
-          if (b == null) {
-            StaticLogger.info("Set EcdsaSignatureFixNeeded to {}", fixed);
-            module.setEcdsaSignatureFixNeeded(fixed);
+          if (ecParams == null) {
+            StaticLogger.debug("found no CKA_EC_PARAMS for key {}", signOrVerifyKeyHandle);
+            return signatureValue;
           }
-          return fixedSigValue;
+
+          fixedSigValue = Functions.fixECDSASignature(signatureValue, ecParams);
         }
-      } else if (signatureType == SIGN_TYPE_SM2) {
-        Boolean b = module.getSm2SignatureFixNeeded();
+
+        boolean fixed = !Arrays.equals(fixedSigValue, signatureValue);
         if (b == null) {
-          StaticLogger.info("Sm2SignatureFixNeeded: null");
-        } else {
-          StaticLogger.debug("Sm2SignatureFixNeeded: {}", b);
+          StaticLogger.info("Set EcdsaSignatureFixNeeded to {}", fixed);
+          module.setEcdsaSignatureFixNeeded(fixed);
         }
+        return fixedSigValue;
+      }
+    } else if (signatureType == SIGN_TYPE_SM2) {
+      Boolean b = module.getSm2SignatureFixNeeded();
+      if (b == null) {
+        StaticLogger.info("Sm2SignatureFixNeeded: null");
+      } else {
+        StaticLogger.debug("Sm2SignatureFixNeeded: {}", b);
+      }
 
-        if (b == null || b) {
-          byte[] fixedSigValue = Functions.fixECDSASignature(signatureValue, 32);
-          boolean fixed = !Arrays.equals(fixedSigValue, signatureValue);
-          if (b == null) {
-            StaticLogger.info("Set Sm2SignatureFixNeeded to {}", fixed);
-            module.setSm2SignatureFixNeeded(fixed);
-          }
-          return fixedSigValue;
+      if (b == null || b) {
+        byte[] fixedSigValue = Functions.fixECDSASignature(signatureValue, 32);
+        boolean fixed = !Arrays.equals(fixedSigValue, signatureValue);
+        if (b == null) {
+          StaticLogger.info("Set Sm2SignatureFixNeeded to {}", fixed);
+          module.setSm2SignatureFixNeeded(fixed);
         }
+        return fixedSigValue;
       }
-
-      return signatureValue;
     }
+
+    return signatureValue;
   }
 
   private byte[] fixSignatureToVerify(byte[] signatureValue) {
@@ -1456,14 +2170,17 @@ public class Session {
    */
   public void signRecoverInit(Mechanism mechanism, long keyHandle) throws PKCS11Exception {
     final String method = "C_SignRecoverInit";
-    mechanism.setModule(module);
+    mechanism = mechanism.bindTo(module);
     debugIn(method, "keyHandle={}, mechanism={}", keyHandle, mechanism);
+    callArguments(mechanism, keyHandle, 0);
     try {
       pkcs11.C_SignRecoverInit(sessionHandle, mechanism.toCkMechanism(), keyHandle, useUtf8);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1479,11 +2196,14 @@ public class Session {
   public byte[] signRecover(byte[] data) throws PKCS11Exception {
     final String method = "C_SignRecover";
     debugIn(method, "data.length={}", len(data));
+    callArguments(null, 0, len(data));
     try {
       return toNonNull(method, pkcs11.C_SignRecover(sessionHandle, data));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1499,15 +2219,18 @@ public class Session {
    */
   public void messageSignInit(Mechanism mechanism, long keyHandle) throws PKCS11Exception {
     final String method = "C_MessageSignInit";
-    mechanism.setModule(module);
+    mechanism = mechanism.bindTo(module);
     initSignVerify(mechanism, keyHandle);
     debugIn(method, "keyHandle={}, mechanism={}", keyHandle, mechanism);
+    callArguments(mechanism, keyHandle, 0);
     try {
       pkcs11.C_MessageSignInit(sessionHandle, mechanism.toCkMechanism(), keyHandle, useUtf8);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1521,11 +2244,14 @@ public class Session {
     final String method = "C_SignMessage";
     setModule(params);
     debugIn(method, "data.length={}, params={}", len(data), params);
+    callArguments(null, 0, len(data));
     try {
       return toNonNull(method, pkcs11.C_SignMessage(sessionHandle, toCkParameters(params), data, useUtf8));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1545,7 +2271,9 @@ public class Session {
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1560,16 +2288,62 @@ public class Session {
    * @throws PKCS11Exception in case of error.
    */
   public byte[] signMessageNext(CkParams params, byte[] data, boolean isLastOperation) throws PKCS11Exception {
+    return signMessageNext(params, data, 0, len(data), isLastOperation);
+  }
+
+  /**
+   * SignMessageNext with the data part given by the buffer, offset and length,
+   * see {@link #signMessageNext(CkParams, byte[], boolean)}.
+   *
+   * @param params          the mechanism parameter to use
+   * @param in              buffer containing the data part
+   * @param inOfs           buffer offset of the data part
+   * @param inLen           length of the data part
+   * @param isLastOperation specifies if this is the last part of this message.
+   * @return the signature. Never returns {@code null}.
+   * @throws PKCS11Exception in case of error.
+   */
+  public byte[] signMessageNext(CkParams params, byte[] in, int inOfs, int inLen, boolean isLastOperation)
+      throws PKCS11Exception {
     final String method = "C_SignMessageNext";
     setModule(params);
-    debugIn(method, "data.length={}, isLastOperation={}, params={}", len(data), isLastOperation, params);
+    debugIn(method, "inLen={}, isLastOperation={}, params={}", inLen, isLastOperation, params);
+    callArguments(null, 0, inLen);
     try {
-      byte[] signature = pkcs11.C_SignMessageNext(sessionHandle, toCkParameters(params), data,
+      byte[] signature = pkcs11.C_SignMessageNext(sessionHandle, toCkParameters(params), in, inOfs, inLen,
                             isLastOperation, useUtf8);
       return toNonNull(method, fixSignOutput(signature));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
+    }
+  }
+
+  /**
+   * SignMessageNext with the data part given by the remaining bytes of the buffer,
+   * see {@link #signMessageNext(CkParams, byte[], boolean)}.
+   *
+   * @param params          the mechanism parameter to use
+   * @param in              buffer (heap or direct) containing the data part
+   * @param isLastOperation specifies if this is the last part of this message.
+   * @return the signature. Never returns {@code null}.
+   * @throws PKCS11Exception in case of error.
+   */
+  public byte[] signMessageNext(CkParams params, ByteBuffer in, boolean isLastOperation) throws PKCS11Exception {
+    final String method = "C_SignMessageNext";
+    setModule(params);
+    debugIn(method, "in.remaining={}, isLastOperation={}, params={}", in.remaining(), isLastOperation, params);
+    callArguments(null, 0, in.remaining());
+    try {
+      byte[] signature = pkcs11.C_SignMessageNext(sessionHandle, toCkParameters(params), in, isLastOperation, useUtf8);
+      return toNonNull(method, fixSignOutput(signature));
+    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1587,7 +2361,9 @@ public class Session {
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1607,15 +2383,18 @@ public class Session {
    */
   public void verifyInit(Mechanism mechanism, long keyHandle) throws PKCS11Exception {
     final String method = "C_VerifyInit";
-    mechanism.setModule(module);
+    mechanism = mechanism.bindTo(module);
     initSignVerify(mechanism, keyHandle);
     debugIn(method, "keyHandle={}, mechanism={}", keyHandle, mechanism);
+    callArguments(mechanism, keyHandle, 0);
     try {
       pkcs11.C_VerifyInit(sessionHandle, mechanism.toCkMechanism(), keyHandle, useUtf8);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1635,18 +2414,44 @@ public class Session {
     final String method = "C_Verify";
     byte[] realSig = fixSignatureToVerify(signature);
     debugIn(method, "data.length={}, signature.length={}", len(data), len(realSig));
+    callArguments(null, 0, len(data) + len(realSig));
     try {
       pkcs11.C_Verify(sessionHandle, data, realSig);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
+  /**
+   * Initializes the verification operation and verifies the given signature in one call.
+   *
+   * @param mechanism The mechanism to use.
+   * @param keyHandle The verification key to use.
+   * @param data      The data that was signed.
+   * @param signature The signature or MAC to verify.
+   * @throws PKCS11Exception If verifying the signature fails, e.g. with CKR_SIGNATURE_INVALID.
+   */
   public void verifySingle(Mechanism mechanism, long keyHandle, byte[] data, byte[] signature) throws PKCS11Exception {
-    verifyInit(mechanism, keyHandle);
-    verify(data, signature);
+    final String method = "C_VerifySingle";
+    mechanism = mechanism.bindTo(module);
+    initSignVerify(mechanism, keyHandle);
+    byte[] realSig = fixSignatureToVerify(signature);
+    debugIn(method, "keyHandle={}, mechanism={}, data.length={}, signature.length={}",
+        keyHandle, mechanism, len(data), len(realSig));
+    callArguments(mechanism, keyHandle, len(data) + len(realSig));
+    try {
+      pkcs11.C_VerifySingle(sessionHandle, mechanism.toCkMechanism(), keyHandle, data, realSig, useUtf8);
+      debugOut(method);
+    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
+    }
   }
 
   /**
@@ -1658,14 +2463,50 @@ public class Session {
    * @throws PKCS11Exception If verifying (e.g. digesting) the data failed.
    */
   public void verifyUpdate(byte[] dataPart) throws PKCS11Exception {
+    verifyUpdate(dataPart, 0, len(dataPart));
+  }
+
+  /**
+   * Verifies a piece of data, see {@link #verifyUpdate(byte[])}.
+   *
+   * @param in    buffer containing the dataPart
+   * @param inOfs buffer offset of the dataPart
+   * @param inLen length of the dataPart
+   * @throws PKCS11Exception If the operation failed.
+   */
+  public void verifyUpdate(byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    final String method = "C_VerifyUpdate";
+    debugIn(method, "inLen={}", inLen);
+    callArguments(null, 0, inLen);
+    try {
+      pkcs11.C_VerifyUpdate(sessionHandle, in, inOfs, inLen);
+      debugOut(method);
+    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
+    }
+  }
+
+  /**
+   * Verifies a piece of data, see {@link #verifyUpdate(byte[])}. The remaining bytes of the buffer are consumed.
+   *
+   * @param in buffer (heap or direct) containing the dataPart
+   * @throws PKCS11Exception If the operation failed.
+   */
+  public void verifyUpdate(ByteBuffer in) throws PKCS11Exception {
     final String method = "C_VerifyUpdate";
-    debugIn(method, "dataPart.length={}", len(dataPart));
+    debugIn(method, "in.remaining={}", in.remaining());
+    callArguments(null, 0, in.remaining());
     try {
-      pkcs11.C_VerifyUpdate(sessionHandle, dataPart);
+      pkcs11.C_VerifyUpdate(sessionHandle, in);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1685,12 +2526,15 @@ public class Session {
     final String method = "C_VerifyFinal";
     byte[] realSig = fixSignatureToVerify(signature);
     debugIn(method, "signature.length={}", len(realSig));
+    callArguments(null, 0, len(realSig));
     try {
       pkcs11.C_VerifyFinal(sessionHandle, realSig);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1709,14 +2553,17 @@ public class Session {
    */
   public void verifyRecoverInit(Mechanism mechanism, long keyHandle) throws PKCS11Exception {
     final String method = "C_VerifyRecoverInit";
-    mechanism.setModule(module);
+    mechanism = mechanism.bindTo(module);
     debugIn(method, "keyHandle={}, mechanism={}", keyHandle, mechanism);
+    callArguments(mechanism, keyHandle, 0);
     try {
       pkcs11.C_VerifyRecoverInit(sessionHandle, mechanism.toCkMechanism(), keyHandle, useUtf8);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1733,11 +2580,14 @@ public class Session {
   public byte[] verifyRecover(byte[] data) throws PKCS11Exception {
     final String method = "C_VerifyRecover";
     debugIn(method, "data.length={}", len(data));
+    callArguments(null, 0, len(data));
     try {
       return toNonNull(method, pkcs11.C_VerifyRecover(sessionHandle, data));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1759,15 +2609,18 @@ public class Session {
    */
   public void messageVerifyInit(Mechanism mechanism, long keyHandle) throws PKCS11Exception {
     final String method = "C_MessageVerifyInit";
-    mechanism.setModule(module);
+    mechanism = mechanism.bindTo(module);
     initSignVerify(mechanism, keyHandle);
     debugIn(method, "keyHandle={}, mechanism={}", keyHandle, mechanism);
+    callArguments(mechanism, keyHandle, 0);
     try {
       pkcs11.C_MessageVerifyInit(sessionHandle, mechanism.toCkMechanism(), keyHandle, useUtf8);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1787,12 +2640,15 @@ public class Session {
     final String method = "C_VerifyMessage";
     setModule(params);
     debugIn(method, "data.length={}, signature.length={}, params={}", len(data), len(signature), params);
+    callArguments(null, 0, len(data) + len(signature));
     try {
       pkcs11.C_VerifyMessage(sessionHandle, toCkParameters(params), data, fixSignatureToVerify(signature), useUtf8);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1813,7 +2669,9 @@ public class Session {
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1833,15 +2691,60 @@ public class Session {
    *            if The Signature is invalid
    */
   public void verifyMessageNext(CkParams params, byte[] data, byte[] signature) throws PKCS11Exception {
+    verifyMessageNext(params, data, 0, len(data), signature);
+  }
+
+  /**
+   * VerifyMessageNext with the data part given by the buffer, offset and length,
+   * see {@link #verifyMessageNext(CkParams, byte[], byte[])}.
+   *
+   * @param params    the mechanism parameter to use
+   * @param in        buffer containing the data part
+   * @param inOfs     buffer offset of the data part
+   * @param inLen     length of the data part
+   * @param signature NUll if there is data follow, the signature if it is the last part of the signing operation
+   * @throws PKCS11Exception if The Signature is invalid
+   */
+  public void verifyMessageNext(CkParams params, byte[] in, int inOfs, int inLen, byte[] signature)
+      throws PKCS11Exception {
     final String method = "C_VerifyMessageNext";
     setModule(params);
-    debugIn(method, "data.length={}, signature.length={}, params={}", len(data), len(signature), params);
+    debugIn(method, "inLen={}, signature.length={}, params={}", inLen, len(signature), params);
+    callArguments(null, 0, inLen + len(signature));
+    try {
+      pkcs11.C_VerifyMessageNext(sessionHandle, toCkParameters(params), in, inOfs, inLen,
+          fixSignatureToVerify(signature), useUtf8);
+      debugOut(method);
+    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
+    }
+  }
+
+  /**
+   * VerifyMessageNext with the data part given by the remaining bytes of the buffer,
+   * see {@link #verifyMessageNext(CkParams, byte[], byte[])}.
+   *
+   * @param params    the mechanism parameter to use
+   * @param in        buffer (heap or direct) containing the data part
+   * @param signature NUll if there is data follow, the signature if it is the last part of the signing operation
+   * @throws PKCS11Exception if The Signature is invalid
+   */
+  public void verifyMessageNext(CkParams params, ByteBuffer in, byte[] signature) throws PKCS11Exception {
+    final String method = "C_VerifyMessageNext";
+    setModule(params);
+    debugIn(method, "in.remaining={}, signature.length={}, params={}", in.remaining(), len(signature), params);
+    callArguments(null, 0, in.remaining() + len(signature));
     try {
-      pkcs11.C_VerifyMessageNext(sessionHandle, toCkParameters(params), data, fixSignatureToVerify(signature), useUtf8);
+      pkcs11.C_VerifyMessageNext(sessionHandle, toCkParameters(params), in, fixSignatureToVerify(signature), useUtf8);
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1858,7 +2761,9 @@ public class Session {
       debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1876,11 +2781,14 @@ public class Session {
   public byte[] digestEncryptedUpdate(byte[] part) throws PKCS11Exception {
     final String method = "C_DigestEncryptUpdate";
     debugIn(method, "part.length={}", len(part));
+    callArguments(null, 0, len(part));
     try {
       return toNonNull(method, pkcs11.C_DigestEncryptUpdate(sessionHandle, part));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1899,11 +2807,14 @@ public class Session {
   public byte[] decryptDigestUpdate(byte[] part) throws PKCS11Exception {
     final String method = "C_DecryptDigestUpdate";
     debugIn(method, "part.length={}", len(part));
+    callArguments(null, 0, len(part));
     try {
       return toNonNull(method, pkcs11.C_DecryptDigestUpdate(sessionHandle, part));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1921,11 +2832,14 @@ public class Session {
   public byte[] signEncryptUpdate(byte[] part) throws PKCS11Exception {
     final String method = "C_SignEncryptUpdate";
     debugIn(method, "part.length={}", len(part));
+    callArguments(null, 0, len(part));
     try {
       return toNonNull(method, pkcs11.C_SignEncryptUpdate(sessionHandle, part));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1944,11 +2858,14 @@ public class Session {
   public byte[] decryptVerifyUpdate(byte[] encryptedPart) throws PKCS11Exception {
     final String method = "C_DecryptVerifyUpdate";
     debugIn(method, "encryptedPart.length={}", len(encryptedPart));
+    callArguments(null, 0, len(encryptedPart));
     try {
       return toNonNull(method, pkcs11.C_DecryptVerifyUpdate(sessionHandle, encryptedPart));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1968,8 +2885,9 @@ public class Session {
    */
   public long generateKey(Mechanism mechanism, AttributeVector template) throws PKCS11Exception {
     final String method = "C_GenerateKey";
-    mechanism.setModule(module);
+    mechanism = mechanism.bindTo(module);
     debugIn(method, "mechanism={}, template={}", mechanism, template);
+    callArguments(mechanism, 0, 0);
     try {
       long hKey = pkcs11.C_GenerateKey(sessionHandle, mechanism.toCkMechanism(), toOutCKAttributes(template), useUtf8);
       debugOut(method, "hKey={}", hKey);
@@ -1977,7 +2895,37 @@ public class Session {
       return hKey;
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
+    }
+  }
+
+  /**
+   * Generate a new secret key or a set of domain parameters from the frozen template.
+   *
+   * @param mechanism The mechanism to generate a key for.
+   * @param template The frozen template for the new key or domain parameters.
+   * @return The newly generated secret key or domain parameters.
+   * @exception PKCS11Exception If generating a new secret key or domain parameters failed.
+   * @see #generateKey(Mechanism, AttributeVector)
+   */
+  public long generateKey(Mechanism mechanism, FrozenTemplate template) throws PKCS11Exception {
+    final String method = "C_GenerateKey";
+    mechanism = mechanism.bindTo(module);
+    debugIn(method, "mechanism={}, template={}", mechanism, template);
+    callArguments(mechanism, 0, 0);
+    try {
+      long hKey = pkcs11.C_GenerateKey(sessionHandle, mechanism.toCkMechanism(),
+          toOutCKAttributes(template, false), useUtf8);
+      debugOut(method, "hKey={}", hKey);
+      traceObject("generated key", hKey);
+      return hKey;
+    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -1997,8 +2945,9 @@ public class Session {
    */
   public PKCS11KeyPair generateKeyPair(Mechanism mechanism, KeyPairTemplate template) throws PKCS11Exception {
     final String method = "C_GenerateKeyPair";
-    mechanism.setModule(module);
+    mechanism = mechanism.bindTo(module);
     debugIn(method, "mechanism={}, template={}", mechanism, template);
+    callArguments(mechanism, 0, 0);
     try {
       long[] objectHandles = pkcs11.C_GenerateKeyPair(sessionHandle, mechanism.toCkMechanism(),
           toOutCKAttributes(template.publicKey()), toOutCKAttributes(template.privateKey()), useUtf8);
@@ -2010,7 +2959,44 @@ public class Session {
       return rv;
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
+    }
+  }
+
+  /**
+   * Generate a new key-pair from the frozen templates.
+   *
+   * @param mechanism The mechanism to generate a key-pair for.
+   * @param publicKeyTemplate The frozen template for the new public key.
+   * @param privateKeyTemplate The frozen template for the new private key.
+   * @return The newly generated key-pair.
+   * @exception PKCS11Exception If generating a new key-pair failed.
+   * @see #generateKeyPair(Mechanism, KeyPairTemplate)
+   */
+  public PKCS11KeyPair generateKeyPair(
+      Mechanism mechanism, FrozenTemplate publicKeyTemplate, FrozenTemplate privateKeyTemplate)
+      throws PKCS11Exception {
+    final String method = "C_GenerateKeyPair";
+    mechanism = mechanism.bindTo(module);
+    debugIn(method, "mechanism={}, publicKeyTemplate={}, privateKeyTemplate={}",
+        mechanism, publicKeyTemplate, privateKeyTemplate);
+    callArguments(mechanism, 0, 0);
+    try {
+      long[] objectHandles = pkcs11.C_GenerateKeyPair(sessionHandle, mechanism.toCkMechanism(),
+          toOutCKAttributes(publicKeyTemplate, false), toOutCKAttributes(privateKeyTemplate, false), useUtf8);
+      PKCS11KeyPair rv = new PKCS11KeyPair(objectHandles[0], objectHandles[1]);
+      debugOut(method, "hPublicKey={}, hPrivateKey={}",
+          rv.getPublicKey(), rv.getPrivateKey());
+      traceObject("public  key of the generated keypair", rv.getPublicKey());
+      traceObject("private key of the generated keypair", rv.getPrivateKey());
+      return rv;
+    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+      debugError(method, e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -2029,15 +3015,18 @@ public class Session {
    */
   public byte[] wrapKey(Mechanism mechanism, long wrappingKeyHandle, long keyHandle) throws PKCS11Exception {
     final String method = "C_WrapKey";
-    mechanism.setModule(module);
+    mechanism = mechanism.bindTo(module);
     debugIn(method, "wrappingKeyHandle={}, keyHandle={}, mechanism={}",
         wrappingKeyHandle, keyHandle, mechanism);
+    callArguments(mechanism, wrappingKeyHandle, 0);
     try {
       return toNonNull(method,
           pkcs11.C_WrapKey(sessionHandle, mechanism.toCkMechanism(), wrappingKeyHandle, keyHandle, useUtf8));
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -2061,9 +3050,10 @@ public class Session {
   public long unwrapKey(Mechanism mechanism, long unwrappingKeyHandle, byte[] wrappedKey,
                         AttributeVector keyTemplate) throws PKCS11Exception {
     final String method = "C_UnwrapKey";
-    mechanism.setModule(module);
+    mechanism = mechanism.bindTo(module);
     debugIn(method, "unwrappingKeyHandle={}, wrappedKey.length={}, mechanism={}, template={}",
         unwrappingKeyHandle, len(wrappedKey), mechanism, keyTemplate);
+    callArguments(mechanism, unwrappingKeyHandle, len(wrappedKey));
     try {
       long hKey = pkcs11.C_UnwrapKey(sessionHandle, mechanism.toCkMechanism(),
           unwrappingKeyHandle, wrappedKey, toOutCKAttributes(keyTemplate), useUtf8);
@@ -2072,7 +3062,9 @@ public class Session {
       return hKey;
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -2095,8 +3087,9 @@ public class Session {
    */
   public long deriveKey(Mechanism mechanism, long baseKeyHandle, AttributeVector template) throws PKCS11Exception {
     final String method = "C_DeriveKey";
-    mechanism.setModule(module);
+    mechanism = mechanism.bindTo(module);
     debugIn(method, "baseKeyHandle={}, mechanism={}, template={}", baseKeyHandle, mechanism, template);
+    callArguments(mechanism, baseKeyHandle, 0);
     try {
       long hKey = pkcs11.C_DeriveKey(sessionHandle, mechanism.toCkMechanism(), baseKeyHandle,
           toOutCKAttributes(template), useUtf8);
@@ -2105,7 +3098,9 @@ public class Session {
       return hKey;
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -2121,7 +3116,7 @@ public class Session {
     try {
       pkcs11.C_SeedRandom(sessionHandle, seed);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
-      throw module.convertException(e);
+      throw convertException(e);
     }
   }
 
@@ -2143,7 +3138,9 @@ public class Session {
       return toNonNull(method, randomBytesBuffer);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
       debugError(method, e);
-      throw module.convertException(e);
+      throw convertException(e);
+    } finally {
+      callEvent = null;
     }
   }
 
@@ -2158,7 +3155,7 @@ public class Session {
     try {
       pkcs11.C_GetFunctionStatus(sessionHandle);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
-      throw module.convertException(e);
+      throw convertException(e);
     }
   }
 
@@ -2173,7 +3170,7 @@ public class Session {
     try {
       pkcs11.C_CancelFunction(sessionHandle);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
-      throw module.convertException(e);
+      throw convertException(e);
     }
   }
 
@@ -2219,17 +3216,77 @@ public class Session {
   }
 
   public AttributeVector getAttrValues(long objectHandle, List<Long> attributeTypes) throws PKCS11Exception {
+    long[] types = orderAttrTypes(attributeTypes);
+    Attribute[] attrs = new Attribute[types.length];
+    for (int i = 0; i < types.length; i++) {
+      attrs[i] = Attribute.getInstance(types[i]);
+    }
+
+    doGetAttrValues(objectHandle, attrs);
+    return new AttributeVector(attrs);
+  }
+
+  /**
+   * Gets the same attributes of many objects. The order of the attribute types and the
+   * template array are computed once and reused for all objects.
+   *
+   * @param objectHandles the object handles.
+   * @param attributeTypes types of attributes to be read.
+   * @return the attributes, in the order of the object handles. The entry is null if the
+   *         object handle is invalid, e.g. the object has been destroyed meanwhile.
+   * @throws PKCS11Exception If getting attributes failed.
+   */
+  public AttributeVector[] getAttrValues(long[] objectHandles, long... attributeTypes) throws PKCS11Exception {
+    AttributeVector[] ret = new AttributeVector[objectHandles.length];
+    getAttrValues(objectHandles, 0, objectHandles.length, attributeTypes, ret);
+    return ret;
+  }
+
+  /**
+   * Same as {@link #getAttrValues(long[], long...)}, for the object handles from index
+   * <code>from</code> (inclusive) to <code>to</code> (exclusive). The attributes are written to
+   * <code>ret</code> at the same indexes.
+   */
+  void getAttrValues(long[] objectHandles, int from, int to, long[] attributeTypes, AttributeVector[] ret)
+      throws PKCS11Exception {
+    List<Long> typeList = new ArrayList<>(attributeTypes.length);
+    for (long attrType : attributeTypes) {
+      typeList.add(attrType);
+    }
+
+    long[] types = orderAttrTypes(typeList);
+    CK_ATTRIBUTE[] attributeTemplateList = new CK_ATTRIBUTE[types.length];
+    for (int i = from; i < to; i++) {
+      Attribute[] attrs = new Attribute[types.length];
+      for (int j = 0; j < types.length; j++) {
+        attrs[j] = Attribute.getInstance(types[j]);
+      }
+
+      try {
+        doGetAttrValues(objectHandles[i], attributeTemplateList, attrs);
+      } catch (PKCS11Exception ex) {
+        if (ex.getErrorCode() == CKR_OBJECT_HANDLE_INVALID) {
+          continue;
+        }
+        throw ex;
+      }
+      ret[i] = new AttributeVector(attrs);
+    }
+  }
+
+  /**
+   * Returns the attribute types in the order to be read.
+   */
+  private long[] orderAttrTypes(List<Long> attributeTypes) {
     if (attributeTypes.contains(CKA_EC_POINT)
         && !attributeTypes.contains(CKA_EC_PARAMS)) {
-      synchronized (module) {
-        Boolean b = module.getEcPointFixNeeded();
-        if (b == null || b) {
-          attributeTypes.add(CKA_EC_PARAMS);
-        }
+      Boolean b = module.getEcPointFixNeeded();
+      if (b == null || b) {
+        attributeTypes.add(CKA_EC_PARAMS);
       }
     }
 
-    Attribute[] attrs = new Attribute[attributeTypes.size()];
+    long[] types = new long[attributeTypes.size()];
     int index = 0;
 
     // we need to fix attributes EC_PARAMS and EC_POINT. Where EC_POINT needs EC_PARAMS,
@@ -2238,16 +3295,14 @@ public class Session {
 
     for (long type : firstTypes) {
       if (attributeTypes.remove(type)) {
-        attrs[index++] =  Attribute.getInstance(type);
+        types[index++] = type;
       }
     }
 
     for (long type : attributeTypes) {
-      attrs[index++] =  Attribute.getInstance(type);
+      types[index++] = type;
     }
-
-    doGetAttrValues(objectHandle, attrs);
-    return new AttributeVector(attrs);
+    return types;
   }
 
   /**
@@ -2374,6 +3429,18 @@ public class Session {
    *              If getting the attributes failed.
    */
   private void doGetAttrValues(long objectHandle, Attribute... attributes) throws PKCS11Exception {
+    doGetAttrValues(objectHandle, null, attributes);
+  }
+
+  /**
+   * Same as {@link #doGetAttrValues(long, Attribute...)}, with a reusable template array.
+   *
+   * @param attributeTemplateList the template array of the same length as <code>attributes</code>,
+   *          or null to allocate a new one. Its elements are replaced, since they are handed over
+   *          to the attributes.
+   */
+  private void doGetAttrValues(long objectHandle, CK_ATTRIBUTE[] attributeTemplateList, Attribute[] attributes)
+      throws PKCS11Exception {
     Functions.requireNonNull("attributes", attributes);
 
     if (attributes.length == 1) {
@@ -2381,17 +3448,31 @@ public class Session {
       return;
     }
 
-    CK_ATTRIBUTE[] attributeTemplateList = new CK_ATTRIBUTE[attributes.length];
+    if (attributeTemplateList == null) {
+      attributeTemplateList = new CK_ATTRIBUTE[attributes.length];
+    }
+
     for (int i = 0; i < attributes.length; i++) {
       attributeTemplateList[i] = new CK_ATTRIBUTE();
       attributeTemplateList[i].type = attributes[i].getType();
     }
 
-    PKCS11Exception delayedEx = null;
+    final String method = "C_GetAttributeValue";
+    Object outerCallEvent = callEvent;
+    getAttributeValueIn(method, objectHandle, attributes.length);
+    boolean failed = false;
     try {
       pkcs11.C_GetAttributeValue(sessionHandle, objectHandle, attributeTemplateList, useUtf8);
+      debugOut(method);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception ex) {
-      delayedEx = module.convertException(ex);
+      debugError(method, ex);
+      if (ex.getErrorCode() == CKR_OBJECT_HANDLE_INVALID) {
+        // reading the attributes separately would fail as well.
+        throw convertException(ex);
+      }
+      failed = true;
+    } finally {
+      callEvent = outerCallEvent;
     }
 
     for (int i = 0; i < attributes.length; i++) {
@@ -2402,9 +3483,9 @@ public class Session {
       }
     }
 
-    if (delayedEx != null) {
+    PKCS11Exception delayedEx = null;
+    if (failed) {
       // do all failed separately again.
-      delayedEx = null;
       for (Attribute attr : attributes) {
         if (attr.getCkAttribute() == null || attr.getCkAttribute().pValue == null) {
           try {
@@ -2468,15 +3549,20 @@ public class Session {
       throws PKCS11Exception {
     attribute.present(false);
 
+    final String method = "C_GetAttributeValue";
+    Object outerCallEvent = callEvent;
+    getAttributeValueIn(method, objectHandle, 1);
     try {
       CK_ATTRIBUTE[] attributeTemplateList = new CK_ATTRIBUTE[1];
       attributeTemplateList[0] = new CK_ATTRIBUTE();
       attributeTemplateList[0].type = attribute.getType();
       // attributeTemplateList[0].pValue;
       pkcs11.C_GetAttributeValue(sessionHandle, objectHandle, attributeTemplateList, useUtf8);
+      debugOut(method);
 
       attribute.ckAttribute(attributeTemplateList[0]).present(true).sensitive(false);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception ex) {
+      debugError(method, ex);
       long ec = ex.getErrorCode();
       if (ec == CKR_ATTRIBUTE_TYPE_INVALID) {
         if (attribute.getType() == CKA_EC_PARAMS) {
@@ -2495,8 +3581,10 @@ public class Session {
         attribute.present(false).sensitive(false).getCkAttribute().pValue = null;
       } else {
         // there was a different error that we should propagate
-        throw module.convertException(ex);
+        throw convertException(ex);
       }
+    } finally {
+      callEvent = outerCallEvent;
     }
 
     if (postProcess) {
@@ -2509,11 +3597,29 @@ public class Session {
   }
 
   private CK_ATTRIBUTE[] toOutCKAttributes(AttributeVector template, boolean withoutNullValueAttr) {
+    return toOutCKAttributes(module, template, withoutNullValueAttr, false);
+  }
+
+  private CK_ATTRIBUTE[] toOutCKAttributes(FrozenTemplate template, boolean withoutNullValueAttr) {
+    return template == null ? null : template.toCkAttributes(module, withoutNullValueAttr);
+  }
+
+  static CK_ATTRIBUTE[] toOutCKAttributes(
+      PKCS11Module module, AttributeVector template, boolean withoutNullValueAttr, boolean copy) {
     if (template == null) {
       return null;
     }
 
     CK_ATTRIBUTE[] ckAttrs = template.toCkAttributes();
+    if (copy) {
+      for (int i = 0; i < ckAttrs.length; i++) {
+        CK_ATTRIBUTE ckAttr = new CK_ATTRIBUTE();
+        ckAttr.type = ckAttrs[i].type;
+        ckAttr.pValue = ckAttrs[i].pValue;
+        ckAttrs[i] = ckAttr;
+      }
+    }
+
     List<CK_ATTRIBUTE> nonNullCkAttrs = null;
     if (withoutNullValueAttr) {
       nonNullCkAttrs = new ArrayList<>(ckAttrs.length);
@@ -2563,6 +3669,11 @@ public class Session {
         ? nonNullCkAttrs.toArray(new CK_ATTRIBUTE[0]) : ckAttrs;
   }
 
+  /**
+   * Fixes the attribute read from the device. Except for the missing EC_PARAMS, which requires to
+   * read the key type, and the EC_POINT, which depends on the EC_PARAMS, the value is converted
+   * lazily on first access, so that the attributes which are never read are not converted.
+   */
   private void postProcessGetAttribute(Attribute attr, long objectHandle, Attribute... otherAttrs) {
     long type = attr.getType();
     CK_ATTRIBUTE ckAttr = attr.getCkAttribute();
@@ -2592,7 +3703,7 @@ public class Session {
       } else {
         byte[] ecParams = (byte[]) ckAttr.pValue;
         if (ecParams[0] != 0x06) { // 06: OBJECT IDENTIFIER
-          ckAttr.pValue = Functions.fixECParams((byte[]) ckAttr.pValue);
+          attr.convertValue(v -> Functions.fixECParams((byte[]) v));
         }
       }
 
@@ -2603,22 +3714,22 @@ public class Session {
       return;
     }
 
-    if (type == CKA_KEY_TYPE) {
-      long value = (long) ckAttr.pValue;
-      if (!isUnavailableInformation(value)) {
-        ckAttr.pValue = module.vendorToGenericCode(Category.CKK, value);
-      }
-    } else if (type == CKA_KEY_GEN_MECHANISM) {
-      long value = (long) ckAttr.pValue;
-      if (!isUnavailableInformation(value)) {
-        ckAttr.pValue = module.vendorToGenericCode(Category.CKM, value);
+    PKCS11Module module = this.module;
+    if (type == CKA_KEY_TYPE || type == CKA_KEY_GEN_MECHANISM) {
+      if (!isUnavailableInformation((long) ckAttr.pValue)) {
+        Category category = (type == CKA_KEY_TYPE) ? Category.CKK : Category.CKM;
+        attr.convertValue(v -> module.vendorToGenericCode(category, (long) v));
       }
     } else if (type == CKA_ALLOWED_MECHANISMS) {
-      long[] mechanisms = ((MechanismArrayAttribute) attr).getValue();
-      for (long mech : mechanisms) {
-        ckAttr.pValue = module.vendorToGenericCode(Category.CKM, mech);
-      }
+      attr.convertValue(v -> {
+        long[] mechanisms = ((long[]) v).clone();
+        for (int i = 0; i < mechanisms.length; i++) {
+          mechanisms[i] = module.vendorToGenericCode(Category.CKM, mechanisms[i]);
+        }
+        return mechanisms;
+      });
     } else if (type == CKA_EC_POINT) {
+      // converted eagerly: the fix depends on the EC_PARAMS attribute and on the module.
       Boolean b = module.getEcPointFixNeeded();
       byte[] pValue = (byte[]) ckAttr.pValue;
 
@@ -2644,15 +3755,14 @@ public class Session {
       }
     } else if (attr instanceof BooleanAttribute) {
       if (ckAttr.pValue instanceof byte[]) {
-        byte[] value = (byte[]) ckAttr.pValue;
-        boolean allZeros = true;
-        for (byte b : value) {
-          if (b != 0) {
-            allZeros = false;
-            break;
+        attr.convertValue(v -> {
+          for (byte b : (byte[]) v) {
+            if (b != 0) {
+              return true;
+            }
           }
-        }
-        ckAttr.pValue = !allZeros;
+          return false;
+        });
       }
     }
   }
@@ -2661,30 +3771,92 @@ public class Session {
     if (StaticLogger.isDebugEnabled()) {
       StaticLogger.debug("IN  " + method + ": hSession=" + sessionHandle);
     }
+
+    beginCallEvent(method);
   }
 
   private void debugIn(String method, String format, Object... arguments) {
     if (StaticLogger.isDebugEnabled()) {
       StaticLogger.debug("IN  " + method + ": hSession=" + sessionHandle + ", " + format, arguments);
     }
+
+    beginCallEvent(method);
+  }
+
+  /**
+   * Begins the call event without logging, for the calls whose debug message is only prepared if
+   * DEBUG is enabled.
+   */
+  private void beginCallEvent(String method) {
+    if (PKCS11Events.isCallEnabled()) {
+      callEvent = PKCS11Events.beginCall(method, sessionHandle);
+    }
+  }
+
+  /**
+   * Begins C_GetAttributeValue. The attributes may be read during another call, e.g. to fix the
+   * signature value, hence the callers restore the event of the other call afterwards.
+   */
+  private void getAttributeValueIn(String method, long objectHandle, int count) {
+    if (StaticLogger.isDebugEnabled()) {
+      debugIn(method, "objectHandle={}, count={}", objectHandle, count);
+    } else {
+      beginCallEvent(method);
+    }
+  }
+
+  /**
+   * Sets the mechanism, the key handle and the number of input bytes of the current call event.
+   */
+  private void callArguments(Mechanism mechanism, long keyHandle, int bytesIn) {
+    if (callEvent != null) {
+      PKCS11Events.setCallArguments(callEvent, mechanism, keyHandle, bytesIn);
+    }
+  }
+
+  private void callBytesOut(int bytesOut) {
+    if (callEvent != null) {
+      PKCS11Events.addCallBytesOut(callEvent, bytesOut);
+    }
   }
 
   private void debugOut(String method) {
     if (StaticLogger.isDebugEnabled()) {
       StaticLogger.debug("OUT " + method + ": hSession=" + sessionHandle);
     }
+
+    commitCallEvent(null);
   }
 
   private void debugOut(String method, String format, Object... arguments) {
     if (StaticLogger.isDebugEnabled()) {
       StaticLogger.debug("OUT " + method + ": hSession=" + sessionHandle + ", " + format, arguments);
     }
+
+    commitCallEvent(null);
   }
 
   private void debugError(String method, iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
     if (StaticLogger.isDebugEnabled()) {
       StaticLogger.debug("ERR " + method + ": " + module.codeToName(Category.CKR, e.getErrorCode()));
     }
+
+    if (callEvent != null) {
+      commitCallEvent(module.codeToName(Category.CKR, e.getErrorCode()));
+    }
+  }
+
+  private void commitCallEvent(String ckr) {
+    if (callEvent != null) {
+      Object event = callEvent;
+      callEvent = null;
+      PKCS11Events.commitCall(event, ckr);
+    }
+  }
+
+  private PKCS11Exception convertException(iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+    errorOccurred = true;
+    return module.convertException(e);
   }
 
   private void setModule(CkParams params) {
@@ -2701,6 +3873,7 @@ public class Session {
     if (bytes == null) {
       debugOut(method, "rv=null");
     } else {
+      callBytesOut(bytes.length);
       debugOut(method, "rv.length={}", bytes.length);
     }
 
@@ -7,6 +7,7 @@
 package org.xipki.pkcs11.wrapper;
 
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Objects of this class represent PKCS#11 tokens. The application can get
@@ -56,12 +57,14 @@ public class Token {
    */
   private final Slot slot;
 
-  private long[] mechCodes;
+  private volatile long[] mechCodes;
 
   private final Map<Long, MechanismInfo> nativeMechCodeInfoMap = new HashMap<>();
 
   private final Map<Long, MechanismInfo> mechCodeInfoMap = new HashMap<>();
 
+  private final ReentrantLock initLock = new ReentrantLock();
+
   /**
    * The constructor that takes a reference to the module and the slot ID.
    *
@@ -72,42 +75,52 @@ public class Token {
     this.slot = Functions.requireNonNull("slot", slot);
   }
 
-  private synchronized void init() {
+  private void init() {
     if (mechCodes != null) {
       return;
     }
 
-    PKCS11Module module = slot.getModule();
-    long[] mechanisms;
+    // Use lock instead of synchronized to avoid pinning virtual threads during the native calls.
+    initLock.lock();
     try {
-      mechanisms = module.getPKCS11Module().C_GetMechanismList(slot.getSlotID());
-    } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception ex) {
-      StaticLogger.warn("error calling C_GetMechanismList: {}", ex.getMessage());
-      mechCodes = new long[0];
-      return;
-    }
-
-    long[] mechCodeArray = new long[mechanisms.length];
-    int index = 0;
-
-    for (long code : mechanisms) {
-      long code2 = module.vendorToGenericCode(PKCS11Constants.Category.CKM, code);
+      if (mechCodes != null) {
+        return;
+      }
 
-      MechanismInfo mechInfo;
+      PKCS11Module module = slot.getModule();
+      long[] mechanisms;
       try {
-        mechInfo = new MechanismInfo(module.getPKCS11Module().C_GetMechanismInfo(slot.getSlotID(), code));
+        mechanisms = module.getPKCS11Module().C_GetMechanismList(slot.getSlotID());
       } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception ex) {
-        StaticLogger.warn("error calling C_GetMechanismInfo for mechanism {}: {}",
-            PKCS11Constants.ckmCodeToName(code), ex.getMessage());
-        continue;
+        StaticLogger.warn("error calling C_GetMechanismList: {}", ex.getMessage());
+        mechCodes = new long[0];
+        return;
       }
 
-      nativeMechCodeInfoMap.put(code, mechInfo);
-      mechCodeArray[index++] = code2;
-      mechCodeInfoMap.put(code2, mechInfo);
-    }
+      long[] mechCodeArray = new long[mechanisms.length];
+      int index = 0;
 
-    mechCodes = (index == mechCodeArray.length) ? mechCodeArray : Arrays.copyOf(mechCodeArray, index);
+      for (long code : mechanisms) {
+        long code2 = module.vendorToGenericCode(PKCS11Constants.Category.CKM, code);
+
+        MechanismInfo mechInfo;
+        try {
+          mechInfo = new MechanismInfo(module.getPKCS11Module().C_GetMechanismInfo(slot.getSlotID(), code));
+        } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception ex) {
+          StaticLogger.warn("error calling C_GetMechanismInfo for mechanism {}: {}",
+              PKCS11Constants.ckmCodeToName(code), ex.getMessage());
+          continue;
+        }
+
+        nativeMechCodeInfoMap.put(code, mechInfo);
+        mechCodeArray[index++] = code2;
+        mechCodeInfoMap.put(code2, mechInfo);
+      }
+
+      mechCodes = (index == mechCodeArray.length) ? mechCodeArray : Arrays.copyOf(mechCodeArray, index);
+    } finally {
+      initLock.unlock();
+    }
   }
 
   /**
@@ -216,13 +229,21 @@ public class Token {
         ? PKCS11Constants.CKF_SERIAL_SESSION | PKCS11Constants.CKF_RW_SESSION
         : PKCS11Constants.CKF_SERIAL_SESSION;
     PKCS11Module module = slot.getModule();
+    Object event = PKCS11Events.isSessionOpenEnabled() ? PKCS11Events.beginSessionOpen() : null;
     long sessionHandle;
     try {
       sessionHandle = module.getPKCS11Module().C_OpenSession(slot.getSlotID(), flags, application, null);
     } catch (iaik.pkcs.pkcs11.wrapper.PKCS11Exception e) {
+      if (event != null) {
+        PKCS11Events.commitSessionOpen(event, slot.getSlotID(), 0, false);
+      }
       throw module.convertException(e);
     }
 
+    if (event != null) {
+      PKCS11Events.commitSessionOpen(event, slot.getSlotID(), sessionHandle, true);
+    }
+
     StaticLogger.info("C_OpenSession: slotID={}, flags=0x{}, sessionHandle={}",
         slot.getSlotID(), Functions.toFullHex(flags), sessionHandle);
     return new Session(this, sessionHandle);
@@ -0,0 +1,461 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.pkcs11.wrapper;
+
+import org.xipki.pkcs11.wrapper.multipart.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A session borrowed from {@link PKCS11Token} for several operations, e.g. to resolve a key and
+ * then sign with it. The session is borrowed and validated only once, and returned to the pool
+ * by {@link #close()}. The operations behave as the corresponding ones of {@link PKCS11Token},
+ * but are all accounted to the quota of the operation class given to
+ * {@link PKCS11Token#lease(PKCS11Token.OperationClass)}.
+ * <p>
+ * A lease is not thread-safe and shall be used by one thread at a time.
+ *
+ * @author Lijun Liao (xipki)
+ */
+public class TokenLease implements AutoCloseable {
+
+  private final PKCS11Token token;
+
+  private Session session;
+
+  TokenLease(PKCS11Token token, Session session) {
+    this.token = token;
+    this.session = session;
+  }
+
+  /**
+   * Returns the session to the pool of the token. Subsequent operations fail.
+   */
+  @Override
+  public void close() {
+    if (session != null) {
+      Session session0 = session;
+      session = null;
+      token.requiteSession(session0);
+    }
+  }
+
+  private Session session() {
+    if (session == null) {
+      throw new IllegalStateException("lease has been closed");
+    }
+    return session;
+  }
+
+  /**
+   * Same as {@link PKCS11Token#createObject(AttributeVector)}, with the leased session.
+   */
+  public long createObject(AttributeVector template) throws TokenException {
+    return token.createObject(session(), template);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#createObject(FrozenTemplate)}, with the leased session.
+   */
+  public long createObject(FrozenTemplate template) throws TokenException {
+    return token.createObject(session(), template);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#createPrivateKeyObject(AttributeVector, PublicKey)}, with the leased session.
+   */
+  public long createPrivateKeyObject(AttributeVector template, PublicKey publicKey) throws TokenException {
+    return token.createPrivateKeyObject(session(), template, publicKey);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#createECPrivateKeyObject(AttributeVector, byte[])}, with the leased session.
+   */
+  public long createECPrivateKeyObject(AttributeVector template, byte[] ecPoint) throws TokenException {
+    return token.createECPrivateKeyObject(session(), template, ecPoint);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#copyObject(long, AttributeVector)}, with the leased session.
+   */
+  public long copyObject(long sourceObjectHandle, AttributeVector template) throws TokenException {
+    return token.copyObject(session(), sourceObjectHandle, template);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#setAttributeValues(long, AttributeVector)}, with the leased session.
+   */
+  public void setAttributeValues(long objectToUpdateHandle, AttributeVector template) throws TokenException {
+    token.setAttributeValues(session(), objectToUpdateHandle, template);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#destroyObject(long)}, with the leased session.
+   */
+  public void destroyObject(long objectHandle) throws TokenException {
+    token.destroyObject(session(), objectHandle);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#destroyObjects(long...)}, with the leased session.
+   */
+  public long[] destroyObjects(long... objectHandles) throws TokenException {
+    List<Long> list = new ArrayList<>(objectHandles.length);
+    for (long handle : objectHandles) {
+      list.add(handle);
+    }
+
+    List<Long> destroyedHandles = destroyObjects(list);
+    long[] ret = new long[destroyedHandles.size()];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = destroyedHandles.get(i);
+    }
+    return ret;
+  }
+
+  /**
+   * Same as {@link PKCS11Token#destroyObjects(List)}, with the leased session.
+   */
+  public List<Long> destroyObjects(List<Long> objectHandles) throws TokenException {
+    return token.destroyObjects(session(), objectHandles);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#getObjectSize(long)}, with the leased session.
+   */
+  public long getObjectSize(long objectHandle) throws TokenException {
+    return token.getObjectSize(session(), objectHandle);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#generateUniqueId(AttributeVector, int, Random)}, with the leased session.
+   */
+  public byte[] generateUniqueId(AttributeVector template, int idLength, Random random) throws TokenException {
+    return token.generateUniqueId(session(), template, idLength, random);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#getKey(PKCS11KeyId)}, with the leased session.
+   */
+  public PKCS11Key getKey(PKCS11KeyId keyId) throws TokenException {
+    return (keyId == null) ? null : token.getKey(session(), keyId);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#getKey(AttributeVector)}, with the leased session.
+   */
+  public PKCS11Key getKey(AttributeVector criteria) throws TokenException {
+    Session session = session();
+    PKCS11KeyId keyId = token.getKeyId(session, criteria);
+    return (keyId == null) ? null : token.getKey(session, keyId);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#getKeyId(AttributeVector)}, with the leased session.
+   */
+  public PKCS11KeyId getKeyId(AttributeVector criteria) throws TokenException {
+    return token.getKeyId(session(), criteria);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#findAllObjects(AttributeVector)}, with the leased session.
+   */
+  public long[] findAllObjects(AttributeVector template) throws TokenException {
+    return token.findAllObjects(session(), template);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#findObjects(AttributeVector, int)}, with the leased session.
+   */
+  public long[] findObjects(AttributeVector template, int maxObjectCount) throws TokenException {
+    return token.findObjects(session(), template, maxObjectCount);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#findObjects(FrozenTemplate, int)}, with the leased session.
+   */
+  public long[] findObjects(FrozenTemplate template, int maxObjectCount) throws TokenException {
+    return token.findObjects(session(), template, maxObjectCount);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#encrypt(Mechanism, long, byte[])}, with the leased session.
+   */
+  public byte[] encrypt(Mechanism mechanism, long keyHandle, byte[] plaintext) throws TokenException {
+    return token.encrypt(session(), mechanism, keyHandle, plaintext);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#encrypt(Mechanism, long, byte[], int, int, byte[], int, int)}, with the leased session.
+   */
+  public int encrypt(Mechanism mechanism, long keyHandle, byte[] in, int inOfs, int inLen,
+                     byte[] out, int outOfs, int outLen) throws TokenException {
+    return token.encrypt(session(), mechanism, keyHandle, in, inOfs, inLen, out, outOfs, outLen);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#encrypt(OutputStream, Mechanism, long, InputStream)}, with the leased session.
+   */
+  public int encrypt(OutputStream out, Mechanism mechanism, long keyHandle, InputStream plaintext)
+      throws TokenException, IOException {
+    return token.encrypt(session(), out, mechanism, keyHandle, plaintext);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#decrypt(Mechanism, long, byte[])}, with the leased session.
+   */
+  public byte[] decrypt(Mechanism mechanism, long keyHandle, byte[] ciphertext) throws TokenException {
+    return token.decrypt(session(), mechanism, keyHandle, ciphertext);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#decrypt(Mechanism, long, byte[], int, int, byte[], int, int)}, with the leased session.
+   */
+  public int decrypt(Mechanism mechanism, long keyHandle, byte[] in, int inOfs, int inLen,
+                     byte[] out, int outOfs, int outLen) throws TokenException {
+    return token.decrypt(session(), mechanism, keyHandle, in, inOfs, inLen, out, outOfs, outLen);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#decrypt(OutputStream, Mechanism, long, InputStream)}, with the leased session.
+   */
+  public int decrypt(OutputStream out, Mechanism mechanism, long keyHandle, InputStream ciphertext)
+      throws TokenException, IOException {
+    return token.decrypt(session(), out, mechanism, keyHandle, ciphertext);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#digest(Mechanism, byte[])}, with the leased session.
+   */
+  public byte[] digest(Mechanism mechanism, byte[] data) throws TokenException {
+    return token.digest(session(), mechanism, data);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#digestKey(Mechanism, long)}, with the leased session.
+   */
+  public byte[] digestKey(Mechanism mechanism, long keyHandle) throws TokenException {
+    return token.digestKey(session(), mechanism, keyHandle);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#digest(Mechanism, InputStream)}, with the leased session.
+   */
+  public byte[] digest(Mechanism mechanism, InputStream data) throws TokenException, IOException {
+    return token.digest(session(), mechanism, data);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#sign(Mechanism, long, byte[])}, with the leased session.
+   */
+  public byte[] sign(Mechanism mechanism, long keyHandle, byte[] data) throws TokenException {
+    return token.sign(session(), mechanism, keyHandle, data);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#sign(Mechanism, long, byte[], int, int, byte[], int, int)}, with the leased session.
+   */
+  public int sign(Mechanism mechanism, long keyHandle, byte[] in, int inOfs, int inLen,
+                  byte[] out, int outOfs, int outLen) throws TokenException {
+    return token.sign(session(), mechanism, keyHandle, in, inOfs, inLen, out, outOfs, outLen);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#sign(Mechanism, long, InputStream)}, with the leased session.
+   */
+  public byte[] sign(Mechanism mechanism, long keyHandle, InputStream data)
+      throws TokenException, IOException {
+    return token.sign(session(), mechanism, keyHandle, data);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#signRecover(Mechanism, long, byte[])}, with the leased session.
+   */
+  public byte[] signRecover(Mechanism mechanism, long keyHandle, byte[] data) throws TokenException {
+    return token.signRecover(session(), mechanism, keyHandle, data);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#verify(Mechanism, long, byte[], byte[])}, with the leased session.
+   */
+  public boolean verify(Mechanism mechanism, long keyHandle, byte[] data, byte[] signature) throws TokenException {
+    return token.verify(session(), mechanism, keyHandle, data, signature);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#verify(Mechanism, long, InputStream, byte[])}, with the leased session.
+   */
+  public boolean verify(Mechanism mechanism, long keyHandle, InputStream data, byte[] signature)
+      throws TokenException, IOException {
+    return token.verify(session(), mechanism, keyHandle, data, signature);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#verifyRecover(Mechanism, long, byte[])}, with the leased session.
+   */
+  public byte[] verifyRecover(Mechanism mechanism, long keyHandle, byte[] data) throws TokenException {
+    return token.verifyRecover(session(), mechanism, keyHandle, data);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#generateKey(Mechanism, AttributeVector)}, with the leased session.
+   */
+  public long generateKey(Mechanism mechanism, AttributeVector template) throws TokenException {
+    return token.generateKey(session(), mechanism, template);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#generateKey(Mechanism, FrozenTemplate)}, with the leased session.
+   */
+  public long generateKey(Mechanism mechanism, FrozenTemplate template) throws TokenException {
+    return token.generateKey(session(), mechanism, template);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#generateKeyPair(Mechanism, KeyPairTemplate)}, with the leased session.
+   */
+  public PKCS11KeyPair generateKeyPair(Mechanism mechanism, KeyPairTemplate template) throws TokenException {
+    return token.generateKeyPair(session(), mechanism, template);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#generateKeyPair(Mechanism, FrozenTemplate, FrozenTemplate)}, with the leased session.
+   */
+  public PKCS11KeyPair generateKeyPair(
+      Mechanism mechanism, FrozenTemplate publicKeyTemplate, FrozenTemplate privateKeyTemplate)
+      throws TokenException {
+    return token.generateKeyPair(session(), mechanism, publicKeyTemplate, privateKeyTemplate);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#wrapKey(Mechanism, long, long)}, with the leased session.
+   */
+  public byte[] wrapKey(Mechanism mechanism, long wrappingKeyHandle, long keyHandle) throws TokenException {
+    return token.wrapKey(session(), mechanism, wrappingKeyHandle, keyHandle);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#unwrapKey(Mechanism, long, byte[], AttributeVector)}, with the leased session.
+   */
+  public long unwrapKey(Mechanism mechanism, long unwrappingKeyHandle, byte[] wrappedKey,
+                        AttributeVector keyTemplate) throws TokenException {
+    return token.unwrapKey(session(), mechanism, unwrappingKeyHandle, wrappedKey, keyTemplate);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#deriveKey(Mechanism, long, AttributeVector)}, with the leased session.
+   */
+  public long deriveKey(Mechanism mechanism, long baseKeyHandle, AttributeVector template) throws TokenException {
+    return token.deriveKey(session(), mechanism, baseKeyHandle, template);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#generateRandom(int)}, with the leased session.
+   */
+  public byte[] generateRandom(int numberOfBytesToGenerate) throws TokenException {
+    return generateRandom(numberOfBytesToGenerate, null);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#generateRandom(int, byte[])}, with the leased session.
+   */
+  public byte[] generateRandom(int numberOfBytesToGenerate, byte[] extraSeed) throws TokenException {
+    return token.generateRandom(session(), numberOfBytesToGenerate, extraSeed);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#encryptMessages(Mechanism, long, EncryptMessageBytesEntry[])}, with the leased session.
+   */
+  public byte[][] encryptMessages(Mechanism mechanism, long keyHandle, EncryptMessageBytesEntry[] entries)
+      throws TokenException {
+    return token.encryptMessages(session(), mechanism, keyHandle, entries);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#encryptMessages(Mechanism, long, EncryptMessageStreamEntry[])}, with the leased session.
+   */
+  public int[] encryptMessages(Mechanism mechanism, long keyHandle, EncryptMessageStreamEntry[] entries)
+      throws TokenException, IOException {
+    return token.encryptMessages(session(), mechanism, keyHandle, entries);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#decryptMessages(Mechanism, long, DecryptMessageBytesEntry[])}, with the leased session.
+   */
+  public byte[][] decryptMessages(Mechanism mechanism, long keyHandle, DecryptMessageBytesEntry[] entries)
+      throws TokenException {
+    return token.decryptMessages(session(), mechanism, keyHandle, entries);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#decryptMessages(Mechanism, long, DecryptMessageStreamEntry[])}, with the leased session.
+   */
+  public int[] decryptMessages(Mechanism mechanism, long keyHandle, DecryptMessageStreamEntry[] entries)
+      throws TokenException, IOException {
+    return token.decryptMessages(session(), mechanism, keyHandle, entries);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#signMessages(Mechanism, long, SignMessageBytesEntry[])}, with the leased session.
+   */
+  public byte[][] signMessages(Mechanism mechanism, long keyHandle, SignMessageBytesEntry[] entries)
+      throws TokenException {
+    return token.signMessages(session(), mechanism, keyHandle, entries);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#signMessages(Mechanism, long, SignMessageStreamEntry[])}, with the leased session.
+   */
+  public byte[][] signMessages(Mechanism mechanism, long keyHandle, SignMessageStreamEntry[] entries)
+      throws TokenException, IOException {
+    return token.signMessages(session(), mechanism, keyHandle, entries);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#verifyMessages(Mechanism, long, VerifyMessageBytesEntry[])}, with the leased session.
+   */
+  public boolean[] verifyMessages(Mechanism mechanism, long keyHandle, VerifyMessageBytesEntry[] entries)
+      throws TokenException {
+    return token.verifyMessages(session(), mechanism, keyHandle, entries);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#verifyMessages(Mechanism, long, VerifyMessageStreamEntry[])}, with the leased session.
+   */
+  public boolean[] verifyMessages(Mechanism mechanism, long keyHandle, VerifyMessageStreamEntry[] entries)
+      throws TokenException, IOException {
+    return token.verifyMessages(session(), mechanism, keyHandle, entries);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#getAttrValues(long, long...)}, with the leased session.
+   */
+  public AttributeVector getAttrValues(long objectHandle, long... attributeTypes) throws TokenException {
+    List<Long> typeList = new ArrayList<>(attributeTypes.length);
+    for (long attrType : attributeTypes) {
+      typeList.add(attrType);
+    }
+    return getAttrValues(objectHandle, typeList);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#getAttrValues(long, List)}, with the leased session.
+   */
+  public AttributeVector getAttrValues(long objectHandle, List<Long> attributeTypes) throws TokenException {
+    return token.getAttrValues(session(), objectHandle, attributeTypes);
+  }
+
+  /**
+   * Same as {@link PKCS11Token#getDefaultAttrValues(long)}, with the leased session.
+   */
+  public AttributeVector getDefaultAttrValues(long objectHandle) throws TokenException {
+    return token.getDefaultAttrValues(session(), objectHandle);
+  }
+}
@@ -9,10 +9,13 @@ package org.xipki.pkcs11.wrapper.attrs;
 import iaik.pkcs.pkcs11.wrapper.CK_ATTRIBUTE;
 import org.xipki.pkcs11.wrapper.AttributeVector;
 import org.xipki.pkcs11.wrapper.Functions;
+import org.xipki.pkcs11.wrapper.LongMap;
 
 import java.math.BigInteger;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 import static org.xipki.pkcs11.wrapper.PKCS11Constants.*;
 
@@ -47,7 +50,11 @@ public abstract class Attribute {
     MECHANISMARRAY
   }
 
-  private static final Map<Long, AttrType> attributeTypes;
+  /**
+   * Data type per attribute type. Replaced by a modified copy in {@link #putAttributeValueType(long, AttrType)},
+   * so that it can be read without locking.
+   */
+  private static volatile LongMap<AttrType> attributeTypes;
 
   /**
    * True, if the object really possesses this attribute.
@@ -65,8 +72,38 @@ public abstract class Attribute {
    */
   protected CK_ATTRIBUTE ckAttribute;
 
+  /**
+   * Converter of the raw value as returned by the device, applied on first access to the value.
+   * Null if there is no pending conversion. Cleared only after the converted value has been
+   * written, so that a thread which sees no pending conversion also sees the converted value.
+   */
+  private volatile UnaryOperator<Object> converter;
+
+  /**
+   * The raw value as returned by the device, null if the value has not been converted.
+   */
+  private volatile Object rawValue;
+
+  /**
+   * The last decoded value, together with the value from which it has been decoded.
+   */
+  private volatile Decoded decoded;
+
+  private static final class Decoded {
+
+    private final Object from;
+
+    private final Object value;
+
+    Decoded(Object from, Object value) {
+      this.from = from;
+      this.value = value;
+    }
+
+  }
+
   static {
-    attributeTypes = new HashMap<>(130);
+    LongMap<AttrType> types = new LongMap<>(130);
     String propFile = "org/xipki/pkcs11/wrapper/type-CKA.properties";
     Properties props = new Properties();
     try {
@@ -79,21 +116,22 @@ public abstract class Attribute {
           throw new IllegalStateException("unknown CKA: " + name);
         }
 
-        if (attributeTypes.containsKey(code)) {
+        if (types.containsKey(code)) {
           throw new IllegalStateException("duplicated definition of CKA: " + name);
         }
 
         AttrType attrType = AttrType.valueOf(type.toUpperCase(Locale.ROOT));
 
-        attributeTypes.put(code, attrType);
+        types.put(code, attrType);
       }
     } catch (Throwable t) {
       throw new IllegalStateException("error reading properties file " + propFile + ": " + t.getMessage());
     }
 
-    if (attributeTypes.isEmpty()) {
+    if (types.isEmpty()) {
       throw new IllegalStateException("no code to name map is defined properties file " + propFile);
     }
+    attributeTypes = types;
   }
 
   /**
@@ -102,16 +140,27 @@ public abstract class Attribute {
    * @param attrType the data type.
    * @return true if set, false otherwise.
    */
-  public static boolean putAttributeValueType(long type, AttrType attrType) {
+  public static synchronized boolean putAttributeValueType(long type, AttrType attrType) {
     AttrType attrType0 = attributeTypes.get(type);
     if (attrType0 == null) {
-      attributeTypes.put(type, attrType);
+      LongMap<AttrType> types = attributeTypes.copy();
+      types.put(type, attrType);
+      attributeTypes = types;
       return true;
     } else {
       return attrType0 == attrType;
     }
   }
 
+  /**
+   * Get the data type {@link AttrType} of the given attribute type.
+   * @param type the attribute type
+   * @return the data type, or null if unknown.
+   */
+  public static AttrType getAttributeValueType(long type) {
+    return attributeTypes.get(type);
+  }
+
   public abstract Object getValue();
 
   /**
@@ -210,11 +259,97 @@ public abstract class Attribute {
    *          The new CK_ATTRIBUTE of this Attribute.
    * @return a reference to this object.
    */
-  public Attribute ckAttribute(CK_ATTRIBUTE ckAttribute) {
+  public synchronized Attribute ckAttribute(CK_ATTRIBUTE ckAttribute) {
     this.ckAttribute = Functions.requireNonNull("ckAttribute", ckAttribute);
+    converter = null;
+    rawValue = null;
+    return this;
+  }
+
+  /**
+   * Set the conversion of the current value, e.g. the mapping of vendor codes, which is applied on
+   * first access to the value. The current value is kept as raw value. Only for internal use.
+   *
+   * @param converter
+   *          The converter of the raw value.
+   * @return a reference to this object.
+   */
+  public synchronized Attribute convertValue(UnaryOperator<Object> converter) {
+    Functions.requireNonNull("converter", converter);
+    this.rawValue = ckAttribute.pValue;
+    this.converter = converter;
     return this;
   }
 
+  /**
+   * Get the raw value as returned by the device, before any conversion.
+   *
+   * @return the raw value.
+   */
+  public Object getRawValue() {
+    return rawValue != null ? rawValue : ckAttribute.pValue;
+  }
+
+  /**
+   * Get the value of the CK_ATTRIBUTE, converted on first access. The conversion is applied at most
+   * once, also if several threads read the value concurrently. If the converter fails, the
+   * conversion stays pending and the exception is thrown to the caller.
+   *
+   * @return the value.
+   */
+  protected Object value() {
+    if (converter != null) {
+      synchronized (this) {
+        UnaryOperator<Object> converter0 = converter;
+        if (converter0 != null) {
+          Object rawValue0 = rawValue;
+          // the value has not been replaced meanwhile.
+          if (ckAttribute.pValue == rawValue0 && rawValue0 != null) {
+            ckAttribute.pValue = converter0.apply(rawValue0);
+          }
+          converter = null;
+        }
+      }
+    }
+    return ckAttribute.pValue;
+  }
+
+  /**
+   * Set the value of the CK_ATTRIBUTE, discarding any pending conversion.
+   *
+   * @param value
+   *          The new value.
+   */
+  protected synchronized void value(Object value) {
+    ckAttribute.pValue = value;
+    rawValue = null;
+    converter = null;
+  }
+
+  /**
+   * Get the value decoded by the decoder. The decoded value is cached until the value is replaced,
+   * hence the decoder must return an immutable object.
+   *
+   * @param decoder
+   *          The decoder of the non-null value.
+   * @param <T> the type of the decoded value.
+   * @return the decoded value, or null if the value is null.
+   */
+  @SuppressWarnings("unchecked")
+  protected <T> T decodedValue(Function<Object, T> decoder) {
+    Object value = value();
+    if (value == null) {
+      return null;
+    }
+
+    Decoded decoded0 = decoded;
+    if (decoded0 == null || decoded0.from != value) {
+      decoded0 = new Decoded(value, decoder.apply(value));
+      decoded = decoded0;
+    }
+    return (T) decoded0.value;
+  }
+
   /**
    * Check, if this attribute is really present in the associated object.
    *
@@ -241,6 +376,7 @@ public abstract class Attribute {
    * @return The CK_ATTRIBUTE of this Attribute.
    */
   public CK_ATTRIBUTE getCkAttribute() {
+    value();
     return ckAttribute;
   }
 
@@ -259,7 +395,7 @@ public abstract class Attribute {
     }
 
     long type = ckAttribute.type;
-    Object value = ckAttribute.pValue;
+    Object value = value();
 
     if (type == CKA_CLASS) {
       return ckoCodeToName((long) value);
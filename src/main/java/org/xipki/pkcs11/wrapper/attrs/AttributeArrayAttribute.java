@@ -48,7 +48,7 @@ public class AttributeArrayAttribute extends Attribute {
    */
   public AttributeArrayAttribute attributeArrayValue(AttributeVector value) {
     template = value;
-    ckAttribute.pValue = value == null ? null : value.toCkAttributes();
+    value(value == null ? null : value.toCkAttributes());
     present = true;
     return this;
   }
@@ -64,11 +64,11 @@ public class AttributeArrayAttribute extends Attribute {
       return template;
     }
 
-    if (isNullValue() || ((CK_ATTRIBUTE[]) ckAttribute.pValue).length == 0) {
+    if (isNullValue() || ((CK_ATTRIBUTE[]) value()).length == 0) {
       return null;
     }
 
-    CK_ATTRIBUTE[] attributesArray = (CK_ATTRIBUTE[]) ckAttribute.pValue;
+    CK_ATTRIBUTE[] attributesArray = (CK_ATTRIBUTE[]) value();
     AttributeVector template = new AttributeVector();
     for (CK_ATTRIBUTE ck_attribute : attributesArray) {
       long type = ck_attribute.type;
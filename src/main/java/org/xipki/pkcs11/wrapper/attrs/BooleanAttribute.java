@@ -34,7 +34,7 @@ public class BooleanAttribute extends Attribute {
    * @return a reference to this object.
    */
   public BooleanAttribute booleanValue(Boolean value) {
-    ckAttribute.pValue = value;
+    value(value);
     present = true;
     return this;
   }
@@ -46,12 +46,12 @@ public class BooleanAttribute extends Attribute {
    */
   @Override
   public Boolean getValue() {
-    return (Boolean) ckAttribute.pValue;
+    return (Boolean) value();
   }
 
   @Override
   protected String getValueString() {
-    return isNullValue() ? "<NULL_PTR>" : (boolean) ckAttribute.pValue ? "TRUE" : "FALSE";
+    return isNullValue() ? "<NULL_PTR>" : (boolean) value() ? "TRUE" : "FALSE";
   }
 
 }
@@ -40,7 +40,7 @@ public class ByteArrayAttribute extends Attribute {
    * @return a reference to this object.
    */
   public ByteArrayAttribute byteArrayValue(byte[] value) {
-    ckAttribute.pValue = value;
+    value(value);
     present = true;
     return this;
   }
@@ -65,15 +65,15 @@ public class ByteArrayAttribute extends Attribute {
    */
   @Override
   public byte[] getValue() {
-    return (byte[]) ckAttribute.pValue;
+    return (byte[]) value();
   }
 
   public BigInteger getBigIntValue() {
-    return isNullValue() ? null : new BigInteger(1, (byte[]) ckAttribute.pValue);
+    return decodedValue(v -> new BigInteger(1, (byte[]) v));
   }
 
   public BigInteger getSignedBigIntValue() {
-    return isNullValue() ? null : new BigInteger((byte[]) ckAttribute.pValue);
+    return isNullValue() ? null : new BigInteger((byte[]) value());
   }
 
   /**
@@ -87,7 +87,7 @@ public class ByteArrayAttribute extends Attribute {
       return "<NULL_PTR>";
     }
 
-    byte[] value = (byte[]) ckAttribute.pValue;
+    byte[] value = (byte[]) value();
     String text = "byte[" + value.length + "]\n" + Functions.toString("    ", value);
     if (type() != PKCS11Constants.CKA_EC_PARAMS) {
       return text;
@@ -34,7 +34,7 @@ public class CharArrayAttribute extends Attribute {
    * @return a reference to this object.
    */
   protected CharArrayAttribute charArrayValue(char[] value) {
-    ckAttribute.pValue = value;
+    value(value);
     present = true;
     return this;
   }
@@ -58,7 +58,7 @@ public class CharArrayAttribute extends Attribute {
    */
   @Override
   public String getValue() {
-    return isNullValue() ? null : new String((char[]) ckAttribute.pValue);
+    return decodedValue(v -> new String((char[]) v));
   }
 
   /**
@@ -41,7 +41,7 @@ public class DateAttribute extends Attribute {
    */
   public DateAttribute dateValue(Instant value) {
     if (value == null) {
-      ckAttribute.pValue = null;
+      value(null);
     } else {
       //poor memory/performance behavior, consider alternatives
       ZonedDateTime utcTime = ZonedDateTime.ofInstant(value, ZoneOffset.UTC);
@@ -50,7 +50,7 @@ public class DateAttribute extends Attribute {
       int day = utcTime.getDayOfMonth();
 
       CK_DATE ckDate = new CK_DATE();
-      ckAttribute.pValue = ckDate;
+      value(ckDate);
 
       ckDate.year  = Integer.toString(year).toCharArray();
       ckDate.month = (month < 10 ? "0" + month: Integer.toString(month)).toCharArray();
@@ -67,11 +67,11 @@ public class DateAttribute extends Attribute {
    */
   @Override
   public Instant getValue() {
-    if (isNullValue()) {
-      return null;
-    }
+    return decodedValue(DateAttribute::toInstant);
+  }
 
-    CK_DATE ckDate = (CK_DATE) ckAttribute.pValue;
+  private static Instant toInstant(Object value) {
+    CK_DATE ckDate = (CK_DATE) value;
     int year  = Integer.parseInt(new String(ckDate.year));
     int month = Integer.parseInt(new String(ckDate.month));
     int day   = Integer.parseInt(new String(ckDate.day));
@@ -83,7 +83,7 @@ public class DateAttribute extends Attribute {
     if (isNullValue()) {
       return "<NULL_PTR>";
     } else {
-      CK_DATE ckDate = (CK_DATE) ckAttribute.pValue;
+      CK_DATE ckDate = (CK_DATE) value();
       return new String(ckDate.year) + "." + new String(ckDate.month) + "." + new String(ckDate.day);
     }
   }
@@ -34,7 +34,7 @@ public class LongAttribute extends Attribute {
    * @return a reference to this object.
    */
   public LongAttribute longValue(Long value) {
-    ckAttribute.pValue = value;
+    value(value);
     present = true;
     return this;
   }
@@ -46,7 +46,7 @@ public class LongAttribute extends Attribute {
    */
   @Override
   public Long getValue() {
-    return (Long) ckAttribute.pValue;
+    return (Long) value();
   }
 
   /**
@@ -55,7 +55,8 @@ public class LongAttribute extends Attribute {
    * @return The int value of this attribute or null.
    */
   public Integer getIntValue() {
-    return ckAttribute.pValue == null ? null : ((Long) ckAttribute.pValue).intValue();
+    Long value = getValue();
+    return value == null ? null : value.intValue();
   }
 
   /**
@@ -68,7 +69,7 @@ public class LongAttribute extends Attribute {
    * @return A string representation of the value of this attribute.
    */
   public String toString(int radix) {
-    String valueText = isNullValue() ? "<NULL_PTR>" : Long.toString(((Long) ckAttribute.pValue), radix);
+    String valueText = isNullValue() ? "<NULL_PTR>" : Long.toString(((Long) value()), radix);
     return present ? (sensitive ? "<Value is sensitive>" : valueText) : "<Attribute not present>";
   }
 
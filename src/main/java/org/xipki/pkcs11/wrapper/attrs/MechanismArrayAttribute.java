@@ -38,7 +38,7 @@ public class MechanismArrayAttribute extends Attribute {
    * @return a reference to this object.
    */
   public MechanismArrayAttribute mechanismAttributeArrayValue(long[] value) {
-    ckAttribute.pValue = value.clone();
+    value(value.clone());
     present = true;
     return this;
   }
@@ -51,7 +51,7 @@ public class MechanismArrayAttribute extends Attribute {
    */
   @Override
   public long[] getValue() {
-    return isNullValue() ? null : ((long[]) ckAttribute.pValue).clone();
+    return isNullValue() ? null : ((long[]) value()).clone();
   }
 
   /**
@@ -37,7 +37,7 @@ public class MechanismAttribute extends LongAttribute {
    * @return a reference to this object.
    */
   public MechanismAttribute mechanism(Long mechanism) {
-    ckAttribute.pValue = mechanism;
+    value(mechanism);
     present = true;
     return this;
   }
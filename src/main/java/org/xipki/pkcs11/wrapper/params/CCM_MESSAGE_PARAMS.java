@@ -5,6 +5,7 @@ package org.xipki.pkcs11.wrapper.params;
 
 import iaik.pkcs.pkcs11.wrapper.CK_CCM_MESSAGE_PARAMS;
 import org.xipki.pkcs11.wrapper.PKCS11Constants;
+import org.xipki.pkcs11.wrapper.PKCS11Module;
 
 /**
  * Represents the CCM_MESSAGE_PARAMS.
@@ -37,6 +38,11 @@ public class CCM_MESSAGE_PARAMS extends CkParams implements CkMessageParams {
 
   @Override
   public CK_CCM_MESSAGE_PARAMS getParams() {
+    return getParams(module);
+  }
+
+  @Override
+  public CK_CCM_MESSAGE_PARAMS getParams(PKCS11Module module) {
     if (module == null) {
       return params;
     }
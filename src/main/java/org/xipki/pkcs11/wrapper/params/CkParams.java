@@ -26,6 +26,18 @@ public abstract class CkParams {
    */
   public abstract Object getParams();
 
+  /**
+   * Get this parameters object as an object of the corresponding *_PARAMS class, with the
+   * vendor codes of the given module. Unlike {@link #setModule(PKCS11Module)} followed by
+   * {@link #getParams()}, the module of this object is not changed.
+   *
+   * @param module The module whose vendor codes are used. May be null.
+   * @return The object of the corresponding *_PARAMS class.
+   */
+  public Object getParams(PKCS11Module module) {
+    return getParams();
+  }
+
   protected abstract int getMaxFieldLen();
 
   public abstract String toString(String indent);
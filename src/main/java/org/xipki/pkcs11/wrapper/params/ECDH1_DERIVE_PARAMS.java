@@ -4,6 +4,7 @@
 package org.xipki.pkcs11.wrapper.params;
 
 import iaik.pkcs.pkcs11.wrapper.CK_ECDH1_DERIVE_PARAMS;
+import org.xipki.pkcs11.wrapper.PKCS11Module;
 
 import static org.xipki.pkcs11.wrapper.PKCS11Constants.Category;
 
@@ -37,6 +38,11 @@ public class ECDH1_DERIVE_PARAMS extends CkParams {
 
   @Override
   public CK_ECDH1_DERIVE_PARAMS getParams() {
+    return getParams(module);
+  }
+
+  @Override
+  public CK_ECDH1_DERIVE_PARAMS getParams(PKCS11Module module) {
     if (module == null) {
       return params;
     }
@@ -5,6 +5,7 @@ package org.xipki.pkcs11.wrapper.params;
 
 import iaik.pkcs.pkcs11.wrapper.CK_ECMQV_DERIVE_PARAMS;
 import org.xipki.pkcs11.wrapper.PKCS11Constants.Category;
+import org.xipki.pkcs11.wrapper.PKCS11Module;
 
 /**
  * Represents the CK_ECMQV_DERIVE_PARAMS.
@@ -49,6 +50,11 @@ public class ECMQV_DERIVE_PARAMS extends CkParams {
 
   @Override
   public CK_ECMQV_DERIVE_PARAMS getParams() {
+    return getParams(module);
+  }
+
+  @Override
+  public CK_ECMQV_DERIVE_PARAMS getParams(PKCS11Module module) {
     if (module == null ) {
       return params;
     }
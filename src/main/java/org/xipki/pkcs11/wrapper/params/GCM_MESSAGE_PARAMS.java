@@ -5,6 +5,7 @@ package org.xipki.pkcs11.wrapper.params;
 
 import iaik.pkcs.pkcs11.wrapper.CK_GCM_MESSAGE_PARAMS;
 import org.xipki.pkcs11.wrapper.PKCS11Constants;
+import org.xipki.pkcs11.wrapper.PKCS11Module;
 
 /**
  * Represents the CK_GCM_MESSAGE_PARAMS.
@@ -34,6 +35,11 @@ public class GCM_MESSAGE_PARAMS extends CkParams implements CkMessageParams {
 
   @Override
   public CK_GCM_MESSAGE_PARAMS getParams() {
+    return getParams(module);
+  }
+
+  @Override
+  public CK_GCM_MESSAGE_PARAMS getParams(PKCS11Module module) {
     if (module == null) {
       return params;
     }
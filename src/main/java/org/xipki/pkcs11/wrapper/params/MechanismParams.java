@@ -4,6 +4,7 @@
 package org.xipki.pkcs11.wrapper.params;
 
 import org.xipki.pkcs11.wrapper.PKCS11Constants.Category;
+import org.xipki.pkcs11.wrapper.PKCS11Module;
 
 /**
  * This class encapsulates parameters CK_LONG.
@@ -29,6 +30,11 @@ public class MechanismParams extends CkParams {
 
   @Override
   public Long getParams() {
+    return getParams(module);
+  }
+
+  @Override
+  public Long getParams(PKCS11Module module) {
     if (module == null) {
       return params;
     }
@@ -5,6 +5,7 @@ package org.xipki.pkcs11.wrapper.params;
 
 import iaik.pkcs.pkcs11.wrapper.CK_PKCS5_PBKD2_PARAMS;
 import org.xipki.pkcs11.wrapper.PKCS11Constants;
+import org.xipki.pkcs11.wrapper.PKCS11Module;
 
 /**
  * Represents the CK_PKCS5_PBKD2_PARAMS.
@@ -46,6 +47,11 @@ public class PKCS5_PBKD2_PARAMS extends CkParams {
 
   @Override
   public CK_PKCS5_PBKD2_PARAMS getParams() {
+    return getParams(module);
+  }
+
+  @Override
+  public CK_PKCS5_PBKD2_PARAMS getParams(PKCS11Module module) {
     if (module == null) {
       return params;
     }
@@ -6,6 +6,7 @@ package org.xipki.pkcs11.wrapper.params;
 import iaik.pkcs.pkcs11.wrapper.CK_RSA_AES_KEY_WRAP_PARAMS;
 import iaik.pkcs.pkcs11.wrapper.CK_RSA_PKCS_OAEP_PARAMS;
 import org.xipki.pkcs11.wrapper.PKCS11Constants;
+import org.xipki.pkcs11.wrapper.PKCS11Module;
 
 /**
  * Represents the CK_RSA_AES_KEY_WRAP_PARAMS.
@@ -31,6 +32,11 @@ public class RSA_AES_KEY_WRAP_PARAMS extends CkParams {
 
   @Override
   public CK_RSA_AES_KEY_WRAP_PARAMS getParams() {
+    return getParams(module);
+  }
+
+  @Override
+  public CK_RSA_AES_KEY_WRAP_PARAMS getParams(PKCS11Module module) {
     if (module == null) {
       return params;
     }
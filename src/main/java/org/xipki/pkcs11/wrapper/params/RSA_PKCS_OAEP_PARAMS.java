@@ -4,6 +4,7 @@
 package org.xipki.pkcs11.wrapper.params;
 
 import iaik.pkcs.pkcs11.wrapper.CK_RSA_PKCS_OAEP_PARAMS;
+import org.xipki.pkcs11.wrapper.PKCS11Module;
 
 import static org.xipki.pkcs11.wrapper.PKCS11Constants.CKZ_SALT_SPECIFIED;
 import static org.xipki.pkcs11.wrapper.PKCS11Constants.Category;
@@ -46,6 +47,11 @@ public class RSA_PKCS_OAEP_PARAMS extends CkParams {
 
   @Override
   public CK_RSA_PKCS_OAEP_PARAMS getParams() {
+    return getParams(module);
+  }
+
+  @Override
+  public CK_RSA_PKCS_OAEP_PARAMS getParams(PKCS11Module module) {
     if (module == null) {
       return params;
     }
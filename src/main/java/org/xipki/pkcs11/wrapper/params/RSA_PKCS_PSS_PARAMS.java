@@ -5,6 +5,7 @@ package org.xipki.pkcs11.wrapper.params;
 
 import iaik.pkcs.pkcs11.wrapper.CK_RSA_PKCS_PSS_PARAMS;
 import org.xipki.pkcs11.wrapper.PKCS11Constants.Category;
+import org.xipki.pkcs11.wrapper.PKCS11Module;
 
 /**
  * Represents the CK_RSA_PKCS_PSS_PARAMS.
@@ -35,6 +36,11 @@ public class RSA_PKCS_PSS_PARAMS extends CkParams {
 
   @Override
   public CK_RSA_PKCS_PSS_PARAMS getParams() {
+    return getParams(module);
+  }
+
+  @Override
+  public CK_RSA_PKCS_PSS_PARAMS getParams(PKCS11Module module) {
     if (module == null) {
       return params;
     }
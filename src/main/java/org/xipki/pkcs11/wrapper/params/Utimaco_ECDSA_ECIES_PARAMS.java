@@ -5,6 +5,7 @@ package org.xipki.pkcs11.wrapper.params;
 
 import iaik.pkcs.pkcs11.wrapper.CK_ECDSA_ECIES_PARAMS;
 import org.xipki.pkcs11.wrapper.PKCS11Constants.Category;
+import org.xipki.pkcs11.wrapper.PKCS11Module;
 
 /**
  * Represents Utimaco's vendor CK_ECDSA_ECIES_PARAMS, which is used in
@@ -54,6 +55,11 @@ public class Utimaco_ECDSA_ECIES_PARAMS extends CkParams {
 
   @Override
   public CK_ECDSA_ECIES_PARAMS getParams() {
+    return getParams(module);
+  }
+
+  @Override
+  public CK_ECDSA_ECIES_PARAMS getParams(PKCS11Module module) {
     if (module == null) {
       return params;
     }
@@ -6,6 +6,7 @@ package org.xipki.pkcs11.wrapper.params;
 import iaik.pkcs.pkcs11.wrapper.CK_X9_42_DH2_DERIVE_PARAMS;
 import org.xipki.pkcs11.wrapper.PKCS11Constants;
 import org.xipki.pkcs11.wrapper.PKCS11Constants.Category;
+import org.xipki.pkcs11.wrapper.PKCS11Module;
 
 /**
  * Represents the CK_X9_42_DH2_DERIVE_PARAMS.
@@ -29,6 +30,11 @@ public class X9_42_DH2_DERIVE_PARAMS extends CkParams {
 
   @Override
   public CK_X9_42_DH2_DERIVE_PARAMS getParams() {
+    return getParams(module);
+  }
+
+  @Override
+  public CK_X9_42_DH2_DERIVE_PARAMS getParams(PKCS11Module module) {
     if (module == null) {
       return params;
     }
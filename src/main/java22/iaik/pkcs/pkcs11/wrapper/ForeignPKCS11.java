@@ -0,0 +1,1953 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package iaik.pkcs.pkcs11.wrapper;
+
+import org.xipki.pkcs11.wrapper.attrs.Attribute;
+import org.xipki.pkcs11.wrapper.attrs.Attribute.AttrType;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import static org.xipki.pkcs11.wrapper.PKCS11Constants.*;
+
+/**
+ * Implementation of the {@link PKCS11} interface based on the Foreign Function and Memory API
+ * (java.lang.foreign) of Java 22. It calls the C_* functions of the PKCS#11 module directly,
+ * without the native library pkcs11wrapper, and is selected by the module path
+ * <code>java:iaik.pkcs.pkcs11.wrapper.ForeignPKCS11:&lt;module path&gt;</code>, see
+ * {@code org.xipki.pkcs11.wrapper.PKCS11Module#getInstance(String)}. Since it links native code,
+ * the JVM should be started with <code>--enable-native-access=ALL-UNNAMED</code> (or the name of
+ * the module containing this class).
+ * <p>
+ * The functions are taken from the CK_FUNCTION_LIST returned by C_GetFunctionList, and looked up
+ * by name if not available there. Templates and mechanisms are marshalled into native buffers
+ * which are pooled and reused by subsequent calls; the used part of a buffer is zeroed before it
+ * is returned to the pool. The output buffer of a single-part operation is allocated with the size
+ * given by the output size hint, e.g. {@link #C_SignSingle(long, CK_MECHANISM, long, byte[], int, boolean)},
+ * so that the operation needs only one call; without hint, the size is queried first. Multi-part
+ * updates reserve the input length plus 32 bytes. A direct {@link ByteBuffer} is passed to the
+ * module without copying.
+ * <p>
+ * Limitations compared to {@link PKCS11Implementation}:
+ * <ul>
+ *   <li>Mechanism parameters of type byte[], Long, {@link CK_RSA_PKCS_PSS_PARAMS},
+ *   {@link CK_RSA_PKCS_OAEP_PARAMS}, {@link CK_GCM_PARAMS}, {@link CK_CCM_PARAMS},
+ *   {@link CK_ECDH1_DERIVE_PARAMS}, {@link CK_KEY_DERIVATION_STRING_DATA} and
+ *   {@link CK_AES_CBC_ENCRYPT_DATA_PARAMS} are supported, others are rejected with
+ *   CKR_MECHANISM_PARAM_INVALID.</li>
+ *   <li>The message-based functions of PKCS#11 3.0 return CKR_FUNCTION_NOT_SUPPORTED.</li>
+ *   <li>Mutex callbacks in {@link CK_C_INITIALIZE_ARGS} and the notification callback of
+ *   C_OpenSession are not supported.</li>
+ * </ul>
+ * The layout of the structures follows the PKCS#11 conventions: on Windows, CK_ULONG has 32 bits
+ * and the structures are packed with 1-byte alignment, elsewhere CK_ULONG is the C type long and
+ * the structures have the natural alignment.
+ *
+ * @author Lijun Liao (xipki)
+ */
+public class ForeignPKCS11 implements PKCS11 {
+
+  private static final boolean WINDOWS =
+      System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows");
+
+  private static final ValueLayout ULONG = WINDOWS ? ValueLayout.JAVA_INT : ValueLayout.JAVA_LONG;
+
+  private static final long ULONG_SIZE = ULONG.byteSize();
+
+  private static final long POINTER_SIZE = ValueLayout.ADDRESS.byteSize();
+
+  private static final long ULONG_MAX = WINDOWS ? 0xFFFFFFFFL : -1L;
+
+  private static final long NULL = 0L;
+
+  /**
+   * Additional output space of multi-part updates, i.e. a multiple of the block size.
+   */
+  private static final int UPDATE_OUTPUT_RESERVE = 32;
+
+  private static final CStruct ATTRIBUTE = new CStruct().ulong().pointer().ulong();
+
+  private static final CStruct MECHANISM = new CStruct().ulong().pointer().ulong();
+
+  private static final CStruct INFO = new CStruct().bytes(2).bytes(32).ulong().bytes(32).bytes(2);
+
+  private static final CStruct SLOT_INFO = new CStruct().bytes(64).bytes(32).ulong().bytes(2).bytes(2);
+
+  private static final CStruct TOKEN_INFO = new CStruct().bytes(32).bytes(32).bytes(16).bytes(16)
+      .ulong().ulong().ulong().ulong().ulong().ulong().ulong().ulong().ulong().ulong().ulong()
+      .bytes(2).bytes(2).bytes(16);
+
+  private static final CStruct SESSION_INFO = new CStruct().ulong().ulong().ulong().ulong();
+
+  private static final CStruct MECHANISM_INFO = new CStruct().ulong().ulong().ulong();
+
+  private static final CStruct INITIALIZE_ARGS =
+      new CStruct().pointer().pointer().pointer().pointer().ulong().pointer();
+
+  private static final CStruct PSS_PARAMS = new CStruct().ulong().ulong().ulong();
+
+  private static final CStruct OAEP_PARAMS = new CStruct().ulong().ulong().ulong().pointer().ulong();
+
+  private static final CStruct GCM_PARAMS =
+      new CStruct().pointer().ulong().ulong().pointer().ulong().ulong();
+
+  private static final CStruct CCM_PARAMS =
+      new CStruct().ulong().pointer().ulong().pointer().ulong().ulong();
+
+  private static final CStruct ECDH1_PARAMS = new CStruct().ulong().ulong().pointer().ulong().pointer();
+
+  private static final CStruct STRING_DATA_PARAMS = new CStruct().pointer().ulong();
+
+  private static final CStruct AES_CBC_ENCRYPT_DATA_PARAMS = new CStruct().bytes(16).pointer().ulong();
+
+  /**
+   * The functions of CK_FUNCTION_LIST in their order.
+   */
+  private static final String[] FUNCTION_LIST = {
+      "C_Initialize", "C_Finalize", "C_GetInfo", "C_GetFunctionList", "C_GetSlotList", "C_GetSlotInfo",
+      "C_GetTokenInfo", "C_GetMechanismList", "C_GetMechanismInfo", "C_InitToken", "C_InitPIN", "C_SetPIN",
+      "C_OpenSession", "C_CloseSession", "C_CloseAllSessions", "C_GetSessionInfo", "C_GetOperationState",
+      "C_SetOperationState", "C_Login", "C_Logout", "C_CreateObject", "C_CopyObject", "C_DestroyObject",
+      "C_GetObjectSize", "C_GetAttributeValue", "C_SetAttributeValue", "C_FindObjectsInit", "C_FindObjects",
+      "C_FindObjectsFinal", "C_EncryptInit", "C_Encrypt", "C_EncryptUpdate", "C_EncryptFinal", "C_DecryptInit",
+      "C_Decrypt", "C_DecryptUpdate", "C_DecryptFinal", "C_DigestInit", "C_Digest", "C_DigestUpdate",
+      "C_DigestKey", "C_DigestFinal", "C_SignInit", "C_Sign", "C_SignUpdate", "C_SignFinal",
+      "C_SignRecoverInit", "C_SignRecover", "C_VerifyInit", "C_Verify", "C_VerifyUpdate", "C_VerifyFinal",
+      "C_VerifyRecoverInit", "C_VerifyRecover", "C_DigestEncryptUpdate", "C_DecryptDigestUpdate",
+      "C_SignEncryptUpdate", "C_DecryptVerifyUpdate", "C_GenerateKey", "C_GenerateKeyPair", "C_WrapKey",
+      "C_UnwrapKey", "C_DeriveKey", "C_SeedRandom", "C_GenerateRandom", "C_GetFunctionStatus",
+      "C_CancelFunction", "C_WaitForSlotEvent"};
+
+  private static final CStruct FUNCTION_LIST_STRUCT;
+
+  private static final MethodHandle OF_ADDRESS;
+
+  private static final MethodHandle TO_UNSIGNED_LONG;
+
+  static {
+    CStruct struct = new CStruct().bytes(2);
+    for (int i = 0; i < FUNCTION_LIST.length; i++) {
+      struct.pointer();
+    }
+    FUNCTION_LIST_STRUCT = struct;
+
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      OF_ADDRESS = lookup.findStatic(MemorySegment.class, "ofAddress",
+          MethodType.methodType(MemorySegment.class, long.class));
+      TO_UNSIGNED_LONG = lookup.findStatic(Integer.class, "toUnsignedLong",
+          MethodType.methodType(long.class, int.class));
+    } catch (ReflectiveOperationException ex) {
+      throw new ExceptionInInitializerError(ex);
+    }
+  }
+
+  private final String pkcs11ModulePath;
+
+  /**
+   * The arena of the loaded PKCS#11 module, closing it unloads the module.
+   */
+  private final Arena library;
+
+  private final MethodHandle initialize;
+  private final MethodHandle finalize;
+  private final MethodHandle getInfo;
+  private final MethodHandle getSlotList;
+  private final MethodHandle getSlotInfo;
+  private final MethodHandle getTokenInfo;
+  private final MethodHandle getMechanismList;
+  private final MethodHandle getMechanismInfo;
+  private final MethodHandle initToken;
+  private final MethodHandle initPIN;
+  private final MethodHandle setPIN;
+  private final MethodHandle openSession;
+  private final MethodHandle closeSession;
+  private final MethodHandle closeAllSessions;
+  private final MethodHandle getSessionInfo;
+  private final MethodHandle sessionCancel;
+  private final MethodHandle getOperationState;
+  private final MethodHandle setOperationState;
+  private final MethodHandle login;
+  private final MethodHandle loginUser;
+  private final MethodHandle logout;
+  private final MethodHandle createObject;
+  private final MethodHandle copyObject;
+  private final MethodHandle destroyObject;
+  private final MethodHandle getObjectSize;
+  private final MethodHandle getAttributeValue;
+  private final MethodHandle setAttributeValue;
+  private final MethodHandle findObjectsInit;
+  private final MethodHandle findObjects;
+  private final MethodHandle findObjectsFinal;
+  private final MethodHandle encryptInit;
+  private final MethodHandle encrypt;
+  private final MethodHandle encryptUpdate;
+  private final MethodHandle encryptFinal;
+  private final MethodHandle decryptInit;
+  private final MethodHandle decrypt;
+  private final MethodHandle decryptUpdate;
+  private final MethodHandle decryptFinal;
+  private final MethodHandle digestInit;
+  private final MethodHandle digest;
+  private final MethodHandle digestUpdate;
+  private final MethodHandle digestKey;
+  private final MethodHandle digestFinal;
+  private final MethodHandle signInit;
+  private final MethodHandle sign;
+  private final MethodHandle signUpdate;
+  private final MethodHandle signFinal;
+  private final MethodHandle signRecoverInit;
+  private final MethodHandle signRecover;
+  private final MethodHandle verifyInit;
+  private final MethodHandle verify;
+  private final MethodHandle verifyUpdate;
+  private final MethodHandle verifyFinal;
+  private final MethodHandle verifyRecoverInit;
+  private final MethodHandle verifyRecover;
+  private final MethodHandle digestEncryptUpdate;
+  private final MethodHandle decryptDigestUpdate;
+  private final MethodHandle signEncryptUpdate;
+  private final MethodHandle decryptVerifyUpdate;
+  private final MethodHandle generateKey;
+  private final MethodHandle generateKeyPair;
+  private final MethodHandle wrapKey;
+  private final MethodHandle unwrapKey;
+  private final MethodHandle deriveKey;
+  private final MethodHandle seedRandom;
+  private final MethodHandle generateRandom;
+  private final MethodHandle getFunctionStatus;
+  private final MethodHandle cancelFunction;
+  private final MethodHandle waitForSlotEvent;
+
+  /**
+   * Loads the given PKCS#11 module.
+   *
+   * @param pkcs11ModulePath
+   *          the PKCS#11 library path
+   * @exception IOException
+   *              If loading the given module failed.
+   */
+  public ForeignPKCS11(String pkcs11ModulePath) throws IOException {
+    this.pkcs11ModulePath = pkcs11ModulePath;
+    this.library = Arena.ofShared();
+
+    Map<String, MemorySegment> functions;
+    try {
+      SymbolLookup lookup = (pkcs11ModulePath.indexOf('/') == -1 && pkcs11ModulePath.indexOf('\\') == -1)
+          ? SymbolLookup.libraryLookup(pkcs11ModulePath, library)
+          : SymbolLookup.libraryLookup(Path.of(pkcs11ModulePath), library);
+      functions = getFunctions(lookup);
+    } catch (RuntimeException ex) {
+      library.close();
+      throw new IOException("error loading PKCS#11 module " + pkcs11ModulePath + ": " + ex.getMessage(), ex);
+    }
+
+    initialize = downcall(functions, "C_Initialize", "A");
+    finalize = downcall(functions, "C_Finalize", "A");
+    getInfo = downcall(functions, "C_GetInfo", "A");
+    getSlotList = downcall(functions, "C_GetSlotList", "BAA");
+    getSlotInfo = downcall(functions, "C_GetSlotInfo", "LA");
+    getTokenInfo = downcall(functions, "C_GetTokenInfo", "LA");
+    getMechanismList = downcall(functions, "C_GetMechanismList", "LAA");
+    getMechanismInfo = downcall(functions, "C_GetMechanismInfo", "LLA");
+    initToken = downcall(functions, "C_InitToken", "LALA");
+    initPIN = downcall(functions, "C_InitPIN", "LAL");
+    setPIN = downcall(functions, "C_SetPIN", "LALAL");
+    openSession = downcall(functions, "C_OpenSession", "LLAAA");
+    closeSession = downcall(functions, "C_CloseSession", "L");
+    closeAllSessions = downcall(functions, "C_CloseAllSessions", "L");
+    getSessionInfo = downcall(functions, "C_GetSessionInfo", "LA");
+    sessionCancel = downcall(functions, "C_SessionCancel", "LL");
+    getOperationState = downcall(functions, "C_GetOperationState", "LAA");
+    setOperationState = downcall(functions, "C_SetOperationState", "LALLL");
+    login = downcall(functions, "C_Login", "LLAL");
+    loginUser = downcall(functions, "C_LoginUser", "LLALAL");
+    logout = downcall(functions, "C_Logout", "L");
+    createObject = downcall(functions, "C_CreateObject", "LALA");
+    copyObject = downcall(functions, "C_CopyObject", "LLALA");
+    destroyObject = downcall(functions, "C_DestroyObject", "LL");
+    getObjectSize = downcall(functions, "C_GetObjectSize", "LLA");
+    getAttributeValue = downcall(functions, "C_GetAttributeValue", "LLAL");
+    setAttributeValue = downcall(functions, "C_SetAttributeValue", "LLAL");
+    findObjectsInit = downcall(functions, "C_FindObjectsInit", "LAL");
+    findObjects = downcall(functions, "C_FindObjects", "LALA");
+    findObjectsFinal = downcall(functions, "C_FindObjectsFinal", "L");
+    encryptInit = downcall(functions, "C_EncryptInit", "LAL");
+    encrypt = downcall(functions, "C_Encrypt", "LALAA");
+    encryptUpdate = downcall(functions, "C_EncryptUpdate", "LALAA");
+    encryptFinal = downcall(functions, "C_EncryptFinal", "LAA");
+    decryptInit = downcall(functions, "C_DecryptInit", "LAL");
+    decrypt = downcall(functions, "C_Decrypt", "LALAA");
+    decryptUpdate = downcall(functions, "C_DecryptUpdate", "LALAA");
+    decryptFinal = downcall(functions, "C_DecryptFinal", "LAA");
+    digestInit = downcall(functions, "C_DigestInit", "LA");
+    digest = downcall(functions, "C_Digest", "LALAA");
+    digestUpdate = downcall(functions, "C_DigestUpdate", "LAL");
+    digestKey = downcall(functions, "C_DigestKey", "LL");
+    digestFinal = downcall(functions, "C_DigestFinal", "LAA");
+    signInit = downcall(functions, "C_SignInit", "LAL");
+    sign = downcall(functions, "C_Sign", "LALAA");
+    signUpdate = downcall(functions, "C_SignUpdate", "LAL");
+    signFinal = downcall(functions, "C_SignFinal", "LAA");
+    signRecoverInit = downcall(functions, "C_SignRecoverInit", "LAL");
+    signRecover = downcall(functions, "C_SignRecover", "LALAA");
+    verifyInit = downcall(functions, "C_VerifyInit", "LAL");
+    verify = downcall(functions, "C_Verify", "LALAL");
+    verifyUpdate = downcall(functions, "C_VerifyUpdate", "LAL");
+    verifyFinal = downcall(functions, "C_VerifyFinal", "LAL");
+    verifyRecoverInit = downcall(functions, "C_VerifyRecoverInit", "LAL");
+    verifyRecover = downcall(functions, "C_VerifyRecover", "LALAA");
+    digestEncryptUpdate = downcall(functions, "C_DigestEncryptUpdate", "LALAA");
+    decryptDigestUpdate = downcall(functions, "C_DecryptDigestUpdate", "LALAA");
+    signEncryptUpdate = downcall(functions, "C_SignEncryptUpdate", "LALAA");
+    decryptVerifyUpdate = downcall(functions, "C_DecryptVerifyUpdate", "LALAA");
+    generateKey = downcall(functions, "C_GenerateKey", "LAALA");
+    generateKeyPair = downcall(functions, "C_GenerateKeyPair", "LAALALAA");
+    wrapKey = downcall(functions, "C_WrapKey", "LALLAA");
+    unwrapKey = downcall(functions, "C_UnwrapKey", "LALALALA");
+    deriveKey = downcall(functions, "C_DeriveKey", "LALALA");
+    seedRandom = downcall(functions, "C_SeedRandom", "LAL");
+    generateRandom = downcall(functions, "C_GenerateRandom", "LAL");
+    getFunctionStatus = downcall(functions, "C_GetFunctionStatus", "L");
+    cancelFunction = downcall(functions, "C_CancelFunction", "L");
+    waitForSlotEvent = downcall(functions, "C_WaitForSlotEvent", "LAA");
+  }
+
+  /**
+   * Returns the addresses of the functions of the module: those of CK_FUNCTION_LIST and, if not
+   * contained there, those exported by the module.
+   */
+  private Map<String, MemorySegment> getFunctions(SymbolLookup lookup) {
+    Map<String, MemorySegment> functions = new HashMap<>();
+    Optional<MemorySegment> getFunctionList = lookup.find("C_GetFunctionList");
+    if (getFunctionList.isPresent()) {
+      MethodHandle handle = Linker.nativeLinker().downcallHandle(getFunctionList.get(),
+          FunctionDescriptor.of(ULONG, ValueLayout.ADDRESS));
+      try (Arena arena = Arena.ofConfined()) {
+        MemorySegment ppFunctionList = arena.allocate(POINTER_SIZE, POINTER_SIZE);
+        long rv = WINDOWS ? Integer.toUnsignedLong((int) handle.invokeExact(ppFunctionList))
+            : (long) handle.invokeExact(ppFunctionList);
+        MemorySegment functionList = getPointer(ppFunctionList, 0);
+        if (rv == CKR_OK && functionList.address() != NULL) {
+          functionList = functionList.reinterpret(FUNCTION_LIST_STRUCT.size(), library, null);
+          for (int i = 0; i < FUNCTION_LIST.length; i++) {
+            MemorySegment function = getPointer(functionList, FUNCTION_LIST_STRUCT.offset(i + 1));
+            if (function.address() != NULL) {
+              functions.put(FUNCTION_LIST[i], function.reinterpret(library, null));
+            }
+          }
+        }
+      } catch (RuntimeException | Error ex) {
+        throw ex;
+      } catch (Throwable t) {
+        throw new IllegalStateException("error calling C_GetFunctionList", t);
+      }
+    }
+
+    List<String> names = new ArrayList<>(Arrays.asList(FUNCTION_LIST));
+    Collections.addAll(names, "C_LoginUser", "C_SessionCancel");
+    for (String name : names) {
+      if (!functions.containsKey(name)) {
+        lookup.find(name).ifPresent(function -> functions.put(name, function));
+      }
+    }
+    return functions;
+  }
+
+  /**
+   * Creates the handle of the given function with the parameters as long and CK_RV as long result.
+   *
+   * @param signature the types of the parameters: L for CK_ULONG, A for pointers, and B for CK_BBOOL.
+   * @return the handle, or null if the module does not provide the function.
+   */
+  private static MethodHandle downcall(Map<String, MemorySegment> functions, String name, String signature) {
+    MemorySegment function = functions.get(name);
+    if (function == null) {
+      return null;
+    }
+
+    int n = signature.length();
+    MemoryLayout[] argLayouts = new MemoryLayout[n];
+    for (int i = 0; i < n; i++) {
+      char c = signature.charAt(i);
+      argLayouts[i] = (c == 'A') ? ValueLayout.ADDRESS : (c == 'B') ? ValueLayout.JAVA_BYTE : ULONG;
+    }
+
+    MethodHandle handle = Linker.nativeLinker().downcallHandle(function, FunctionDescriptor.of(ULONG, argLayouts));
+    for (int i = 0; i < n; i++) {
+      if (signature.charAt(i) == 'A') {
+        handle = MethodHandles.filterArguments(handle, i, OF_ADDRESS);
+      }
+    }
+
+    if (WINDOWS) {
+      handle = MethodHandles.filterReturnValue(handle, TO_UNSIGNED_LONG);
+    }
+
+    Class<?>[] params = new Class<?>[n];
+    Arrays.fill(params, long.class);
+    return MethodHandles.explicitCastArguments(handle, MethodType.methodType(long.class, params));
+  }
+
+  public String getPkcs11ModulePath() {
+    return pkcs11ModulePath;
+  }
+
+  /**
+   * Returns the string representation of this object.
+   *
+   * @return The string representation of object
+   */
+  public String toString() {
+    return "Module Name: " + pkcs11ModulePath;
+  }
+
+  /**
+   * Unloads the PKCS#11 module. Once this method is called, this object cannot be used any longer.
+   *
+   * @exception Throwable
+   *              If finalization fails.
+   */
+  public void finalize() throws Throwable {
+    if (library.scope().isAlive()) {
+      library.close();
+    }
+  }
+
+  /**
+   * The output buffers are allocated with the output size hints, if given.
+   *
+   * @return false.
+   */
+  public boolean isDisableBufferPreAllocation() {
+    return false;
+  }
+
+  /**
+   * The output size hints are used to allocate the output buffers.
+   *
+   * @return true.
+   */
+  public boolean isOutputSizeHintSupported() {
+    return true;
+  }
+
+  // general-purpose
+
+  public void C_Initialize(Object pInitArgs, boolean useUtf8) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      long pArgs = NULL;
+      if (pInitArgs instanceof CK_C_INITIALIZE_ARGS) {
+        CK_C_INITIALIZE_ARGS args = (CK_C_INITIALIZE_ARGS) pInitArgs;
+        if (args.CreateMutex != null || args.DestroyMutex != null || args.LockMutex != null
+            || args.UnlockMutex != null || args.pReserved != null) {
+          throw new PKCS11Exception(CKR_ARGUMENTS_BAD);
+        }
+
+        MemorySegment seg = buffer.allocate(INITIALIZE_ARGS);
+        setULong(seg, INITIALIZE_ARGS.offset(4), args.flags);
+        pArgs = seg.address();
+      } else if (pInitArgs != null) {
+        throw new PKCS11Exception(CKR_ARGUMENTS_BAD);
+      }
+
+      check(call(initialize, pArgs));
+    }
+  }
+
+  public void C_Finalize(Object pReserved) throws PKCS11Exception {
+    if (pReserved != null) {
+      throw new PKCS11Exception(CKR_ARGUMENTS_BAD);
+    }
+    check(call(finalize, NULL));
+  }
+
+  public CK_INFO C_GetInfo() throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment seg = buffer.allocate(INFO);
+      check(call(getInfo, seg.address()));
+
+      CK_INFO info = new CK_INFO();
+      info.cryptokiVersion = version(seg, INFO.offset(0));
+      info.manufacturerID = chars(seg, INFO.offset(1), 32);
+      info.flags = getULong(seg, INFO.offset(2));
+      info.libraryDescription = chars(seg, INFO.offset(3), 32);
+      info.libraryVersion = version(seg, INFO.offset(4));
+      return info;
+    }
+  }
+
+  // slot and token management
+
+  public long[] C_GetSlotList(boolean tokenPresent) throws PKCS11Exception {
+    byte bTokenPresent = (byte) (tokenPresent ? 1 : 0);
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      return ulongList(buffer, (pList, pulCount) -> call(getSlotList, bTokenPresent, pList, pulCount));
+    }
+  }
+
+  public CK_SLOT_INFO C_GetSlotInfo(long slotID) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment seg = buffer.allocate(SLOT_INFO);
+      check(call(getSlotInfo, slotID, seg.address()));
+
+      CK_SLOT_INFO info = new CK_SLOT_INFO();
+      info.slotDescription = chars(seg, SLOT_INFO.offset(0), 64);
+      info.manufacturerID = chars(seg, SLOT_INFO.offset(1), 32);
+      info.flags = getULong(seg, SLOT_INFO.offset(2));
+      info.hardwareVersion = version(seg, SLOT_INFO.offset(3));
+      info.firmwareVersion = version(seg, SLOT_INFO.offset(4));
+      return info;
+    }
+  }
+
+  public CK_TOKEN_INFO C_GetTokenInfo(long slotID) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment seg = buffer.allocate(TOKEN_INFO);
+      check(call(getTokenInfo, slotID, seg.address()));
+
+      CK_TOKEN_INFO info = new CK_TOKEN_INFO();
+      info.label = chars(seg, TOKEN_INFO.offset(0), 32);
+      info.manufacturerID = chars(seg, TOKEN_INFO.offset(1), 32);
+      info.model = chars(seg, TOKEN_INFO.offset(2), 16);
+      info.serialNumber = chars(seg, TOKEN_INFO.offset(3), 16);
+      info.flags = getULong(seg, TOKEN_INFO.offset(4));
+      info.ulMaxSessionCount = getULong(seg, TOKEN_INFO.offset(5));
+      info.ulSessionCount = getULong(seg, TOKEN_INFO.offset(6));
+      info.ulMaxRwSessionCount = getULong(seg, TOKEN_INFO.offset(7));
+      info.ulRwSessionCount = getULong(seg, TOKEN_INFO.offset(8));
+      info.ulMaxPinLen = getULong(seg, TOKEN_INFO.offset(9));
+      info.ulMinPinLen = getULong(seg, TOKEN_INFO.offset(10));
+      info.ulTotalPublicMemory = getULong(seg, TOKEN_INFO.offset(11));
+      info.ulFreePublicMemory = getULong(seg, TOKEN_INFO.offset(12));
+      info.ulTotalPrivateMemory = getULong(seg, TOKEN_INFO.offset(13));
+      info.ulFreePrivateMemory = getULong(seg, TOKEN_INFO.offset(14));
+      info.hardwareVersion = version(seg, TOKEN_INFO.offset(15));
+      info.firmwareVersion = version(seg, TOKEN_INFO.offset(16));
+      info.utcTime = chars(seg, TOKEN_INFO.offset(17), 16);
+      return info;
+    }
+  }
+
+  public long[] C_GetMechanismList(long slotID) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      return ulongList(buffer, (pList, pulCount) -> call(getMechanismList, slotID, pList, pulCount));
+    }
+  }
+
+  public CK_MECHANISM_INFO C_GetMechanismInfo(long slotID, long type) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment seg = buffer.allocate(MECHANISM_INFO);
+      check(call(getMechanismInfo, slotID, type, seg.address()));
+
+      CK_MECHANISM_INFO info = new CK_MECHANISM_INFO();
+      info.ulMinKeySize = getULong(seg, MECHANISM_INFO.offset(0));
+      info.ulMaxKeySize = getULong(seg, MECHANISM_INFO.offset(1));
+      info.flags = getULong(seg, MECHANISM_INFO.offset(2));
+      return info;
+    }
+  }
+
+  public void C_InitToken(long slotID, char[] pPin, char[] pLabel, boolean useUtf8) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment pin = copyIn(buffer, pPin, useUtf8);
+      // the label is blank padded to 32 bytes.
+      byte[] labelBytes = encode(pLabel, useUtf8);
+      MemorySegment label = buffer.allocate(Math.max(32, labelBytes.length), 1);
+      label.fill((byte) ' ');
+      MemorySegment.copy(labelBytes, 0, label, ValueLayout.JAVA_BYTE, 0, labelBytes.length);
+      check(call(initToken, slotID, pin.address(), pin.byteSize(), label.address()));
+    }
+  }
+
+  public void C_InitPIN(long hSession, char[] pPin, boolean useUtf8) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment pin = copyIn(buffer, pPin, useUtf8);
+      check(call(initPIN, hSession, pin.address(), pin.byteSize()));
+    }
+  }
+
+  public void C_SetPIN(long hSession, char[] pOldPin, char[] pNewPin, boolean useUtf8) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment oldPin = copyIn(buffer, pOldPin, useUtf8);
+      MemorySegment newPin = copyIn(buffer, pNewPin, useUtf8);
+      check(call(setPIN, hSession, oldPin.address(), oldPin.byteSize(), newPin.address(), newPin.byteSize()));
+    }
+  }
+
+  // session management
+
+  public long C_OpenSession(long slotID, long flags, Object pApplication, CK_NOTIFY Notify)
+      throws PKCS11Exception {
+    if (Notify != null) {
+      throw new PKCS11Exception(CKR_ARGUMENTS_BAD);
+    }
+
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment phSession = buffer.allocateULong();
+      check(call(openSession, slotID, flags, NULL, NULL, phSession.address()));
+      return getULong(phSession, 0);
+    }
+  }
+
+  public void C_CloseSession(long hSession) throws PKCS11Exception {
+    check(call(closeSession, hSession));
+  }
+
+  public void C_CloseAllSessions(long slotID) throws PKCS11Exception {
+    check(call(closeAllSessions, slotID));
+  }
+
+  public CK_SESSION_INFO C_GetSessionInfo(long hSession) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment seg = buffer.allocate(SESSION_INFO);
+      check(call(getSessionInfo, hSession, seg.address()));
+
+      CK_SESSION_INFO info = new CK_SESSION_INFO();
+      info.slotID = getULong(seg, SESSION_INFO.offset(0));
+      info.state = getULong(seg, SESSION_INFO.offset(1));
+      info.flags = getULong(seg, SESSION_INFO.offset(2));
+      info.ulDeviceError = getULong(seg, SESSION_INFO.offset(3));
+      return info;
+    }
+  }
+
+  public void C_SessionCancel(long hSession, long flags) throws PKCS11Exception {
+    check(call(sessionCancel, hSession, flags));
+  }
+
+  public byte[] C_GetOperationState(long hSession) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      return output(buffer, 0, (pOut, pulOutLen) -> call(getOperationState, hSession, pOut, pulOutLen));
+    }
+  }
+
+  public void C_SetOperationState(long hSession, byte[] pOperationState, long hEncryptionKey,
+      long hAuthenticationKey) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment state = copyIn(buffer, pOperationState);
+      check(call(setOperationState, hSession, state.address(), state.byteSize(),
+          hEncryptionKey, hAuthenticationKey));
+    }
+  }
+
+  public void C_Login(long hSession, long userType, char[] pPin, boolean useUtf8) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment pin = copyIn(buffer, pPin, useUtf8);
+      check(call(login, hSession, userType, pin.address(), pin.byteSize()));
+    }
+  }
+
+  public void C_LoginUser(long hSession, long userType, char[] pPin, char[] pUsername, boolean useUtf8)
+      throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment pin = copyIn(buffer, pPin, useUtf8);
+      MemorySegment username = copyIn(buffer, pUsername, useUtf8);
+      check(call(loginUser, hSession, userType, pin.address(), pin.byteSize(),
+          username.address(), username.byteSize()));
+    }
+  }
+
+  public void C_Logout(long hSession) throws PKCS11Exception {
+    check(call(logout, hSession));
+  }
+
+  // object management
+
+  public long C_CreateObject(long hSession, CK_ATTRIBUTE[] pTemplate, boolean useUtf8) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment template = template(buffer, pTemplate, useUtf8);
+      MemorySegment phObject = buffer.allocateULong();
+      check(call(createObject, hSession, template.address(), count(pTemplate), phObject.address()));
+      return getULong(phObject, 0);
+    }
+  }
+
+  public long C_CopyObject(long hSession, long hObject, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+      throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment template = template(buffer, pTemplate, useUtf8);
+      MemorySegment phNewObject = buffer.allocateULong();
+      check(call(copyObject, hSession, hObject, template.address(), count(pTemplate), phNewObject.address()));
+      return getULong(phNewObject, 0);
+    }
+  }
+
+  public void C_DestroyObject(long hSession, long hObject) throws PKCS11Exception {
+    check(call(destroyObject, hSession, hObject));
+  }
+
+  public long C_GetObjectSize(long hSession, long hObject) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment pulSize = buffer.allocateULong();
+      check(call(getObjectSize, hSession, hObject, pulSize.address()));
+      return getULong(pulSize, 0);
+    }
+  }
+
+  /**
+   * Reads the attribute values. The values of fixed size (CK_ULONG, CK_BBOOL and CK_DATE) are read
+   * in the same call as the lengths of the other values, so that a template of such attributes is
+   * read with one call. If the module returns CKR_ATTRIBUTE_SENSITIVE or CKR_ATTRIBUTE_TYPE_INVALID,
+   * the available values are set before the exception is thrown.
+   */
+  public void C_GetAttributeValue(long hSession, long hObject, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+      throws PKCS11Exception {
+    int count = pTemplate.length;
+    if (count == 0) {
+      return;
+    }
+
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      AttrType[] types = new AttrType[count];
+      MemorySegment[] values = new MemorySegment[count];
+      MemorySegment template = buffer.allocate(count * ATTRIBUTE.size(), ULONG_SIZE);
+
+      boolean allFixedSize = true;
+      for (int i = 0; i < count; i++) {
+        long off = i * ATTRIBUTE.size();
+        types[i] = valueType(pTemplate[i].type);
+        setULong(template, off + ATTRIBUTE.offset(0), pTemplate[i].type);
+        long size = fixedSize(types[i]);
+        if (size > 0) {
+          values[i] = buffer.allocate(size, ULONG_SIZE);
+        } else {
+          allFixedSize = false;
+        }
+        setValue(template, off, values[i]);
+      }
+
+      long rv = call(getAttributeValue, hSession, hObject, template.address(), count);
+      if (rv == CKR_BUFFER_TOO_SMALL) {
+        // unexpected size of a value with fixed size, query all sizes.
+        for (int i = 0; i < count; i++) {
+          values[i] = null;
+          setValue(template, i * ATTRIBUTE.size(), null);
+        }
+        allFixedSize = false;
+        rv = call(getAttributeValue, hSession, hObject, template.address(), count);
+      }
+      checkGetAttributeValue(rv);
+
+      if (!allFixedSize) {
+        // read the remaining values whose size is known now.
+        for (int i = 0; i < count; i++) {
+          long off = i * ATTRIBUTE.size();
+          long len = getULong(template, off + ATTRIBUTE.offset(2));
+          if (values[i] == null && len != ULONG_MAX) {
+            values[i] = buffer.allocate(Math.max(1, len), ULONG_SIZE);
+            setValue(template, off, values[i]);
+            setULong(template, off + ATTRIBUTE.offset(2), len);
+          } else {
+            // already read or not available
+            setULong(template, off + ATTRIBUTE.offset(1), NULL);
+            setULong(template, off + ATTRIBUTE.offset(2), 0);
+          }
+        }
+
+        long rv2 = call(getAttributeValue, hSession, hObject, template.address(), count);
+        checkGetAttributeValue(rv2);
+
+        for (int i = 0; i < count; i++) {
+          if (types[i] == AttrType.ATTRIBUTEARRAY && values[i] != null) {
+            long off = i * ATTRIBUTE.size();
+            readNestedTemplate(buffer, hSession, hObject, template.asSlice(off, ATTRIBUTE.size()), values[i]);
+          }
+        }
+      }
+
+      for (int i = 0; i < count; i++) {
+        long off = i * ATTRIBUTE.size();
+        long len = getULong(template, off + ATTRIBUTE.offset(2));
+        pTemplate[i].pValue = (values[i] == null || len == ULONG_MAX) ? null
+            : decodeValue(types[i], values[i], len, useUtf8);
+      }
+
+      if (rv != CKR_OK) {
+        throw new PKCS11Exception(rv);
+      }
+    }
+  }
+
+  /**
+   * Reads the value of an attribute of type CK_ATTRIBUTE_PTR, e.g. CKA_WRAP_TEMPLATE, whose array
+   * contains now the types and lengths of the nested attributes.
+   */
+  private void readNestedTemplate(NativeBuffer buffer, long hSession, long hObject, MemorySegment attribute,
+                                  MemorySegment nested) throws PKCS11Exception {
+    long len = getULong(attribute, ATTRIBUTE.offset(2));
+    if (len == ULONG_MAX) {
+      return;
+    }
+
+    long nestedCount = len / ATTRIBUTE.size();
+    for (long j = 0; j < nestedCount; j++) {
+      long off = j * ATTRIBUTE.size();
+      long nestedLen = getULong(nested, off + ATTRIBUTE.offset(2));
+      if (nestedLen != ULONG_MAX) {
+        setValue(nested, off, buffer.allocate(Math.max(1, nestedLen), ULONG_SIZE));
+      }
+    }
+    checkGetAttributeValue(call(getAttributeValue, hSession, hObject, attribute.address(), 1));
+  }
+
+  private static void checkGetAttributeValue(long rv) throws PKCS11Exception {
+    if (rv != CKR_OK && rv != CKR_ATTRIBUTE_SENSITIVE && rv != CKR_ATTRIBUTE_TYPE_INVALID) {
+      throw new PKCS11Exception(rv);
+    }
+  }
+
+  public void C_SetAttributeValue(long hSession, long hObject, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+      throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment template = template(buffer, pTemplate, useUtf8);
+      check(call(setAttributeValue, hSession, hObject, template.address(), count(pTemplate)));
+    }
+  }
+
+  public void C_FindObjectsInit(long hSession, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+      throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment template = template(buffer, pTemplate, useUtf8);
+      check(call(findObjectsInit, hSession, template.address(), count(pTemplate)));
+    }
+  }
+
+  public long[] C_FindObjects(long hSession, long ulMaxObjectCount) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment objects = buffer.allocate(Math.max(1, ulMaxObjectCount) * ULONG_SIZE, ULONG_SIZE);
+      MemorySegment pulCount = buffer.allocateULong();
+      check(call(findObjects, hSession, objects.address(), ulMaxObjectCount, pulCount.address()));
+      return toULongArray(objects, (int) getULong(pulCount, 0));
+    }
+  }
+
+  public void C_FindObjectsFinal(long hSession) throws PKCS11Exception {
+    check(call(findObjectsFinal, hSession));
+  }
+
+  // encryption and decryption
+
+  public void C_EncryptInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+      throws PKCS11Exception {
+    init(encryptInit, hSession, pMechanism, hKey);
+  }
+
+  public byte[] C_Encrypt(long hSession, byte[] pData) throws PKCS11Exception {
+    return singlePart(encrypt, hSession, pData, 0);
+  }
+
+  public byte[] C_EncryptSingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pData,
+      boolean useUtf8) throws PKCS11Exception {
+    return C_EncryptSingle(hSession, pMechanism, hKey, pData, 0, useUtf8);
+  }
+
+  public byte[] C_EncryptSingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pData,
+      int outLenHint, boolean useUtf8) throws PKCS11Exception {
+    return singlePart(encryptInit, encrypt, hSession, pMechanism, hKey, pData, outLenHint);
+  }
+
+  public byte[] C_EncryptUpdate(long hSession, byte[] pPart) throws PKCS11Exception {
+    return C_EncryptUpdate(hSession, pPart, 0, pPart.length);
+  }
+
+  public byte[] C_EncryptUpdate(long hSession, byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    return update(encryptUpdate, hSession, in, inOfs, inLen);
+  }
+
+  public byte[] C_EncryptUpdate(long hSession, ByteBuffer in) throws PKCS11Exception {
+    return update(encryptUpdate, hSession, in);
+  }
+
+  public byte[] C_EncryptFinal(long hSession) throws PKCS11Exception {
+    return doFinal(encryptFinal, hSession);
+  }
+
+  public byte[] C_Decrypt(long hSession, byte[] pEncryptedData) throws PKCS11Exception {
+    return singlePart(decrypt, hSession, pEncryptedData, 0);
+  }
+
+  public void C_DecryptInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+      throws PKCS11Exception {
+    init(decryptInit, hSession, pMechanism, hKey);
+  }
+
+  public byte[] C_DecryptSingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pEncryptedData,
+      boolean useUtf8) throws PKCS11Exception {
+    return C_DecryptSingle(hSession, pMechanism, hKey, pEncryptedData, 0, useUtf8);
+  }
+
+  public byte[] C_DecryptSingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pEncryptedData,
+      int outLenHint, boolean useUtf8) throws PKCS11Exception {
+    return singlePart(decryptInit, decrypt, hSession, pMechanism, hKey, pEncryptedData, outLenHint);
+  }
+
+  public byte[] C_DecryptUpdate(long hSession, byte[] pEncryptedPart) throws PKCS11Exception {
+    return C_DecryptUpdate(hSession, pEncryptedPart, 0, pEncryptedPart.length);
+  }
+
+  public byte[] C_DecryptUpdate(long hSession, byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    return update(decryptUpdate, hSession, in, inOfs, inLen);
+  }
+
+  public byte[] C_DecryptUpdate(long hSession, ByteBuffer in) throws PKCS11Exception {
+    return update(decryptUpdate, hSession, in);
+  }
+
+  public byte[] C_DecryptFinal(long hSession) throws PKCS11Exception {
+    return doFinal(decryptFinal, hSession);
+  }
+
+  // message digesting
+
+  public void C_DigestInit(long hSession, CK_MECHANISM pMechanism, boolean useUtf8) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      check(call(digestInit, hSession, mechanism(buffer, pMechanism).address()));
+    }
+  }
+
+  public byte[] C_Digest(long hSession, byte[] data) throws PKCS11Exception {
+    return singlePart(digest, hSession, data, 0);
+  }
+
+  public void C_DigestUpdate(long hSession, byte[] pPart) throws PKCS11Exception {
+    C_DigestUpdate(hSession, pPart, 0, pPart.length);
+  }
+
+  public void C_DigestUpdate(long hSession, byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    input(digestUpdate, hSession, in, inOfs, inLen);
+  }
+
+  public void C_DigestUpdate(long hSession, ByteBuffer in) throws PKCS11Exception {
+    input(digestUpdate, hSession, in);
+  }
+
+  public void C_DigestKey(long hSession, long hKey) throws PKCS11Exception {
+    check(call(digestKey, hSession, hKey));
+  }
+
+  public byte[] C_DigestFinal(long hSession) throws PKCS11Exception {
+    return doFinal(digestFinal, hSession);
+  }
+
+  // signing and MACing
+
+  public void C_SignInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+      throws PKCS11Exception {
+    init(signInit, hSession, pMechanism, hKey);
+  }
+
+  public byte[] C_Sign(long hSession, byte[] pData) throws PKCS11Exception {
+    return singlePart(sign, hSession, pData, 0);
+  }
+
+  public byte[] C_SignSingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pData,
+      boolean useUtf8) throws PKCS11Exception {
+    return C_SignSingle(hSession, pMechanism, hKey, pData, 0, useUtf8);
+  }
+
+  public byte[] C_SignSingle(long hSession, CK_MECHANISM pMechanism, long hKey, byte[] pData,
+      int outLenHint, boolean useUtf8) throws PKCS11Exception {
+    return singlePart(signInit, sign, hSession, pMechanism, hKey, pData, outLenHint);
+  }
+
+  public void C_SignUpdate(long hSession, byte[] pPart) throws PKCS11Exception {
+    C_SignUpdate(hSession, pPart, 0, pPart.length);
+  }
+
+  public void C_SignUpdate(long hSession, byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    input(signUpdate, hSession, in, inOfs, inLen);
+  }
+
+  public void C_SignUpdate(long hSession, ByteBuffer in) throws PKCS11Exception {
+    input(signUpdate, hSession, in);
+  }
+
+  public byte[] C_SignFinal(long hSession) throws PKCS11Exception {
+    return doFinal(signFinal, hSession);
+  }
+
+  public void C_SignRecoverInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+      throws PKCS11Exception {
+    init(signRecoverInit, hSession, pMechanism, hKey);
+  }
+
+  public byte[] C_SignRecover(long hSession, byte[] pData) throws PKCS11Exception {
+    return singlePart(signRecover, hSession, pData, 0);
+  }
+
+  // verifying signatures and MACs
+
+  public void C_VerifyInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+      throws PKCS11Exception {
+    init(verifyInit, hSession, pMechanism, hKey);
+  }
+
+  public void C_Verify(long hSession, byte[] pData, byte[] pSignature) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment data = copyIn(buffer, pData);
+      MemorySegment signature = copyIn(buffer, pSignature);
+      check(call(verify, hSession, data.address(), data.byteSize(), signature.address(), signature.byteSize()));
+    }
+  }
+
+  public void C_VerifyUpdate(long hSession, byte[] pPart) throws PKCS11Exception {
+    C_VerifyUpdate(hSession, pPart, 0, pPart.length);
+  }
+
+  public void C_VerifyUpdate(long hSession, byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    input(verifyUpdate, hSession, in, inOfs, inLen);
+  }
+
+  public void C_VerifyUpdate(long hSession, ByteBuffer in) throws PKCS11Exception {
+    input(verifyUpdate, hSession, in);
+  }
+
+  public void C_VerifyFinal(long hSession, byte[] pSignature) throws PKCS11Exception {
+    input(verifyFinal, hSession, pSignature, 0, pSignature.length);
+  }
+
+  public void C_VerifyRecoverInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+      throws PKCS11Exception {
+    init(verifyRecoverInit, hSession, pMechanism, hKey);
+  }
+
+  public byte[] C_VerifyRecover(long hSession, byte[] pSignature) throws PKCS11Exception {
+    return singlePart(verifyRecover, hSession, pSignature, 0);
+  }
+
+  // dual-purpose cryptographic functions
+
+  public byte[] C_DigestEncryptUpdate(long hSession, byte[] pPart) throws PKCS11Exception {
+    return update(digestEncryptUpdate, hSession, pPart, 0, pPart.length);
+  }
+
+  public byte[] C_DecryptDigestUpdate(long hSession, byte[] pEncryptedPart) throws PKCS11Exception {
+    return update(decryptDigestUpdate, hSession, pEncryptedPart, 0, pEncryptedPart.length);
+  }
+
+  public byte[] C_SignEncryptUpdate(long hSession, byte[] pPart) throws PKCS11Exception {
+    return update(signEncryptUpdate, hSession, pPart, 0, pPart.length);
+  }
+
+  public byte[] C_DecryptVerifyUpdate(long hSession, byte[] pEncryptedPart) throws PKCS11Exception {
+    return update(decryptVerifyUpdate, hSession, pEncryptedPart, 0, pEncryptedPart.length);
+  }
+
+  // key management
+
+  public long C_GenerateKey(long hSession, CK_MECHANISM pMechanism, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+      throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment mechanism = mechanism(buffer, pMechanism);
+      MemorySegment template = template(buffer, pTemplate, useUtf8);
+      MemorySegment phKey = buffer.allocateULong();
+      check(call(generateKey, hSession, mechanism.address(), template.address(), count(pTemplate),
+          phKey.address()));
+      return getULong(phKey, 0);
+    }
+  }
+
+  public long[] C_GenerateKeyPair(long hSession, CK_MECHANISM pMechanism, CK_ATTRIBUTE[] pPublicKeyTemplate,
+      CK_ATTRIBUTE[] pPrivateKeyTemplate, boolean useUtf8) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment mechanism = mechanism(buffer, pMechanism);
+      MemorySegment publicKeyTemplate = template(buffer, pPublicKeyTemplate, useUtf8);
+      MemorySegment privateKeyTemplate = template(buffer, pPrivateKeyTemplate, useUtf8);
+      MemorySegment phKeys = buffer.allocate(2 * ULONG_SIZE, ULONG_SIZE);
+      check(call(generateKeyPair, hSession, mechanism.address(),
+          publicKeyTemplate.address(), count(pPublicKeyTemplate),
+          privateKeyTemplate.address(), count(pPrivateKeyTemplate),
+          phKeys.address(), phKeys.address() + ULONG_SIZE));
+      return toULongArray(phKeys, 2);
+    }
+  }
+
+  public byte[] C_WrapKey(long hSession, CK_MECHANISM pMechanism, long hWrappingKey, long hKey, boolean useUtf8)
+      throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      long mechanism = mechanism(buffer, pMechanism).address();
+      return output(buffer, 0,
+          (pOut, pulOutLen) -> call(wrapKey, hSession, mechanism, hWrappingKey, hKey, pOut, pulOutLen));
+    }
+  }
+
+  public long C_UnwrapKey(long hSession, CK_MECHANISM pMechanism, long hUnwrappingKey, byte[] pWrappedKey,
+      CK_ATTRIBUTE[] pTemplate, boolean useUtf8) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment mechanism = mechanism(buffer, pMechanism);
+      MemorySegment wrappedKey = copyIn(buffer, pWrappedKey);
+      MemorySegment template = template(buffer, pTemplate, useUtf8);
+      MemorySegment phKey = buffer.allocateULong();
+      check(call(unwrapKey, hSession, mechanism.address(), hUnwrappingKey,
+          wrappedKey.address(), wrappedKey.byteSize(), template.address(), count(pTemplate), phKey.address()));
+      return getULong(phKey, 0);
+    }
+  }
+
+  public long C_DeriveKey(long hSession, CK_MECHANISM pMechanism, long hBaseKey, CK_ATTRIBUTE[] pTemplate,
+      boolean useUtf8) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment mechanism = mechanism(buffer, pMechanism);
+      MemorySegment template = template(buffer, pTemplate, useUtf8);
+      MemorySegment phKey = buffer.allocateULong();
+      check(call(deriveKey, hSession, mechanism.address(), hBaseKey, template.address(), count(pTemplate),
+          phKey.address()));
+      return getULong(phKey, 0);
+    }
+  }
+
+  // random number generation
+
+  public void C_SeedRandom(long hSession, byte[] pSeed) throws PKCS11Exception {
+    input(seedRandom, hSession, pSeed, 0, pSeed.length);
+  }
+
+  public void C_GenerateRandom(long hSession, byte[] randomData) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment seg = buffer.allocate(Math.max(1, randomData.length), 1);
+      check(call(generateRandom, hSession, seg.address(), randomData.length));
+      MemorySegment.copy(seg, ValueLayout.JAVA_BYTE, 0, randomData, 0, randomData.length);
+    }
+  }
+
+  // parallel function management
+
+  public void C_GetFunctionStatus(long hSession) throws PKCS11Exception {
+    check(call(getFunctionStatus, hSession));
+  }
+
+  public void C_CancelFunction(long hSession) throws PKCS11Exception {
+    check(call(cancelFunction, hSession));
+  }
+
+  public long C_WaitForSlotEvent(long flags, Object pReserved) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment pSlot = buffer.allocateULong();
+      check(call(waitForSlotEvent, flags, pSlot.address(), NULL));
+      return getULong(pSlot, 0);
+    }
+  }
+
+  // message-based functions, not supported.
+
+  public void C_MessageEncryptInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+      throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  public byte[] C_EncryptMessage(long hSession, Object pParameter, byte[] pAssociatedData, byte[] pPlainText,
+      boolean useUtf8) throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  public void C_EncryptMessageBegin(long hSession, Object pParameter, byte[] pAssociatedData, boolean useUtf8)
+      throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  public byte[] C_EncryptMessageNext(long hSession, Object pParameter, byte[] pPlainTextPart, long flags,
+      boolean useUtf8) throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  public void C_MessageEncryptFinal(long hSession) throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  public void C_MessageDecryptInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+      throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  public byte[] C_DecryptMessage(long hSession, Object pParameter, byte[] pAssociatedData, byte[] pCipherText,
+      boolean useUtf8) throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  public void C_DecryptMessageBegin(long hSession, Object pParameter, byte[] pAssociatedData, boolean useUtf8)
+      throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  public byte[] C_DecryptMessageNext(long hSession, Object pParameter, byte[] pCipherTextPart, long flags,
+      boolean useUtf8) throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  public void C_MessageDecryptFinal(long hSession) throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  public void C_MessageSignInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+      throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  public byte[] C_SignMessage(long hSession, Object pParameter, byte[] pData, boolean useUtf8)
+      throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  public void C_SignMessageBegin(long hSession, Object pParameter, boolean useUtf8) throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  public byte[] C_SignMessageNext(long hSession, Object pParameter, byte[] pData, boolean isLastOperation,
+      boolean useUtf8) throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  public void C_MessageSignFinal(long hSession) throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  public void C_MessageVerifyInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+      throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  public void C_VerifyMessage(long hSession, Object pParameter, byte[] pData, byte[] pSignature, boolean useUtf8)
+      throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  public void C_VerifyMessageBegin(long hSession, Object pParameter, boolean useUtf8) throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  public void C_VerifyMessageNext(long hSession, Object pParameter, byte[] pData, byte[] pSignature,
+      boolean useUtf8) throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  public void C_MessageVerifyFinal(long hSession) throws PKCS11Exception {
+    throw new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  // helpers of the operations
+
+  /**
+   * A call with an output buffer given by its address and the address of its length.
+   */
+  @FunctionalInterface
+  private interface OutputCall {
+    long call(long pOut, long pulOutLen) throws PKCS11Exception;
+  }
+
+  private void init(MethodHandle handle, long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      check(call(handle, hSession, mechanism(buffer, pMechanism).address(), hKey));
+    }
+  }
+
+  private byte[] singlePart(MethodHandle handle, long hSession, byte[] in, int outLenHint)
+      throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment data = copyIn(buffer, in);
+      return output(buffer, outLenHint,
+          (pOut, pulOutLen) -> call(handle, hSession, data.address(), data.byteSize(), pOut, pulOutLen));
+    }
+  }
+
+  private byte[] singlePart(MethodHandle initHandle, MethodHandle handle, long hSession, CK_MECHANISM pMechanism,
+                            long hKey, byte[] in, int outLenHint) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      check(call(initHandle, hSession, mechanism(buffer, pMechanism).address(), hKey));
+      MemorySegment data = copyIn(buffer, in);
+      return output(buffer, outLenHint,
+          (pOut, pulOutLen) -> call(handle, hSession, data.address(), data.byteSize(), pOut, pulOutLen));
+    }
+  }
+
+  private byte[] update(MethodHandle handle, long hSession, byte[] in, int inOfs, int inLen)
+      throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment data = copyIn(buffer, in, inOfs, inLen);
+      return output(buffer, inLen + UPDATE_OUTPUT_RESERVE,
+          (pOut, pulOutLen) -> call(handle, hSession, data.address(), inLen, pOut, pulOutLen));
+    }
+  }
+
+  private byte[] update(MethodHandle handle, long hSession, ByteBuffer in) throws PKCS11Exception {
+    int len = in.remaining();
+    if (!in.isDirect()) {
+      byte[] out = in.hasArray() ? update(handle, hSession, in.array(), in.arrayOffset() + in.position(), len)
+          : update(handle, hSession, PKCS11UTIL.getBytes(in, len), 0, len);
+      in.position(in.position() + len);
+      return out;
+    }
+
+    long address = MemorySegment.ofBuffer(in).address();
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      byte[] out = output(buffer, len + UPDATE_OUTPUT_RESERVE,
+          (pOut, pulOutLen) -> call(handle, hSession, address, len, pOut, pulOutLen));
+      in.position(in.position() + len);
+      return out;
+    }
+  }
+
+  private void input(MethodHandle handle, long hSession, byte[] in, int inOfs, int inLen)
+      throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      MemorySegment data = copyIn(buffer, in, inOfs, inLen);
+      check(call(handle, hSession, data.address(), inLen));
+    }
+  }
+
+  private void input(MethodHandle handle, long hSession, ByteBuffer in) throws PKCS11Exception {
+    int len = in.remaining();
+    if (in.isDirect()) {
+      check(call(handle, hSession, MemorySegment.ofBuffer(in).address(), len));
+    } else if (in.hasArray()) {
+      input(handle, hSession, in.array(), in.arrayOffset() + in.position(), len);
+    } else {
+      input(handle, hSession, PKCS11UTIL.getBytes(in, len), 0, len);
+    }
+    in.position(in.position() + len);
+  }
+
+  private byte[] doFinal(MethodHandle handle, long hSession) throws PKCS11Exception {
+    try (NativeBuffer buffer = NativeBuffer.acquire()) {
+      return output(buffer, 0, (pOut, pulOutLen) -> call(handle, hSession, pOut, pulOutLen));
+    }
+  }
+
+  /**
+   * Calls a function with output. With a hint, the output buffer is allocated with the hinted size;
+   * if the module returns CKR_BUFFER_TOO_SMALL, the call is repeated with the size returned by the
+   * module, or if that is not larger, after querying the size. Without hint, the size is queried
+   * first.
+   */
+  private static byte[] output(NativeBuffer buffer, long outLenHint, OutputCall call) throws PKCS11Exception {
+    MemorySegment outLen = buffer.allocateULong();
+    if (outLenHint > 0) {
+      MemorySegment out = buffer.allocate(outLenHint, 1);
+      setULong(outLen, 0, outLenHint);
+      long rv = call.call(out.address(), outLen.address());
+      if (rv == CKR_OK) {
+        return toByteArray(out, getULong(outLen, 0));
+      } else if (rv != CKR_BUFFER_TOO_SMALL) {
+        throw new PKCS11Exception(rv);
+      }
+
+      long requiredLen = getULong(outLen, 0);
+      if (requiredLen > outLenHint && requiredLen <= Integer.MAX_VALUE) {
+        out = buffer.allocate(requiredLen, 1);
+        check(call.call(out.address(), outLen.address()));
+        return toByteArray(out, getULong(outLen, 0));
+      }
+    }
+
+    setULong(outLen, 0, 0);
+    check(call.call(NULL, outLen.address()));
+    // the operation is finished only by a call with output buffer, even if the output is empty.
+    MemorySegment out = buffer.allocate(Math.max(1, getULong(outLen, 0)), 1);
+    check(call.call(out.address(), outLen.address()));
+    return toByteArray(out, getULong(outLen, 0));
+  }
+
+  /**
+   * Reads a list of CK_ULONG, e.g. the slot list, by querying its size first.
+   */
+  private static long[] ulongList(NativeBuffer buffer, OutputCall call) throws PKCS11Exception {
+    MemorySegment pulCount = buffer.allocateULong();
+    while (true) {
+      setULong(pulCount, 0, 0);
+      check(call.call(NULL, pulCount.address()));
+      long count = getULong(pulCount, 0);
+      if (count == 0) {
+        return new long[0];
+      }
+
+      MemorySegment list = buffer.allocate(count * ULONG_SIZE, ULONG_SIZE);
+      long rv = call.call(list.address(), pulCount.address());
+      if (rv == CKR_OK) {
+        return toULongArray(list, (int) getULong(pulCount, 0));
+      } else if (rv != CKR_BUFFER_TOO_SMALL) {
+        throw new PKCS11Exception(rv);
+      }
+      // the list has grown in the meantime
+    }
+  }
+
+  // marshalling
+
+  private static MemorySegment copyIn(NativeBuffer buffer, byte[] bytes) {
+    return (bytes == null) ? MemorySegment.NULL : copyIn(buffer, bytes, 0, bytes.length);
+  }
+
+  private static MemorySegment copyIn(NativeBuffer buffer, byte[] bytes, int ofs, int len) {
+    MemorySegment seg = buffer.allocate(len, 1);
+    MemorySegment.copy(bytes, ofs, seg, ValueLayout.JAVA_BYTE, 0, len);
+    return seg;
+  }
+
+  private static MemorySegment copyIn(NativeBuffer buffer, char[] chars, boolean useUtf8) {
+    if (chars == null) {
+      return MemorySegment.NULL;
+    }
+
+    byte[] bytes = encode(chars, useUtf8);
+    MemorySegment seg = copyIn(buffer, bytes);
+    Arrays.fill(bytes, (byte) 0);
+    return seg;
+  }
+
+  private static byte[] encode(char[] chars, boolean useUtf8) {
+    if (chars == null) {
+      return new byte[0];
+    }
+
+    if (useUtf8) {
+      ByteBuffer bb = StandardCharsets.UTF_8.encode(CharBuffer.wrap(chars));
+      byte[] bytes = new byte[bb.remaining()];
+      bb.get(bytes);
+      if (bb.hasArray()) {
+        Arrays.fill(bb.array(), (byte) 0);
+      }
+      return bytes;
+    } else {
+      byte[] bytes = new byte[chars.length];
+      for (int i = 0; i < chars.length; i++) {
+        bytes[i] = (byte) chars[i];
+      }
+      return bytes;
+    }
+  }
+
+  private static long count(CK_ATTRIBUTE[] template) {
+    return template == null ? 0 : template.length;
+  }
+
+  private static MemorySegment template(NativeBuffer buffer, CK_ATTRIBUTE[] attributes, boolean useUtf8)
+      throws PKCS11Exception {
+    if (attributes == null || attributes.length == 0) {
+      return MemorySegment.NULL;
+    }
+
+    MemorySegment template = buffer.allocate(attributes.length * ATTRIBUTE.size(), ULONG_SIZE);
+    for (int i = 0; i < attributes.length; i++) {
+      long off = i * ATTRIBUTE.size();
+      setULong(template, off + ATTRIBUTE.offset(0), attributes[i].type);
+      setValue(template, off, attributeValue(buffer, attributes[i].pValue, useUtf8));
+    }
+    return template;
+  }
+
+  private static MemorySegment attributeValue(NativeBuffer buffer, Object value, boolean useUtf8)
+      throws PKCS11Exception {
+    if (value == null) {
+      return null;
+    } else if (value instanceof byte[]) {
+      return copyIn(buffer, (byte[]) value);
+    } else if (value instanceof Boolean) {
+      MemorySegment seg = buffer.allocate(1, 1);
+      seg.set(ValueLayout.JAVA_BYTE, 0, (byte) ((Boolean) value ? 1 : 0));
+      return seg;
+    } else if (value instanceof Long) {
+      MemorySegment seg = buffer.allocateULong();
+      setULong(seg, 0, (Long) value);
+      return seg;
+    } else if (value instanceof char[]) {
+      return copyIn(buffer, (char[]) value, useUtf8);
+    } else if (value instanceof CK_DATE) {
+      CK_DATE date = (CK_DATE) value;
+      MemorySegment seg = buffer.allocate(8, 1);
+      copyChars(date.year, seg, 0, 4);
+      copyChars(date.month, seg, 4, 2);
+      copyChars(date.day, seg, 6, 2);
+      return seg;
+    } else if (value instanceof long[]) {
+      long[] longs = (long[]) value;
+      MemorySegment seg = buffer.allocate(Math.max(1, longs.length) * ULONG_SIZE, ULONG_SIZE);
+      for (int i = 0; i < longs.length; i++) {
+        setULong(seg, i * ULONG_SIZE, longs[i]);
+      }
+      return seg.asSlice(0, longs.length * ULONG_SIZE);
+    } else if (value instanceof CK_ATTRIBUTE[]) {
+      CK_ATTRIBUTE[] nested = (CK_ATTRIBUTE[]) value;
+      MemorySegment seg = template(buffer, nested, useUtf8);
+      return seg.address() == NULL ? seg : seg.asSlice(0, nested.length * ATTRIBUTE.size());
+    } else {
+      throw new PKCS11Exception(CKR_ATTRIBUTE_VALUE_INVALID);
+    }
+  }
+
+  private static void copyChars(char[] chars, MemorySegment seg, long offset, int len) {
+    for (int i = 0; i < len; i++) {
+      seg.set(ValueLayout.JAVA_BYTE, offset + i, (byte) (chars != null && i < chars.length ? chars[i] : ' '));
+    }
+  }
+
+  /**
+   * Sets pValue and ulValueLen of the CK_ATTRIBUTE at the given offset, NULL_PTR if value is null.
+   */
+  private static void setValue(MemorySegment template, long off, MemorySegment value) {
+    setPointer(template, off + ATTRIBUTE.offset(1), value == null ? NULL : value.address());
+    setULong(template, off + ATTRIBUTE.offset(2), value == null ? 0 : value.byteSize());
+  }
+
+  private static AttrType valueType(long type) {
+    AttrType attrType = Attribute.getAttributeValueType(type);
+    return attrType == null ? AttrType.BYTEARRAY : attrType;
+  }
+
+  private static long fixedSize(AttrType type) {
+    switch (type) {
+      case BOOLEAN:
+        return 1;
+      case LONG:
+      case MECHANISM:
+        return ULONG_SIZE;
+      case DATE:
+        return 8;
+      default:
+        return -1;
+    }
+  }
+
+  private static Object decodeValue(AttrType type, MemorySegment value, long len, boolean useUtf8) {
+    switch (type) {
+      case BOOLEAN:
+        return len == 0 ? null : value.get(ValueLayout.JAVA_BYTE, 0) != 0;
+      case LONG:
+      case MECHANISM:
+        return len < ULONG_SIZE ? null : getULong(value, 0);
+      case DATE:
+        if (len < 8) {
+          return null;
+        }
+        CK_DATE date = new CK_DATE();
+        date.year = chars(value, 0, 4);
+        date.month = chars(value, 4, 2);
+        date.day = chars(value, 6, 2);
+        return date;
+      case CHARARRAY:
+        byte[] bytes = toByteArray(value, len);
+        return (useUtf8 ? new String(bytes, StandardCharsets.UTF_8)
+            : new String(bytes, StandardCharsets.ISO_8859_1)).toCharArray();
+      case MECHANISMARRAY:
+        return toULongArray(value, (int) (len / ULONG_SIZE));
+      case ATTRIBUTEARRAY:
+        int count = (int) (len / ATTRIBUTE.size());
+        CK_ATTRIBUTE[] nested = new CK_ATTRIBUTE[count];
+        for (int i = 0; i < count; i++) {
+          long off = i * ATTRIBUTE.size();
+          nested[i] = new CK_ATTRIBUTE();
+          nested[i].type = getULong(value, off + ATTRIBUTE.offset(0));
+          MemorySegment pValue = getPointer(value, off + ATTRIBUTE.offset(1));
+          long nestedLen = getULong(value, off + ATTRIBUTE.offset(2));
+          if (pValue.address() != NULL && nestedLen != ULONG_MAX) {
+            nested[i].pValue = decodeValue(valueType(nested[i].type), pValue.reinterpret(nestedLen), nestedLen,
+                useUtf8);
+          }
+        }
+        return nested;
+      default:
+        return toByteArray(value, len);
+    }
+  }
+
+  private static MemorySegment mechanism(NativeBuffer buffer, CK_MECHANISM mechanism) throws PKCS11Exception {
+    MemorySegment seg = buffer.allocate(MECHANISM);
+    setULong(seg, MECHANISM.offset(0), mechanism.mechanism);
+    MemorySegment params = mechanismParameter(buffer, mechanism.pParameter);
+    setPointer(seg, MECHANISM.offset(1), params == null ? NULL : params.address());
+    setULong(seg, MECHANISM.offset(2), params == null ? 0 : params.byteSize());
+    return seg;
+  }
+
+  private static MemorySegment mechanismParameter(NativeBuffer buffer, Object params) throws PKCS11Exception {
+    if (params == null) {
+      return null;
+    } else if (params instanceof byte[]) {
+      return copyIn(buffer, (byte[]) params);
+    } else if (params instanceof Long) {
+      MemorySegment seg = buffer.allocateULong();
+      setULong(seg, 0, (Long) params);
+      return seg;
+    } else if (params instanceof CK_RSA_PKCS_PSS_PARAMS) {
+      CK_RSA_PKCS_PSS_PARAMS p = (CK_RSA_PKCS_PSS_PARAMS) params;
+      MemorySegment seg = buffer.allocate(PSS_PARAMS);
+      setULong(seg, PSS_PARAMS.offset(0), p.hashAlg);
+      setULong(seg, PSS_PARAMS.offset(1), p.mgf);
+      setULong(seg, PSS_PARAMS.offset(2), p.sLen);
+      return seg;
+    } else if (params instanceof CK_RSA_PKCS_OAEP_PARAMS) {
+      CK_RSA_PKCS_OAEP_PARAMS p = (CK_RSA_PKCS_OAEP_PARAMS) params;
+      MemorySegment seg = buffer.allocate(OAEP_PARAMS);
+      setULong(seg, OAEP_PARAMS.offset(0), p.hashAlg);
+      setULong(seg, OAEP_PARAMS.offset(1), p.mgf);
+      setULong(seg, OAEP_PARAMS.offset(2), p.source);
+      setBytes(buffer, seg, OAEP_PARAMS.offset(3), OAEP_PARAMS.offset(4), p.pSourceData);
+      return seg;
+    } else if (params instanceof CK_GCM_PARAMS) {
+      CK_GCM_PARAMS p = (CK_GCM_PARAMS) params;
+      MemorySegment seg = buffer.allocate(GCM_PARAMS);
+      setBytes(buffer, seg, GCM_PARAMS.offset(0), GCM_PARAMS.offset(1), p.pIv);
+      setULong(seg, GCM_PARAMS.offset(2), p.pIv == null ? 0 : p.pIv.length * 8L);
+      setBytes(buffer, seg, GCM_PARAMS.offset(3), GCM_PARAMS.offset(4), p.pAAD);
+      setULong(seg, GCM_PARAMS.offset(5), p.ulTagBits);
+      return seg;
+    } else if (params instanceof CK_CCM_PARAMS) {
+      CK_CCM_PARAMS p = (CK_CCM_PARAMS) params;
+      MemorySegment seg = buffer.allocate(CCM_PARAMS);
+      setULong(seg, CCM_PARAMS.offset(0), p.ulDataLen);
+      setBytes(buffer, seg, CCM_PARAMS.offset(1), CCM_PARAMS.offset(2), p.pNonce);
+      setBytes(buffer, seg, CCM_PARAMS.offset(3), CCM_PARAMS.offset(4), p.pAAD);
+      setULong(seg, CCM_PARAMS.offset(5), p.ulMacLen);
+      return seg;
+    } else if (params instanceof CK_ECDH1_DERIVE_PARAMS) {
+      CK_ECDH1_DERIVE_PARAMS p = (CK_ECDH1_DERIVE_PARAMS) params;
+      MemorySegment seg = buffer.allocate(ECDH1_PARAMS);
+      setULong(seg, ECDH1_PARAMS.offset(0), p.kdf);
+      setBytes(buffer, seg, ECDH1_PARAMS.offset(2), ECDH1_PARAMS.offset(1), p.pSharedData);
+      setBytes(buffer, seg, ECDH1_PARAMS.offset(4), ECDH1_PARAMS.offset(3), p.pPublicData);
+      return seg;
+    } else if (params instanceof CK_KEY_DERIVATION_STRING_DATA) {
+      CK_KEY_DERIVATION_STRING_DATA p = (CK_KEY_DERIVATION_STRING_DATA) params;
+      MemorySegment seg = buffer.allocate(STRING_DATA_PARAMS);
+      setBytes(buffer, seg, STRING_DATA_PARAMS.offset(0), STRING_DATA_PARAMS.offset(1), p.pData);
+      return seg;
+    } else if (params instanceof CK_AES_CBC_ENCRYPT_DATA_PARAMS) {
+      CK_AES_CBC_ENCRYPT_DATA_PARAMS p = (CK_AES_CBC_ENCRYPT_DATA_PARAMS) params;
+      if (p.iv == null || p.iv.length != 16) {
+        throw new PKCS11Exception(CKR_MECHANISM_PARAM_INVALID);
+      }
+      MemorySegment seg = buffer.allocate(AES_CBC_ENCRYPT_DATA_PARAMS);
+      MemorySegment.copy(p.iv, 0, seg, ValueLayout.JAVA_BYTE, AES_CBC_ENCRYPT_DATA_PARAMS.offset(0), 16);
+      setBytes(buffer, seg, AES_CBC_ENCRYPT_DATA_PARAMS.offset(1), AES_CBC_ENCRYPT_DATA_PARAMS.offset(2), p.pData);
+      return seg;
+    } else {
+      throw new PKCS11Exception(CKR_MECHANISM_PARAM_INVALID);
+    }
+  }
+
+  /**
+   * Copies the bytes into the buffer and sets the pointer and length fields of the given structure.
+   */
+  private static void setBytes(NativeBuffer buffer, MemorySegment struct, long pointerOffset, long lenOffset,
+                               byte[] bytes) {
+    MemorySegment seg = copyIn(buffer, bytes);
+    setPointer(struct, pointerOffset, seg.address());
+    setULong(struct, lenOffset, seg.byteSize());
+  }
+
+  // access to native memory
+
+  private static long getULong(MemorySegment seg, long offset) {
+    return WINDOWS ? Integer.toUnsignedLong(seg.get(ValueLayout.JAVA_INT_UNALIGNED, offset))
+        : seg.get(ValueLayout.JAVA_LONG_UNALIGNED, offset);
+  }
+
+  private static void setULong(MemorySegment seg, long offset, long value) {
+    if (WINDOWS) {
+      seg.set(ValueLayout.JAVA_INT_UNALIGNED, offset, (int) value);
+    } else {
+      seg.set(ValueLayout.JAVA_LONG_UNALIGNED, offset, value);
+    }
+  }
+
+  private static MemorySegment getPointer(MemorySegment seg, long offset) {
+    return seg.get(ValueLayout.ADDRESS_UNALIGNED, offset);
+  }
+
+  private static void setPointer(MemorySegment seg, long offset, long address) {
+    seg.set(ValueLayout.ADDRESS_UNALIGNED, offset, MemorySegment.ofAddress(address));
+  }
+
+  private static long[] toULongArray(MemorySegment seg, int count) {
+    long[] values = new long[count];
+    for (int i = 0; i < count; i++) {
+      values[i] = getULong(seg, i * ULONG_SIZE);
+    }
+    return values;
+  }
+
+  private static byte[] toByteArray(MemorySegment seg, long len) {
+    byte[] bytes = new byte[(int) len];
+    MemorySegment.copy(seg, ValueLayout.JAVA_BYTE, 0, bytes, 0, bytes.length);
+    return bytes;
+  }
+
+  /**
+   * Reads the blank padded characters, converting each byte to a character.
+   */
+  private static char[] chars(MemorySegment seg, long offset, int len) {
+    char[] chars = new char[len];
+    for (int i = 0; i < len; i++) {
+      chars[i] = (char) (seg.get(ValueLayout.JAVA_BYTE, offset + i) & 0xFF);
+    }
+    return chars;
+  }
+
+  private static CK_VERSION version(MemorySegment seg, long offset) {
+    CK_VERSION version = new CK_VERSION();
+    version.major = seg.get(ValueLayout.JAVA_BYTE, offset);
+    version.minor = seg.get(ValueLayout.JAVA_BYTE, offset + 1);
+    return version;
+  }
+
+  // calls
+
+  private static void check(long rv) throws PKCS11Exception {
+    if (rv != CKR_OK) {
+      throw new PKCS11Exception(rv);
+    }
+  }
+
+  private static PKCS11Exception notSupported(MethodHandle handle) {
+    return handle == null ? new PKCS11Exception(CKR_FUNCTION_NOT_SUPPORTED) : null;
+  }
+
+  private static RuntimeException rethrow(Throwable t) {
+    if (t instanceof RuntimeException) {
+      return (RuntimeException) t;
+    } else if (t instanceof Error) {
+      throw (Error) t;
+    } else {
+      return new IllegalStateException(t);
+    }
+  }
+
+  private static long call(MethodHandle handle, long a0) throws PKCS11Exception {
+    if (handle == null) {
+      throw notSupported(null);
+    }
+
+    try {
+      return (long) handle.invokeExact(a0);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  private static long call(MethodHandle handle, long a0, long a1) throws PKCS11Exception {
+    if (handle == null) {
+      throw notSupported(null);
+    }
+
+    try {
+      return (long) handle.invokeExact(a0, a1);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  private static long call(MethodHandle handle, long a0, long a1, long a2) throws PKCS11Exception {
+    if (handle == null) {
+      throw notSupported(null);
+    }
+
+    try {
+      return (long) handle.invokeExact(a0, a1, a2);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  private static long call(MethodHandle handle, long a0, long a1, long a2, long a3) throws PKCS11Exception {
+    if (handle == null) {
+      throw notSupported(null);
+    }
+
+    try {
+      return (long) handle.invokeExact(a0, a1, a2, a3);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  private static long call(MethodHandle handle, long a0, long a1, long a2, long a3, long a4)
+      throws PKCS11Exception {
+    if (handle == null) {
+      throw notSupported(null);
+    }
+
+    try {
+      return (long) handle.invokeExact(a0, a1, a2, a3, a4);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  private static long call(MethodHandle handle, long a0, long a1, long a2, long a3, long a4, long a5)
+      throws PKCS11Exception {
+    if (handle == null) {
+      throw notSupported(null);
+    }
+
+    try {
+      return (long) handle.invokeExact(a0, a1, a2, a3, a4, a5);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  private static long call(MethodHandle handle, long a0, long a1, long a2, long a3, long a4, long a5,
+                           long a6, long a7) throws PKCS11Exception {
+    if (handle == null) {
+      throw notSupported(null);
+    }
+
+    try {
+      return (long) handle.invokeExact(a0, a1, a2, a3, a4, a5, a6, a7);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  /**
+   * Offsets of the fields of a C structure, aligned as by the compiler of the PKCS#11 module.
+   */
+  private static final class CStruct {
+
+    private long[] offsets = new long[0];
+
+    private long size;
+
+    private long alignment = 1;
+
+    CStruct ulong() {
+      return field(ULONG_SIZE, ULONG_SIZE);
+    }
+
+    CStruct pointer() {
+      return field(POINTER_SIZE, POINTER_SIZE);
+    }
+
+    CStruct bytes(int len) {
+      return field(len, 1);
+    }
+
+    private CStruct field(long fieldSize, long fieldAlignment) {
+      long align = WINDOWS ? 1 : fieldAlignment;
+      long offset = (size + align - 1) / align * align;
+      offsets = Arrays.copyOf(offsets, offsets.length + 1);
+      offsets[offsets.length - 1] = offset;
+      size = offset + fieldSize;
+      alignment = Math.max(alignment, align);
+      return this;
+    }
+
+    long offset(int index) {
+      return offsets[index];
+    }
+
+    long size() {
+      return (size + alignment - 1) / alignment * alignment;
+    }
+
+  }
+
+  /**
+   * Native memory for the arguments of a call. The buffers are pooled, each one is used by one call
+   * at a time, and grows up to {@link #MAX_RETAINED_SIZE} bytes if a call needs more memory.
+   */
+  private static final class NativeBuffer implements SegmentAllocator, AutoCloseable {
+
+    private static final long INITIAL_SIZE = 4096;
+
+    private static final long MAX_RETAINED_SIZE = 64 * 1024;
+
+    private static final ConcurrentLinkedDeque<NativeBuffer> POOL = new ConcurrentLinkedDeque<>();
+
+    private MemorySegment segment = Arena.ofAuto().allocate(INITIAL_SIZE, 16);
+
+    private long used;
+
+    /**
+     * Memory of the current call which does not fit in {@link #segment}, null if none.
+     */
+    private Arena overflow;
+
+    private List<MemorySegment> overflowSegments;
+
+    private long overflowSize;
+
+    static NativeBuffer acquire() {
+      NativeBuffer buffer = POOL.pollFirst();
+      return buffer == null ? new NativeBuffer() : buffer;
+    }
+
+    @Override
+    public MemorySegment allocate(long byteSize, long byteAlignment) {
+      long offset = (used + byteAlignment - 1) & -byteAlignment;
+      if (offset + byteSize <= segment.byteSize()) {
+        used = offset + byteSize;
+        return segment.asSlice(offset, byteSize);
+      }
+
+      if (overflow == null) {
+        overflow = Arena.ofConfined();
+        overflowSegments = new ArrayList<>(2);
+      }
+      MemorySegment seg = overflow.allocate(byteSize, byteAlignment);
+      overflowSegments.add(seg);
+      overflowSize += byteSize + byteAlignment;
+      return seg;
+    }
+
+    MemorySegment allocate(CStruct struct) {
+      return allocate(struct.size(), ULONG_SIZE).fill((byte) 0);
+    }
+
+    MemorySegment allocateULong() {
+      return allocate(ULONG_SIZE, ULONG_SIZE);
+    }
+
+    /**
+     * Zeroes the used memory, and returns this buffer to the pool.
+     */
+    @Override
+    public void close() {
+      segment.asSlice(0, used).fill((byte) 0);
+      used = 0;
+
+      if (overflow != null) {
+        for (MemorySegment seg : overflowSegments) {
+          seg.fill((byte) 0);
+        }
+        overflow.close();
+        overflow = null;
+        overflowSegments = null;
+
+        long newSize = Math.min(MAX_RETAINED_SIZE, Long.highestOneBit(segment.byteSize() + overflowSize) << 1);
+        if (newSize > segment.byteSize()) {
+          segment = Arena.ofAuto().allocate(newSize, 16);
+        }
+        overflowSize = 0;
+      }
+
+      POOL.offerFirst(this);
+    }
+
+  }
+
+}
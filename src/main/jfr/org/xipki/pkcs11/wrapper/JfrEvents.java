@@ -0,0 +1,220 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package org.xipki.pkcs11.wrapper;
+
+import jdk.jfr.*;
+
+/**
+ * The JDK Flight Recorder events. This class is compiled only if the build runs on JDK 11 or above,
+ * since the jdk.jfr API is not part of the Java 8 class library. It is loaded by
+ * {@link PKCS11Events} if JFR is available in the running JVM.
+ *
+ * @author Lijun Liao (xipki)
+ */
+final class JfrEvents implements PKCS11Events.Recorder {
+
+  @Name("org.xipki.pkcs11.Call")
+  @Label("PKCS#11 Call")
+  @Category("PKCS#11")
+  @Description("Call of a PKCS#11 function by a session")
+  @StackTrace(false)
+  static final class CallEvent extends Event {
+
+    @Label("Function")
+    String function;
+
+    @Label("Session Handle")
+    long sessionHandle;
+
+    @Label("Mechanism")
+    String mechanism;
+
+    @Label("Key Handle")
+    long keyHandle;
+
+    @Label("Bytes In")
+    @DataAmount
+    long bytesIn;
+
+    @Label("Bytes Out")
+    @DataAmount
+    long bytesOut;
+
+    @Label("Return Code")
+    String ckr;
+
+  }
+
+  @Name("org.xipki.pkcs11.SessionBorrow")
+  @Label("PKCS#11 Session Borrow")
+  @Category("PKCS#11")
+  @Description("Borrowing a session from the pool of a PKCS11Token, including the waiting time")
+  static final class SessionBorrowEvent extends Event {
+
+    @Label("Token")
+    String token;
+
+    @Label("Operation Class")
+    String operationClass;
+
+    @Label("Success")
+    boolean success;
+
+  }
+
+  @Name("org.xipki.pkcs11.SessionOpen")
+  @Label("PKCS#11 Session Open")
+  @Category("PKCS#11")
+  @Description("Opening of a new session")
+  static final class SessionOpenEvent extends Event {
+
+    @Label("Slot ID")
+    long slotId;
+
+    @Label("Session Handle")
+    long sessionHandle;
+
+    @Label("Success")
+    boolean success;
+
+  }
+
+  @Name("org.xipki.pkcs11.Login")
+  @Label("PKCS#11 Login")
+  @Category("PKCS#11")
+  @Description("Login of a session by a PKCS11Token")
+  static final class LoginEvent extends Event {
+
+    @Label("Session Handle")
+    long sessionHandle;
+
+    @Label("User Type")
+    String userType;
+
+    @Label("Re-Login")
+    boolean relogin;
+
+    @Label("Success")
+    boolean success;
+
+  }
+
+  JfrEvents() {
+  }
+
+  @Override
+  public boolean isCallEnabled() {
+    return new CallEvent().isEnabled();
+  }
+
+  @Override
+  public boolean isSessionBorrowEnabled() {
+    return new SessionBorrowEvent().isEnabled();
+  }
+
+  @Override
+  public boolean isSessionOpenEnabled() {
+    return new SessionOpenEvent().isEnabled();
+  }
+
+  @Override
+  public boolean isLoginEnabled() {
+    return new LoginEvent().isEnabled();
+  }
+
+  @Override
+  public Object beginCall(String function, long sessionHandle) {
+    CallEvent event = new CallEvent();
+    event.function = function;
+    event.sessionHandle = sessionHandle;
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public void setCallMechanism(Object event, String mechanism) {
+    ((CallEvent) event).mechanism = mechanism;
+  }
+
+  @Override
+  public void setCallKeyHandle(Object event, long keyHandle) {
+    ((CallEvent) event).keyHandle = keyHandle;
+  }
+
+  @Override
+  public void addCallBytes(Object event, long bytesIn, long bytesOut) {
+    CallEvent e = (CallEvent) event;
+    e.bytesIn += bytesIn;
+    e.bytesOut += bytesOut;
+  }
+
+  @Override
+  public void commitCall(Object event, String ckr) {
+    CallEvent e = (CallEvent) event;
+    e.end();
+    if (e.shouldCommit()) {
+      e.ckr = ckr;
+      e.commit();
+    }
+  }
+
+  @Override
+  public Object beginSessionBorrow() {
+    SessionBorrowEvent event = new SessionBorrowEvent();
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public void commitSessionBorrow(Object event, String token, String operationClass, boolean success) {
+    SessionBorrowEvent e = (SessionBorrowEvent) event;
+    e.end();
+    if (e.shouldCommit()) {
+      e.token = token;
+      e.operationClass = operationClass;
+      e.success = success;
+      e.commit();
+    }
+  }
+
+  @Override
+  public Object beginSessionOpen() {
+    SessionOpenEvent event = new SessionOpenEvent();
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public void commitSessionOpen(Object event, long slotId, long sessionHandle, boolean success) {
+    SessionOpenEvent e = (SessionOpenEvent) event;
+    e.end();
+    if (e.shouldCommit()) {
+      e.slotId = slotId;
+      e.sessionHandle = sessionHandle;
+      e.success = success;
+      e.commit();
+    }
+  }
+
+  @Override
+  public Object beginLogin() {
+    LoginEvent event = new LoginEvent();
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public void commitLogin(Object event, long sessionHandle, String userType, boolean relogin, boolean success) {
+    LoginEvent e = (LoginEvent) event;
+    e.end();
+    if (e.shouldCommit()) {
+      e.sessionHandle = sessionHandle;
+      e.userType = userType;
+      e.relogin = relogin;
+      e.success = success;
+      e.commit();
+    }
+  }
+
+}
@@ -0,0 +1,168 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package test.pkcs11.wrapper;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.pkcs11.wrapper.AttributeVector;
+import org.xipki.pkcs11.wrapper.PKCS11Module;
+import org.xipki.pkcs11.wrapper.PKCS11Token;
+import org.xipki.pkcs11.wrapper.TokenException;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.xipki.pkcs11.wrapper.PKCS11Constants.*;
+
+public class AttributeCacheTest {
+
+  private final AtomicInteger reads = new AtomicInteger();
+
+  private PKCS11Token newToken(int maxObjects) throws TokenException {
+    PKCS11Module module = StubPKCS11.newModule((objectHandle, type) -> {
+      reads.incrementAndGet();
+      return type == CKA_LABEL ? ("label-" + objectHandle).toCharArray()
+          : type == CKA_ID ? new byte[]{(byte) objectHandle}
+          : type == CKA_VALUE ? new byte[]{1, 2, 3} : null;
+    });
+    PKCS11Token token = new PKCS11Token(module.getSlotList(true)[0].getToken(), false,
+        "1234".toCharArray(), 1);
+    token.setAttributeCache(maxObjects);
+    return token;
+  }
+
+  @Test
+  public void testHit() throws TokenException {
+    PKCS11Token token = newToken(10);
+    Assert.assertEquals("label", "label-1", token.getAttrValues(1, CKA_LABEL, CKA_ID).label());
+    int readsAfterMiss = reads.get();
+
+    AttributeVector attrs = token.getAttrValues(1, CKA_LABEL, CKA_ID);
+    Assert.assertEquals("label", "label-1", attrs.label());
+    Assert.assertArrayEquals("id", new byte[]{1}, attrs.id());
+    Assert.assertEquals("reads", readsAfterMiss, reads.get());
+    Assert.assertEquals("hits", 2, token.getAttributeCacheHits());
+    Assert.assertEquals("misses", 2, token.getAttributeCacheMisses());
+  }
+
+  @Test
+  public void testLruEviction() throws TokenException {
+    PKCS11Token token = newToken(2);
+    token.getAttrValues(1, CKA_LABEL);
+    token.getAttrValues(2, CKA_LABEL);
+    // object 1 becomes the most recently used
+    token.getAttrValues(1, CKA_LABEL);
+    token.getAttrValues(3, CKA_LABEL);
+
+    Assert.assertEquals("size", 2, token.getAttributeCacheSize());
+    Assert.assertEquals("evictions", 1, token.getAttributeCacheEvictions());
+
+    int readsBefore = reads.get();
+    token.getAttrValues(1, CKA_LABEL);
+    token.getAttrValues(3, CKA_LABEL);
+    Assert.assertEquals("reads of cached objects", readsBefore, reads.get());
+
+    token.getAttrValues(2, CKA_LABEL);
+    Assert.assertEquals("reads of evicted object", readsBefore + 1, reads.get());
+  }
+
+  @Test
+  public void testNotCacheable() throws TokenException {
+    PKCS11Token token = newToken(10);
+    token.getAttrValues(1, CKA_VALUE);
+    int readsBefore = reads.get();
+    Assert.assertArrayEquals("value", new byte[]{1, 2, 3}, token.getAttrValues(1, CKA_VALUE).value());
+    Assert.assertEquals("reads", readsBefore + 1, reads.get());
+    Assert.assertEquals("size", 0, token.getAttributeCacheSize());
+  }
+
+  @Test
+  public void testCopyInCopyOut() throws TokenException {
+    PKCS11Token token = newToken(10);
+    byte[] id = token.getAttrValues(1, CKA_ID).id();
+    id[0] = 99;
+
+    byte[] id2 = token.getAttrValues(1, CKA_ID).id();
+    Assert.assertArrayEquals("cached id", new byte[]{1}, id2);
+    id2[0] = 99;
+    Assert.assertArrayEquals("cached id", new byte[]{1}, token.getAttrValues(1, CKA_ID).id());
+  }
+
+  @Test
+  public void testDestroyObject() throws TokenException {
+    PKCS11Token token = newToken(10);
+    token.getAttrValues(1, CKA_LABEL);
+    token.destroyObject(1);
+    Assert.assertEquals("size", 0, token.getAttributeCacheSize());
+  }
+
+  @Test
+  public void testSetAttributeValues() throws TokenException {
+    PKCS11Token token = newToken(10);
+    token.getAttrValues(1, CKA_LABEL);
+    token.getAttrValues(2, CKA_LABEL);
+    token.setAttributeValues(1, new AttributeVector().label("new"));
+    Assert.assertEquals("size", 1, token.getAttributeCacheSize());
+
+    int readsBefore = reads.get();
+    token.getAttrValues(1, CKA_LABEL);
+    Assert.assertEquals("reads of modified object", readsBefore + 1, reads.get());
+  }
+
+  @Test
+  public void testLogout() throws TokenException {
+    PKCS11Token token = newToken(10);
+    token.getAttrValues(1, CKA_LABEL);
+    token.getAttrValues(2, CKA_LABEL);
+    token.logout();
+    Assert.assertEquals("size", 0, token.getAttributeCacheSize());
+  }
+
+  @Test
+  public void testUpdateDuringRead() throws Exception {
+    AtomicReference<String> label = new AtomicReference<>("old");
+    AtomicReference<PKCS11Token> tokenRef = new AtomicReference<>();
+    AtomicBoolean updateDuringRead = new AtomicBoolean();
+    AtomicReference<Throwable> updateError = new AtomicReference<>();
+
+    PKCS11Module module = StubPKCS11.newModule((objectHandle, type) -> {
+      if (type != CKA_LABEL) {
+        return null;
+      }
+
+      char[] value = label.get().toCharArray();
+      if (updateDuringRead.compareAndSet(true, false)) {
+        // another thread updates the object after the value has been read from the device.
+        Thread updater = new Thread(() -> {
+          try {
+            label.set("new");
+            tokenRef.get().setAttributeValues(objectHandle, new AttributeVector().label("new"));
+          } catch (Throwable t) {
+            updateError.set(t);
+          }
+        });
+        updater.start();
+        try {
+          updater.join();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return value;
+    });
+
+    PKCS11Token token = new PKCS11Token(module.getSlotList(true)[0].getToken(), false,
+        "1234".toCharArray(), 2);
+    token.setAttributeCache(10);
+    tokenRef.set(token);
+
+    updateDuringRead.set(true);
+    Assert.assertEquals("label read before the update", "old", token.getAttrValues(1, CKA_LABEL).label());
+    Assert.assertNull("update error", updateError.get());
+    Assert.assertEquals("size", 0, token.getAttributeCacheSize());
+    Assert.assertEquals("label", "new", token.getAttrValues(1, CKA_LABEL).label());
+  }
+
+}
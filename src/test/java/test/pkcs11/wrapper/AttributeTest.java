@@ -0,0 +1,149 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package test.pkcs11.wrapper;
+
+import iaik.pkcs.pkcs11.wrapper.CK_ATTRIBUTE;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.pkcs11.wrapper.AttributeVector;
+import org.xipki.pkcs11.wrapper.Functions;
+import org.xipki.pkcs11.wrapper.PKCS11Module;
+import org.xipki.pkcs11.wrapper.PKCS11Token;
+import org.xipki.pkcs11.wrapper.TokenException;
+import org.xipki.pkcs11.wrapper.attrs.Attribute;
+import org.xipki.pkcs11.wrapper.attrs.ByteArrayAttribute;
+import org.xipki.pkcs11.wrapper.attrs.LongAttribute;
+
+import java.math.BigInteger;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.xipki.pkcs11.wrapper.PKCS11Constants.*;
+
+public class AttributeTest {
+
+  private static LongAttribute newLongAttribute(long rawValue) {
+    CK_ATTRIBUTE ckAttr = new CK_ATTRIBUTE();
+    ckAttr.type = CKA_KEY_TYPE;
+    ckAttr.pValue = rawValue;
+    return (LongAttribute) Attribute.getInstance(CKA_KEY_TYPE).ckAttribute(ckAttr);
+  }
+
+  @Test
+  public void testLazyConversion() {
+    AtomicInteger conversions = new AtomicInteger();
+    LongAttribute attr = newLongAttribute(CKK_VENDOR_DEFINED + 1);
+    attr.convertValue(v -> {
+      conversions.incrementAndGet();
+      return CKK_EC;
+    });
+
+    Assert.assertEquals("conversions before access", 0, conversions.get());
+    Assert.assertEquals("raw value", CKK_VENDOR_DEFINED + 1, ((Long) attr.getRawValue()).longValue());
+    Assert.assertEquals("value", CKK_EC, attr.getValue().longValue());
+    Assert.assertEquals("value", CKK_EC, attr.getValue().longValue());
+    Assert.assertEquals("conversions", 1, conversions.get());
+    Assert.assertEquals("raw value after conversion", CKK_VENDOR_DEFINED + 1,
+        ((Long) attr.getRawValue()).longValue());
+  }
+
+  @Test
+  public void testReplacedValueIsNotConverted() {
+    LongAttribute attr = newLongAttribute(CKK_VENDOR_DEFINED + 1);
+    attr.convertValue(v -> CKK_EC);
+    attr.longValue(CKK_RSA);
+    Assert.assertEquals("value", CKK_RSA, attr.getValue().longValue());
+    Assert.assertEquals("raw value", CKK_RSA, ((Long) attr.getRawValue()).longValue());
+  }
+
+  @Test
+  public void testFailedConversionStaysPending() {
+    AtomicInteger calls = new AtomicInteger();
+    LongAttribute attr = newLongAttribute(CKK_VENDOR_DEFINED + 1);
+    attr.convertValue(v -> {
+      if (calls.incrementAndGet() == 1) {
+        throw new IllegalStateException("conversion failed");
+      }
+      return CKK_EC;
+    });
+
+    Assert.assertThrows(IllegalStateException.class, attr::getValue);
+    Assert.assertEquals("value after retry", CKK_EC, attr.getValue().longValue());
+  }
+
+  @Test
+  public void testConcurrentConversion() throws Exception {
+    int threads = 8;
+    AtomicInteger conversions = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      for (int round = 0; round < 100; round++) {
+        LongAttribute attr = newLongAttribute(CKK_VENDOR_DEFINED + 1);
+        attr.convertValue(v -> {
+          conversions.incrementAndGet();
+          return CKK_EC;
+        });
+
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        @SuppressWarnings("unchecked")
+        Future<Long>[] futures = new Future[threads];
+        for (int i = 0; i < threads; i++) {
+          futures[i] = executor.submit(() -> {
+            ready.countDown();
+            go.await();
+            return attr.getValue();
+          });
+        }
+
+        ready.await();
+        go.countDown();
+        for (Future<Long> future : futures) {
+          Assert.assertEquals("value", CKK_EC, future.get().longValue());
+        }
+        Assert.assertEquals("conversions", round + 1, conversions.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testDecodedValueIsMemoized() {
+    ByteArrayAttribute attr = (ByteArrayAttribute) Attribute.getInstance(CKA_MODULUS, new byte[]{1, 0});
+    BigInteger value = attr.getBigIntValue();
+    Assert.assertEquals("decoded value", BigInteger.valueOf(256), value);
+    Assert.assertSame("memoized", value, attr.getBigIntValue());
+
+    attr.byteArrayValue(new byte[]{2});
+    Assert.assertEquals("decoded value after replacement", BigInteger.valueOf(2), attr.getBigIntValue());
+  }
+
+  @Test
+  public void testEcPointConvertedEagerly() throws TokenException {
+    byte[] ecParams = Functions.decodeHex("06082a8648ce3d030107"); // secp256r1
+    byte[] coreEcPoint = new byte[65];
+    coreEcPoint[0] = 4;
+    coreEcPoint[64] = 1;
+    // the EC point wrapped in an ASN.1 octet string
+    byte[] ecPoint = new byte[2 + coreEcPoint.length];
+    ecPoint[0] = 4;
+    ecPoint[1] = (byte) coreEcPoint.length;
+    System.arraycopy(coreEcPoint, 0, ecPoint, 2, coreEcPoint.length);
+
+    PKCS11Module module = StubPKCS11.newModule((objectHandle, type) ->
+        type == CKA_EC_PARAMS ? ecParams : type == CKA_EC_POINT ? ecPoint : null);
+    PKCS11Token token = new PKCS11Token(module.getSlotList(true)[0].getToken(), false,
+        "1234".toCharArray(), 1);
+
+    AttributeVector attrs = token.getAttrValues(1, CKA_EC_PARAMS, CKA_EC_POINT);
+    Attribute ecPointAttr = attrs.getAttribute(CKA_EC_POINT);
+    Assert.assertArrayEquals("converted before access", coreEcPoint, (byte[]) ecPointAttr.getRawValue());
+    Assert.assertArrayEquals("EC point", coreEcPoint, attrs.ecPoint());
+  }
+
+}
@@ -0,0 +1,86 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package test.pkcs11.wrapper;
+
+import iaik.pkcs.pkcs11.wrapper.CK_ATTRIBUTE;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.pkcs11.wrapper.AttributeVector;
+import org.xipki.pkcs11.wrapper.attrs.Attribute;
+
+import java.util.List;
+
+import static org.xipki.pkcs11.wrapper.PKCS11Constants.*;
+
+public class AttributeVectorTest {
+
+  private static long[] types(List<Attribute> attrs) {
+    long[] types = new long[attrs.size()];
+    for (int i = 0; i < types.length; i++) {
+      types[i] = attrs.get(i).getType();
+    }
+    return types;
+  }
+
+  @Test
+  public void testInsertionOrder() {
+    AttributeVector attrs = new AttributeVector().label("key").class_(CKO_SECRET_KEY).token(true);
+    Assert.assertEquals("size", 3, attrs.size());
+    Assert.assertArrayEquals("order", new long[]{CKA_LABEL, CKA_CLASS, CKA_TOKEN}, types(attrs.snapshot()));
+  }
+
+  @Test
+  public void testReplace() {
+    AttributeVector attrs = new AttributeVector().label("key-1").class_(CKO_SECRET_KEY).token(true);
+    attrs.label("key-2");
+    Assert.assertEquals("size", 3, attrs.size());
+    Assert.assertArrayEquals("order", new long[]{CKA_LABEL, CKA_CLASS, CKA_TOKEN}, types(attrs.snapshot()));
+    Assert.assertEquals("label", "key-2", attrs.label());
+  }
+
+  @Test
+  public void testGrow() {
+    AttributeVector attrs = new AttributeVector();
+    int n = 100;
+    for (int i = 0; i < n; i++) {
+      attrs.attr(Attribute.getInstance(CKA_VENDOR_DEFINED + i, new byte[]{(byte) i}));
+    }
+    // replace after growing
+    attrs.attr(CKA_VENDOR_DEFINED + 50, new byte[]{1, 2});
+
+    Assert.assertEquals("size", n, attrs.size());
+    List<Attribute> snapshot = attrs.snapshot();
+    for (int i = 0; i < n; i++) {
+      Assert.assertEquals("type at " + i, CKA_VENDOR_DEFINED + i, snapshot.get(i).getType());
+      byte[] expected = i == 50 ? new byte[]{1, 2} : new byte[]{(byte) i};
+      Assert.assertArrayEquals("value " + i, expected, attrs.getByteArrayAttrValue(CKA_VENDOR_DEFINED + i));
+    }
+    Assert.assertNull("absent", attrs.getAttribute(CKA_VENDOR_DEFINED + n));
+  }
+
+  @Test
+  public void testSnapshot() {
+    AttributeVector attrs = new AttributeVector().label("key-1").token(true);
+    List<Attribute> snapshot = attrs.snapshot();
+
+    attrs.label("key-2").private_(true);
+    Assert.assertEquals("snapshot size", 2, snapshot.size());
+    Assert.assertArrayEquals("snapshot order", new long[]{CKA_LABEL, CKA_TOKEN}, types(snapshot));
+    Assert.assertEquals("snapshot label", "key-1", snapshot.get(0).getValue());
+
+    Assert.assertThrows(UnsupportedOperationException.class, () -> snapshot.remove(0));
+  }
+
+  @Test
+  public void testToCkAttributes() {
+    AttributeVector attrs = new AttributeVector().label("key").token(true);
+    attrs.attr(Attribute.getInstance(CKA_ID).present(false));
+
+    CK_ATTRIBUTE[] ckAttrs = attrs.toCkAttributes();
+    Assert.assertEquals("count", 2, ckAttrs.length);
+    Assert.assertEquals("type 0", CKA_LABEL, ckAttrs[0].type);
+    Assert.assertEquals("type 1", CKA_TOKEN, ckAttrs[1].type);
+  }
+
+}
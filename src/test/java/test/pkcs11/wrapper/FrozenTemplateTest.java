@@ -0,0 +1,39 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package test.pkcs11.wrapper;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.pkcs11.wrapper.AttributeVector;
+import org.xipki.pkcs11.wrapper.FrozenTemplate;
+
+import static org.xipki.pkcs11.wrapper.PKCS11Constants.*;
+
+public class FrozenTemplateTest {
+
+  @Test
+  public void testToStringKeepsSource() {
+    AttributeVector template = AttributeVector.newAESSecretKey().valueLen(16).value(new byte[16]).label("key-1");
+    FrozenTemplate frozen = template.freeze(StubPKCS11.newModule());
+
+    String text = frozen.toString();
+    Assert.assertTrue(text, text.startsWith("Frozen "));
+    Assert.assertTrue(text, text.contains("<Value is sensitive>"));
+    Assert.assertTrue(text, text.contains("key-1"));
+    Assert.assertTrue(text, text.contains("CKK_AES"));
+    Assert.assertSame("computed once", text, frozen.toString());
+
+    Assert.assertFalse("source marked as sensitive", template.getAttribute(CKA_VALUE).isSensitive());
+  }
+
+  @Test
+  public void testIndependentOfSource() {
+    AttributeVector template = AttributeVector.newAESSecretKey().label("key-1");
+    FrozenTemplate frozen = template.freeze(StubPKCS11.newModule());
+    template.label("key-2");
+    Assert.assertTrue(frozen.toString(), frozen.toString().contains("key-1"));
+    Assert.assertFalse(frozen.toString(), frozen.toString().contains("key-2"));
+  }
+
+}
@@ -0,0 +1,78 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package test.pkcs11.wrapper;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.pkcs11.wrapper.LongMap;
+
+public class LongMapTest {
+
+  @Test
+  public void testPutGet() {
+    LongMap<String> map = new LongMap<>();
+    Assert.assertTrue("empty", map.isEmpty());
+    Assert.assertNull("put new", map.put(5, "five"));
+    Assert.assertEquals("put existing", "five", map.put(5, "FIVE"));
+    Assert.assertEquals("size", 1, map.size());
+    Assert.assertEquals("get", "FIVE", map.get(5));
+    Assert.assertNull("get absent", map.get(6));
+    Assert.assertEquals("default", "six", map.getOrDefault(6, "six"));
+    Assert.assertTrue("contains", map.containsKey(5));
+    Assert.assertFalse("contains absent", map.containsKey(6));
+    Assert.assertThrows(NullPointerException.class, () -> map.put(7, null));
+  }
+
+  @Test
+  public void testRehash() {
+    LongMap<Long> map = new LongMap<>(1);
+    int n = 1000;
+    for (long i = 0; i < n; i++) {
+      // keys with the same lower bits, and negative keys
+      long key = (i << 32) | 0x80000000L;
+      map.put(key, i);
+      map.put(-key, -i);
+    }
+
+    Assert.assertEquals("size", 2 * n, map.size());
+    for (long i = 0; i < n; i++) {
+      long key = (i << 32) | 0x80000000L;
+      Assert.assertEquals("value of " + key, i, map.get(key).longValue());
+      Assert.assertEquals("value of " + -key, -i, map.get(-key).longValue());
+    }
+  }
+
+  @Test
+  public void testKeys() {
+    LongMap<String> map = new LongMap<>();
+    long[] keys = {42, -1, 0x80000000L, 7, Long.MIN_VALUE, 0};
+    for (long key : keys) {
+      map.put(key, "v");
+    }
+    Assert.assertArrayEquals("keys", new long[]{Long.MIN_VALUE, -1, 0, 7, 42, 0x80000000L}, map.keys());
+    Assert.assertArrayEquals("no keys", new long[0], new LongMap<String>().keys());
+  }
+
+  @Test
+  public void testCopy() {
+    LongMap<String> map = new LongMap<>();
+    map.put(1, "one");
+    map.put(2, "two");
+
+    LongMap<String> copy = map.copy();
+    copy.put(2, "TWO");
+    copy.put(3, "three");
+    map.put(4, "four");
+
+    Assert.assertEquals("size", 3, map.size());
+    Assert.assertEquals("value", "two", map.get(2));
+    Assert.assertNull("added to copy", map.get(3));
+
+    Assert.assertEquals("copy size", 3, copy.size());
+    Assert.assertEquals("copy value", "TWO", copy.get(2));
+    Assert.assertEquals("copy value", "one", copy.get(1));
+    Assert.assertNull("added to source", copy.get(4));
+  }
+
+}
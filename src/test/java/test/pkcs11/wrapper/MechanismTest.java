@@ -0,0 +1,69 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package test.pkcs11.wrapper;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.pkcs11.wrapper.Mechanism;
+import org.xipki.pkcs11.wrapper.PKCS11Module;
+import org.xipki.pkcs11.wrapper.params.GCM_MESSAGE_PARAMS;
+import org.xipki.pkcs11.wrapper.params.MechanismParams;
+
+import static org.xipki.pkcs11.wrapper.PKCS11Constants.*;
+
+public class MechanismTest {
+
+  private static class ModuleAwareParams extends MechanismParams {
+
+    ModuleAwareParams(long params) {
+      super(params);
+    }
+
+    PKCS11Module getModule() {
+      return module;
+    }
+
+  }
+
+  @Test
+  public void testBind() {
+    PKCS11Module module = StubPKCS11.newModule();
+    Mechanism mechanism = new Mechanism(CKM_SHA256_HMAC_GENERAL, new MechanismParams(16));
+    Assert.assertFalse("unbound", mechanism.isBound());
+
+    Mechanism bound = mechanism.bind(module);
+    Assert.assertTrue("bound", bound.isBound());
+    Assert.assertFalse("source still unbound", mechanism.isBound());
+    Assert.assertNotSame("bound copy", mechanism, bound);
+    Assert.assertEquals("mechanism code", CKM_SHA256_HMAC_GENERAL, bound.getMechanismCode());
+    Assert.assertSame("parameters", mechanism.getParameters(), bound.getParameters());
+    Assert.assertSame("bind to the same module", bound, bound.bind(module));
+
+    Mechanism rebound = bound.bind(StubPKCS11.newModule());
+    Assert.assertTrue("rebound", rebound.isBound());
+    Assert.assertNotSame("bind to another module", bound, rebound);
+  }
+
+  @Test
+  public void testBindKeepsSharedParameters() {
+    ModuleAwareParams params = new ModuleAwareParams(16);
+    Mechanism mechanism = new Mechanism(CKM_SHA256_HMAC_GENERAL, params);
+    mechanism.bind(StubPKCS11.newModule());
+    Assert.assertNull("module of the shared parameters", params.getModule());
+  }
+
+  @Test
+  public void testBindMessageParams() {
+    Mechanism mechanism = new Mechanism(CKM_AES_GCM,
+        new GCM_MESSAGE_PARAMS(new byte[12], 0, CKG_NO_GENERATE, new byte[16]));
+    Assert.assertThrows(IllegalArgumentException.class, () -> mechanism.bind(StubPKCS11.newModule()));
+  }
+
+  @Test
+  public void testSetModuleOfBound() {
+    Mechanism bound = new Mechanism(CKM_SHA256).bind(StubPKCS11.newModule());
+    Assert.assertThrows(IllegalArgumentException.class, () -> bound.setModule(StubPKCS11.newModule()));
+  }
+
+}
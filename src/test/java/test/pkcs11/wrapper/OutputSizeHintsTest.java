@@ -0,0 +1,94 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package test.pkcs11.wrapper;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.pkcs11.wrapper.Mechanism;
+import org.xipki.pkcs11.wrapper.PKCS11Module;
+import org.xipki.pkcs11.wrapper.PKCS11Token;
+import org.xipki.pkcs11.wrapper.TokenException;
+import org.xipki.pkcs11.wrapper.params.GCM_PARAMS;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.xipki.pkcs11.wrapper.PKCS11Constants.*;
+
+public class OutputSizeHintsTest {
+
+  private static final long KEY = 1;
+
+  private final List<Integer> hints = new CopyOnWriteArrayList<>();
+
+  private final AtomicInteger modulusReads = new AtomicInteger();
+
+  private PKCS11Token newToken(boolean hintSupported) throws TokenException {
+    PKCS11Module module = StubPKCS11.newModule((objectHandle, type) -> {
+      if (type != CKA_MODULUS) {
+        return null;
+      }
+      modulusReads.incrementAndGet();
+      byte[] modulus = new byte[256];
+      modulus[0] = (byte) 0x80;
+      return modulus;
+    }, hintSupported ? hints : null);
+    return new PKCS11Token(module.getSlotList(true)[0].getToken(), false, "1234".toCharArray(), 1);
+  }
+
+  @Test
+  public void testMac() throws TokenException {
+    newToken(true).sign(new Mechanism(CKM_SHA256_HMAC), KEY, new byte[100]);
+    Assert.assertEquals("hints", Collections.singletonList(32), hints);
+  }
+
+  @Test
+  public void testPadding() throws TokenException {
+    PKCS11Token token = newToken(true);
+    token.encrypt(new Mechanism(CKM_AES_CBC_PAD), KEY, new byte[20]);
+    token.encrypt(new Mechanism(CKM_AES_CBC_PAD), KEY, new byte[32]);
+    token.decrypt(new Mechanism(CKM_AES_CBC_PAD), KEY, new byte[32]);
+    Assert.assertEquals("hints", Arrays.asList(32, 48, 32), hints);
+  }
+
+  @Test
+  public void testGcm() throws TokenException {
+    PKCS11Token token = newToken(true);
+    Mechanism mechanism = new Mechanism(CKM_AES_GCM, new GCM_PARAMS(new byte[12], null, 128));
+    token.encrypt(mechanism, KEY, new byte[10]);
+    token.decrypt(mechanism, KEY, new byte[26]);
+    Assert.assertEquals("hints", Arrays.asList(26, 10), hints);
+  }
+
+  @Test
+  public void testRsaWithAttributeCache() throws TokenException {
+    PKCS11Token token = newToken(true);
+    token.setAttributeCache(10);
+    token.sign(new Mechanism(CKM_SHA256_RSA_PKCS), KEY, new byte[100]);
+    token.sign(new Mechanism(CKM_SHA256_RSA_PKCS), KEY, new byte[100]);
+    Assert.assertEquals("hints", Arrays.asList(256, 256), hints);
+    Assert.assertEquals("modulus reads", 1, modulusReads.get());
+  }
+
+  @Test
+  public void testRsaWithoutAttributeCache() throws TokenException {
+    // the key size is neither cached nor known from the mechanism info.
+    newToken(true).sign(new Mechanism(CKM_SHA256_RSA_PKCS), KEY, new byte[100]);
+    Assert.assertEquals("hints", Collections.singletonList(0), hints);
+    Assert.assertEquals("modulus reads", 0, modulusReads.get());
+  }
+
+  @Test
+  public void testNotSupported() throws TokenException {
+    PKCS11Token token = newToken(false);
+    token.setAttributeCache(10);
+    token.sign(new Mechanism(CKM_SHA256_RSA_PKCS), KEY, new byte[100]);
+    Assert.assertEquals("modulus reads", 0, modulusReads.get());
+    Assert.assertTrue("hints", hints.isEmpty());
+  }
+
+}
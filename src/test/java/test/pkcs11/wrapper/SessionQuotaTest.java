@@ -0,0 +1,100 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package test.pkcs11.wrapper;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.pkcs11.wrapper.PKCS11Module;
+import org.xipki.pkcs11.wrapper.PKCS11Token;
+import org.xipki.pkcs11.wrapper.PKCS11Token.OperationClass;
+import org.xipki.pkcs11.wrapper.TokenException;
+import org.xipki.pkcs11.wrapper.TokenLease;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class SessionQuotaTest {
+
+  private static final OperationClass CLASS = OperationClass.KEY_GENERATION;
+
+  private static PKCS11Token newToken() throws TokenException {
+    PKCS11Module module = StubPKCS11.newModule();
+    return new PKCS11Token(module.getSlotList(true)[0].getToken(), false, "1234".toCharArray(), 4);
+  }
+
+  private static void assertBlocked(Future<TokenLease> lease) throws Exception {
+    try {
+      lease.get(200, TimeUnit.MILLISECONDS);
+      Assert.fail("lease shall wait for the quota");
+    } catch (TimeoutException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testLowerQuotaWithBorrowedSessions() throws Exception {
+    PKCS11Token token = newToken();
+    token.setSessionQuota(CLASS, 2);
+    TokenLease lease1 = token.lease(CLASS);
+    TokenLease lease2 = token.lease(CLASS);
+
+    token.setSessionQuota(CLASS, 1);
+    lease1.close();
+    Assert.assertEquals("sessions in use", 1, token.getSessionsInUse(CLASS));
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<TokenLease> lease3 = executor.submit(() -> token.lease(CLASS));
+      // one session is still in use, which exhausts the new quota.
+      assertBlocked(lease3);
+
+      lease2.close();
+      lease3.get(5, TimeUnit.SECONDS).close();
+    } finally {
+      executor.shutdownNow();
+    }
+
+    Assert.assertEquals("sessions in use", 0, token.getSessionsInUse(CLASS));
+    Assert.assertEquals("quota", 1, token.getSessionQuota(CLASS));
+  }
+
+  @Test
+  public void testLimitQuotaWithBorrowedSessions() throws Exception {
+    PKCS11Token token = newToken();
+    // sessions borrowed while the class is not limited count for the later quota.
+    TokenLease lease1 = token.lease(CLASS);
+    TokenLease lease2 = token.lease(CLASS);
+    token.setSessionQuota(CLASS, 2);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<TokenLease> lease3 = executor.submit(() -> token.lease(CLASS));
+      assertBlocked(lease3);
+
+      // raising the quota releases the waiting borrower.
+      token.setSessionQuota(CLASS, 3);
+      lease3.get(5, TimeUnit.SECONDS).close();
+    } finally {
+      executor.shutdownNow();
+    }
+
+    lease1.close();
+    lease2.close();
+
+    // no limitation again
+    token.setSessionQuota(CLASS, 0);
+    TokenLease[] leases = new TokenLease[4];
+    for (int i = 0; i < leases.length; i++) {
+      leases[i] = token.lease(CLASS);
+    }
+    for (TokenLease lease : leases) {
+      lease.close();
+    }
+    Assert.assertEquals("quota", 4, token.getSessionQuota(CLASS));
+  }
+
+}
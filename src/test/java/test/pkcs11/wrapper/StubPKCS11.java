@@ -0,0 +1,152 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package test.pkcs11.wrapper;
+
+import iaik.pkcs.pkcs11.wrapper.*;
+import org.xipki.pkcs11.wrapper.PKCS11Module;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.xipki.pkcs11.wrapper.PKCS11Constants.*;
+
+/**
+ * {@link PKCS11} implementation with one slot, whose functions return immediately. Used to measure
+ * the overhead of the wrapper, e.g. of the session pool, without the latency of a device, and to
+ * test the wrapper without device.
+ */
+public final class StubPKCS11 {
+
+  /**
+   * Provides the attribute values returned by C_GetAttributeValue.
+   */
+  public interface AttributeSource {
+
+    /**
+     * Returns the value of an attribute.
+     *
+     * @param objectHandle the object handle.
+     * @param type the attribute type.
+     * @return the value of the attribute, null if the object has no such attribute.
+     */
+    Object getValue(long objectHandle, long type);
+
+  }
+
+  private StubPKCS11() {
+  }
+
+  public static PKCS11Module newModule() {
+    return newModule((objectHandle, type) -> null);
+  }
+
+  public static PKCS11Module newModule(AttributeSource attributes) {
+    return newModule(attributes, null);
+  }
+
+  /**
+   * Creates a module which supports output size hints if outputSizeHints is not null.
+   *
+   * @param attributes the source of the attribute values.
+   * @param outputSizeHints receives the output size hints of C_SignSingle, C_EncryptSingle and
+   *        C_DecryptSingle, may be null.
+   * @return the module.
+   */
+  public static PKCS11Module newModule(AttributeSource attributes, List<Integer> outputSizeHints) {
+    return new PKCS11Module(newInstance(attributes, outputSizeHints), "stub") {
+    };
+  }
+
+  private static PKCS11 newInstance(AttributeSource attributes, List<Integer> outputSizeHints) {
+    AtomicLong sessionHandles = new AtomicLong();
+    return (PKCS11) Proxy.newProxyInstance(StubPKCS11.class.getClassLoader(), new Class[]{PKCS11.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "C_GetSlotList":
+              return new long[]{1};
+            case "C_GetInfo":
+              return newInfo();
+            case "C_GetSlotInfo":
+              return newSlotInfo();
+            case "C_GetTokenInfo":
+              return newTokenInfo(sessionHandles.get());
+            case "C_GetMechanismList":
+              return new long[0];
+            case "C_OpenSession":
+              return sessionHandles.incrementAndGet();
+            case "C_GetAttributeValue":
+              for (CK_ATTRIBUTE attr : (CK_ATTRIBUTE[]) args[2]) {
+                attr.pValue = attributes.getValue((long) args[1], attr.type);
+              }
+              return null;
+            case "isOutputSizeHintSupported":
+              return outputSizeHints != null;
+            case "C_SignSingle":
+            case "C_EncryptSingle":
+            case "C_DecryptSingle":
+              int outLenHint = (args.length == 6) ? (int) args[4] : 0;
+              if (outputSizeHints != null) {
+                outputSizeHints.add(outLenHint);
+              }
+              return new byte[outLenHint];
+            case "C_GetSessionInfo": {
+              CK_SESSION_INFO info = new CK_SESSION_INFO();
+              info.state = CKS_RW_USER_FUNCTIONS;
+              return info;
+            }
+            case "toString":
+              return "StubPKCS11";
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            case "equals":
+              return proxy == args[0];
+            default:
+              Class<?> returnType = method.getReturnType();
+              return returnType == long.class ? (Object) 0L
+                  : returnType == int.class ? (Object) 0
+                  : returnType == boolean.class ? (Object) false : null;
+          }
+        });
+  }
+
+  private static CK_INFO newInfo() {
+    CK_INFO info = new CK_INFO();
+    info.cryptokiVersion = newVersion();
+    info.libraryVersion = newVersion();
+    info.manufacturerID = "stub".toCharArray();
+    info.libraryDescription = "stub".toCharArray();
+    return info;
+  }
+
+  private static CK_SLOT_INFO newSlotInfo() {
+    CK_SLOT_INFO info = new CK_SLOT_INFO();
+    info.slotDescription = "stub".toCharArray();
+    info.manufacturerID = "stub".toCharArray();
+    info.flags = CKF_TOKEN_PRESENT;
+    info.hardwareVersion = newVersion();
+    info.firmwareVersion = newVersion();
+    return info;
+  }
+
+  private static CK_TOKEN_INFO newTokenInfo(long sessionCount) {
+    CK_TOKEN_INFO info = new CK_TOKEN_INFO();
+    info.label = "stub".toCharArray();
+    info.manufacturerID = "stub".toCharArray();
+    info.model = "stub".toCharArray();
+    info.serialNumber = "1".toCharArray();
+    info.utcTime = new char[16];
+    info.hardwareVersion = newVersion();
+    info.firmwareVersion = newVersion();
+    info.ulMaxSessionCount = 0; // no limitation
+    info.ulSessionCount = sessionCount;
+    info.flags = CKF_LOGIN_REQUIRED;
+    return info;
+  }
+
+  private static CK_VERSION newVersion() {
+    return new CK_VERSION();
+  }
+
+}
@@ -0,0 +1,92 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package test.pkcs11.wrapper.speed;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.pkcs11.wrapper.AttributeVector;
+import org.xipki.util.BenchmarkExecutor;
+
+import java.math.BigInteger;
+
+import static org.xipki.pkcs11.wrapper.PKCS11Constants.*;
+
+/**
+ * AttributeVector speed test: construction of a template, conversion to CK_ATTRIBUTE[] and access
+ * via the typed getters. No PKCS#11 device is required.
+ */
+public class AttributeVectorSpeed {
+
+  private static final String DURATION = System.getProperty("speed.duration", "3s");
+
+  private static final int THREADS = 2;
+
+  private static final byte[] ID = new byte[20];
+
+  private static final BigInteger MODULUS = BigInteger.ONE.shiftLeft(2047);
+
+  private enum Case {
+    CONSTRUCT, TO_CK_ATTRIBUTES, GET
+  }
+
+  private static AttributeVector newTemplate() {
+    return AttributeVector.newRSAPublicKey().token(true).private_(false).id(ID).label("speed-test")
+        .verify(true).encrypt(true).wrap(false).derive(false).modifiable(false)
+        .modulus(MODULUS).publicExponent(BigInteger.valueOf(65537)).startDate(null).endDate(null)
+        .label("speed-test-2");
+  }
+
+  private static class AttributeVectorExecutor extends BenchmarkExecutor {
+
+    private final Case testCase;
+
+    private final AttributeVector template = newTemplate();
+
+    public class MyRunnable implements Runnable {
+
+      @Override
+      public void run() {
+        while (!stop()) {
+          boolean ok;
+          switch (testCase) {
+            case CONSTRUCT:
+              ok = newTemplate().keyType() != null;
+              break;
+            case TO_CK_ATTRIBUTES:
+              ok = template.toCkAttributes().length > 0;
+              break;
+            default:
+              ok = template.class_() == CKO_PUBLIC_KEY && template.keyType() == CKK_RSA
+                  && template.modulus() != null && template.label() != null && template.verify();
+          }
+          account(1, ok ? 0 : 1);
+        }
+      }
+
+    }
+
+    public AttributeVectorExecutor(Case testCase) {
+      super("AttributeVector Speed (" + testCase + ")");
+      this.testCase = testCase;
+    }
+
+    @Override
+    protected Runnable getTester() {
+      return new MyRunnable();
+    }
+
+  }
+
+  @Test
+  public void main() {
+    for (Case testCase : Case.values()) {
+      BenchmarkExecutor executor = new AttributeVectorExecutor(testCase);
+      executor.setThreads(THREADS);
+      executor.setDuration(DURATION);
+      executor.execute();
+      Assert.assertEquals("AttributeVector speed", 0, executor.getErrorAccount());
+    }
+  }
+
+}
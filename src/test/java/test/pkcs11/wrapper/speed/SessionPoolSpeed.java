@@ -0,0 +1,95 @@
+// Copyright (c) 2022 xipki. All rights reserved.
+// License Apache License 2.0
+
+package test.pkcs11.wrapper.speed;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.pkcs11.wrapper.PKCS11Module;
+import org.xipki.pkcs11.wrapper.PKCS11Token;
+import org.xipki.pkcs11.wrapper.PKCS11Token.OperationClass;
+import org.xipki.pkcs11.wrapper.TokenException;
+import org.xipki.pkcs11.wrapper.TokenLease;
+import org.xipki.util.BenchmarkExecutor;
+import test.pkcs11.wrapper.StubPKCS11;
+
+/**
+ * Session pool contention speed test against {@link StubPKCS11}, whose functions return
+ * immediately, so that the overhead of the session pool dominates. Each operation either only
+ * borrows and returns a session, or additionally executes a no-op round trip (C_GenerateRandom).
+ * The test is executed with increasing number of threads to show how the throughput scales.
+ * No PKCS#11 device is required.
+ */
+public class SessionPoolSpeed {
+
+  private static final String DURATION = System.getProperty("speed.duration", "3s");
+
+  private static final int MAX_SESSIONS = 8;
+
+  private enum Case {
+    BORROW_REQUITE, ROUND_TRIP
+  }
+
+  private static class SessionPoolExecutor extends BenchmarkExecutor {
+
+    private final PKCS11Token token;
+
+    private final Case testCase;
+
+    public class MyRunnable implements Runnable {
+
+      @Override
+      public void run() {
+        while (!stop()) {
+          try {
+            if (testCase == Case.BORROW_REQUITE) {
+              try (TokenLease lease = token.lease(OperationClass.OTHER)) {
+                // borrow and requite only
+              }
+            } else {
+              token.generateRandom(1);
+            }
+            account(1, 0);
+          } catch (Throwable th) {
+            System.err.println(th.getMessage());
+            account(1, 1);
+          }
+        }
+      }
+
+    }
+
+    public SessionPoolExecutor(PKCS11Token token, Case testCase, int threads) {
+      super("Session Pool Speed (" + testCase + ", " + threads + " threads)");
+      this.token = token;
+      this.testCase = testCase;
+    }
+
+    @Override
+    protected Runnable getTester() {
+      return new MyRunnable();
+    }
+
+  }
+
+  @Test
+  public void main() throws TokenException {
+    PKCS11Module module = StubPKCS11.newModule();
+    PKCS11Token token = new PKCS11Token(module.getSlotList(true)[0].getToken(), false,
+        "1234".toCharArray(), MAX_SESSIONS);
+    try {
+      for (Case testCase : Case.values()) {
+        for (int threads = 1; threads <= 64; threads *= 4) {
+          BenchmarkExecutor executor = new SessionPoolExecutor(token, testCase, threads);
+          executor.setThreads(threads);
+          executor.setDuration(DURATION);
+          executor.execute();
+          Assert.assertEquals("Session pool speed", 0, executor.getErrorAccount());
+        }
+      }
+    } finally {
+      token.closeAllSessions();
+    }
+  }
+
+}